@@ -25,6 +25,7 @@ import java.io.InputStreamReader;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
+import java.util.Vector;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -34,6 +35,9 @@ import org.apache.velocity.app.Velocity;
 
 import org.coderebels.tsaenode.core.INode;
 import org.coderebels.tsaenode.core.TSAEnode;
+import org.coderebels.tsaenode.core.common.Page;
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.operation.Operation;
 import org.coderebels.tsaenode.core.sync.Peer;
 
 
@@ -43,6 +47,7 @@ import org.coderebels.tsaenode.core.sync.Peer;
 public class Main {
 
   private static Logger logger = LogManager.getLogger( Main.class.getName() );
+  private static final int PAGE_SIZE = 50;
 
   
   public static void main(String[] args) {
@@ -52,6 +57,7 @@ public class Main {
 
   private Timer scheduler;
   private Simulation simulation;
+  private BufferedReader console = new BufferedReader( new InputStreamReader(System.in) );
 
 
   public Main() {}
@@ -157,8 +163,7 @@ public class Main {
   }
 
   private String read() throws Exception {
-    BufferedReader reader = new BufferedReader( new InputStreamReader(System.in) );
-    return reader.readLine();
+    return console.readLine();
   }
 
   private String readFilename() throws Exception {
@@ -166,6 +171,34 @@ public class Main {
     return read();
   }
 
+  private List<String> readFilenames() throws Exception {
+    System.out.println("Enter the absolute path of each file, one per line (empty line to finish):");
+
+    List<String> files = new Vector<String>();
+    String file = read();
+
+    while (file != null && !file.isEmpty()) {
+      files.add( file );
+      file = read();
+    }
+
+    return files;
+  }
+
+  private String readFilter(String filter) throws Exception {
+    System.out.println( String.format("Enter the %s to filter by (empty line for any):", filter) );
+
+    String value = read();
+    return (value == null || value.isEmpty()) ? null : value;
+  }
+
+  private boolean readMore() throws Exception {
+    System.out.println( "Press Enter to show more, or q to stop:" );
+
+    String answer = read();
+    return answer != null && !answer.trim().equalsIgnoreCase( "q" );
+  }
+
   private boolean evaluateAction(int action, INode node) throws Exception {
     boolean exit = false;
 
@@ -205,6 +238,12 @@ public class Main {
         exit = true;
         break;
 
+      case 11: addFiles( node );
+        break;
+
+      case 12: removeFiles( node );
+        break;
+
       default: System.out.println( "Unknown action. Try again." );
         break;
     }
@@ -244,24 +283,60 @@ public class Main {
     }
   }
 
+  private void addFiles(INode node) throws Exception {
+    List<String> files = readFilenames();
+    boolean done = node.addAll( files );
+
+    if (done) {
+      System.out.println( String.format("%d files added succesfully.", files.size()) );
+    } else {
+      System.out.println( "An error occurred while adding the files." );
+    }
+  }
+
+  private void removeFiles(INode node) throws Exception {
+    List<String> files = readFilenames();
+    boolean done = node.removeAll( files );
+
+    if (done) {
+      System.out.println( String.format("%d files removed succesfully.", files.size()) );
+    } else {
+      System.out.println( "An error occurred while removing the files." );
+    }
+  }
+
   private void showFileIndex(INode node) throws Exception {
-    List files = node.requestFileIndex();
+    String owner  = readFilter( "owner node" );
+    String prefix = readFilter( "file name prefix" );
+    String cursor = null;
 
-    VelocityContext context = new VelocityContext();
-    context.put( "files", files );
-    StringWriter writer = prepareTemplate( "fileIndex.vm", context );
+    do {
+      Page<FileData> page = node.requestFileIndex( cursor, PAGE_SIZE, owner, prefix );
 
-    System.out.println( writer.toString() );
+      VelocityContext context = new VelocityContext();
+      context.put( "files", page.getItems() );
+      StringWriter writer = prepareTemplate( "fileIndex.vm", context );
+
+      System.out.println( writer.toString() );
+      cursor = page.getNextCursor();
+    } while (cursor != null && readMore());
   }
 
   private void showLog(INode node) throws Exception {
-    List ops = node.requestLog();
+    String creator = readFilter( "creator node" );
+    String prefix  = readFilter( "file name prefix" );
+    String cursor  = null;
 
-    VelocityContext context = new VelocityContext();
-    context.put( "ops", ops );
-    StringWriter writer = prepareTemplate( "log.vm", context );
+    do {
+      Page<Operation> page = node.requestLog( cursor, PAGE_SIZE, creator, prefix );
 
-    System.out.println( writer.toString() );
+      VelocityContext context = new VelocityContext();
+      context.put( "ops", page.getItems() );
+      StringWriter writer = prepareTemplate( "log.vm", context );
+
+      System.out.println( writer.toString() );
+      cursor = page.getNextCursor();
+    } while (cursor != null && readMore());
   }
 
   private void showSummary(INode node) throws Exception {
@@ -22,10 +22,15 @@ import java.rmi.RemoteException;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.file.FileIndexDelta;
+import org.coderebels.tsaenode.core.file.IFileIndexListener;
 import org.coderebels.tsaenode.core.operation.Operation;
 import org.coderebels.tsaenode.core.sync.Peer;
+import org.coderebels.tsaenode.core.sync.Rumor;
+import org.coderebels.tsaenode.core.sync.SessionMessage;
 
 
 /**
@@ -77,6 +82,22 @@ public interface INode extends Remote {
    */
   public boolean remove(String file) throws RemoteException;
 
+  /**
+   * Adds a batch of files to publication folder under a single operation, becoming shareable within the group
+   * @param files Files to add to publication folder
+   * @return true if done successfully; false otherwise
+   * @throws java.rmi.RemoteException
+   */
+  public boolean addAll(List<String> files) throws RemoteException;
+
+  /**
+   * Removes a batch of files from publication folder under a single operation, becoming unshareable within the group
+   * @param files Files to remove from publication folder
+   * @return true if done successfully; false otherwise
+   * @throws java.rmi.RemoteException
+   */
+  public boolean removeAll(List<String> files) throws RemoteException;
+
   /**
    * Gets the index of files shared by the node
    * @return File index
@@ -84,6 +105,17 @@ public interface INode extends Remote {
    */
   public List<FileData> requestFileIndex() throws RemoteException;
 
+  /**
+   * Gets a page of the index of files shared by the node, sorted by file name and path
+   * @param cursor Cursor returned along with the previous page; null for the first one
+   * @param pageSize Maximum number of files in the page
+   * @param owner Identifier of the node owning the files; null for any
+   * @param prefix Prefix of the name of the files; null for any
+   * @return Page of file index
+   * @throws java.rmi.RemoteException
+   */
+  public Page<FileData> requestFileIndex(String cursor, int pageSize, String owner, String prefix) throws RemoteException;
+
   /**
    * Gets the operation log managed by the node
    * @return Operation log managed by node
@@ -91,6 +123,42 @@ public interface INode extends Remote {
    */
   public List<Operation> requestLog() throws RemoteException;
 
+  /**
+   * Gets a page of the operation log managed by the node, sorted by creator and timestamp
+   * @param cursor Cursor returned along with the previous page; null for the first one
+   * @param pageSize Maximum number of operations in the page
+   * @param creator Identifier of the node that created the operations; null for any
+   * @param prefix Prefix of the name of the files the operations apply to; null for any
+   * @return Page of operation log managed by node; empty if the creator is not known
+   * @throws java.lang.IllegalArgumentException if the cursor is malformed or the page size not positive
+   * @throws java.rmi.RemoteException
+   */
+  public Page<Operation> requestLog(String cursor, int pageSize, String creator, String prefix) throws RemoteException;
+
+  /**
+   * Gets the changes to the index of files shared by the node since the specified version
+   * @param version Version the changes must follow; 0 for every change
+   * @return Changes to the file index since that version
+   * @throws java.rmi.RemoteException
+   */
+  public FileIndexDelta requestChangesSince(long version) throws RemoteException;
+
+  /**
+   * Subscribes a listener to the changes to the index of files shared by the node
+   * @param listener Listener to push the changes to
+   * @return true if done successfully; false otherwise
+   * @throws java.rmi.RemoteException
+   */
+  public boolean subscribe(IFileIndexListener listener) throws RemoteException;
+
+  /**
+   * Unsubscribes a listener from the changes to the index of files shared by the node
+   * @param listener Listener subscribed
+   * @return true if done successfully; false otherwise
+   * @throws java.rmi.RemoteException
+   */
+  public boolean unsubscribe(IFileIndexListener listener) throws RemoteException;
+
   /**
    * Gets the summary vector managed by the node
    * @return Summary vector managed by node
@@ -126,4 +194,20 @@ public interface INode extends Remote {
                         ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks)
     throws RemoteException;
 
+  /**
+   * Takes necessary actions to get the node synchronized in a single round trip
+   * @param message Operations, summary vector and acknowledgement vector of fellow node with whom synchronization session is established
+   * @return Operations not known by fellow node, along with the summary and acknowledgement vectors of the node
+   * @throws java.rmi.RemoteException
+   */
+  public SessionMessage exchangeTSAESession(SessionMessage message) throws RemoteException;
+
+  /**
+   * Delivers a freshly created operation ahead of the next synchronization session
+   * @param rumor Operation to execute, along with the number of hops it still has to be forwarded
+   * @return true if the operation has been executed; false if already known or out of order
+   * @throws java.rmi.RemoteException
+   */
+  public boolean pushOperation(Rumor rumor) throws RemoteException;
+
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import java.rmi.Naming;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.List;
@@ -36,15 +37,25 @@ import com.typesafe.config.ConfigException;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.file.FileIndexDelta;
+import org.coderebels.tsaenode.core.file.IFileIndexListener;
+import org.coderebels.tsaenode.core.net.CompressedEndpoint;
 import org.coderebels.tsaenode.core.file.IFileMgr;
 import org.coderebels.tsaenode.core.file.FileMgr;
+import org.coderebels.tsaenode.core.file.FolderScanner;
 import org.coderebels.tsaenode.core.operation.Operation;
 import org.coderebels.tsaenode.core.operation.IOperationMgr;
+import org.coderebels.tsaenode.core.operation.CheckpointWriter;
+import org.coderebels.tsaenode.core.operation.LogCompactor;
 import org.coderebels.tsaenode.core.operation.OperationMgr;
+import org.coderebels.tsaenode.core.operation.WriteAheadLog;
 import org.coderebels.tsaenode.core.sync.Peer;
 import org.coderebels.tsaenode.core.sync.ISyncMgr;
+import org.coderebels.tsaenode.core.sync.Rumor;
+import org.coderebels.tsaenode.core.sync.SessionMessage;
 import org.coderebels.tsaenode.core.sync.TSAESyncMgr;
 
 
@@ -58,14 +69,26 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
   private final Object lock = new Object();
 
   private Timer scheduler;
+  private Timer compactionScheduler;
+  private LogCompactor compactor;
+  private Timer checkpointScheduler;
+  private CheckpointWriter checkpointWriter;
 
   private String nodeId;
   private String nodeIP;
   private String nodePort;
   private String rmiPort;
   private String pubFolderPath;
+  private String dataFolderPath;
+  private long walSegmentSize;
+  private int walSyncBatch;
   private long syncFreq;
+  private long compactionFreq;
+  private long checkpointFreq;
   private boolean connected;
+  private boolean compression;
+  private CompressedEndpoint compressedEndpoint;
+  private WriteAheadLog wal;
 
   private IFileMgr fileMgr;
   private IOperationMgr operationMgr;
@@ -82,7 +105,13 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     nodeId   = String.format( "%s:%s", nodeIP, nodePort );
     rmiPort  = conf.getString( "rmiPort" );
     pubFolderPath = conf.getString( "pubFolderPath" );
+    dataFolderPath = conf.getString( "dataFolderPath" );
+    walSegmentSize = conf.getBytes( "walSegmentSize" );
+    walSyncBatch = conf.getInt( "walSyncBatch" );
     syncFreq = conf.getMilliseconds( "syncFreq" );
+    compactionFreq = conf.getMilliseconds( "compactionFreq" );
+    checkpointFreq = conf.getMilliseconds( "checkpointFreq" );
+    compression = conf.getBoolean( "compression" );
     connected = false;
 
     String pubFolderURI  = String.format( "http://%s/public/%s", nodeIP, nodePort );
@@ -108,11 +137,18 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     boolean done = true;
 
     if (!connected) {
-      done = joinGroup();
+      long start = System.nanoTime();
+
+      done = recover();
+      done = done && joinGroup();
       done = done && setUp();
       done = done && scheduleSyncSession();
+      done = done && scheduleCompaction();
+      done = done && scheduleCheckpoints();
 
       if (done) connected = true;
+
+      logger.info( String.format("Startup took %d ms", (System.nanoTime() - start) / 1000000) );
     }
 
     return logger.exit( done );
@@ -129,7 +165,12 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
 
     if (connected) {
       done = cancelSyncSession();
+      done = done && closeSyncMgr();
+      done = done && closeFileMgr();
+      done = done && cancelCompaction();
+      done = done && cancelCheckpoints();
       done = done && leaveGroup();
+      done = done && closeLog();
 
       if (done) connected = false;
     }
@@ -168,7 +209,7 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     logger.entry( file );
     logger.info( "Serving request for file addition..." );
 
-    boolean done = applyOperation( Operation.ADD, file );
+    boolean done = applyOperation( Operation.ADD, Collections.singletonList(file) );
 
     return logger.exit( done );
   }
@@ -181,7 +222,33 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     logger.entry( file );
     logger.info( "Serving request for file deletion..." );
 
-    boolean done = applyOperation( Operation.REMOVE, file );
+    boolean done = applyOperation( Operation.REMOVE, Collections.singletonList(file) );
+
+    return logger.exit( done );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#addAll(java.util.List)
+   */
+  @Override
+  public boolean addAll(List<String> files) throws RemoteException {
+    logger.entry( files );
+    logger.info( "Serving request for batch file addition..." );
+
+    boolean done = applyOperation( Operation.ADD_ALL, files );
+
+    return logger.exit( done );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#removeAll(java.util.List)
+   */
+  @Override
+  public boolean removeAll(List<String> files) throws RemoteException {
+    logger.entry( files );
+    logger.info( "Serving request for batch file deletion..." );
+
+    boolean done = applyOperation( Operation.REMOVE_ALL, files );
 
     return logger.exit( done );
   }
@@ -201,6 +268,21 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     return logger.exit( index );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#requestFileIndex(java.lang.String, int, java.lang.String, java.lang.String)
+   */
+  @Override
+  public Page<FileData> requestFileIndex(String cursor, int pageSize, String owner, String prefix) throws RemoteException {
+    logger.entry( cursor, pageSize, owner, prefix );
+    logger.info( "Serving request for file index page..." );
+    /*
+     * 1) Delegate call to FileMgr through its interface --> IFileMgr#getFileIndex
+     */
+    Page<FileData> page = fileMgr.getFileIndex( cursor, pageSize, owner, prefix );
+
+    return logger.exit( page );
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.INode#requestLog()
    */
@@ -216,6 +298,62 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     return logger.exit( ops );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#requestLog(java.lang.String, int, java.lang.String, java.lang.String)
+   */
+  @Override
+  public Page<Operation> requestLog(String cursor, int pageSize, String creator, String prefix) throws RemoteException {
+    logger.entry( cursor, pageSize, creator, prefix );
+    logger.info( "Serving request for operation log page..." );
+    /*
+     * 1) Delegate call to OperationMgr through its interface --> IOperationMgr#getLog
+     */
+    Page<Operation> page = operationMgr.getLog( cursor, pageSize, creator, prefix );
+
+    return logger.exit( page );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#requestChangesSince(long)
+   */
+  @Override
+  public FileIndexDelta requestChangesSince(long version) throws RemoteException {
+    logger.entry( version );
+    logger.info( "Serving request for file index changes..." );
+    /*
+     * 1) Delegate call to FileMgr through its interface --> IFileMgr#getChangesSince
+     */
+    FileIndexDelta delta = fileMgr.getChangesSince( version );
+
+    return logger.exit( delta );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#subscribe(org.coderebels.tsaenode.core.file.IFileIndexListener)
+   */
+  @Override
+  public boolean subscribe(IFileIndexListener listener) throws RemoteException {
+    logger.entry( listener );
+    logger.info( "Serving request for file index subscription..." );
+
+    fileMgr.subscribe( listener );
+
+    return logger.exit( true );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#unsubscribe(org.coderebels.tsaenode.core.file.IFileIndexListener)
+   */
+  @Override
+  public boolean unsubscribe(IFileIndexListener listener) throws RemoteException {
+    logger.entry( listener );
+    logger.info( "Serving request for file index unsubscription..." );
+
+    fileMgr.unsubscribe( listener );
+
+    return logger.exit( true );
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.INode#requestSummary()
    */
@@ -291,6 +429,48 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     return logger.exit( opsToSend );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#exchangeTSAESession(org.coderebels.tsaenode.core.sync.SessionMessage)
+   */
+  @Override
+  public SessionMessage exchangeTSAESession(SessionMessage message) throws RemoteException {
+    logger.entry( message );
+    logger.info( "Serving request for synchronization exchange..." );
+    /*
+     * 1) Delegate call to TSAESyncMgr through its interface --> ISyncMgr#exchangeSession
+     */
+    SessionMessage reply = null;
+
+    try {
+      reply = syncMgr.exchangeSession( message );
+    } catch (Exception e) {
+      logger.catching( e );
+    }
+
+    return logger.exit( reply );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.INode#pushOperation(org.coderebels.tsaenode.core.sync.Rumor)
+   */
+  @Override
+  public boolean pushOperation(Rumor rumor) throws RemoteException {
+    logger.entry( rumor );
+    logger.info( "Serving request for operation push..." );
+    /*
+     * 1) Delegate call to TSAESyncMgr through its interface --> ISyncMgr#receiveRumor
+     */
+    boolean done = false;
+
+    try {
+      done = syncMgr.receiveRumor( rumor );
+    } catch (Exception e) {
+      logger.catching( e );
+    }
+
+    return logger.exit( done );
+  }
+
 
   /**
    * Joins the group of nodes
@@ -302,7 +482,14 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     boolean done = true;
 
     try {
-      Naming.rebind( String.format("//%s:%s/node%s", nodeIP, rmiPort, nodePort), this );
+      String name = String.format( "//%s:%s/node%s", nodeIP, rmiPort, nodePort );
+      Naming.rebind( name, this );
+
+      if (compression) {
+        compressedEndpoint = new CompressedEndpoint();
+        INode endpoint = compressedEndpoint.export( this, INode.class );
+        Naming.rebind( CompressedEndpoint.nameFor(name), endpoint );
+      }
     } catch (Exception e) {
       logger.catching( e );
       done = false;
@@ -321,7 +508,14 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
     boolean done = true;
 
     try {
-      Naming.unbind( String.format("//%s:%s/node%s", nodeIP, rmiPort, nodePort) );
+      String name = String.format( "//%s:%s/node%s", nodeIP, rmiPort, nodePort );
+      Naming.unbind( name );
+
+      if (compressedEndpoint != null) {
+        Naming.unbind( CompressedEndpoint.nameFor(name) );
+        done = compressedEndpoint.unexport();
+        compressedEndpoint = null;
+      }
     } catch (Exception e) {
       logger.catching( e );
       done = false;
@@ -337,16 +531,79 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
   private boolean setUp() {
     logger.entry();
     logger.debug( "Setting up node..." );
-
+    /*
+     * 1) Scan the publication folder in parallel --> FolderScanner#scan
+     * 2) Reconcile it with the files the node had published before restarting
+     * 2.1) Remove those no longer in the folder within a single batch operation --> TSAEnode#applyOperation
+     * 2.2) Add the new or modified ones within a single batch operation --> TSAEnode#applyOperation
+     */
+    //
+    // Files published before the restart are already known by the group: unchanged ones
+    // produce no operation, so restarting the node costs no synchronization at all
+    //
     boolean done = true;
 
     try {
       File pubFolder = new File( pubFolderPath );
       if(!pubFolder.exists()) pubFolder.mkdirs();
 
-      for(File file : pubFolder.listFiles()) {
-        done = done && add( file.getAbsolutePath() );
+      int threads = Runtime.getRuntime().availableProcessors();
+      List<String> files = new FolderScanner( pubFolder, threads ).scan();
+      List<String> missing = fileMgr.getMissingFiles( files );
+      List<String> changed = fileMgr.getChangedFiles( files );
+
+      if (!missing.isEmpty()) {
+        done = applyOperation( Operation.REMOVE_ALL, missing );
       }
+
+      if (!changed.isEmpty()) {
+        done = done && applyOperation( Operation.ADD_ALL, changed );
+      }
+
+      logger.info( String.format("Publication folder reconciled: %d new or modified files, %d missing, %d unchanged",
+                                 changed.size(), missing.size(), files.size() - changed.size()) );
+    } catch (Exception e) {
+      logger.catching( e );
+      done = false;
+    }
+
+    return logger.exit( done );
+  }
+
+  /**
+   * Rebuilds the node state from its write-ahead log, which records every operation from then on
+   * @return true if done successfully; false otherwise
+   */
+  private boolean recover() {
+    logger.entry();
+    logger.debug( "Recovering node state..." );
+
+    boolean done = true;
+
+    try {
+      wal = new WriteAheadLog( new File(dataFolderPath), walSegmentSize, walSyncBatch );
+      done = operationMgr.recover( wal );
+    } catch (Exception e) {
+      logger.catching( e );
+      done = false;
+    }
+
+    return logger.exit( done );
+  }
+
+  /**
+   * Writes a last checkpoint, so that next restart replays no operations, and closes the write-ahead log
+   * @return true if done successfully; false otherwise
+   */
+  private boolean closeLog() {
+    logger.entry();
+    logger.debug( "Closing write-ahead log..." );
+
+    boolean done = true;
+
+    try {
+      operationMgr.checkpoint();
+      wal.close();
     } catch (Exception e) {
       logger.catching( e );
       done = false;
@@ -393,29 +650,147 @@ public class TSAEnode extends UnicastRemoteObject implements INode {
   }
 
   /**
-   * Applies operation of specified type to supplied file
+   * Stops the background threads of the synchronization manager
+   * @return true if done successfully; false otherwise
+   */
+  private boolean closeSyncMgr() {
+    logger.entry();
+    logger.debug( "Closing synchronization manager..." );
+
+    syncMgr.close();
+
+    return logger.exit( true );
+  }
+
+  /**
+   * Stops pushing the changes to the file index to subscribed listeners
+   * @return true if done successfully; false otherwise
+   */
+  private boolean closeFileMgr() {
+    logger.entry();
+    logger.debug( "Closing file manager..." );
+
+    fileMgr.close();
+
+    return logger.exit( true );
+  }
+
+  /**
+   * Schedules the background purge of the operation log
+   * @return true if done successfully; false otherwise
+   */
+  private boolean scheduleCompaction() {
+    logger.entry();
+    logger.debug( "Scheduling log compaction..." );
+
+    boolean done = true;
+
+    try {
+      compactor = new LogCompactor( operationMgr );
+      boolean isDaemon = true;
+
+      compactionScheduler = new Timer( "tsae-compactor", isDaemon );
+      compactionScheduler.schedule( compactor, compactionFreq, compactionFreq );
+    } catch (Exception e) {
+      logger.catching( e );
+      done = false;
+    }
+
+    return logger.exit( done );
+  }
+
+  /**
+   * Cancels the background purge of the operation log
+   * @return true if done successfully; false otherwise
+   */
+  private boolean cancelCompaction() {
+    logger.entry();
+    logger.debug( "Cancelling log compaction..." );
+
+    compactor.cancel();
+    compactionScheduler.cancel();
+
+    logger.info( String.format("Log compaction: %d runs, %d ms in total", compactor.getRuns(), compactor.getTotalDuration()) );
+
+    return logger.exit( true );
+  }
+
+  /**
+   * Schedules the background checkpoints of the node state
+   * @return true if done successfully; false otherwise
+   */
+  private boolean scheduleCheckpoints() {
+    logger.entry();
+    logger.debug( "Scheduling checkpoints..." );
+
+    boolean done = true;
+
+    try {
+      checkpointWriter = new CheckpointWriter( operationMgr );
+      boolean isDaemon = true;
+
+      checkpointScheduler = new Timer( "tsae-checkpointer", isDaemon );
+      checkpointScheduler.schedule( checkpointWriter, checkpointFreq, checkpointFreq );
+    } catch (Exception e) {
+      logger.catching( e );
+      done = false;
+    }
+
+    return logger.exit( done );
+  }
+
+  /**
+   * Cancels the background checkpoints of the node state
+   * @return true if done successfully; false otherwise
+   */
+  private boolean cancelCheckpoints() {
+    logger.entry();
+    logger.debug( "Cancelling checkpoints..." );
+
+    checkpointWriter.cancel();
+    checkpointScheduler.cancel();
+
+    logger.info( String.format("Checkpoints: %d written, last one took %d ms", checkpointWriter.getRuns(), checkpointWriter.getLastDuration()) );
+
+    return logger.exit( true );
+  }
+
+  /**
+   * Applies operation of specified type to supplied files
    * @param type Type of operation
-   * @param file File the operation will apply to
+   * @param files Files the operation will apply to (a single one unless type is ADD_ALL or REMOVE_ALL)
    * @return true if done successfully; false otherwise
    */
-  private boolean applyOperation(int type, String file) {
-    logger.entry( type, file );
+  private boolean applyOperation(int type, List<String> files) {
+    logger.entry( type, files );
     logger.debug( "Applying operation..." );
     /*
      * 1) Create a new operation
      * 2) Execute operation --> IOperationMgr#executeOperation
-     * 3) Start synchronization session --> ISyncMgr#startSession
-     * 4) Return true if done successfully
+     * 3) Push it to a few peers --> ISyncMgr#spreadOperation
+     * 4) Trigger synchronization session, without waiting for it --> ISyncMgr#triggerSession
+     * 5) Return true if done successfully
      */
+    //
+    // Callers don't wait for the session, so that a burst of operations, even applied one after
+    // another, is merged into the session queued behind the one in flight
+    //
     boolean done = false;
 
     try {
+      Operation op = null;
+      Timestamp previous = null;
+
       synchronized (lock) {
-        Operation op = operationMgr.createOperation( type, file );
+        op = (type == Operation.ADD_ALL || type == Operation.REMOVE_ALL)
+           ? operationMgr.createOperation( type, files )
+           : operationMgr.createOperation( type, files.get(0) );
+        previous = operationMgr.getSummary().get( op.getCreator() );
         done = operationMgr.executeOperation( op );
       }
 
-      done = done && syncMgr.startSession();
+      done = done && syncMgr.spreadOperation( op, previous );
+      done = done && syncMgr.triggerSession();
     } catch (Exception e) {
       logger.catching( e );
       done = false;
@@ -17,6 +17,11 @@
 
 package org.coderebels.tsaenode.core.common;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -25,7 +30,9 @@ import org.apache.logging.log4j.LogManager;
 
 
 /**
- * Summary of received messages of each node in the group
+ * Summary of received messages of each node in the group. Rows are mirrored into a dense
+ * matrix indexed by membership slot, along with the minimum of every column, so that the
+ * operations seen by every node can be read without rebuilding anything
  * @author carles.ml.dev@gmail.com (Carles Muiños)
  */
 public class AckSummary {
@@ -33,18 +40,42 @@ public class AckSummary {
   private static Logger logger = LogManager.getLogger( AckSummary.class.getName() );
 
   private ConcurrentHashMap<String, Summary> data;
+  /**
+   * Last sequence number of each node (column) known by each node (row)
+   */
+  private long[][] matrix;
+  /**
+   * Minimum of every column: last sequence number of each node known by every row
+   */
+  private long[] minimum;
+  /**
+   * Columns whose minimum has moved forward since the watermarks were last drained
+   */
+  private BitSet moved;
+  /**
+   * Summary vector of each row, and the version of it last mirrored into the matrix
+   */
+  private Summary[] rows;
+  private long[] mirrored;
 
 
   public AckSummary() {
     data = new ConcurrentHashMap<String, Summary>();
+    matrix = new long[0][];
+    minimum = new long[0];
+    moved = new BitSet();
+    rows = new Summary[0];
+    mirrored = new long[0];
   }
 
 
   /**
-   * Gets data from acknowledgement vector
+   * Gets a copy of the acknowledgement vector data, consistent across rows: it is taken while holding
+   * the lock rows are updated with. The local row is updated under the OperationMgr lock instead,
+   * so callers holding it get a consistent copy of that row too
    * @return Map of summary vectors of nodes in the group
    */
-  public ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> getData() {
+  public synchronized ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> getData() {
     logger.entry();
     logger.debug( "Retrieving acknowledgement vector data...");
 
@@ -60,13 +91,90 @@ public class AckSummary {
     return logger.exit( ackData );
   }
 
+  /**
+   * Gets data from acknowledgement vector rows changed since the specified versions
+   * @param since Versions of the rows already known by the recipient; rows not included are considered unknown
+   * @return Map of summary vectors of nodes in the group whose version is newer than the specified one
+   */
+  public ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> getData(Map<String, Long> since) {
+    logger.entry( since );
+    logger.debug( "Retrieving acknowledgement vector changes..." );
+
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> ackData =
+        new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    Summary summary = null;
+
+    for (String nodeId : data.keySet()) {
+      summary = data.get( nodeId );
+      Long known = since.get( nodeId );
+
+      if (known == null || summary.getVersion() > known) {
+        ackData.put( nodeId, summary.getData() );
+      }
+    }
+
+    return logger.exit( ackData );
+  }
+
+  /**
+   * Gets the current version of every row of the acknowledgement vector
+   * @return Map of summary vector versions of nodes in the group
+   */
+  public ConcurrentHashMap<String, Long> getVersions() {
+    ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<String, Long>();
+
+    for (String nodeId : data.keySet()) {
+      versions.put( nodeId, data.get(nodeId).getVersion() );
+    }
+
+    return versions;
+  }
+
+  /**
+   * Gets the digest of the acknowledgement vector, composed from the digests every row keeps up to date.
+   * Equal acknowledgement vectors always have the same digest
+   * @return Acknowledgement vector digest
+   */
+  public long getDigest() {
+    long digest = 0;
+
+    for (String nodeId : data.keySet()) {
+      digest ^= Summary.mix( ((long) nodeId.hashCode() << 32) ^ data.get(nodeId).getDigest() );
+    }
+
+    return digest;
+  }
+
   /**
    * Add summary vector of the specified node
    * @param nodeId Node identifier
    * @param summary Summary vector of specified node
    */
-  public void add(String nodeId, Summary summary) {
+  public synchronized void add(String nodeId, Summary summary) {
     data.put( nodeId, summary );
+
+    int row = Membership.getInstance().slotOf( nodeId );
+    ensureCapacity( row );
+
+    rows[row] = summary;
+    mirrored[row] = -1;
+    Arrays.fill( matrix[row], VectorClock.NONE );
+    //
+    // The new row knows nothing yet, so no column is seen by every row until it is mirrored
+    //
+    Arrays.fill( minimum, VectorClock.NONE );
+    mirror( row );
+  }
+
+  /**
+   * Adds an empty summary vector for the specified group node, unless already present, so that
+   * no operation is considered seen by all nodes until its summary vector is known
+   * @param nodeId Node identifier
+   */
+  public synchronized void addMember(String nodeId) {
+    if (!data.containsKey( nodeId )) {
+      add( nodeId, new Summary() );
+    }
   }
 
   /**
@@ -86,16 +194,23 @@ public class AckSummary {
     logger.entry( acks );
     logger.debug( "Updating acknowledgement vector data..." );
     /*
-     * 1) For each summary in acks update local acks with summary
+     * 1) For each summary in acks of a group node update local acks with summary
+     * 2) Mirror the updated row into the matrix
      */
     for (String nodeId : acks.keySet()) {
-      Summary peerSummary = new Summary( acks.get(nodeId) );
+      ConcurrentHashMap<String, Timestamp> peerData = acks.get( nodeId );
       Summary summary = data.get( nodeId );
 
       if (summary != null) {
-        summary.update( peerSummary );
+        for (Timestamp timestamp : peerData.values()) {
+          summary.update( timestamp );
+        }
+
+        mirror( Membership.getInstance().find(nodeId) );
+      } else if (Membership.getInstance().find( nodeId ) != Membership.NONE) {
+        add( nodeId, new Summary(peerData) );
       } else {
-        data.put( nodeId, peerSummary );
+        logger.warn( String.format("Ignoring acknowledgements of node %s, not in the group", nodeId) );
       }
     }
 
@@ -110,4 +225,128 @@ public class AckSummary {
     return data.keySet();
   }
 
+  /**
+   * Gets the last sequence number of every node seen by all the nodes in the acknowledgement vector.
+   * Rows changed since last mirrored, such as the local summary vector, are mirrored first
+   * @return Array of last sequence numbers seen by all nodes, indexed by slot; {@link org.coderebels.tsaenode.core.common.VectorClock#NONE} if not seen by all
+   */
+  public synchronized long[] getAllSeen() {
+    for (int row = 0; row < rows.length; row++) {
+      if (rows[row] != null) mirror( row );
+    }
+
+    return minimum.clone();
+  }
+
+  /**
+   * Gets the watermarks moved forward since last drained: for each such node, the timestamp of its
+   * last operation seen by all the nodes in the acknowledgement vector
+   * @return List of moved watermarks; empty if none moved
+   */
+  public synchronized List<Timestamp> drainWatermarks() {
+    for (int row = 0; row < rows.length; row++) {
+      if (rows[row] != null) mirror( row );
+    }
+
+    List<Timestamp> watermarks = new Vector<Timestamp>();
+
+    for (int column = moved.nextSetBit(0); column >= 0; column = moved.nextSetBit(column + 1)) {
+      if (minimum[column] != VectorClock.NONE) {
+        Timestamp watermark = new Timestamp();
+        watermark.setSlot( column );
+        watermark.setSeqNumber( minimum[column] );
+        watermarks.add( watermark );
+      }
+    }
+
+    moved.clear();
+
+    return watermarks;
+  }
+
+
+  /**
+   * Copies into the matrix the summary vector of the specified row, if changed since last mirrored
+   * @param row Row slot
+   */
+  private void mirror(int row) {
+    Summary summary = rows[row];
+    long version = summary.getVersion();
+    if (version == mirrored[row]) return;
+    //
+    // Version is read before the entries, so that a change in between is mirrored next time
+    //
+    mirrored[row] = version;
+
+    VectorClock clock = summary.getClock();
+    int n = clock.size();
+    if (n > 0) ensureCapacity( n - 1 );
+
+    for (int column = 0; column < n; column++) {
+      long seqNumber = clock.get( column );
+      long previous  = matrix[row][column];
+
+      if (seqNumber > previous) {
+        matrix[row][column] = seqNumber;
+        //
+        // The column minimum can only move when the lowest entry of the column moves
+        //
+        if (previous == minimum[column]) {
+          long min = columnMinimum( column );
+
+          if (min != minimum[column]) {
+            minimum[column] = min;
+            moved.set( column );
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes the minimum of the specified column over every row
+   * @param column Column slot
+   * @return Last sequence number of the node seen by every row; NONE if no row
+   */
+  private long columnMinimum(int column) {
+    long min = Long.MAX_VALUE;
+
+    for (int row = 0; row < rows.length; row++) {
+      if (rows[row] != null && matrix[row][column] < min) min = matrix[row][column];
+    }
+
+    return (min == Long.MAX_VALUE) ? VectorClock.NONE : min;
+  }
+
+  /**
+   * Grows the matrix so that it spans the specified slot. New entries are NONE
+   * @param slot Highest slot to span
+   */
+  private void ensureCapacity(int slot) {
+    int capacity = minimum.length;
+    if (slot < capacity) return;
+
+    int grown = Math.max( 8, capacity );
+    while (grown <= slot) grown *= 2;
+
+    long[][] newMatrix = new long[grown][];
+
+    for (int row = 0; row < grown; row++) {
+      newMatrix[row] = new long[grown];
+      Arrays.fill( newMatrix[row], VectorClock.NONE );
+      if (row < capacity) System.arraycopy( matrix[row], 0, newMatrix[row], 0, capacity );
+    }
+
+    long[] newMinimum = Arrays.copyOf( minimum, grown );
+    Arrays.fill( newMinimum, capacity, grown, VectorClock.NONE );
+
+    long[] newMirrored = Arrays.copyOf( mirrored, grown );
+    Arrays.fill( newMirrored, capacity, grown, -1 );
+
+    matrix   = newMatrix;
+    minimum  = newMinimum;
+    rows     = Arrays.copyOf( rows, grown );
+    mirrored = newMirrored;
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Table of the nodes known by the local node, each one assigned a dense int slot.
+ * Slots are local to the running node: they are never sent over the wire, where
+ * node identifiers are written instead
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class Membership {
+
+  /**
+   * Slot meaning no node at all
+   */
+  public static final int NONE = -1;
+  /**
+   * Number of slots available, bounded by the bits a slot takes in a packed timestamp
+   */
+  public static final int MAX_SLOTS = 1 << 16;
+
+  private static final Membership instance = new Membership();
+
+  private ConcurrentHashMap<String, Integer> slots;
+  private volatile String[] ids;
+  private int size;
+
+
+  private Membership() {
+    slots = new ConcurrentHashMap<String, Integer>();
+    ids = new String[16];
+  }
+
+
+  public static Membership getInstance() { return instance; }
+
+
+  /**
+   * Assigns a slot to every group node, in identifier order, so that nodes configured
+   * alike get the same slots
+   * @param nodeIds Identifiers of the group nodes
+   */
+  public void register(Collection<String> nodeIds) {
+    List<String> sorted = new ArrayList<String>( nodeIds );
+    Collections.sort( sorted );
+
+    for (String nodeId : sorted) {
+      slotOf( nodeId );
+    }
+  }
+
+  /**
+   * Gets the slot of the specified node, assigning it the next free one if not known yet
+   * @param nodeId Node identifier
+   * @return Slot of node; {@link #NONE} if nodeId is null
+   */
+  public int slotOf(String nodeId) {
+    if (nodeId == null) return NONE;
+
+    Integer slot = slots.get( nodeId );
+    if (slot != null) return slot;
+
+    return intern( nodeId );
+  }
+
+  /**
+   * Gets the slot of the specified node, without assigning it one if not known yet. Nodes named
+   * by remote callers are looked up this way, so that they can't use up the slots
+   * @param nodeId Node identifier
+   * @return Slot of node; {@link #NONE} if nodeId is null or not known
+   */
+  public int find(String nodeId) {
+    if (nodeId == null) return NONE;
+
+    Integer slot = slots.get( nodeId );
+    return (slot != null) ? slot : NONE;
+  }
+
+  /**
+   * Gets the identifier of the node assigned to the specified slot
+   * @param slot Node slot
+   * @return Node identifier; null if slot is {@link #NONE}
+   */
+  public String idOf(int slot) {
+    if (slot == NONE) return null;
+
+    return ids[slot];
+  }
+
+  /**
+   * Gets the number of slots assigned so far
+   * @return Number of known nodes
+   */
+  public int size() {
+    return slots.size();
+  }
+
+
+  /**
+   * Assigns the next free slot to the specified node
+   * @param nodeId Node identifier
+   * @return Slot of node
+   */
+  private synchronized int intern(String nodeId) {
+    Integer slot = slots.get( nodeId );
+    if (slot != null) return slot;
+
+    if (size == MAX_SLOTS) {
+      throw new IllegalStateException( String.format("No slot left for node %s", nodeId) );
+    }
+
+    //
+    // Identifier is published before the slot, so that any slot read from the map
+    // can be resolved back to its identifier
+    //
+    String[] current = ids;
+
+    if (size == current.length) {
+      String[] grown = new String[ Math.min( current.length * 2, MAX_SLOTS ) ];
+      System.arraycopy( current, 0, grown, 0, size );
+      current = grown;
+    }
+
+    current[size] = nodeId;
+    ids = current;
+    slots.put( nodeId, size );
+
+    return size++;
+  }
+
+}
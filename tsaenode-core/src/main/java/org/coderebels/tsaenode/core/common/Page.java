@@ -0,0 +1,58 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.common;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Vector;
+
+
+/**
+ * Page of results of a query, along with the cursor to request the following one
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class Page<T> implements Serializable {
+
+  private List<T> items;
+  private String nextCursor;
+
+
+  public Page() {
+    items = new Vector<T>();
+  }
+
+
+  public List<T> getItems() { return items; }
+  public void setItems(List<T> items) { this.items = items; }
+
+  /**
+   * Opaque cursor to request the following page; null if this is the last one
+   */
+  public String getNextCursor() { return nextCursor; }
+  public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+
+  public boolean hasNext() { return nextCursor != null; }
+
+
+  @Override
+  public String toString() {
+    return String.format( "Page[%d items,%s]", items.size(), (nextCursor != null) ? "more" : "last" );
+  }
+
+}
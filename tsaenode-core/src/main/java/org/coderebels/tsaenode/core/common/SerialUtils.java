@@ -0,0 +1,161 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+
+/**
+ * Helpers shared by the hand-written binary formats
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class SerialUtils {
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private SerialUtils() {}
+
+
+  /**
+   * Writes a string that may be null
+   * @param out Output to write to
+   * @param value String to write
+   * @throws java.io.IOException
+   */
+  public static void writeString(DataOutput out, String value) throws IOException {
+    out.writeBoolean( value != null );
+    if (value != null) writeUTF8( out, value );
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(java.io.DataOutput, java.lang.String)}
+   * @param in Input to read from
+   * @return String read; may be null
+   * @throws java.io.IOException
+   */
+  public static String readString(DataInput in) throws IOException {
+    return in.readBoolean() ? readUTF8( in ) : null;
+  }
+
+  /**
+   * Writes a string as its UTF-8 length followed by its UTF-8 bytes. Unlike
+   * {@link java.io.DataOutput#writeUTF(java.lang.String)}, strings are not limited to 64KB
+   * @param out Output to write to
+   * @param value String to write
+   * @throws java.io.IOException
+   */
+  public static void writeUTF8(DataOutput out, String value) throws IOException {
+    byte[] bytes = value.getBytes( UTF8 );
+
+    writeVarInt( out, bytes.length );
+    out.write( bytes );
+  }
+
+  /**
+   * Reads a string written by {@link #writeUTF8(java.io.DataOutput, java.lang.String)}
+   * @param in Input to read from
+   * @return String read
+   * @throws java.io.IOException
+   */
+  public static String readUTF8(DataInput in) throws IOException {
+    int length = readVarInt( in );
+
+    if (length < 0) {
+      throw new IOException( String.format("Invalid string length -> %d", length) );
+    }
+
+    byte[] bytes = new byte[length];
+    in.readFully( bytes );
+
+    return new String( bytes, UTF8 );
+  }
+
+  /**
+   * Writes a non-negative integer in as few bytes as possible, 7 bits per byte
+   * @param out Output to write to
+   * @param value Integer to write
+   * @throws java.io.IOException
+   */
+  public static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte( (value & 0x7F) | 0x80 );
+      value >>>= 7;
+    }
+
+    out.writeByte( value );
+  }
+
+  /**
+   * Reads an integer written by {@link #writeVarInt(java.io.DataOutput, int)}
+   * @param in Input to read from
+   * @return Integer read
+   * @throws java.io.IOException
+   */
+  public static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    int shift = 0;
+    byte b;
+
+    do {
+      b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return value;
+  }
+
+  /**
+   * Writes a non-negative long in as few bytes as possible, 7 bits per byte
+   * @param out Output to write to
+   * @param value Long to write
+   * @throws java.io.IOException
+   */
+  public static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte( (int) (value & 0x7F) | 0x80 );
+      value >>>= 7;
+    }
+
+    out.writeByte( (int) value );
+  }
+
+  /**
+   * Reads a long written by {@link #writeVarLong(java.io.DataOutput, long)}
+   * @param in Input to read from
+   * @return Long read
+   * @throws java.io.IOException
+   */
+  public static long readVarLong(DataInput in) throws IOException {
+    long value = 0;
+    int shift = 0;
+    byte b;
+
+    do {
+      b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return value;
+  }
+
+}
@@ -25,7 +25,9 @@ import org.apache.logging.log4j.LogManager;
 
 
 /**
- * Summary of the operations known by a node
+ * Summary of the operations known by a node. Last timestamps are mirrored in a
+ * {@link org.coderebels.tsaenode.core.common.VectorClock}, so that they can be checked
+ * without locking nor allocating
  * @author carles.ml.dev@gmail.com (Carles Muiños)
  */
 public class Summary {
@@ -33,14 +35,34 @@ public class Summary {
   private static Logger logger = LogManager.getLogger( Summary.class.getName() );
 
   private ConcurrentHashMap<String, Timestamp> data;
+  private VectorClock clock;
+  /**
+   * Number of changes applied to the summary vector
+   */
+  private volatile long version;
+  /**
+   * Order-independent hash of the summary vector content, kept up to date on every change
+   */
+  private volatile long digest;
 
 
   public Summary() {
     data = new ConcurrentHashMap<String, Timestamp>();
+    clock = new VectorClock();
+    version = 0;
+    digest = 0;
   }
 
   public Summary(ConcurrentHashMap<String, Timestamp> data) {
     this.data = data;
+    this.clock = new VectorClock();
+    this.version = data.isEmpty() ? 0 : 1;
+    this.digest = 0;
+
+    for (Timestamp timestamp : data.values()) {
+      clock.advance( timestamp.getSlot(), timestamp.getSeqNumber() );
+      digest ^= digestOf( timestamp );
+    }
   }
 
 
@@ -76,15 +98,14 @@ public class Summary {
    * Updates the summary with a new timestamp
    * @param timestamp Timestamp to add if necessary
    */
-  public synchronized void update(Timestamp timestamp) {
+  public void update(Timestamp timestamp) {
     logger.entry( timestamp );
     logger.debug( "Summarizing operation timestamp..." );
-
-    String nodeId  = timestamp.getNodeId();
-    Timestamp last = data.get( nodeId );
-
-    if (last == null || last.compare(timestamp) < 0) {
-      data.put( nodeId, timestamp );
+    //
+    // Timestamps already covered are discarded without taking the lock
+    //
+    if (!clock.covers( timestamp )) {
+      doUpdate( timestamp );
     }
 
     logger.exit();
@@ -95,8 +116,11 @@ public class Summary {
    * @param nodeId Identifier of the node to which the timestamp is associated
    * @param timestamp Associated timestamp
    */
-  public void put(String nodeId, Timestamp timestamp) {
-    data.put( nodeId, timestamp );
+  public synchronized void put(String nodeId, Timestamp timestamp) {
+    Timestamp last = data.put( nodeId, timestamp );
+    clock.set( Membership.getInstance().slotOf(nodeId), timestamp.getSeqNumber() );
+    version++;
+    digest ^= digestOf( last ) ^ digestOf( timestamp );
   }
 
   /**
@@ -108,6 +132,39 @@ public class Summary {
     return data.get( nodeId );
   }
 
+  /**
+   * Checks whether the specified timestamp is already summarized, without locking
+   * @param timestamp Timestamp to check
+   * @return true if the last timestamp of its node is the same or newer; false otherwise
+   */
+  public boolean covers(Timestamp timestamp) {
+    return clock.covers( timestamp );
+  }
+
+  /**
+   * Gets the vector clock mirroring the summary vector
+   * @return Vector clock of last sequence numbers by node slot
+   */
+  public VectorClock getClock() {
+    return clock;
+  }
+
+  /**
+   * Gets the version of the summary vector, increased every time its content changes
+   * @return Summary vector version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Gets the digest of the summary vector. Equal summary vectors always have the same digest
+   * @return Summary vector digest
+   */
+  public long getDigest() {
+    return digest;
+  }
+
   /**
    * Gets the list of identifiers of the already summarized nodes
    * @return List of identifiers of the summarized nodes
@@ -116,4 +173,45 @@ public class Summary {
     return data.keySet();
   }
 
+
+  /**
+   * Adds the timestamp to the summary vector if newer than the last one of its node
+   * @param timestamp Timestamp to add if necessary
+   */
+  private synchronized void doUpdate(Timestamp timestamp) {
+    String nodeId  = timestamp.getNodeId();
+    Timestamp last = data.get( nodeId );
+
+    if (last == null || last.compare(timestamp) < 0) {
+      data.put( nodeId, timestamp );
+      clock.advance( timestamp.getSlot(), timestamp.getSeqNumber() );
+      version++;
+      digest ^= digestOf( last ) ^ digestOf( timestamp );
+    }
+  }
+
+
+  /**
+   * Hashes a single entry of the summary vector, so that entries can be added to and
+   * removed from the digest by XOR-ing their hashes
+   * @param timestamp Timestamp of the entry; null if no entry
+   * @return Hash of the entry
+   */
+  static long digestOf(Timestamp timestamp) {
+    if (timestamp == null) return 0;
+
+    return mix( ((long) timestamp.getNodeId().hashCode() << 32) ^ mix(timestamp.getSeqNumber()) );
+  }
+
+  /**
+   * Scrambles the bits of a value, so that close values get unrelated hashes
+   * @param value Value to scramble
+   * @return Scrambled value
+   */
+  static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+    value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+    return value ^ (value >>> 31);
+  }
+
 }
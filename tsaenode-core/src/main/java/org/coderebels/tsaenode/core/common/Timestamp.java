@@ -17,28 +17,94 @@
 
 package org.coderebels.tsaenode.core.common;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 
 /**
+ * Creator node and sequence number of an operation. The creator is held as its
+ * {@link org.coderebels.tsaenode.core.common.Membership} slot, and written over the
+ * wire as its node identifier: the serialized form is the one of previous releases, so that
+ * nodes running them can still be called
  * @author carles.ml.dev@gmail.com (Carles Muiños)
  */
 public class Timestamp implements Serializable {
 
-  private String nodeId;
+  private static final long serialVersionUID = -7283700723809515027L;
+  /**
+   * Fields written, as laid out by previous releases
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField( "nodeId", String.class ),
+    new ObjectStreamField( "seqNumber", long.class )
+  };
+
+  /**
+   * Bits taken by the sequence number in a packed timestamp
+   */
+  private static final int SEQ_BITS = 48;
+  private static final long SEQ_MASK = (1L << SEQ_BITS) - 1;
+
+  private transient int slot;
   private long seqNumber;
 
 
-  public Timestamp() {}
+  public Timestamp() {
+    slot = Membership.NONE;
+  }
+
 
+  public String getNodeId() { return Membership.getInstance().idOf( slot ); }
+  public void setNodeId(String nodeId) { this.slot = Membership.getInstance().slotOf( nodeId ); }
 
-  public String getNodeId() { return nodeId; }
-  public void setNodeId(String nodeId) { this.nodeId = nodeId; }
+  public int getSlot() { return slot; }
+  public void setSlot(int slot) { this.slot = slot; }
 
   public long getSeqNumber() { return seqNumber; }
   public void setSeqNumber(long seqNumber) { this.seqNumber = seqNumber; }
 
 
+  /**
+   * Packs the slot and sequence number of the timestamp into a single long, ordered
+   * by slot first and by sequence number next
+   * @return Packed timestamp
+   */
+  public long pack() {
+    return pack( slot, seqNumber );
+  }
+
+  /**
+   * Packs the specified slot and sequence number into a single long
+   * @param slot Node slot
+   * @param seqNumber Sequence number
+   * @return Packed timestamp
+   */
+  public static long pack(int slot, long seqNumber) {
+    return ((long) slot << SEQ_BITS) | (seqNumber & SEQ_MASK);
+  }
+
+  /**
+   * Gets the slot of a packed timestamp
+   * @param packed Packed timestamp
+   * @return Node slot
+   */
+  public static int slotOf(long packed) {
+    return (int) (packed >>> SEQ_BITS);
+  }
+
+  /**
+   * Gets the sequence number of a packed timestamp
+   * @param packed Packed timestamp
+   * @return Sequence number
+   */
+  public static long seqOf(long packed) {
+    return packed & SEQ_MASK;
+  }
+
   public int compare(Timestamp that) {
     if (that == null) {
       return 1;
@@ -56,7 +122,7 @@ public class Timestamp implements Serializable {
   }
 
   public String toShortString() {
-    return String.format( "[%1$s,%2$d]", nodeId, seqNumber );
+    return String.format( "[%1$s,%2$d]", getNodeId(), seqNumber );
   }
 
   @Override
@@ -68,7 +134,45 @@ public class Timestamp implements Serializable {
   public boolean equals(Object that) {
     return this.getClass().getName().equals(that.getClass().getName())
         && this.seqNumber == ((Timestamp) that).getSeqNumber()
-        && this.nodeId.equals( ((Timestamp) that).getNodeId() );
+        && this.slot == ((Timestamp) that).getSlot();
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * slot + (int) (seqNumber ^ (seqNumber >>> 32));
+  }
+
+  /**
+   * Writes the timestamp, slot as the node identifier
+   * @param out Stream to write to
+   * @throws java.io.IOException
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put( "nodeId", getNodeId() );
+    fields.put( "seqNumber", seqNumber );
+    out.writeFields();
+  }
+
+  /**
+   * Reads a timestamp written by {@link #writeObject(java.io.ObjectOutputStream)}
+   * @param in Stream to read from
+   * @throws java.io.IOException
+   * @throws java.io.InvalidObjectException if the node is not in the group
+   * @throws java.lang.ClassNotFoundException
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    String nodeId = (String) fields.get( "nodeId", null );
+    //
+    // Node is looked up rather than assigned a slot, so that remote callers can't use up the slots
+    //
+    seqNumber = fields.get( "seqNumber", 0L );
+    slot = Membership.getInstance().find( nodeId );
+
+    if (slot == Membership.NONE && nodeId != null) {
+      throw new InvalidObjectException( String.format("Timestamp of node %s, not in the group", nodeId) );
+    }
   }
   
 }
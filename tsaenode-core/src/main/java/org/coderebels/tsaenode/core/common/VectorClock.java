@@ -0,0 +1,225 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.common;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Last sequence number known from each node, indexed by {@link org.coderebels.tsaenode.core.common.Membership} slot.
+ * Entries only move forward, through lock-free max-merges
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class VectorClock {
+
+  /**
+   * Sequence number of a node with no known operation
+   */
+  public static final long NONE = -1;
+
+  private static final int CHUNK_BITS = 6;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  //
+  // Entries live in fixed-size chunks created on demand and never copied, so that
+  // a new slot can be added without losing any concurrent merge. Only the directory of
+  // chunks is copied, once grown to span a higher slot. Sequence numbers are stored plus
+  // one, so that a zeroed entry means NONE
+  //
+  private volatile AtomicReferenceArray<AtomicLongArray> chunks;
+  /**
+   * Highest slot with an entry, plus one
+   */
+  private AtomicInteger size;
+
+
+  public VectorClock() {
+    chunks = new AtomicReferenceArray<AtomicLongArray>( 1 );
+    size = new AtomicInteger();
+  }
+
+
+  /**
+   * Builds the vector clock of the specified summary vector data
+   * @param data Map of last timestamps by node identifier
+   * @return Vector clock holding the same entries
+   */
+  public static VectorClock of(Map<String, Timestamp> data) {
+    VectorClock clock = new VectorClock();
+
+    for (Timestamp timestamp : data.values()) {
+      clock.advance( timestamp.getSlot(), timestamp.getSeqNumber() );
+    }
+
+    return clock;
+  }
+
+  /**
+   * Gets the number of slots the vector clock spans
+   * @return Highest slot with an entry, plus one
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Gets the last sequence number known from the specified node
+   * @param slot Node slot
+   * @return Last known sequence number; {@link #NONE} if none known, or slot is {@link org.coderebels.tsaenode.core.common.Membership#NONE}
+   */
+  public long get(int slot) {
+    if (slot < 0) return NONE;
+
+    AtomicReferenceArray<AtomicLongArray> dir = chunks;
+    int c = slot >>> CHUNK_BITS;
+    if (c >= dir.length()) return NONE;
+
+    AtomicLongArray chunk = dir.get( c );
+    if (chunk == null) return NONE;
+
+    return chunk.get( slot & (CHUNK_SIZE - 1) ) - 1;
+  }
+
+  /**
+   * Checks whether the vector clock already covers the specified timestamp
+   * @param timestamp Timestamp to check
+   * @return true if the last known sequence number of its node is the same or newer; false otherwise
+   */
+  public boolean covers(Timestamp timestamp) {
+    return get( timestamp.getSlot() ) >= timestamp.getSeqNumber();
+  }
+
+  /**
+   * Moves the entry of the specified node forward, if the sequence number is newer than the known one
+   * @param slot Node slot
+   * @param seqNumber Sequence number
+   * @return true if the entry has been moved forward; false otherwise, or if slot is {@link org.coderebels.tsaenode.core.common.Membership#NONE}
+   */
+  public boolean advance(int slot, long seqNumber) {
+    if (slot < 0) return false;
+
+    AtomicLongArray chunk = chunkFor( slot );
+    int i = slot & (CHUNK_SIZE - 1);
+
+    while (true) {
+      long current = chunk.get( i );
+      if (current > seqNumber) return false;
+      if (chunk.compareAndSet( i, current, seqNumber + 1 )) return true;
+    }
+  }
+
+  /**
+   * Sets the entry of the specified node, even if older than the known one
+   * @param slot Node slot; {@link org.coderebels.tsaenode.core.common.Membership#NONE} is ignored
+   * @param seqNumber Sequence number; {@link #NONE} to clear the entry
+   */
+  public void set(int slot, long seqNumber) {
+    if (slot < 0) return;
+
+    chunkFor( slot ).set( slot & (CHUNK_SIZE - 1), seqNumber + 1 );
+  }
+
+  /**
+   * Merges the specified vector clock, keeping the newest sequence number of every node
+   * @param that Vector clock to merge
+   */
+  public void merge(VectorClock that) {
+    int n = that.size();
+
+    for (int slot = 0; slot < n; slot++) {
+      long seqNumber = that.get( slot );
+      if (seqNumber != NONE) advance( slot, seqNumber );
+    }
+  }
+
+  /**
+   * Copies the entries of the vector clock into a primitive array, in a single pass
+   * and with no per-entry allocation
+   * @return Array of last sequence numbers indexed by slot; {@link #NONE} if none known
+   */
+  public long[] toArray() {
+    long[] seqNumbers = new long[ size() ];
+
+    for (int slot = 0; slot < seqNumbers.length; slot++) {
+      seqNumbers[slot] = get( slot );
+    }
+
+    return seqNumbers;
+  }
+
+
+  /**
+   * Gets the chunk holding the entry of the specified slot, creating it if necessary
+   * @param slot Node slot
+   * @return Chunk of entries
+   */
+  private AtomicLongArray chunkFor(int slot) {
+    int c = slot >>> CHUNK_BITS;
+    AtomicReferenceArray<AtomicLongArray> dir = chunks;
+    AtomicLongArray chunk = (c < dir.length()) ? dir.get( c ) : null;
+
+    if (chunk == null) {
+      chunk = install( c );
+    }
+
+    int spanned = size.get();
+
+    while (spanned <= slot && !size.compareAndSet( spanned, slot + 1 )) {
+      spanned = size.get();
+    }
+
+    return chunk;
+  }
+
+  /**
+   * Creates the chunk of the specified number unless already there, growing the directory to span
+   * it if necessary. Chunks are only created and the directory only replaced while holding the lock,
+   * so that no chunk is ever left out of the directory copy
+   * @param c Chunk number
+   * @return Chunk of entries
+   */
+  private synchronized AtomicLongArray install(int c) {
+    AtomicReferenceArray<AtomicLongArray> dir = chunks;
+
+    if (c >= dir.length()) {
+      int length = Math.min( Math.max(c + 1, dir.length() * 2), Membership.MAX_SLOTS / CHUNK_SIZE );
+      AtomicReferenceArray<AtomicLongArray> grown = new AtomicReferenceArray<AtomicLongArray>( length );
+
+      for (int i = 0; i < dir.length(); i++) {
+        grown.set( i, dir.get(i) );
+      }
+
+      chunks = grown;
+      dir = grown;
+    }
+
+    AtomicLongArray chunk = dir.get( c );
+
+    if (chunk == null) {
+      chunk = new AtomicLongArray( CHUNK_SIZE );
+      dir.set( c, chunk );
+    }
+
+    return chunk;
+  }
+
+}
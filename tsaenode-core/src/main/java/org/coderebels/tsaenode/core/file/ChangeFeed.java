@@ -0,0 +1,240 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+
+/**
+ * Pushes the changes to the file index to the subscribed listeners from background threads,
+ * so that neither the index lock nor the operations are held by remote calls. Each listener is
+ * delivered on its own, a bounded pool of threads calling them concurrently: a slow listener only
+ * delays itself, and one not done within the delivery timeout is unsubscribed. Changes made while
+ * a listener is being called are coalesced into its next delta
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class ChangeFeed implements Runnable {
+
+  private static Logger logger = LogManager.getLogger( ChangeFeed.class.getName() );
+  /**
+   * Maximum time to wait for changes before checking again whether the feed is closed (ms)
+   */
+  private static final long POLL_TIMEOUT = 1000;
+  /**
+   * Default maximum time a listener may take to receive its pending changes (ms)
+   */
+  private static final long DELIVERY_TIMEOUT = 30000;
+  /**
+   * Maximum number of listeners called at once
+   */
+  private static final int DELIVERY_THREADS = 8;
+
+  private FileIndex fileIndex;
+  private long deliveryTimeout;
+  /**
+   * Subscribed listeners, along with their delivery state
+   */
+  private ConcurrentHashMap<IFileIndexListener, Subscription> listeners;
+  private ThreadPoolExecutor deliveries;
+  private Thread thread;
+  private volatile boolean closed;
+
+
+  public ChangeFeed(FileIndex fileIndex) {
+    this( fileIndex, DELIVERY_TIMEOUT );
+  }
+
+  public ChangeFeed(FileIndex fileIndex, long deliveryTimeout) {
+    this.fileIndex = fileIndex;
+    this.deliveryTimeout = deliveryTimeout;
+    this.listeners = new ConcurrentHashMap<IFileIndexListener, Subscription>();
+  }
+
+
+  /**
+   * Subscribes a listener to the changes made from now on, starting the feed if necessary
+   * @param listener Listener to subscribe
+   */
+  public synchronized void subscribe(IFileIndexListener listener) {
+    logger.entry( listener );
+    logger.debug( "Subscribing listener to file index changes..." );
+
+    listeners.put( listener, new Subscription(listener, fileIndex.getVersion()) );
+
+    if (thread == null && !closed) {
+      deliveries = newExecutor();
+
+      thread = new Thread( this, "tsae-change-feed" );
+      thread.setDaemon( true );
+      thread.start();
+    }
+
+    logger.exit();
+  }
+
+  /**
+   * Unsubscribes a listener
+   * @param listener Listener to unsubscribe
+   */
+  public void unsubscribe(IFileIndexListener listener) {
+    listeners.remove( listener );
+  }
+
+  /**
+   * Checks whether a listener is subscribed
+   * @param listener Listener to check
+   * @return true if subscribed; false otherwise
+   */
+  public boolean isSubscribed(IFileIndexListener listener) {
+    return listeners.containsKey( listener );
+  }
+
+  /**
+   * Stops the feed, along with the deliveries in progress, and forgets every listener
+   */
+  public synchronized void close() {
+    closed = true;
+    listeners.clear();
+
+    if (thread != null) thread.interrupt();
+    if (deliveries != null) deliveries.shutdownNow();
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    //
+    // Deliveries are checked on every wake-up, not only on changes, so that those
+    // running late are timed out, and changes made while one was running are delivered
+    //
+    while (!closed) {
+      try {
+        long current = fileIndex.getVersion();
+
+        deliver( current );
+        fileIndex.awaitChange( current, POLL_TIMEOUT );
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+  }
+
+
+  /**
+   * Starts delivering their pending changes to the listeners not up to date, unless still
+   * being delivered. Listeners whose delivery took longer than the timeout are unsubscribed
+   * @param version Current version of the index
+   */
+  private void deliver(long version) {
+    long now = System.currentTimeMillis();
+
+    for (Subscription subscription : listeners.values()) {
+      Future<?> pending = subscription.pending;
+
+      if (pending != null && !pending.isDone()) {
+        if (now - subscription.started > deliveryTimeout) {
+          logger.warn( String.format("Unsubscribing listener too slow to receive changes -> %s", subscription.listener) );
+          listeners.remove( subscription.listener, subscription );
+          pending.cancel( true );
+        }
+
+        continue;
+      }
+
+      if (subscription.delivered == version) continue;
+
+      try {
+        subscription.started = now;
+        subscription.pending = deliveries.submit( subscription );
+      } catch (Exception e) {
+        // Feed closed meanwhile
+        return;
+      }
+    }
+  }
+
+  /**
+   * Creates the pool of threads calling the listeners
+   * @return Executor of deliveries
+   */
+  private ThreadPoolExecutor newExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor( DELIVERY_THREADS, DELIVERY_THREADS, 60, TimeUnit.SECONDS,
+                                                          new LinkedBlockingQueue<Runnable>(),
+                                                          new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread( r, "tsae-change-delivery" );
+        t.setDaemon( true );
+        return t;
+      }
+    });
+    executor.allowCoreThreadTimeOut( true );
+
+    return executor;
+  }
+
+
+  /**
+   * Delivery state of a subscribed listener. Delivering sends every change since the last
+   * version delivered, in as many deltas as necessary
+   */
+  private class Subscription implements Runnable {
+
+    private final IFileIndexListener listener;
+    private volatile long delivered;
+    private volatile Future<?> pending;
+    private volatile long started;
+
+    public Subscription(IFileIndexListener listener, long delivered) {
+      this.listener = listener;
+      this.delivered = delivered;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+      FileIndexDelta delta = null;
+
+      try {
+        while (delivered != fileIndex.getVersion() && listeners.get( listener ) == this) {
+          delta = fileIndex.getChangesSince( delivered );
+          listener.filesChanged( delta );
+          delivered = delta.getToVersion();
+        }
+      } catch (Exception e) {
+        logger.catching( e );
+        logger.warn( String.format("Unsubscribing unreachable listener -> %s", listener) );
+        listeners.remove( listener, this );
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,372 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+
+/**
+ * Content-addressed store of the files published by the local node. Every distinct content is kept
+ * once, named after its SHA-256 digest, and published files are read-only hard links to it: the same
+ * content published under several names takes the space of a single copy.
+ *
+ * A published file edited in place anyway changes its content blob too, so a blob is only trusted
+ * once its content is checked against its name; one that doesn't match is dropped
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class ContentStore {
+
+  private static Logger logger = LogManager.getLogger( ContentStore.class.getName() );
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  /**
+   * Hex-encoded SHA-256 digest, as returned by {@link #digest(java.io.File)}
+   */
+  private static final Pattern DIGEST = Pattern.compile( "[0-9a-f]{64}" );
+
+  /**
+   * Size and modification time of a content blob when its content was last checked
+   */
+  private static class Stat {
+
+    private final long size;
+    private final long modified;
+
+    private Stat(File file) {
+      this.size = file.length();
+      this.modified = file.lastModified();
+    }
+
+    @Override
+    public boolean equals(Object that) {
+      return that instanceof Stat
+          && this.size == ((Stat) that).size
+          && this.modified == ((Stat) that).modified;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (size ^ modified);
+    }
+
+  }
+
+  private File folder;
+  /**
+   * Blobs whose content was checked against their digest, by digest
+   */
+  private ConcurrentHashMap<String, Stat> verifiedBlobs;
+
+
+  public ContentStore(File folder) {
+    this.folder = folder;
+    this.verifiedBlobs = new ConcurrentHashMap<String, Stat>();
+  }
+
+
+  /**
+   * Publishes a file under the target path, storing its content if not stored yet. A source
+   * already at the target path is published as it is; any other target is replaced at once,
+   * and the content it was published with is deleted once no published file links to it
+   * @param source File to publish
+   * @param target Path to publish the file at
+   * @param previous Digest of the content target was published with; null if none
+   * @return Digest of the file content
+   * @throws java.io.IOException
+   */
+  public String publish(File source, File target, String previous) throws IOException {
+    logger.entry( source, target, previous );
+    logger.debug( "Publishing file content..." );
+    /*
+     * 1) If source is not the target
+     * 1.1) Copy source into a temporary file of the store, computing its digest on the way
+     * 1.2) Keep it as the content blob, unless that content is already stored
+     * 1.3) Link target to the content blob, replacing any previous target
+     * 2) Otherwise
+     * 2.1) Compute the target digest
+     * 2.2) Link the content blob to target if not stored yet; relink target to it if stored apart
+     * 3) Release the previous content of target, unless the same --> ContentStore#release
+     */
+    String digest = null;
+
+    if (!target.exists() || !Files.isSameFile( source.toPath(), target.toPath() )) {
+      File tmp = File.createTempFile( "incoming-", ".tmp", mkdirs(folder) );
+
+      try {
+        digest = copy( source, tmp );
+        File blob = blobOf( digest );
+
+        if (!verified( blob, digest )) {
+          mkdirs( blob.getParentFile() );
+          tmp.setReadOnly();
+          Files.move( tmp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE );
+        }
+      } finally {
+        tmp.delete();
+      }
+
+      link( target, blobOf(digest) );
+    } else {
+      digest = digest( target );
+      File blob = blobOf( digest );
+
+      if (!verified( blob, digest )) {
+        mkdirs( blob.getParentFile() );
+        target.setReadOnly();
+        Files.createLink( blob.toPath(), target.toPath() );
+      } else if (!Files.isSameFile( blob.toPath(), target.toPath() )) {
+        link( target, blob );
+      }
+    }
+
+    if (previous != null && !previous.equals( digest )) {
+      release( previous );
+    }
+
+    return logger.exit( digest );
+  }
+
+  /**
+   * Unpublishes a file, deleting its content once no published file links to it.
+   * Content already gone is not an error
+   * @param target Published file
+   * @param digest Digest of the file content; null if unknown
+   * @throws java.io.IOException
+   */
+  public void unpublish(File target, String digest) throws IOException {
+    logger.entry( target, digest );
+    logger.debug( "Unpublishing file content..." );
+
+    target.delete();
+    release( digest );
+
+    logger.exit();
+  }
+
+  /**
+   * Checks whether some content is already stored, so that it needs not be fetched again.
+   * The stored content is read to check it still matches the digest, unless already checked
+   * and unchanged since
+   * @param digest Digest of the content
+   * @return true if stored; false otherwise, or if the digest is malformed
+   * @throws java.io.IOException
+   */
+  public boolean contains(String digest) throws IOException {
+    return isDigest( digest ) && verified( blobOf(digest), digest );
+  }
+
+  /**
+   * Computes the digest of a file content
+   * @param file File to read
+   * @return Hex-encoded SHA-256 digest
+   * @throws java.io.IOException
+   */
+  public String digest(File file) throws IOException {
+    return copy( file, null );
+  }
+
+
+  /**
+   * Checks whether a string is a well-formed digest: 64 lowercase hex characters
+   * @param digest String to check
+   * @return true if well-formed; false otherwise
+   */
+  private boolean isDigest(String digest) {
+    return digest != null && DIGEST.matcher( digest ).matches();
+  }
+
+  /**
+   * Deletes some content once no published file links to it. Content already gone is not an error
+   * @param digest Digest of the content
+   * @throws java.io.IOException
+   */
+  private void release(String digest) throws IOException {
+    if (!isDigest( digest )) {
+      if (digest != null) logger.warn( String.format("Keeping content of malformed digest -> %s", digest) );
+      return;
+    }
+
+    File blob = blobOf( digest );
+    if (!blob.exists()) return;
+
+    try {
+      Integer links = (Integer) Files.getAttribute( blob.toPath(), "unix:nlink" );
+
+      if (links != null && links <= 1) {
+        blob.delete();
+        verifiedBlobs.remove( digest );
+      }
+    } catch (UnsupportedOperationException e) {
+      // Link count not available: the content is kept
+    }
+  }
+
+  /**
+   * Checks whether a content blob exists and its content still matches its digest,
+   * deleting it otherwise: it was changed through some published file linked to it.
+   * The content is only read again when the size or modification time of the blob
+   * changed since last checked
+   * @param blob Content blob
+   * @param digest Digest the blob is named after
+   * @return true if the blob can be trusted; false otherwise
+   * @throws java.io.IOException
+   */
+  private boolean verified(File blob, String digest) throws IOException {
+    if (!blob.exists()) {
+      verifiedBlobs.remove( digest );
+      return false;
+    }
+
+    Stat stat = new Stat( blob );
+    if (stat.equals( verifiedBlobs.get(digest) )) return true;
+
+    if (digest.equals( digest(blob) )) {
+      verifiedBlobs.put( digest, stat );
+      return true;
+    }
+
+    logger.warn( String.format("Dropping content changed in place -> %s", blob) );
+    blob.delete();
+    verifiedBlobs.remove( digest );
+
+    return false;
+  }
+
+  /**
+   * Reads a file, computing its digest, and copies it to another file if any
+   * @param source File to read
+   * @param target File to write to; null to just compute the digest
+   * @return Hex-encoded digest of the content
+   * @throws java.io.IOException
+   */
+  private String copy(File source, File target) throws IOException {
+    MessageDigest md = newDigest();
+    InputStream in = new DigestInputStream( new FileInputStream(source), md );
+    OutputStream out = (target != null) ? new FileOutputStream( target ) : null;
+
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+
+      while ((read = in.read( buffer )) != -1) {
+        if (out != null) out.write( buffer, 0, read );
+      }
+    } finally {
+      in.close();
+      if (out != null) out.close();
+    }
+
+    return toHex( md.digest() );
+  }
+
+  /**
+   * Links a published file to its content blob, copying the blob if links are not supported.
+   * The link is made under a temporary hidden name first, then moved over the target at once,
+   * so that a previous target is never missing meanwhile
+   * @param target Published file
+   * @param blob Content blob
+   * @throws java.io.IOException
+   */
+  private void link(File target, File blob) throws IOException {
+    File tmp = new File( target.getParentFile(), String.format(".%s.%d.tmp", target.getName(), System.nanoTime()) );
+
+    try {
+      try {
+        Files.createLink( tmp.toPath(), blob.toPath() );
+      } catch (UnsupportedOperationException e) {
+        Files.copy( blob.toPath(), tmp.toPath() );
+        tmp.setReadOnly();
+      }
+
+      Files.move( tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Gets the blob file of some content, within a subfolder named after the first digest byte
+   * @param digest Digest of the content
+   * @return Blob file
+   * @throws java.lang.IllegalArgumentException if the digest is malformed
+   */
+  private File blobOf(String digest) {
+    if (!isDigest( digest )) {
+      throw new IllegalArgumentException( String.format("Malformed digest -> %s", digest) );
+    }
+
+    return new File( new File(folder, digest.substring(0, 2)), digest.substring(2) );
+  }
+
+  /**
+   * Creates a folder along with its parents if necessary
+   * @param dir Folder to create
+   * @return The folder
+   */
+  private File mkdirs(File dir) {
+    if (!dir.exists()) dir.mkdirs();
+    return dir;
+  }
+
+  /**
+   * Creates a new digest instance
+   * @return SHA-256 message digest
+   */
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance( DIGEST_ALGORITHM );
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * Encodes bytes in hexadecimal
+   * @param bytes Bytes to encode
+   * @return Hex string
+   */
+  private String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i]     = HEX[(bytes[i] >> 4) & 0xF];
+      chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+    }
+
+    return new String( chars );
+  }
+
+}
@@ -0,0 +1,60 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+
+/**
+ * Change to the file index: a file added (or updated) or removed, along with the index version it led to
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class FileChange {
+
+  public static final int ADDED   = 0;
+  public static final int REMOVED = 1;
+
+  private long version;
+  private int type;
+  private FileData file;
+
+
+  public FileChange() {}
+
+  public FileChange(long version, int type, FileData file) {
+    this.version = version;
+    this.type = type;
+    this.file = file;
+  }
+
+
+  public long getVersion() { return version; }
+  public void setVersion(long version) { this.version = version; }
+
+  public int getType() { return type; }
+  public void setType(int type) { this.type = type; }
+
+  public FileData getFile() { return file; }
+  public void setFile(FileData file) { this.file = file; }
+
+
+  @Override
+  public String toString() {
+    return String.format( "Change[%d,%s,%s]", version, (type == ADDED) ? "added" : "removed", file );
+  }
+
+}
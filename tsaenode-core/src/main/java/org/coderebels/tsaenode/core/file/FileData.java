@@ -23,15 +23,22 @@ import org.coderebels.tsaenode.core.common.Timestamp;
 
 
 /**
+ * Metadata of a shared file. The serial version is the one of previous releases, and fields
+ * are only ever added, so that nodes running them can still be called
  * @author carles.ml.dev@gmail.com (Carles Muiños)
  */
 public class FileData implements Serializable {
 
+  private static final long serialVersionUID = -8249387350086542284L;
+
   private String filename;
   private String owner;
   private String path;
   private String uri;
   private Timestamp timestamp;
+  private long size;
+  private long modified;
+  private String digest;
 
 
   public FileData() {}
@@ -52,6 +59,21 @@ public class FileData implements Serializable {
   public Timestamp getTimestamp() { return timestamp; }
   public void setTimestamp(Timestamp timestamp) { this.timestamp = timestamp; }
 
+  /**
+   * Size (bytes) and last modification time (ms) of the file when published by its owner
+   */
+  public long getSize() { return size; }
+  public void setSize(long size) { this.size = size; }
+
+  public long getModified() { return modified; }
+  public void setModified(long modified) { this.modified = modified; }
+
+  /**
+   * Hex-encoded SHA-256 digest of the file content, naming it in the owner content store
+   */
+  public String getDigest() { return digest; }
+  public void setDigest(String digest) { this.digest = digest; }
+
 
   @Override
   public String toString() {
@@ -60,12 +82,37 @@ public class FileData implements Serializable {
 
   @Override
   public boolean equals(Object that) {
-    return this.getClass().getName().equals( that.getClass().getName() )
-        && this.filename.equals( ((FileData) that).getFilename() )
-        && this.owner.equals( ((FileData) that).getOwner() )
-        && this.path.equals( ((FileData) that).getPath() )
-        && this.uri.equals( ((FileData) that).getURI() )
-        && this.timestamp.equals( ((FileData) that).getTimestamp() );
+    if (this == that) return true;
+    if (!(that instanceof FileData)) return false;
+
+    FileData fd = (FileData) that;
+
+    return equal( this.filename, fd.getFilename() )
+        && equal( this.owner, fd.getOwner() )
+        && equal( this.path, fd.getPath() )
+        && equal( this.uri, fd.getURI() )
+        && equal( this.timestamp, fd.getTimestamp() );
+  }
+
+  /**
+   * Consistent with {@link #equals(java.lang.Object)}: files are hashed by path and timestamp,
+   * which set them apart already
+   */
+  @Override
+  public int hashCode() {
+    int hash = (path == null) ? 0 : path.hashCode();
+    return 31 * hash + ((timestamp == null) ? 0 : timestamp.hashCode());
+  }
+
+
+  /**
+   * Compares two fields that may be null
+   * @param a First field
+   * @param b Second field
+   * @return true if both are null or equal; false otherwise
+   */
+  private static boolean equal(Object a, Object b) {
+    return (a == null) ? b == null : a.equals( b );
   }
 
 }
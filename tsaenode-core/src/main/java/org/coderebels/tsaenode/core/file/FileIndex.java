@@ -17,25 +17,67 @@
 
 package org.coderebels.tsaenode.core.file;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import org.coderebels.tsaenode.core.common.Page;
+
 
 /**
+ * Files shared within the group, hashed by path, along with secondary indexes by owner and by
+ * file name. Secondary indexes are sorted by file name and path, so that files can be paged
+ * through and searched by name prefix. Updates hold the index lock to keep all of them
+ * consistent; lookups don't.
+ *
+ * Every change moves the index to a new version, and the latest ones are kept so that clients
+ * can catch up incrementally --> FileIndex#getChangesSince
  * @author carles.ml.dev@gmail.com (Carles Muiños)
  */
 public class FileIndex {
 
   private static Logger logger = LogManager.getLogger( FileIndex.class.getName() );
+  /**
+   * Separates file name and path in sort keys, sorting before any character
+   */
+  private static final char SEPARATOR = '\u0000';
+  /**
+   * Number of changes kept by default, and maximum number of changes in a delta
+   */
+  private static final int DEFAULT_HISTORY_SIZE = 10000;
+  private static final int MAX_DELTA_SIZE = 1000;
 
-  private List<FileData> data;
+  private ConcurrentHashMap<String, FileData> data;
+  private ConcurrentHashMap<String, ConcurrentSkipListMap<String, FileData>> byOwner;
+  private ConcurrentSkipListMap<String, FileData> byFilename;
+  /**
+   * Identifies this instance of the index, as versions start over when the node restarts
+   */
+  private long epoch;
+  private volatile long version;
+  /**
+   * Latest changes, the one leading to version v at position v % length
+   */
+  private FileChange[] history;
 
 
   public FileIndex() {
-    data = new Vector<FileData>();
+    this( DEFAULT_HISTORY_SIZE );
+  }
+
+  public FileIndex(int historySize) {
+    data = new ConcurrentHashMap<String, FileData>();
+    byOwner = new ConcurrentHashMap<String, ConcurrentSkipListMap<String, FileData>>();
+    byFilename = new ConcurrentSkipListMap<String, FileData>();
+    epoch = System.currentTimeMillis();
+    history = new FileChange[Math.max( 1, historySize )];
   }
 
 
@@ -47,7 +89,102 @@ public class FileIndex {
     logger.entry();
     logger.debug( "Retrieving index data..." );
 
-    return logger.exit( data );
+    List<FileData> files = new Vector<FileData>( data.values() );
+
+    return logger.exit( files );
+  }
+
+  /**
+   * Gets a page of files from the index, sorted by file name and path
+   * @param cursor Cursor returned along with the previous page; null for the first one
+   * @param pageSize Maximum number of files in the page
+   * @param owner Identifier of the node owning the files; null for any
+   * @param prefix Prefix of the name of the files; null for any
+   * @return Page of file data in index
+   */
+  public Page<FileData> getData(String cursor, int pageSize, String owner, String prefix) {
+    logger.entry( cursor, pageSize, owner, prefix );
+    logger.debug( "Retrieving index data page..." );
+
+    Page<FileData> page = new Page<FileData>();
+    NavigableMap<String, FileData> sorted = (owner == null) ? byFilename : byOwner.get( owner );
+
+    if (sorted != null) {
+      String from = (cursor != null) ? cursor : (prefix != null) ? prefix : "";
+      String last = null;
+
+      for (Map.Entry<String, FileData> entry : sorted.tailMap( from, cursor == null ).entrySet()) {
+        if (prefix != null && !entry.getKey().startsWith( prefix )) break;
+
+        if (page.getItems().size() >= pageSize) {
+          page.setNextCursor( last );
+          break;
+        }
+
+        page.getItems().add( entry.getValue() );
+        last = entry.getKey();
+      }
+    }
+
+    return logger.exit( page );
+  }
+
+  /**
+   * Gets the number of files in the index
+   * @return Number of files indexed
+   */
+  public int size() {
+    return data.size();
+  }
+
+  public long getEpoch() { return epoch; }
+
+  public long getVersion() { return version; }
+
+  /**
+   * Gets the changes to the index since the specified version, up to a maximum per delta.
+   * If they are no longer kept, or the version is unknown or negative, the delta is flagged as a reset
+   * and only carries the current version
+   * @param since Version the changes must follow; 0 for every change
+   * @return Changes to the index since that version
+   */
+  public synchronized FileIndexDelta getChangesSince(long since) {
+    logger.entry( since );
+    logger.debug( "Retrieving index changes..." );
+
+    FileIndexDelta delta = new FileIndexDelta();
+    delta.setEpoch( epoch );
+    delta.setFromVersion( since );
+
+    if (since < 0 || since > version || version - since > history.length) {
+      delta.setReset( true );
+      delta.setToVersion( version );
+      return logger.exit( delta );
+    }
+
+    long to = Math.min( version, since + MAX_DELTA_SIZE );
+
+    for (long v = since + 1; v <= to; v++) {
+      delta.getChanges().add( history[(int) (v % history.length)] );
+    }
+
+    delta.setToVersion( to );
+    delta.setMore( to < version );
+
+    return logger.exit( delta );
+  }
+
+  /**
+   * Waits until the index moves past the specified version, or the timeout expires
+   * @param since Version already seen
+   * @param timeout Maximum time to wait (ms)
+   * @return Current version of the index
+   * @throws java.lang.InterruptedException
+   */
+  public synchronized long awaitChange(long since, long timeout) throws InterruptedException {
+    if (version == since) wait( timeout );
+
+    return version;
   }
 
   /**
@@ -58,16 +195,74 @@ public class FileIndex {
     logger.entry( file );
     logger.debug( "Adding file to Index..." );
     //
-    // Atention: indexOf(file) would return the zero-based index if file.equals(previous)
-    // but this will never happen, as their timestamp will always be different --> file.timestamp > previous.timestamp
+    // A file already indexed under the same path is replaced, as the new one
+    // will always be newer --> file.timestamp > previous.timestamp
     //
-    FileData previous = search( file.getPath() );
+    FileData previous = data.put( file.getPath(), file );
 
     if (previous != null) {
-      data.remove( previous );
+      unlink( previous );
+    }
+
+    link( file );
+    record( FileChange.ADDED, file );
+
+    logger.exit();
+  }
+
+  /**
+   * Adds or updates a batch of files in the index
+   * @param files Files to add
+   */
+  public synchronized void addAll(List<FileData> files) {
+    logger.entry( files );
+    logger.debug( "Adding files to Index..." );
+
+    for (FileData file : files) {
+      add( file );
+    }
+
+    logger.exit();
+  }
+
+  /**
+   * Removes a batch of files from the index
+   * @param files Files to remove
+   */
+  public synchronized void removeAll(List<FileData> files) {
+    logger.entry( files );
+    logger.debug( "Removing files from Index..." );
+
+    for (FileData file : files) {
+      remove( file );
+    }
+
+    logger.exit();
+  }
+
+  /**
+   * Replaces every file owned by the specified node in the index. Only actual changes are recorded:
+   * files no longer owned are removed, and new or updated ones added
+   * @param owner Identifier of the node owning the files
+   * @param files Files currently owned by the node
+   */
+  public synchronized void replaceAll(String owner, List<FileData> files) {
+    logger.entry( owner, files );
+    logger.debug( "Replacing files in Index..." );
+
+    Map<String, FileData> replacing = new HashMap<String, FileData>();
+
+    for (FileData file : files) {
+      replacing.put( file.getPath(), file );
+    }
+
+    for (FileData file : searchByOwner( owner )) {
+      if (!replacing.containsKey( file.getPath() )) remove( file );
     }
 
-    data.add( file );
+    for (FileData file : files) {
+      if (!file.equals( data.get(file.getPath()) )) add( file );
+    }
 
     logger.exit();
   }
@@ -76,11 +271,14 @@ public class FileIndex {
    * Removes a file from the index if exists
    * @param file File to remove
    */
-  public void remove(FileData file) {
+  public synchronized void remove(FileData file) {
     logger.entry( file );
     logger.debug( "Removing file from Index..." );
 
-    data.remove( file );
+    if (data.remove( file.getPath(), file )) {
+      unlink( file );
+      record( FileChange.REMOVED, file );
+    }
 
     logger.exit();
   }
@@ -94,13 +292,107 @@ public class FileIndex {
     logger.entry( filePath );
     logger.debug( "Searching file in Index..." );
 
-    for (FileData fd : data) {
-      if (fd.getPath().equals(filePath)) {
-        return logger.exit( fd );
+    FileData fd = data.get( filePath );
+
+    return logger.exit( fd );
+  }
+
+  /**
+   * Returns the files owned by the specified node
+   * @param owner Identifier of the node owning the files
+   * @return List of files owned by node
+   */
+  public List<FileData> searchByOwner(String owner) {
+    logger.entry( owner );
+    logger.debug( "Searching files by owner in Index..." );
+
+    Map<String, FileData> owned = byOwner.get( owner );
+    List<FileData> files = (owned == null) ? new Vector<FileData>() : new Vector<FileData>( owned.values() );
+
+    return logger.exit( files );
+  }
+
+  /**
+   * Returns the files with the specified name, whatever their folder and owner
+   * @param filename Name of the files to search
+   * @return List of files with that name
+   */
+  public List<FileData> searchByFilename(String filename) {
+    logger.entry( filename );
+    logger.debug( "Searching files by name in Index..." );
+
+    String from = filename + SEPARATOR;
+    List<FileData> files = new Vector<FileData>( byFilename.subMap(from, from + Character.MAX_VALUE).values() );
+
+    return logger.exit( files );
+  }
+
+
+  /**
+   * Adds a file to the secondary indexes
+   * @param file File to add
+   */
+  private void link(FileData file) {
+    String key = sortKey( file );
+    String owner = file.getOwner();
+
+    if (owner != null) {
+      ConcurrentSkipListMap<String, FileData> owned = byOwner.get( owner );
+
+      if (owned == null) {
+        owned = new ConcurrentSkipListMap<String, FileData>();
+        byOwner.put( owner, owned );
+      }
+
+      owned.put( key, file );
+    }
+
+    byFilename.put( key, file );
+  }
+
+  /**
+   * Removes a file from the secondary indexes, along with the owner entry once no file is left under it
+   * @param file File to remove
+   */
+  private void unlink(FileData file) {
+    String key = sortKey( file );
+    String owner = file.getOwner();
+
+    if (owner != null) {
+      ConcurrentSkipListMap<String, FileData> owned = byOwner.get( owner );
+
+      if (owned != null && owned.remove( key, file ) && owned.isEmpty()) {
+        byOwner.remove( owner );
       }
     }
 
-    return logger.exit( null );
+    byFilename.remove( key, file );
+  }
+
+  /**
+   * Moves the index to a new version, keeping the change that led to it, and wakes up
+   * anyone waiting for changes
+   * @param type Type of change
+   * @param file File added or removed
+   */
+  private void record(int type, FileData file) {
+    long next = version + 1;
+
+    history[(int) (next % history.length)] = new FileChange( next, type, file );
+    version = next;
+
+    notifyAll();
+  }
+
+  /**
+   * Gets the key a file is sorted by in the secondary indexes: its name, then its path
+   * @param file File
+   * @return Sort key of file
+   */
+  private String sortKey(FileData file) {
+    String filename = (file.getFilename() != null) ? file.getFilename() : "";
+
+    return filename + SEPARATOR + file.getPath();
   }
 
 }
@@ -0,0 +1,128 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Vector;
+
+import org.coderebels.tsaenode.core.operation.OperationCodec;
+
+
+/**
+ * Changes to the file index between two versions. Versions only grow within an epoch: a delta from
+ * another epoch (the node restarted), or flagged as a reset (the changes requested are no longer
+ * kept), means the whole index must be requested again
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class FileIndexDelta implements Serializable {
+
+  private long epoch;
+  private long fromVersion;
+  private long toVersion;
+  private boolean reset;
+  private boolean more;
+  private transient List<FileChange> changes;
+
+
+  public FileIndexDelta() {
+    changes = new Vector<FileChange>();
+  }
+
+
+  public long getEpoch() { return epoch; }
+  public void setEpoch(long epoch) { this.epoch = epoch; }
+
+  /**
+   * Version the changes follow (excluded)
+   */
+  public long getFromVersion() { return fromVersion; }
+  public void setFromVersion(long fromVersion) { this.fromVersion = fromVersion; }
+
+  /**
+   * Version the changes lead to (included), to request the following ones from
+   */
+  public long getToVersion() { return toVersion; }
+  public void setToVersion(long toVersion) { this.toVersion = toVersion; }
+
+  public boolean isReset() { return reset; }
+  public void setReset(boolean reset) { this.reset = reset; }
+
+  /**
+   * Whether there are changes past the last version in the delta
+   */
+  public boolean hasMore() { return more; }
+  public void setMore(boolean more) { this.more = more; }
+
+  public List<FileChange> getChanges() { return changes; }
+  public void setChanges(List<FileChange> changes) { this.changes = changes; }
+
+
+  /**
+   * Writes the delta: changes are consecutive, so only their type is written along with
+   * their files, in the compact binary format
+   * @param out Stream to write to
+   * @throws java.io.IOException
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+
+    List<FileData> files = new Vector<FileData>( changes.size() );
+    byte[] types = new byte[changes.size()];
+
+    for (int i = 0; i < types.length; i++) {
+      types[i] = (byte) changes.get( i ).getType();
+      files.add( changes.get(i).getFile() );
+    }
+
+    out.writeInt( types.length );
+    out.write( types );
+    new OperationCodec().writeFiles( out, files );
+  }
+
+  /**
+   * Reads a delta written by {@link #writeObject(java.io.ObjectOutputStream)}
+   * @param in Stream to read from
+   * @throws java.io.IOException
+   * @throws java.lang.ClassNotFoundException
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+
+    byte[] types = new byte[in.readInt()];
+    in.readFully( types );
+    List<FileData> files = new OperationCodec().readFiles( in );
+
+    changes = new Vector<FileChange>( types.length );
+    long version = toVersion - types.length;
+
+    for (int i = 0; i < types.length; i++) {
+      changes.add( new FileChange(++version, types[i], files.get(i)) );
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format( "Delta[%d,%d..%d,%d changes%s]", epoch, fromVersion, toVersion, changes.size(), reset ? ",reset" : "" );
+  }
+
+}
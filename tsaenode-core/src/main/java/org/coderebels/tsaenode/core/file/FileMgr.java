@@ -21,7 +21,12 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
@@ -29,6 +34,7 @@ import com.typesafe.config.ConfigFactory;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.exception.FileMgrException;
 
 
@@ -38,6 +44,8 @@ import org.coderebels.tsaenode.core.exception.FileMgrException;
 public class FileMgr implements IFileMgr {
 
   private static Logger logger = LogManager.getLogger( FileMgr.class.getName() );
+
+  private static final String CONTENT_FOLDER = ".objects";
   /**
    * Local node identifier
    */
@@ -50,10 +58,18 @@ public class FileMgr implements IFileMgr {
    * Publication folder URI in local node
    */
   private String pubFolderURI;
+  /**
+   * Store of the content of the files published by the local node, hidden in the publication folder
+   */
+  private ContentStore contentStore;
   /**
    * Index of files shared within the group
    */
   private FileIndex fileIndex;
+  /**
+   * Feed pushing the changes to the file index to subscribed listeners; created on first subscription
+   */
+  private ChangeFeed changeFeed;
 
 
   public FileMgr() {
@@ -63,7 +79,8 @@ public class FileMgr implements IFileMgr {
     localNodeId   = conf.getString( "nodeId" );
     pubFolderPath = conf.getString( "pubFolderPath" );
     pubFolderURI  = conf.getString( "pubFolderURI" );
-    fileIndex     = new FileIndex();
+    contentStore  = new ContentStore( new File(pubFolderPath, CONTENT_FOLDER) );
+    fileIndex     = new FileIndex( conf.getInt("changeHistorySize") );
   }
 
 
@@ -120,6 +137,7 @@ public class FileMgr implements IFileMgr {
         doAddFile( file );
         file.setPath( pubFolderPath + File.separator + filename );
         file.setURI( pubFolderURI + "/" + filename );
+        stat( file );
       }
 
       file.setFilename( filename );
@@ -170,6 +188,258 @@ public class FileMgr implements IFileMgr {
     return logger.exit( done );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#addFiles(java.util.List)
+   */
+  @Override
+  public boolean addFiles(List<FileData> files) throws FileMgrException {
+    logger.entry( files );
+    logger.debug( "Adding files..." );
+    /*
+     * 1) For each file belonging to local node --> file.timestamp.nodeId == this.localNodeId
+     * 1.1) Add file to publication folder --> FileMgr#doAddFile
+     * 2) Update file index adding all the passed in FileData instances at once
+     * 3) Return true if done successfully
+     */
+    boolean done = false;
+
+    try {
+      for (FileData file : files) {
+        String filename = basename( file.getPath() );
+
+        if (file.getOwner().equals(localNodeId)) {
+          doAddFile( file );
+          file.setPath( pubFolderPath + File.separator + filename );
+          file.setURI( pubFolderURI + "/" + filename );
+          stat( file );
+        }
+
+        file.setFilename( filename );
+      }
+
+      fileIndex.addAll( files );
+
+      done = true;
+    } catch (Exception e) {
+      done = false;
+      String mesg = String.format( "An error occurred while adding the files -> %d files", files.size() );
+      String method = String.format( "FileMgr#addFiles( %s )", files );
+      throw new FileMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#removeFiles(java.util.List)
+   */
+  @Override
+  public boolean removeFiles(List<FileData> files) throws FileMgrException {
+    logger.entry( files );
+    logger.debug( "Removing files..." );
+    /*
+     * 1) For each file belonging to local node --> file.timestamp.nodeId == this.localNodeId
+     * 1.1) Delete the file from the publication folder --> FileMgr#doRemoveFile
+     * 2) Update file index removing all the passed in FileData instances at once
+     * 3) Return true if done successfully
+     */
+    boolean done = false;
+
+    try {
+      for (FileData file : files) {
+        //
+        // A file deleted from the publication folder while the node was down is only unindexed
+        //
+        if (file.getOwner().equals(localNodeId) && new File(file.getPath()).exists()) {
+          doRemoveFile( file );
+        }
+      }
+
+      fileIndex.removeAll( files );
+
+      done = true;
+    } catch (Exception e) {
+      done = false;
+      String mesg = String.format( "An error occurred while removing the files -> %d files", files.size() );
+      String method = String.format( "FileMgr#removeFiles( %s )", files );
+      throw new FileMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#replaceFiles(java.lang.String, java.util.List)
+   */
+  @Override
+  public boolean replaceFiles(String owner, List<FileData> files) throws FileMgrException {
+    logger.entry( owner, files );
+    logger.debug( "Replacing files..." );
+    /*
+     * 1) Update file index replacing the files owned by the node
+     * 2) Return true if done successfully
+     */
+    //
+    // Only the index is replaced: the publication folder of the local node
+    // already holds its own files, and remote files are never copied
+    //
+    boolean done = false;
+
+    try {
+      fileIndex.replaceAll( owner, files );
+
+      done = true;
+    } catch (Exception e) {
+      done = false;
+      String mesg = String.format( "An error occurred while replacing the files of node -> %s", owner );
+      String method = String.format( "FileMgr#replaceFiles( %s, %s )", owner, files );
+      throw new FileMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#indexFiles(java.util.List)
+   */
+  @Override
+  public boolean indexFiles(List<FileData> files) throws FileMgrException {
+    logger.entry( files );
+    logger.debug( "Indexing files..." );
+
+    fileIndex.addAll( files );
+
+    return logger.exit( true );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#unindexFiles(java.util.List)
+   */
+  @Override
+  public boolean unindexFiles(List<FileData> files) throws FileMgrException {
+    logger.entry( files );
+    logger.debug( "Unindexing files..." );
+
+    fileIndex.removeAll( files );
+
+    return logger.exit( true );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#getChangedFiles(java.util.List)
+   */
+  @Override
+  public List<String> getChangedFiles(List<String> files) {
+    logger.entry( files );
+    logger.debug( "Searching new or modified files..." );
+    /*
+     * 1) Index the files published by the local node by file name
+     * 2) For each file in the publication folder
+     * 2.1) If not published, or its size or modification time differ from the published ones, it has changed
+     */
+    //
+    // Files are copied flat into the publication folder, so their name identifies them
+    //
+    Map<String, FileData> published = new HashMap<String, FileData>();
+
+    for (FileData fd : fileIndex.searchByOwner(localNodeId)) {
+      published.put( fd.getFilename(), fd );
+    }
+
+    List<String> changed = new Vector<String>();
+
+    for (String file : files) {
+      File f = new File( file );
+      FileData fd = published.get( f.getName() );
+
+      if (fd == null || fd.getSize() != f.length() || fd.getModified() != f.lastModified()) {
+        changed.add( file );
+      }
+    }
+
+    return logger.exit( changed );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#getMissingFiles(java.util.List)
+   */
+  @Override
+  public List<String> getMissingFiles(List<String> files) {
+    logger.entry( files );
+    logger.debug( "Searching missing files..." );
+    /*
+     * 1) For each file published by the local node
+     * 1.1) If not in the publication folder, it is missing
+     */
+    Set<String> present = new HashSet<String>();
+
+    for (String file : files) {
+      present.add( new File(file).getName() );
+    }
+
+    List<String> missing = new Vector<String>();
+
+    for (FileData fd : fileIndex.searchByOwner(localNodeId)) {
+      if (!present.contains( fd.getFilename() )) missing.add( fd.getPath() );
+    }
+
+    return logger.exit( missing );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#hasContent(java.lang.String)
+   */
+  @Override
+  public boolean hasContent(String digest) {
+    try {
+      return contentStore.contains( digest );
+    } catch (IOException e) {
+      logger.catching( e );
+      return false;
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#getChangesSince(long)
+   */
+  @Override
+  public FileIndexDelta getChangesSince(long version) {
+    logger.entry( version );
+    logger.debug( "Retrieving file index changes..." );
+
+    FileIndexDelta delta = fileIndex.getChangesSince( version );
+
+    return logger.exit( delta );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#subscribe(org.coderebels.tsaenode.core.file.IFileIndexListener)
+   */
+  @Override
+  public synchronized void subscribe(IFileIndexListener listener) {
+    if (changeFeed == null) changeFeed = new ChangeFeed( fileIndex );
+
+    changeFeed.subscribe( listener );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#unsubscribe(org.coderebels.tsaenode.core.file.IFileIndexListener)
+   */
+  @Override
+  public synchronized void unsubscribe(IFileIndexListener listener) {
+    if (changeFeed != null) changeFeed.unsubscribe( listener );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#close()
+   */
+  @Override
+  public synchronized void close() {
+    if (changeFeed != null) changeFeed.close();
+
+    changeFeed = null;
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.file.IFileMgr#getFileIndex()
    */
@@ -183,10 +453,23 @@ public class FileMgr implements IFileMgr {
     return logger.exit( index );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.file.IFileMgr#getFileIndex(java.lang.String, int, java.lang.String, java.lang.String)
+   */
+  @Override
+  public Page<FileData> getFileIndex(String cursor, int pageSize, String owner, String prefix) {
+    logger.entry( cursor, pageSize, owner, prefix );
+    logger.debug( "Retrieving file index page..." );
+
+    Page<FileData> page = fileIndex.getData( cursor, pageSize, owner, prefix );
+
+    return logger.exit( page );
+  }
+
 
   /**
-   * Copies file to local publication folder
-   * @param file File to copy
+   * Publishes file in local publication folder, its content kept once in the content store
+   * @param file File to publish
    * @return true if done successfully; false otherwise
    * @throws java.lang.Exception
    */
@@ -194,7 +477,8 @@ public class FileMgr implements IFileMgr {
     logger.entry( file );
     logger.debug( "Copying file to publication folder..." );
     /*
-     * 1) Copy file to local publication folder
+     * 1) Link file in local publication folder to its content, stored if not stored yet, releasing the one published before --> ContentStore#publish
+     * 2) Record the content digest
      */
     File fin = new File( file.getPath() );
 
@@ -206,10 +490,9 @@ public class FileMgr implements IFileMgr {
 
     String newPathToFile = pubFolderPath + File.separator + basename( file.getPath() );
     File fout = new File( newPathToFile );
+    FileData previous = fileIndex.search( newPathToFile );
 
-    if (!fout.exists()) {
-      Files.copy( fin.toPath(), fout.toPath() );
-    }
+    file.setDigest( contentStore.publish(fin, fout, (previous != null) ? previous.getDigest() : null) );
 
     return logger.exit( true );
   }
@@ -224,7 +507,7 @@ public class FileMgr implements IFileMgr {
     logger.entry( file );
     logger.debug( "Deleting file from publication folder..." );
     /*
-     * 1) Delete file from local publication folder
+     * 1) Delete file from local publication folder, along with its content if no longer published
      */
     boolean done = false;
 
@@ -236,10 +519,24 @@ public class FileMgr implements IFileMgr {
       throw new FileMgrException( mesg, method );
     }
 
-    done = f.delete();
+    contentStore.unpublish( f, file.getDigest() );
+
+    done = !f.exists();
     return logger.exit( done );
   }
 
+  /**
+   * Sets the size and last modification time of a file from its published copy, so that later
+   * changes to it can be told apart at startup --> FileMgr#getChangedFiles
+   * @param file File published
+   */
+  private void stat(FileData file) {
+    File published = new File( file.getPath() );
+
+    file.setSize( published.length() );
+    file.setModified( published.lastModified() );
+  }
+
   /**
    * Gets the basename of the file
    * @param pathToFile Absolute path to file
@@ -0,0 +1,152 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+
+/**
+ * Scans the publication folder of the local node at startup. Entries are checked by several
+ * threads, each one over its own share of the folder listing, and the files found are returned
+ * at once, so that they are added within a single batch operation
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class FolderScanner {
+
+  private static Logger logger = LogManager.getLogger( FolderScanner.class.getName() );
+  /**
+   * Number of steps progress is reported in
+   */
+  private static final int PROGRESS_STEPS = 10;
+
+  private File folder;
+  private int threads;
+  /**
+   * Number of entries checked so far, and time taken by the last scan (ms)
+   */
+  private AtomicInteger scanned;
+  private volatile long lastDuration;
+
+
+  public FolderScanner(File folder, int threads) {
+    this.folder = folder;
+    this.threads = Math.max( 1, threads );
+    this.scanned = new AtomicInteger();
+  }
+
+
+  public long getLastDuration() { return lastDuration; }
+
+
+  /**
+   * Gets the regular files within the folder, reporting progress as entries are checked.
+   * Folders and hidden files are skipped
+   * @return List of absolute paths of the files found, sorted
+   * @throws java.lang.Exception
+   */
+  public List<String> scan() throws Exception {
+    logger.entry();
+    logger.debug( "Scanning folder..." );
+    /*
+     * 1) List the folder entries
+     * 2) Split them into a share per thread and check every share in parallel --> FolderScanner#scanShare
+     * 3) Gather the files found by every thread
+     */
+    long start = System.nanoTime();
+
+    File[] entries = folder.listFiles();
+    if (entries == null) entries = new File[0];
+
+    int total = entries.length;
+    int shareSize = (total + threads - 1) / threads;
+    List<String> found = new Vector<String>( total );
+
+    scanned.set( 0 );
+
+    ExecutorService executor = Executors.newFixedThreadPool( threads );
+
+    try {
+      List<Future<List<String>>> shares = new Vector<Future<List<String>>>();
+
+      for (int from = 0; from < total; from += shareSize) {
+        final List<File> share = Arrays.asList( entries ).subList( from, Math.min(total, from + shareSize) );
+        final int totalEntries = total;
+
+        shares.add( executor.submit(new Callable<List<String>>() {
+          @Override
+          public List<String> call() throws Exception {
+            return scanShare( share, totalEntries );
+          }
+        }) );
+      }
+
+      for (Future<List<String>> share : shares) {
+        found.addAll( share.get() );
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Collections.sort( found );
+    lastDuration = (System.nanoTime() - start) / 1000000;
+
+    logger.info( String.format("Scanned %d entries in %d ms: %d files found -> %s", total, lastDuration, found.size(), folder) );
+
+    return logger.exit( found );
+  }
+
+
+  /**
+   * Checks a share of the folder entries
+   * @param share Entries to check
+   * @param total Number of entries in the folder, to report progress
+   * @return List of absolute paths of the files among the entries
+   */
+  private List<String> scanShare(List<File> share, int total) {
+    List<String> files = new Vector<String>( share.size() );
+    int step = Math.max( 1, total / PROGRESS_STEPS );
+
+    for (File entry : share) {
+      if (entry.isFile() && !entry.isHidden()) {
+        files.add( entry.getAbsolutePath() );
+      }
+
+      int count = scanned.incrementAndGet();
+
+      if (count % step == 0) {
+        logger.info( String.format("Scanning publication folder: %d/%d entries", count, total) );
+      }
+    }
+
+    return files;
+  }
+
+}
@@ -19,6 +19,7 @@ package org.coderebels.tsaenode.core.file;
 
 import java.util.List;
 
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.exception.FileMgrException;
 
 
@@ -57,10 +58,108 @@ public interface IFileMgr {
    */
   public boolean removeFile(FileData file) throws FileMgrException;
 
+  /**
+   * Adds a batch of new files to publication folder
+   * @param files Metadata of the files to add
+   * @return true if done successfully; false otherwise
+   * @throws org.coderebels.tsaenode.core.exception.FileMgrException
+   */
+  public boolean addFiles(List<FileData> files) throws FileMgrException;
+
+  /**
+   * Removes a batch of files from publication folder
+   * @param files Metadata of the files to remove
+   * @return true if done successfully; false otherwise
+   * @throws org.coderebels.tsaenode.core.exception.FileMgrException
+   */
+  public boolean removeFiles(List<FileData> files) throws FileMgrException;
+
+  /**
+   * Replaces in the file index every file owned by the specified node
+   * @param owner Identifier of the node owning the files
+   * @param files Metadata of all the files currently owned by the node
+   * @return true if done successfully; false otherwise
+   * @throws org.coderebels.tsaenode.core.exception.FileMgrException
+   */
+  public boolean replaceFiles(String owner, List<FileData> files) throws FileMgrException;
+
+  /**
+   * Adds a batch of files to the file index only, leaving the publication folder untouched
+   * @param files Metadata of the files to index
+   * @return true if done successfully; false otherwise
+   * @throws org.coderebels.tsaenode.core.exception.FileMgrException
+   */
+  public boolean indexFiles(List<FileData> files) throws FileMgrException;
+
+  /**
+   * Removes a batch of files from the file index only, leaving the publication folder untouched
+   * @param files Metadata of the files to unindex
+   * @return true if done successfully; false otherwise
+   * @throws org.coderebels.tsaenode.core.exception.FileMgrException
+   */
+  public boolean unindexFiles(List<FileData> files) throws FileMgrException;
+
+  /**
+   * Gets the files in the publication folder not published yet by the local node, or modified
+   * since then, according to their size and last modification time
+   * @param files Absolute paths of the files currently in the publication folder
+   * @return List of paths of the new or modified files
+   */
+  public List<String> getChangedFiles(List<String> files);
+
+  /**
+   * Gets the files published by the local node no longer in the publication folder
+   * @param files Absolute paths of the files currently in the publication folder
+   * @return List of paths of the missing files, as indexed
+   */
+  public List<String> getMissingFiles(List<String> files);
+
+  /**
+   * Checks whether the local node already stores some content, so that downloading it can be skipped
+   * @param digest Digest of the content --> FileData#getDigest
+   * @return true if stored; false otherwise
+   */
+  public boolean hasContent(String digest);
+
   /**
    * Gets the index of files shared by the node
    * @return File index
    */
   public List<FileData> getFileIndex();
 
+  /**
+   * Gets a page of the index of files shared by the node, sorted by file name and path
+   * @param cursor Cursor returned along with the previous page; null for the first one
+   * @param pageSize Maximum number of files in the page
+   * @param owner Identifier of the node owning the files; null for any
+   * @param prefix Prefix of the name of the files; null for any
+   * @return Page of file index
+   */
+  public Page<FileData> getFileIndex(String cursor, int pageSize, String owner, String prefix);
+
+  /**
+   * Gets the changes to the file index since the specified version
+   * @param version Version the changes must follow; 0 for every change
+   * @return Changes to the file index since that version
+   */
+  public FileIndexDelta getChangesSince(long version);
+
+  /**
+   * Subscribes a listener to the changes to the file index, pushed as they happen
+   * @param listener Listener to subscribe
+   */
+  public void subscribe(IFileIndexListener listener);
+
+  /**
+   * Unsubscribes a listener from the changes to the file index
+   * @param listener Listener to unsubscribe
+   */
+  public void unsubscribe(IFileIndexListener listener);
+
+  /**
+   * Stops pushing the changes to the file index, once the local node disconnects.
+   * Every listener is unsubscribed
+   */
+  public void close();
+
 }
@@ -0,0 +1,118 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.net;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+
+/**
+ * Second remote endpoint of an object already exported with the default transport,
+ * serving the same calls over the compressed transport. Peers not supporting it
+ * keep on reaching the object through the default endpoint
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class CompressedEndpoint {
+
+  private static Logger logger = LogManager.getLogger( CompressedEndpoint.class.getName() );
+  /**
+   * Suffix appended to the registry name of the object to bind the compressed endpoint
+   */
+  private static final String NAME_SUFFIX = "-compressed";
+  /**
+   * Proxy delegating every call to the target object
+   */
+  private Remote proxy;
+
+
+  /**
+   * Gets the registry name the compressed endpoint of an object is bound to
+   * @param name Registry name of the object
+   * @return Registry name of its compressed endpoint
+   */
+  public static String nameFor(String name) {
+    return name + NAME_SUFFIX;
+  }
+
+
+  /**
+   * Exports a new endpoint for the target object over the compressed transport
+   * @param target Object to serve
+   * @param remoteInterface Remote interface of the object
+   * @return Object to bind in the registry
+   * @throws java.rmi.RemoteException
+   */
+  public <T extends Remote> T export(final T target, Class<T> remoteInterface) throws RemoteException {
+    logger.entry( remoteInterface );
+    logger.debug( "Exporting compressed endpoint..." );
+    //
+    // An object can only be exported once, so the endpoint exports a proxy to it instead
+    //
+    T endpoint = remoteInterface.cast( Proxy.newProxyInstance(
+        remoteInterface.getClassLoader(), new Class<?>[] { remoteInterface },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            try {
+              return method.invoke( target, args );
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          }
+        }) );
+
+    UnicastRemoteObject.exportObject( endpoint, 0,
+                                      new CompressedClientSocketFactory(), new CompressedServerSocketFactory() );
+    proxy = endpoint;
+
+    return logger.exit( endpoint );
+  }
+
+  /**
+   * Stops serving calls through the compressed endpoint
+   * @return true if done successfully; false otherwise
+   */
+  public boolean unexport() {
+    logger.entry();
+    logger.debug( "Unexporting compressed endpoint..." );
+
+    boolean done = true;
+
+    if (proxy != null) {
+      try {
+        done = UnicastRemoteObject.unexportObject( proxy, true );
+        proxy = null;
+      } catch (NoSuchObjectException e) {
+        logger.catching( e );
+        done = false;
+      }
+    }
+
+    return logger.exit( done );
+  }
+
+}
@@ -0,0 +1,57 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.net;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+
+
+/**
+ * Server side of the compressed transport
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class CompressedServerSocketFactory implements RMIServerSocketFactory {
+
+  /* (non-Javadoc)
+   * @see java.rmi.server.RMIServerSocketFactory#createServerSocket(int)
+   */
+  @Override
+  public ServerSocket createServerSocket(int port) throws IOException {
+    return new ServerSocket( port ) {
+      @Override
+      public Socket accept() throws IOException {
+        Socket socket = new CompressedSocket();
+        implAccept( socket );
+        return socket;
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object that) {
+    return that != null && this.getClass() == that.getClass();
+  }
+
+  @Override
+  public int hashCode() {
+    return getClass().hashCode();
+  }
+
+}
@@ -0,0 +1,141 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Socket compressing everything written to it and decompressing everything read from it.
+ * Every flush emits the data written so far, so request/reply conversations don't stall.
+ * Streams used once the socket is closed fail as a closed socket does, instead of reaching
+ * the released (de)compressor
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class CompressedSocket extends Socket {
+
+  private Deflater deflater;
+  private Inflater inflater;
+  private InputStream in;
+  private OutputStream out;
+
+
+  /**
+   * Unconnected socket, to be connected by {@link java.net.ServerSocket#implAccept(java.net.Socket)}
+   */
+  CompressedSocket() {
+    super();
+  }
+
+  public CompressedSocket(String host, int port) throws IOException {
+    super( host, port );
+  }
+
+
+  @Override
+  public synchronized InputStream getInputStream() throws IOException {
+    if (in == null) {
+      inflater = new Inflater();
+      in = new InflaterInputStream( super.getInputStream(), inflater ) {
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          synchronized (this) {
+            if (inflater == null) throw new SocketException( "Socket is closed" );
+            return super.read( b, off, len );
+          }
+        }
+        @Override
+        public int available() throws IOException {
+          synchronized (this) {
+            if (inflater == null) throw new SocketException( "Socket is closed" );
+            return super.available();
+          }
+        }
+      };
+    }
+
+    return in;
+  }
+
+  @Override
+  public synchronized OutputStream getOutputStream() throws IOException {
+    if (out == null) {
+      deflater = new Deflater( Deflater.BEST_SPEED );
+      out = new DeflaterOutputStream( super.getOutputStream(), deflater, true ) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          synchronized (this) {
+            if (deflater == null) throw new SocketException( "Socket is closed" );
+            super.write( b, off, len );
+          }
+        }
+        @Override
+        public void flush() throws IOException {
+          synchronized (this) {
+            if (deflater == null) throw new SocketException( "Socket is closed" );
+            super.flush();
+          }
+        }
+        @Override
+        public void finish() throws IOException {
+          synchronized (this) {
+            if (deflater == null) throw new SocketException( "Socket is closed" );
+            super.finish();
+          }
+        }
+      };
+    }
+
+    return out;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    /*
+     * 1) Flush pending output and close the socket, which also unblocks any stream call in progress
+     * 2) Release the (de)compressor once no stream call uses it
+     */
+    try {
+      if (out != null && !isClosed()) out.flush();
+    } finally {
+      super.close();
+
+      if (out != null) {
+        synchronized (out) {
+          if (deflater != null) deflater.end();
+          deflater = null;
+        }
+      }
+      if (in != null) {
+        synchronized (in) {
+          if (inflater != null) inflater.end();
+          inflater = null;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+
+
+/**
+ * Copy of the state of a node written to disk, stamped with the first write-ahead log segment
+ * holding operations executed after it. On restart only those segments are replayed
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class Checkpoint implements Serializable {
+
+  private long segment;
+  private Snapshot snapshot;
+  private ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks;
+
+
+  public Checkpoint() {
+    snapshot = new Snapshot();
+    acks = new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+  }
+
+
+  /**
+   * Number of the first write-ahead log segment not covered by the checkpoint
+   */
+  public long getSegment() { return segment; }
+  public void setSegment(long segment) { this.segment = segment; }
+
+  /**
+   * File index and summary vector of the node, files in the compact binary format
+   */
+  public Snapshot getSnapshot() { return snapshot; }
+  public void setSnapshot(Snapshot snapshot) { this.snapshot = snapshot; }
+
+  public ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> getAcks() { return acks; }
+  public void setAcks(ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks) { this.acks = acks; }
+
+
+  @Override
+  public String toString() {
+    return String.format( "Checkpoint[segment %d,%d files,%d ack rows]", segment, snapshot.getFiles().size(), acks.size() );
+  }
+
+}
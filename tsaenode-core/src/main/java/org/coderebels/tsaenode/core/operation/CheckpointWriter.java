@@ -0,0 +1,99 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.util.TimerTask;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+
+/**
+ * Background task writing checkpoints of the node state, so that a restart only replays
+ * the write-ahead log segments started after the last one. Scheduled with a fixed delay,
+ * like {@link LogCompactor}
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class CheckpointWriter extends TimerTask {
+
+  private static Logger logger = LogManager.getLogger( CheckpointWriter.class.getName() );
+
+  private IOperationMgr operationMgr;
+  private volatile boolean cancelled;
+  /**
+   * Held while writing a checkpoint, so that cancelling waits for it to finish
+   */
+  private final Object runLock = new Object();
+  /**
+   * Number of checkpoints written so far, and time taken by the last one (ms)
+   */
+  private volatile long runs;
+  private volatile long lastDuration;
+
+
+  public CheckpointWriter(IOperationMgr operationMgr) {
+    super();
+    this.operationMgr = operationMgr;
+  }
+
+
+  public long getRuns() { return runs; }
+
+  public long getLastDuration() { return lastDuration; }
+
+
+  /* (non-Javadoc)
+   * @see java.util.TimerTask#run()
+   */
+  @Override
+  public void run() {
+    synchronized (runLock) {
+      if (cancelled) return;
+
+      long start = System.nanoTime();
+
+      try {
+        if (operationMgr.checkpoint()) {
+          lastDuration = (System.nanoTime() - start) / 1000000;
+          runs++;
+
+          logger.debug( String.format("Checkpoint #%d took %d ms", runs, lastDuration) );
+        }
+      } catch (Exception e) {
+        logger.catching( e );
+      }
+    }
+  }
+
+  /**
+   * Cancels the task, waiting for the checkpoint being written, if any, to finish.
+   * Unlike {@link java.util.TimerTask#cancel()}, no checkpoint is written once it returns
+   * @see java.util.TimerTask#cancel()
+   */
+  @Override
+  public boolean cancel() {
+    cancelled = true;
+    boolean done = super.cancel();
+
+    synchronized (runLock) {
+      return done;
+    }
+  }
+
+}
@@ -18,8 +18,10 @@
 package org.coderebels.tsaenode.core.operation;
 
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.exception.OperationMgrException;
 
@@ -38,6 +40,15 @@ public interface IOperationMgr {
    */
   public Operation createOperation(int type, String file) throws OperationMgrException;
 
+  /**
+   * Creates a batch operation of the specified type, applying to all the files under a single timestamp
+   * @param type Type of operation (ADD_ALL, REMOVE_ALL)
+   * @param files Files the operation will apply to
+   * @return Operation instance of the specified type that will apply
+   * @throws OperationMgrException
+   */
+  public Operation createOperation(int type, List<String> files) throws OperationMgrException;
+
   /**
    * Executes the specified operation
    * @param op Operation to execute
@@ -46,6 +57,16 @@ public interface IOperationMgr {
    */
   public boolean executeOperation(Operation op) throws OperationMgrException;
 
+  /**
+   * Executes the specified operation only if it immediately follows the last operation of its creator
+   * known by the local node, so that no gap is left behind in the summary vector
+   * @param op Operation to execute
+   * @param previous Timestamp of the operation its creator executed right before, or null if none
+   * @return true if executed now; false if already known or some preceding operation is still missing
+   * @throws OperationMgrException
+   */
+  public boolean executeInOrder(Operation op, Timestamp previous) throws OperationMgrException;
+
   /**
    * Gets the list of operations known to the local node, but unknown to the fellow remote node
    * @param sum Summary vector of the fellow remote node
@@ -53,18 +74,92 @@ public interface IOperationMgr {
    */
   public List<Operation> extractOperations(ConcurrentHashMap<String, Timestamp> sum);
 
+  /**
+   * Gets a page of the operations known to the local node, but unknown to the fellow remote node.
+   * Operations of each node are extracted in order, so that the fellow summary vector,
+   * once the page is executed, points to the start of the next page
+   * @param sum Summary vector of the fellow remote node
+   * @param limit Maximum number of operations to extract
+   * @return Oldest operations known to the local node, but unknown to the fellow remote node
+   */
+  public List<Operation> extractOperations(ConcurrentHashMap<String, Timestamp> sum, int limit);
+
+  /**
+   * Checks whether the fellow remote node misses operations already purged from the local log,
+   * so that it can only catch up through a snapshot of the local node
+   * @param sum Summary vector of the fellow remote node
+   * @return true if a snapshot is required; false otherwise
+   */
+  public boolean requiresSnapshot(ConcurrentHashMap<String, Timestamp> sum);
+
+  /**
+   * Takes a consistent snapshot of the local node file index and summary vector
+   * @return Snapshot of the local node
+   */
+  public Snapshot takeSnapshot();
+
+  /**
+   * Installs the state of every node the snapshot is newer than the local node for,
+   * replacing the files it owns and moving its summary and log horizon up to the snapshot
+   * @param snapshot Snapshot of the fellow remote node
+   * @return true if done successfully; false otherwise
+   * @throws OperationMgrException
+   */
+  public boolean installSnapshot(Snapshot snapshot) throws OperationMgrException;
+
+  /**
+   * Loads the last checkpoint and replays the write-ahead log from there on to rebuild the log,
+   * the summary vector, the acknowledgement vector and the file index, and appends to it every
+   * operation executed from then on
+   * @param wal Write-ahead log of the local node
+   * @return true if done successfully; false otherwise
+   * @throws OperationMgrException
+   */
+  public boolean recover(WriteAheadLog wal) throws OperationMgrException;
+
+  /**
+   * Writes a checkpoint of the file index, the summary vector and the acknowledgement vector, and
+   * deletes the write-ahead log segments it covers. Meant to be run in the background --> CheckpointWriter
+   * @return true if done successfully; false if there is no write-ahead log to checkpoint
+   * @throws OperationMgrException
+   */
+  public boolean checkpoint() throws OperationMgrException;
+
   /**
    * Gets the summary vector of the local node
    * @return Summary vector of the local node
    */
   public ConcurrentHashMap<String, Timestamp> getSummary();
 
+  /**
+   * Gets the digest of the summary vector of the local node
+   * @return Summary vector digest
+   */
+  public long getSummaryDigest();
+
+  /**
+   * Gets the digest of the acknowledgement vector of the local node
+   * @return Acknowledgement vector digest
+   */
+  public long getAckDigest();
+
   /**
    * Gets the operation log managed by the local node
    * @return Operation log of the local node
    */
   public List<Operation> getLog();
 
+  /**
+   * Gets a page of the operation log managed by the local node, sorted by creator and timestamp
+   * @param cursor Cursor returned along with the previous page; null for the first one
+   * @param pageSize Maximum number of operations in the page
+   * @param creator Identifier of the node that created the operations; null for any
+   * @param prefix Prefix of the name of the files the operations apply to; null for any
+   * @return Page of operation log of the local node; empty if the creator is not known
+   * @throws java.lang.IllegalArgumentException if the cursor is malformed or the page size not positive
+   */
+  public Page<Operation> getLog(String cursor, int pageSize, String creator, String prefix);
+
   /**
    * Executes the specified list of operations and updates the local node operation log accordingly
    * @param ops List of operations to execute on the local node
@@ -74,11 +169,18 @@ public interface IOperationMgr {
   public boolean updateLog(List<Operation> ops) throws OperationMgrException;
 
   /**
-   * Deletes from the log operations known by all nodes within the group
-   * @param groupSize Number of nodes within the group
+   * Registers the nodes of the group in the acknowledgement vector. Operations are only
+   * purged from the log once seen by all of them
+   * @param nodeIds Identifiers of the group nodes, local node included
+   */
+  public void setUpGroup(List<String> nodeIds);
+
+  /**
+   * Deletes from the log operations known by all nodes within the group, for every node
+   * whose watermark has moved since last purged. Meant to be run in the background --> LogCompactor
    * @return true if done successfully; false otherwise
    */
-  public boolean purgeLog(int groupSize);
+  public boolean purgeLog();
 
   /**
    * Gets the acknowledgement vector of the local node
@@ -86,6 +188,19 @@ public interface IOperationMgr {
    */
   public ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> getAcks();
 
+  /**
+   * Gets the rows of the acknowledgement vector of the local node changed since the specified versions
+   * @param since Row versions already known by the fellow remote node
+   * @return Acknowledgement vector rows newer than the specified versions
+   */
+  public ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> getAcks(Map<String, Long> since);
+
+  /**
+   * Gets the current version of every row of the acknowledgement vector of the local node
+   * @return Acknowledgement vector row versions
+   */
+  public ConcurrentHashMap<String, Long> getAckVersions();
+
   /**
    * Updates the acknowledgement vector of the local node based on information from the fellow remote node acknowledgement vector
    * @param acks Acknowledgement vector of the fellow remote node
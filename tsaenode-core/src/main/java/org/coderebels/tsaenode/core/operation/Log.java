@@ -17,31 +17,43 @@
 
 package org.coderebels.tsaenode.core.operation;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ConcurrentNavigableMap;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import org.coderebels.tsaenode.core.common.Membership;
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
 
 
 /**
- * Operations known by a node
+ * Operations known by a node, in a {@link org.coderebels.tsaenode.core.operation.LogSegment}
+ * per node indexed by membership slot
  * @author carles.ml.dev@gmail.com (Carles Muiños)
  */
 public class Log {
 
   private static Logger logger = LogManager.getLogger( Log.class.getName() );
+  /**
+   * Number of operations read from a segment at a time while filling a page
+   */
+  private static final int PAGE_CHUNK = 256;
 
-  private ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Operation>> data;
+  private volatile LogSegment[] segments;
+  /**
+   * Timestamp of the last operation of each node removed from the log, by node slot
+   */
+  private ConcurrentHashMap<Integer, Timestamp> horizon;
 
 
   public Log() {
-    this.data = new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Operation>>();
+    this.segments = new LogSegment[0];
+    this.horizon = new ConcurrentHashMap<Integer, Timestamp>();
   }
 
 
@@ -55,32 +67,109 @@ public class Log {
 
     List<Operation> ops = new Vector<Operation>();
 
-    for (ConcurrentSkipListMap<Long, Operation> opsMap : data.values()) {
-      ops.addAll( opsMap.values() );
+    for (LogSegment segment : segments) {
+      if (segment != null) segment.collect( ops );
     }
 
     return logger.exit( ops );
   }
 
   /**
-   * Adds an operation to the log
-   * @param op Operation to add
+   * Gets a page of operations from the log, sorted by node slot and sequence number
+   * @param cursor Cursor returned along with the previous page; null for the first one
+   * @param pageSize Maximum number of operations in the page
+   * @param creator Identifier of the node that created the operations; null for any
+   * @param prefix Prefix of the name of the files the operations apply to; null for any
+   * @return Page of operations from log; empty if the creator is not known
+   * @throws java.lang.IllegalArgumentException if the cursor is malformed or the page size not positive
    */
-  public synchronized void add(Operation op) {
-    logger.entry( op );
-    logger.debug( "Adding operation to log..." );
+  public Page<Operation> getData(String cursor, int pageSize, String creator, String prefix) {
+    logger.entry( cursor, pageSize, creator, prefix );
+    logger.debug( "Retrieving log data page..." );
+    /*
+     * 1) Resume from the node and sequence number in the cursor, if any
+     * 2) For each node segment from there on (just the creator one, if filtered)
+     * 2.1) Read its operations in chunks, keeping those matching the file name prefix
+     * 2.2) Stop at the first match past a full page: the cursor points to the last operation in it
+     */
+    //
+    // The page is only closed with a cursor once another matching operation is found,
+    // so that following the cursor never leads to an empty page. The cursor names the node
+    // rather than its slot, which is local to the running node and may change on restart
+    //
+    if (pageSize < 1) {
+      throw new IllegalArgumentException( String.format("Page size must be positive -> %d", pageSize) );
+    }
+
+    Page<Operation> page = new Page<Operation>();
+    List<Operation> items = page.getItems();
+    LogSegment[] current = segments;
+
+    int slot = 0;
+    long from = Long.MIN_VALUE;
+
+    if (cursor != null) {
+      long[] position = parseCursor( cursor );
+      slot = (int) position[0];
+      from = position[1];
+    }
+
+    int last = current.length - 1;
+
+    if (creator != null) {
+      int creatorSlot = Membership.getInstance().find( creator );
+      if (creatorSlot == Membership.NONE || creatorSlot < slot) return logger.exit( page );
+
+      slot = creatorSlot;
+      last = Math.min( last, creatorSlot );
+    }
+
+    int lastSlot = slot;
+
+    for (; slot <= last; slot++, from = Long.MIN_VALUE) {
+      LogSegment segment = current[slot];
+      if (segment == null) continue;
+
+      boolean incFirst = (from == Long.MIN_VALUE);
+      List<Operation> chunk = new Vector<Operation>( PAGE_CHUNK );
+
+      do {
+        chunk.clear();
+        segment.extract( chunk, from, Long.MAX_VALUE, incFirst, PAGE_CHUNK );
+
+        for (Operation op : chunk) {
+          if (matches( op, prefix )) {
+            if (items.size() >= pageSize) {
+              Operation previous = items.get( items.size() - 1 );
 
-    Timestamp timestamp = op.getTimestamp();
-    String nodeId = timestamp.getNodeId();
+              page.setNextCursor( String.format("%s:%d", Membership.getInstance().idOf(lastSlot),
+                                                previous.getTimestamp().getSeqNumber()) );
+              return logger.exit( page );
+            }
 
-    ConcurrentSkipListMap<Long, Operation> nodeOps = data.get( nodeId );
+            items.add( op );
+            lastSlot = slot;
+          }
 
-    if (nodeOps == null) {
-      nodeOps = new ConcurrentSkipListMap<Long, Operation>();
-      data.put( nodeId, nodeOps );
+          from = op.getTimestamp().getSeqNumber();
+        }
+
+        incFirst = false;
+      } while (chunk.size() == PAGE_CHUNK);
     }
 
-    nodeOps.put( timestamp.getSeqNumber(), op );
+    return logger.exit( page );
+  }
+
+  /**
+   * Adds an operation to the log
+   * @param op Operation to add
+   */
+  public void add(Operation op) {
+    logger.entry( op );
+    logger.debug( "Adding operation to log..." );
+
+    segmentFor( op.getTimestamp().getSlot() ).append( op );
 
     logger.exit();
   }
@@ -90,19 +179,24 @@ public class Log {
    * @param nodeId Node identifier
    * @return First operation of node in the log
    */
-  public synchronized Operation getFirst(String nodeId) {
+  public Operation getFirst(String nodeId) {
     logger.entry( nodeId );
     logger.debug( "Retrieving first operation from log..." );
 
-    Operation op = null;
+    Operation op = getFirst( Membership.getInstance().find(nodeId) );
 
-    ConcurrentSkipListMap<Long, Operation> nodeOps = data.get( nodeId );
+    return logger.exit( op );
+  }
 
-    if (nodeOps != null && !nodeOps.isEmpty()) {
-      op = nodeOps.get( nodeOps.firstKey() );
-    }
+  /**
+   * Gets the first operation of the node assigned to the specified slot in the log
+   * @param slot Node slot
+   * @return First operation of node in the log
+   */
+  public Operation getFirst(int slot) {
+    LogSegment segment = getSegment( slot );
 
-    return logger.exit( op );
+    return (segment != null) ? segment.first() : null;
   }
 
   /**
@@ -114,20 +208,57 @@ public class Log {
    * @return List of operations from first to last (included)
    */
   public List<Operation> extract(String nodeId, Timestamp first, Timestamp last, boolean incFirst) {
-    logger.entry( nodeId, first, last, incFirst );
+    return extract( nodeId, first, last, incFirst, Integer.MAX_VALUE );
+  }
+
+  /**
+   * Gets the list of operations between the specified timestamps, up to the specified amount
+   * @param nodeId Node identifier
+   * @param first Initial timestamp
+   * @param last Last timestamp (included)
+   * @param incFirst True if first operation from range must be included; false otherwise
+   * @param limit Maximum number of operations to extract
+   * @return List of the oldest operations from first to last (included)
+   */
+  public List<Operation> extract(String nodeId, Timestamp first, Timestamp last, boolean incFirst, int limit) {
+    logger.entry( nodeId, first, last, incFirst, limit );
     logger.debug( "Extracting operations from log..." );
 
-    List<Operation> ops = new Vector<Operation>();
-    ConcurrentSkipListMap<Long, Operation> nodeOps = data.get( nodeId );
+    List<Operation> ops = extract( Membership.getInstance().find(nodeId), first.getSeqNumber(), last.getSeqNumber(),
+                                   incFirst, limit );
 
-    if (nodeOps != null && !nodeOps.isEmpty()) {
-      boolean incLast = true;
-      ConcurrentNavigableMap<Long, Operation> subset = nodeOps.subMap( first.getSeqNumber(), incFirst, last.getSeqNumber(), incLast);
+    return logger.exit( ops );
+  }
+
+  /**
+   * Gets the list of operations of the node assigned to the specified slot between the specified
+   * sequence numbers, up to the specified amount
+   * @param slot Node slot
+   * @param first Initial sequence number
+   * @param last Last sequence number (included)
+   * @param incFirst True if first operation from range must be included; false otherwise
+   * @param limit Maximum number of operations to extract
+   * @return List of the oldest operations from first to last (included)
+   */
+  public List<Operation> extract(int slot, long first, long last, boolean incFirst, int limit) {
+    List<Operation> ops = new Vector<Operation>();
+    LogSegment segment = getSegment( slot );
 
-      ops.addAll( subset.values() );
+    if (segment != null && first <= last) {
+      segment.extract( ops, first, last, incFirst, limit );
     }
 
-    return logger.exit( ops );
+    return ops;
+  }
+
+  /**
+   * Gets the timestamp of the last operation of the specified node removed from the log.
+   * Operations up to that timestamp can no longer be extracted from the log
+   * @param nodeId Node identifier
+   * @return Timestamp of the last removed operation of node; null if none removed yet
+   */
+  public Timestamp getHorizon(String nodeId) {
+    return horizon.get( Membership.getInstance().find(nodeId) );
   }
 
   /**
@@ -135,15 +266,98 @@ public class Log {
    * @param nodeId Identifier of node responsible of operations to remove
    * @param lastSeen Timestamp of last executed operation of specified node seen by all nodes within the group
    */
-  public synchronized void removeAllPreceding(String nodeId, Timestamp lastSeen) {
-    ConcurrentSkipListMap<Long, Operation> nodeOps = data.get( nodeId );
+  public void removeAllPreceding(String nodeId, Timestamp lastSeen) {
+    int slot = Membership.getInstance().find( nodeId );
+    if (slot == Membership.NONE) return;
+    //
+    // Horizon is raised before removing, so that anyone missing the removed operations
+    // already sees the horizon covering them
+    //
+    Timestamp previous = horizon.putIfAbsent( slot, lastSeen );
+
+    while (previous != null && lastSeen.compare( previous ) > 0 && !horizon.replace( slot, previous, lastSeen )) {
+      previous = horizon.get( slot );
+    }
+
+    LogSegment segment = getSegment( slot );
+    if (segment != null) segment.truncate( lastSeen.getSeqNumber() );
+  }
 
-    if (nodeOps != null && !nodeOps.isEmpty()) {
-      ConcurrentNavigableMap<Long, Operation> preceding = nodeOps.headMap( lastSeen.getSeqNumber(), true );
 
-      for (Long seqNum : preceding.keySet()) {
-        nodeOps.remove( seqNum );
+  /**
+   * Parses a cursor returned along with a page, made of a node identifier and a sequence number.
+   * Node identifiers contain colons themselves, so the sequence number follows the last one
+   * @param cursor Cursor to parse
+   * @return Node slot and sequence number
+   * @throws java.lang.IllegalArgumentException if the cursor is malformed or its node not known
+   */
+  private long[] parseCursor(String cursor) {
+    int separator = cursor.lastIndexOf( ':' );
+
+    try {
+      if (separator > 0) {
+        int slot = Membership.getInstance().find( cursor.substring(0, separator) );
+        long seqNumber = Long.parseLong( cursor.substring(separator + 1) );
+
+        if (slot != Membership.NONE) return new long[] { slot, seqNumber };
       }
+    } catch (NumberFormatException e) {
+      // Reported below, along with the other malformed cursors
+    }
+
+    throw new IllegalArgumentException( String.format("Malformed log cursor -> %s", cursor) );
+  }
+
+  /**
+   * Checks whether an operation applies to some file whose name starts with the prefix
+   * @param op Operation to check
+   * @param prefix Prefix of the file name; null for any
+   * @return true if the operation matches the prefix; false otherwise
+   */
+  private boolean matches(Operation op, String prefix) {
+    if (prefix == null) return true;
+
+    List<FileData> files = op.isBatch() ? op.getFiles() : Arrays.asList( op.getFile() );
+
+    for (FileData file : files) {
+      if (file.getFilename() != null && file.getFilename().startsWith( prefix )) return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Gets the segment of the node assigned to the specified slot
+   * @param slot Node slot
+   * @return Segment of node; null if none
+   */
+  private LogSegment getSegment(int slot) {
+    LogSegment[] current = segments;
+
+    return (slot >= 0 && slot < current.length) ? current[slot] : null;
+  }
+
+  /**
+   * Gets the segment of the node assigned to the specified slot, creating it if necessary
+   * @param slot Node slot
+   * @return Segment of node
+   */
+  private LogSegment segmentFor(int slot) {
+    LogSegment segment = getSegment( slot );
+    if (segment != null) return segment;
+
+    //
+    // The array is copied on every new segment, so that readers always see it fully built
+    //
+    synchronized (this) {
+      LogSegment[] current = segments;
+      if (slot < current.length && current[slot] != null) return current[slot];
+
+      LogSegment[] grown = Arrays.copyOf( current, Math.max(slot + 1, current.length) );
+      grown[slot] = new LogSegment();
+      segments = grown;
+
+      return grown[slot];
     }
   }
 
@@ -0,0 +1,93 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.util.TimerTask;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+
+/**
+ * Background task purging the operation log, off the path of synchronization sessions
+ * and local operations. Scheduled with a fixed delay, so that runs never overlap and are
+ * at least that delay apart
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class LogCompactor extends TimerTask {
+
+  private static Logger logger = LogManager.getLogger( LogCompactor.class.getName() );
+
+  private IOperationMgr operationMgr;
+  private volatile boolean cancelled;
+  /**
+   * Number of runs so far, and time taken by the last one and by all of them (ms)
+   */
+  private volatile long runs;
+  private volatile long lastDuration;
+  private volatile long totalDuration;
+
+
+  public LogCompactor(IOperationMgr operationMgr) {
+    super();
+    this.operationMgr = operationMgr;
+  }
+
+
+  public long getRuns() { return runs; }
+
+  public long getLastDuration() { return lastDuration; }
+
+  public long getTotalDuration() { return totalDuration; }
+
+
+  /* (non-Javadoc)
+   * @see java.util.TimerTask#run()
+   */
+  @Override
+  public void run() {
+    if (cancelled) return;
+
+    long start = System.nanoTime();
+
+    try {
+      operationMgr.purgeLog();
+    } catch (Exception e) {
+      logger.catching( e );
+    }
+
+    long elapsed = (System.nanoTime() - start) / 1000000;
+
+    lastDuration = elapsed;
+    totalDuration += elapsed;
+    runs++;
+
+    logger.debug( String.format("Log compaction #%d took %d ms (%d ms in total)", runs, lastDuration, totalDuration) );
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.TimerTask#cancel()
+   */
+  @Override
+  public boolean cancel() {
+    cancelled = true;
+    return super.cancel();
+  }
+
+}
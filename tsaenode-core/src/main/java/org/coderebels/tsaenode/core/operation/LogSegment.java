@@ -0,0 +1,323 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.util.List;
+import java.util.Vector;
+
+
+/**
+ * Operations of a single node in the log, in sequence number order. Operations are kept in
+ * fixed-size chunks, sequence numbers in a primitive array and operations in a parallel one.
+ *
+ * Appends and truncations are serialized, while readers never lock: every position is addressed
+ * by a logical index that never changes, chunks are never moved nor emptied, and new content is
+ * published before the indexes pointing at it. Truncation drops whole chunks, which are reclaimed
+ * once no reader holds a view still referencing them
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+class LogSegment {
+
+  private static final int CHUNK_BITS = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int INITIAL_CHUNKS = 4;
+
+  /**
+   * Fixed-size run of operations
+   */
+  private static class Chunk {
+
+    private final long[] seqNumbers = new long[CHUNK_SIZE];
+    private final Operation[] ops = new Operation[CHUNK_SIZE];
+
+  }
+
+  /**
+   * Chunks readers may access: chunk i holds the operations from logical index (base + i) * CHUNK_SIZE
+   * onwards. Only its free entries are ever filled once published
+   */
+  private static class View {
+
+    private final Chunk[] chunks;
+    private final int base;
+
+    private View(Chunk[] chunks, int base) {
+      this.chunks = chunks;
+      this.base = base;
+    }
+
+  }
+
+  private volatile View view;
+  /**
+   * Logical index of the first operation not truncated
+   */
+  private volatile int head;
+  /**
+   * Logical index following the last operation
+   */
+  private volatile int tail;
+
+
+  LogSegment() {
+    view = new View( new Chunk[INITIAL_CHUNKS], 0 );
+  }
+
+
+  /**
+   * Gets the number of operations in the segment
+   * @return Number of operations
+   */
+  int size() {
+    return tail - head;
+  }
+
+  /**
+   * Appends an operation to the segment. An operation older than the last one is inserted
+   * in place, and one with the same sequence number replaces it
+   * @param op Operation to append
+   */
+  synchronized void append(Operation op) {
+    long seqNumber = op.getTimestamp().getSeqNumber();
+    View v = view;
+    int h = head;
+    int t = tail;
+
+    if (t > h && seqNumber <= seqAt( v, t - 1 )) {
+      rebuild( op, seqNumber );
+      return;
+    }
+
+    int c = (t >>> CHUNK_BITS) - v.base;
+
+    if (c == v.chunks.length) {
+      v = regroup( v, h >>> CHUNK_BITS, c - ((h >>> CHUNK_BITS) - v.base) + 1 );
+      c = (t >>> CHUNK_BITS) - v.base;
+    }
+
+    Chunk chunk = v.chunks[c];
+
+    if (chunk == null) {
+      chunk = new Chunk();
+      v.chunks[c] = chunk;
+    }
+
+    chunk.seqNumbers[t & CHUNK_MASK] = seqNumber;
+    chunk.ops[t & CHUNK_MASK] = op;
+    tail = t + 1;
+  }
+
+  /**
+   * Removes every operation up to the specified sequence number. Finding them takes logarithmic
+   * time, and removing them constant time: the head just moves past them. Whole chunks left behind
+   * are dropped once they make up half of the view, so the cost of that is amortized over them
+   * @param lastSeen Sequence number of the last operation to remove
+   */
+  synchronized void truncate(long lastSeen) {
+    View v = view;
+    int h = head;
+    int t = tail;
+    int pos = upperBound( v, h, t, lastSeen );
+
+    if (pos <= h) return;
+
+    head = pos;
+
+    if ((pos >>> CHUNK_BITS) - v.base >= v.chunks.length / 2) {
+      // Sized for the chunks still live, so that dropping chunks never grows the view
+      int live = (t > pos) ? ((t - 1) >>> CHUNK_BITS) - (pos >>> CHUNK_BITS) + 1 : 1;
+      regroup( v, pos >>> CHUNK_BITS, live );
+    }
+  }
+
+  /**
+   * Gets the first operation of the segment
+   * @return First operation; null if none
+   */
+  Operation first() {
+    int t = tail;
+    int h = head;
+    View v = view;
+    int from = Math.max( h, v.base << CHUNK_BITS );
+
+    return (from < Math.min( t, end(v) )) ? opAt( v, from ) : null;
+  }
+
+  /**
+   * Adds to the list the operations between the specified sequence numbers, up to the list size limit
+   * @param ops List to add the operations to
+   * @param first Initial sequence number
+   * @param last Last sequence number (included)
+   * @param incFirst True if first operation from range must be included; false otherwise
+   * @param limit Maximum size of the list
+   */
+  void extract(List<Operation> ops, long first, long last, boolean incFirst, int limit) {
+    int t = tail;
+    int h = head;
+    View v = view;
+    //
+    // Indexes are read before the view, so every index up to t is within this view or
+    // the ones it replaced; truncated positions still in it are skipped by starting at h
+    //
+    int from = Math.max( h, v.base << CHUNK_BITS );
+    int to   = Math.min( t, end(v) );
+    if (from >= to) return;
+
+    int i   = incFirst ? lowerBound( v, from, to, first ) : upperBound( v, from, to, first );
+    int end = upperBound( v, i, to, last );
+
+    for (; i < end && ops.size() < limit; i++) {
+      ops.add( opAt(v, i) );
+    }
+  }
+
+  /**
+   * Adds every operation of the segment to the list
+   * @param ops List to add the operations to
+   */
+  void collect(List<Operation> ops) {
+    extract( ops, Long.MIN_VALUE, Long.MAX_VALUE, true, Integer.MAX_VALUE );
+  }
+
+
+  /**
+   * Inserts an operation older than the last one, replacing the one with the same sequence number if any.
+   * Live operations are copied into fresh chunks past the current tail, leaving the published ones untouched
+   * @param op Operation to insert
+   * @param seqNumber Sequence number of the operation
+   */
+  private void rebuild(Operation op, long seqNumber) {
+    List<Operation> ops = new Vector<Operation>();
+    collect( ops );
+
+    int pos = 0;
+    while (pos < ops.size() && ops.get(pos).getTimestamp().getSeqNumber() < seqNumber) pos++;
+
+    if (pos < ops.size() && ops.get(pos).getTimestamp().getSeqNumber() == seqNumber) {
+      ops.set( pos, op );
+    } else {
+      ops.add( pos, op );
+    }
+
+    int base = (tail >>> CHUNK_BITS) + 1;
+    int n = ops.size();
+    Chunk[] chunks = new Chunk[ Math.max(INITIAL_CHUNKS, Integer.highestOneBit((n >>> CHUNK_BITS) + 1) << 1) ];
+
+    for (int i = 0; i < n; i++) {
+      Chunk chunk = chunks[i >>> CHUNK_BITS];
+
+      if (chunk == null) {
+        chunk = new Chunk();
+        chunks[i >>> CHUNK_BITS] = chunk;
+      }
+
+      chunk.seqNumbers[i & CHUNK_MASK] = ops.get(i).getTimestamp().getSeqNumber();
+      chunk.ops[i & CHUNK_MASK] = ops.get(i);
+    }
+
+    int start = base << CHUNK_BITS;
+
+    view = new View( chunks, base );
+    tail = start + n;
+    head = start;
+  }
+
+  /**
+   * Publishes a new view starting at the specified chunk, sharing the chunks still in use
+   * @param v Current view
+   * @param base Logical number of the first chunk of the new view
+   * @param needed Number of chunks the new view must hold
+   * @return New view
+   */
+  private View regroup(View v, int base, int needed) {
+    Chunk[] chunks = new Chunk[ Math.max(INITIAL_CHUNKS, Integer.highestOneBit(needed) << 1) ];
+    int from = base - v.base;
+    int n = Math.min( v.chunks.length - from, chunks.length );
+
+    System.arraycopy( v.chunks, from, chunks, 0, n );
+
+    View regrouped = new View( chunks, base );
+    view = regrouped;
+
+    return regrouped;
+  }
+
+  /**
+   * Gets the logical index following the last position the view spans
+   * @param v View
+   * @return Logical index past the view
+   */
+  private static int end(View v) {
+    return (v.base + v.chunks.length) << CHUNK_BITS;
+  }
+
+  private static long seqAt(View v, int i) {
+    return v.chunks[(i >>> CHUNK_BITS) - v.base].seqNumbers[i & CHUNK_MASK];
+  }
+
+  private static Operation opAt(View v, int i) {
+    return v.chunks[(i >>> CHUNK_BITS) - v.base].ops[i & CHUNK_MASK];
+  }
+
+  /**
+   * Finds the first logical index within range whose sequence number is the same or newer than the specified one
+   * @param v View to search
+   * @param from First logical index of the range
+   * @param to Logical index following the range
+   * @param seqNumber Sequence number to search
+   * @return Logical index found; to if none
+   */
+  private static int lowerBound(View v, int from, int to, long seqNumber) {
+    int lo = from;
+    int hi = to;
+
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+
+      if (seqAt(v, mid) < seqNumber) lo = mid + 1;
+      else hi = mid;
+    }
+
+    return lo;
+  }
+
+  /**
+   * Finds the first logical index within range whose sequence number is newer than the specified one
+   * @param v View to search
+   * @param from First logical index of the range
+   * @param to Logical index following the range
+   * @param seqNumber Sequence number to search
+   * @return Logical index found; to if none
+   */
+  private static int upperBound(View v, int from, int to, long seqNumber) {
+    int lo = from;
+    int hi = to;
+
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+
+      if (seqAt(v, mid) <= seqNumber) lo = mid + 1;
+      else hi = mid;
+    }
+
+    return lo;
+  }
+
+}
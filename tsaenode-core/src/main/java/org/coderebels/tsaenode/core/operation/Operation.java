@@ -18,21 +18,29 @@
 package org.coderebels.tsaenode.core.operation;
 
 import java.io.Serializable;
+import java.util.List;
 
 import org.coderebels.tsaenode.core.file.FileData;
 import org.coderebels.tsaenode.core.common.Timestamp;
 
 
 /**
+ * Operation on the shared files. The serial version is the one of previous releases, and fields
+ * are only ever added, so that nodes running them can still be called
  * @author carles.ml.dev@gmail.com (Carles Muiños)
  */
 public class Operation implements Serializable {
 
+  private static final long serialVersionUID = 3839587775405014024L;
+
   public static final int ADD = 0;
   public static final int REMOVE = 1;
+  public static final int ADD_ALL = 2;
+  public static final int REMOVE_ALL = 3;
 
   private int type;
   private FileData file;
+  private List<FileData> files;
   private Timestamp timestamp;
 
 
@@ -45,6 +53,14 @@ public class Operation implements Serializable {
   public FileData getFile() { return file; }
   public void setFile(FileData file) { this.file = file; }
 
+  /**
+   * Files a batch operation (ADD_ALL, REMOVE_ALL) applies to
+   */
+  public List<FileData> getFiles() { return files; }
+  public void setFiles(List<FileData> files) { this.files = files; }
+
+  public boolean isBatch() { return type == ADD_ALL || type == REMOVE_ALL; }
+
   public Timestamp getTimestamp() { return timestamp; }
   public void setTimestamp(Timestamp timestamp) { this.timestamp = timestamp; }
 
@@ -63,18 +79,29 @@ public class Operation implements Serializable {
         type = "REMOVE";
         break;
 
+      case ADD_ALL:
+        type = "ADD_ALL";
+        break;
+
+      case REMOVE_ALL:
+        type = "REMOVE_ALL";
+        break;
+
       default:
         type = "UNKNOWN";
     }
 
-    return String.format( "Operation[%s,%s,%s]", timestamp.toShortString(), type, file.getURI() );
+    String target = isBatch() ? String.format( "%d files", files.size() ) : file.getURI();
+
+    return String.format( "Operation[%s,%s,%s]", timestamp.toShortString(), type, target );
   }
 
   @Override
   public boolean equals(Object that) {
     return this.getClass().getName().equals( that.getClass().getName() )
         && this.type == ((Operation) that).getType()
-        && this.file.equals( ((Operation) that).getFile() )
+        && (isBatch() ? this.files.equals( ((Operation) that).getFiles() )
+                      : this.file.equals( ((Operation) that).getFile() ))
         && this.timestamp.equals( ((Operation) that).getTimestamp() );
   }
 
@@ -0,0 +1,379 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.StreamCorruptedException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.coderebels.tsaenode.core.common.Membership;
+import org.coderebels.tsaenode.core.common.SerialUtils;
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+
+
+/**
+ * Compact binary format for batches of operations and files. Node identifiers and the folder
+ * part of paths and URIs are written once per batch and referenced by number afterwards.
+ * The dictionary of strings is per message: every session message, rumor, snapshot or log record
+ * carries its own and is decoded on its own, so an instance must encode (or decode) a single one.
+ * Strings are written as their UTF-8 length followed by their bytes, so any length is supported.
+ * Every batch starts with the version of the format it is written in, so that a node reading
+ * a batch in another format, e.g. from a node running another release, fails instead of misreading it
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class OperationCodec {
+
+  /**
+   * Version of the format written: bump it on any change to the layout of operations or files
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  /**
+   * Reference to a missing string
+   */
+  private static final int NULL_REF = 0;
+  /**
+   * Reference to a string not seen before, written in full right after
+   */
+  private static final int NEW_REF = 1;
+  /**
+   * Largest number of entries a list read is sized for up front: counts are read from the input,
+   * so larger lists grow as their entries are actually read
+   */
+  private static final int MAX_PRESIZE = 1024;
+
+  /**
+   * Strings already written, along with their reference number
+   */
+  private Map<String, Integer> written;
+  /**
+   * Strings already read, by reference number
+   */
+  private List<String> read;
+
+
+  public OperationCodec() {
+    written = new HashMap<String, Integer>();
+    read = new Vector<String>();
+  }
+
+
+  /**
+   * Writes a batch of operations
+   * @param out Output to write to
+   * @param ops Operations to write
+   * @throws java.io.IOException
+   */
+  public void writeOperations(DataOutput out, List<Operation> ops) throws IOException {
+    out.writeByte( FORMAT_VERSION );
+    SerialUtils.writeVarInt( out, ops.size() );
+
+    for (Operation op : ops) {
+      out.writeByte( op.getType() );
+      writeTimestamp( out, op.getTimestamp() );
+
+      if (op.isBatch()) {
+        writeFileList( out, op.getFiles() );
+      } else {
+        writeFile( out, op.getFile() );
+      }
+    }
+  }
+
+  /**
+   * Reads a batch of operations written by {@link #writeOperations(java.io.DataOutput, java.util.List)}
+   * @param in Input to read from
+   * @return Operations read
+   * @throws java.io.IOException
+   */
+  public List<Operation> readOperations(DataInput in) throws IOException {
+    readVersion( in );
+
+    int size = readCount( in );
+    List<Operation> ops = new Vector<Operation>( Math.min(size, MAX_PRESIZE) );
+
+    for (int i = 0; i < size; i++) {
+      Operation op = new Operation();
+      op.setType( in.readByte() );
+      op.setTimestamp( readTimestamp(in) );
+
+      if (op.isBatch()) {
+        op.setFiles( readFileList(in) );
+      } else {
+        op.setFile( readFile(in) );
+      }
+
+      ops.add( op );
+    }
+
+    return ops;
+  }
+
+  /**
+   * Writes a batch of files
+   * @param out Output to write to
+   * @param files Files to write
+   * @throws java.io.IOException
+   */
+  public void writeFiles(DataOutput out, List<FileData> files) throws IOException {
+    out.writeByte( FORMAT_VERSION );
+    writeFileList( out, files );
+  }
+
+  /**
+   * Reads a batch of files written by {@link #writeFiles(java.io.DataOutput, java.util.List)}
+   * @param in Input to read from
+   * @return Files read
+   * @throws java.io.IOException
+   */
+  public List<FileData> readFiles(DataInput in) throws IOException {
+    readVersion( in );
+
+    return readFileList( in );
+  }
+
+
+  /**
+   * Reads the format version a batch starts with, failing unless it is the one written
+   * @param in Input to read from
+   * @throws java.io.IOException
+   */
+  private void readVersion(DataInput in) throws IOException {
+    int version = in.readUnsignedByte();
+
+    if (version != FORMAT_VERSION) {
+      throw new IOException( String.format("Unsupported format version -> %d (expected %d)", version, FORMAT_VERSION) );
+    }
+  }
+
+  /**
+   * Reads the number of entries of a list
+   * @param in Input to read from
+   * @return Number of entries
+   * @throws java.io.IOException
+   * @throws java.io.StreamCorruptedException if the count is negative
+   */
+  private int readCount(DataInput in) throws IOException {
+    int size = SerialUtils.readVarInt( in );
+
+    if (size < 0) {
+      throw new StreamCorruptedException( String.format("Invalid entry count -> %d", size) );
+    }
+
+    return size;
+  }
+
+  /**
+   * Writes a list of files, without the format version
+   * @param out Output to write to
+   * @param files Files to write
+   * @throws java.io.IOException
+   */
+  private void writeFileList(DataOutput out, List<FileData> files) throws IOException {
+    SerialUtils.writeVarInt( out, files.size() );
+
+    for (FileData fd : files) {
+      writeFile( out, fd );
+    }
+  }
+
+  /**
+   * Reads a list of files written by {@link #writeFileList(java.io.DataOutput, java.util.List)}
+   * @param in Input to read from
+   * @return Files read
+   * @throws java.io.IOException
+   */
+  private List<FileData> readFileList(DataInput in) throws IOException {
+    int size = readCount( in );
+    List<FileData> files = new Vector<FileData>( Math.min(size, MAX_PRESIZE) );
+
+    for (int i = 0; i < size; i++) {
+      files.add( readFile(in) );
+    }
+
+    return files;
+  }
+
+  /**
+   * Writes a single file. Path and URI are split into their folder, written as a reference,
+   * and their name, omitted when it's the file name
+   * @param out Output to write to
+   * @param fd File to write
+   * @throws java.io.IOException
+   */
+  private void writeFile(DataOutput out, FileData fd) throws IOException {
+    String filename = fd.getFilename();
+
+    SerialUtils.writeString( out, filename );
+    writeRef( out, fd.getOwner() );
+    writeLocation( out, fd.getPath(), filename );
+    writeLocation( out, fd.getURI(), filename );
+    writeTimestamp( out, fd.getTimestamp() );
+    SerialUtils.writeVarLong( out, fd.getSize() );
+    SerialUtils.writeVarLong( out, fd.getModified() );
+    SerialUtils.writeString( out, fd.getDigest() );
+  }
+
+  /**
+   * Reads a single file written by {@link #writeFile(java.io.DataOutput, org.coderebels.tsaenode.core.file.FileData)}
+   * @param in Input to read from
+   * @return File read
+   * @throws java.io.IOException
+   */
+  private FileData readFile(DataInput in) throws IOException {
+    FileData fd = new FileData();
+    String filename = SerialUtils.readString( in );
+
+    fd.setFilename( filename );
+    fd.setOwner( readRef(in) );
+    fd.setPath( readLocation(in, filename) );
+    fd.setURI( readLocation(in, filename) );
+    fd.setTimestamp( readTimestamp(in) );
+    fd.setSize( SerialUtils.readVarLong(in) );
+    fd.setModified( SerialUtils.readVarLong(in) );
+    fd.setDigest( SerialUtils.readString(in) );
+
+    return fd;
+  }
+
+  /**
+   * Writes a timestamp, its node identifier as a reference
+   * @param out Output to write to
+   * @param ts Timestamp to write
+   * @throws java.io.IOException
+   */
+  private void writeTimestamp(DataOutput out, Timestamp ts) throws IOException {
+    writeRef( out, ts.getNodeId() );
+    out.writeLong( ts.getSeqNumber() );
+  }
+
+  /**
+   * Reads a timestamp written by {@link #writeTimestamp(java.io.DataOutput, org.coderebels.tsaenode.core.common.Timestamp)}
+   * @param in Input to read from
+   * @return Timestamp read
+   * @throws java.io.IOException
+   * @throws java.io.InvalidObjectException if the node is not in the group
+   */
+  private Timestamp readTimestamp(DataInput in) throws IOException {
+    String nodeId = readRef( in );
+    int slot = Membership.getInstance().find( nodeId );
+
+    if (slot == Membership.NONE && nodeId != null) {
+      throw new InvalidObjectException( String.format("Timestamp of node %s, not in the group", nodeId) );
+    }
+
+    Timestamp ts = new Timestamp();
+    ts.setSlot( slot );
+    ts.setSeqNumber( in.readLong() );
+
+    return ts;
+  }
+
+  /**
+   * Writes a path or URI as a reference to its folder followed by its name
+   * @param out Output to write to
+   * @param location Path or URI to write; may be null
+   * @param filename Name of the file, not written again if the location ends with it
+   * @throws java.io.IOException
+   */
+  private void writeLocation(DataOutput out, String location, String filename) throws IOException {
+    if (location == null) {
+      writeRef( out, null );
+      return;
+    }
+
+    int cut = Math.max( location.lastIndexOf('/'), location.lastIndexOf('\\') ) + 1;
+    String name = location.substring( cut );
+
+    writeRef( out, location.substring(0, cut) );
+    out.writeBoolean( name.equals(filename) );
+    if (!name.equals(filename)) SerialUtils.writeUTF8( out, name );
+  }
+
+  /**
+   * Reads a path or URI written by {@link #writeLocation(java.io.DataOutput, java.lang.String, java.lang.String)}
+   * @param in Input to read from
+   * @param filename Name of the file
+   * @return Path or URI read; may be null
+   * @throws java.io.IOException
+   */
+  private String readLocation(DataInput in, String filename) throws IOException {
+    String folder = readRef( in );
+    if (folder == null) return null;
+
+    String name = in.readBoolean() ? filename : SerialUtils.readUTF8( in );
+
+    return folder + name;
+  }
+
+  /**
+   * Writes a string in full the first time, and as its reference number afterwards
+   * @param out Output to write to
+   * @param value String to write; may be null
+   * @throws java.io.IOException
+   */
+  private void writeRef(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      SerialUtils.writeVarInt( out, NULL_REF );
+      return;
+    }
+
+    Integer ref = written.get( value );
+
+    if (ref != null) {
+      SerialUtils.writeVarInt( out, ref );
+    } else {
+      SerialUtils.writeVarInt( out, NEW_REF );
+      SerialUtils.writeUTF8( out, value );
+      written.put( value, written.size() + 2 );
+    }
+  }
+
+  /**
+   * Reads a string written by {@link #writeRef(java.io.DataOutput, java.lang.String)}
+   * @param in Input to read from
+   * @return String read; may be null
+   * @throws java.io.IOException
+   * @throws java.io.StreamCorruptedException if the reference is to no string read so far
+   */
+  private String readRef(DataInput in) throws IOException {
+    int ref = SerialUtils.readVarInt( in );
+
+    if (ref == NULL_REF) return null;
+
+    if (ref == NEW_REF) {
+      String value = SerialUtils.readUTF8( in );
+      read.add( value );
+      return value;
+    }
+
+    if (ref < 2 || ref - 2 >= read.size()) {
+      throw new StreamCorruptedException( String.format("Invalid string reference -> %d (%d strings read)", ref, read.size()) );
+    }
+
+    return read.get( ref - 2 );
+  }
+
+}
@@ -17,6 +17,8 @@
 
 package org.coderebels.tsaenode.core.operation;
 
+import java.util.List;
+
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -35,17 +37,18 @@ public class OperationFactory {
   /**
    * Builds operation of specified type associated to supplied file metadata
    * @param nodeId Identifier of node where operation is originated
+   * @param seqNumber Sequence number of the operation within its node
    * @param type Operation type
    * @param file Metadata of file the operation will apply to
    * @return Operation instance of specified type
    */
-  public static synchronized Operation createOperation(String nodeId, int type, FileData file) {
-    logger.entry( nodeId, type, file );
+  public static synchronized Operation createOperation(String nodeId, long seqNumber, int type, FileData file) {
+    logger.entry( nodeId, seqNumber, type, file );
     logger.debug( "Creating Operation instance..." );
 
     Timestamp timestamp = new Timestamp();
     timestamp.setNodeId( nodeId );
-    timestamp.setSeqNumber( System.currentTimeMillis() );
+    timestamp.setSeqNumber( seqNumber );
 
     Operation op = new Operation();
     op.setType( type );
@@ -55,4 +58,28 @@ public class OperationFactory {
     return logger.exit( op );
   }
 
+  /**
+   * Builds batch operation of specified type associated to supplied files metadata
+   * @param nodeId Identifier of node where operation is originated
+   * @param seqNumber Sequence number of the operation within its node
+   * @param type Operation type (ADD_ALL, REMOVE_ALL)
+   * @param files Metadata of files the operation will apply to
+   * @return Operation instance of specified type
+   */
+  public static synchronized Operation createOperation(String nodeId, long seqNumber, int type, List<FileData> files) {
+    logger.entry( nodeId, seqNumber, type, files );
+    logger.debug( "Creating batch Operation instance..." );
+
+    Timestamp timestamp = new Timestamp();
+    timestamp.setNodeId( nodeId );
+    timestamp.setSeqNumber( seqNumber );
+
+    Operation op = new Operation();
+    op.setType( type );
+    op.setFiles( files );
+    op.setTimestamp( timestamp );
+
+    return logger.exit( op );
+  }
+
 }
\ No newline at end of file
@@ -17,12 +17,16 @@
 
 package org.coderebels.tsaenode.core.operation;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Set;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
@@ -30,8 +34,10 @@ import com.typesafe.config.ConfigFactory;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.common.Summary;
+import org.coderebels.tsaenode.core.common.VectorClock;
 import org.coderebels.tsaenode.core.common.AckSummary;
 import org.coderebels.tsaenode.core.file.FileData;
 import org.coderebels.tsaenode.core.file.IFileMgr;
@@ -65,6 +71,18 @@ public class OperationMgr implements IOperationMgr {
    * Acknowledgement vector of local node
    */
   private AckSummary ackSummary;
+  /**
+   * Write-ahead log every executed operation is appended to; null if not durable
+   */
+  private WriteAheadLog wal;
+  /**
+   * Held from taking a checkpoint until it is on disk, so that checkpoints are saved in the order they are taken
+   */
+  private final ReentrantLock checkpointLock = new ReentrantLock();
+  /**
+   * Highest sequence number known to have been issued by the local node, here or before a restart
+   */
+  private AtomicLong lastSeqNumber;
 
 
   public OperationMgr(IFileMgr fileMgr) {
@@ -75,6 +93,7 @@ public class OperationMgr implements IOperationMgr {
     this.fileMgr = fileMgr;
     this.log     = new Log();
     this.summary = new Summary();
+    this.lastSeqNumber = new AtomicLong();
     
     this.ackSummary = new AckSummary();
     this.ackSummary.add( localNodeId, summary );
@@ -114,7 +133,7 @@ public class OperationMgr implements IOperationMgr {
           break;
       }
 
-      op = OperationFactory.createOperation( localNodeId, type, fd );
+      op = OperationFactory.createOperation( localNodeId, nextSeqNumber(), type, fd );
     } catch (Exception e) {
       op = null;
       String mesg   = String.format( "An error occurred while creating the operation" );
@@ -125,6 +144,68 @@ public class OperationMgr implements IOperationMgr {
     return logger.exit( op );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#createOperation(java.lang.Integer, java.util.List)
+   */
+  @Override
+  public Operation createOperation(int type, List<String> files) throws OperationMgrException {
+    logger.entry( type, files );
+    logger.debug( "Creating batch operation..." );
+    /*
+     * 1) For each file in files
+     * 1.1) If type = ADD_ALL --> IFileMgr#createFileData
+     *      If type = REMOVE_ALL --> IFileMgr#searchFileData
+     * 2) Create new batch Operation --> OperationFactory.createOperation
+     */
+    Operation op = null;
+
+    try {
+      if (files.isEmpty()) {
+        String mesg   = String.format( "Unable to create the operation: no files to apply it to" );
+        String method = String.format( "OperationMgr#createOperation( %1$d, %2$s )", type, files );
+        throw new InvalidOperationTargetException( mesg, method );
+      }
+
+      List<FileData> fds = new Vector<FileData>( files.size() );
+
+      for (String file : files) {
+        FileData fd = null;
+
+        switch (type) {
+          case Operation.ADD_ALL:
+            fd = fileMgr.createFileData( file );
+            break;
+
+          case Operation.REMOVE_ALL:
+            fd = fileMgr.searchFileData( file );
+
+            if (fd == null) {
+              String mesg   = String.format( "Unable to create the operation: the file doesn't exist -> %s", file );
+              String method = String.format( "OperationMgr#createOperation( %1$d, %2$s )", type, files );
+              throw new InvalidOperationTargetException( mesg, method );
+            }
+            break;
+
+          default:
+            String mesg   = String.format( "Unable to create the operation: not a batch operation type -> %d", type );
+            String method = String.format( "OperationMgr#createOperation( %1$d, %2$s )", type, files );
+            throw new InvalidOperationTargetException( mesg, method );
+        }
+
+        fds.add( fd );
+      }
+
+      op = OperationFactory.createOperation( localNodeId, nextSeqNumber(), type, fds );
+    } catch (Exception e) {
+      op = null;
+      String mesg   = String.format( "An error occurred while creating the batch operation" );
+      String method = String.format( "OperationMgr#createOperation( %1$d, %2$s )", type, files );
+      throw new OperationMgrException( mesg, method, e );
+    }
+
+    return logger.exit( op );
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.operation.IOperationMgr#executeOperation(org.coderebels.tsaenode.core.operation.Operation)
    */
@@ -135,9 +216,12 @@ public class OperationMgr implements IOperationMgr {
     /*
      * 1) If op = ADD --> IFileMgr#addFile
      *    If op = REMOVE --> IFileMgr#removeFile
-     * 2) Add operation to Log
-     * 3) Update Summary
-     * 4) Return true if done successfully
+     *    If op = ADD_ALL --> IFileMgr#addFiles
+     *    If op = REMOVE_ALL --> IFileMgr#removeFiles
+     * 2) Append operation to the write-ahead log, if any --> WriteAheadLog#append
+     * 3) Add operation to Log
+     * 4) Update Summary
+     * 5) Return true if done successfully
      */
     boolean done = false;
 
@@ -165,6 +249,35 @@ public class OperationMgr implements IOperationMgr {
 
             done = fileMgr.removeFile( file );
             break;
+
+          case Operation.ADD_ALL:
+            done = fileMgr.addFiles( op.getFiles() );
+            break;
+
+          case Operation.REMOVE_ALL:
+            for (FileData fd : op.getFiles()) {
+              if (!op.getCreator().equals(fd.getOwner())) {
+                String mesg   = String.format( "Unable to execute the remove operation: the file belongs to another user -> %s", fd );
+                String method = String.format( "OperationMgr#executeOperation( %s )", op );
+                throw new InvalidOperationTargetException( mesg, method );
+              }
+            }
+
+            done = fileMgr.removeFiles( op.getFiles() );
+            break;
+        }
+
+        //
+        // Appended once the files are changed, since executing a local add sets the final path of its file,
+        // but before the log and summary are, so that they never get ahead of the write-ahead log
+        //
+        if (done && wal != null) {
+          try {
+            wal.append( op );
+          } catch (IOException e) {
+            undoFileChanges( op );
+            throw e;
+          }
         }
 
         if (done) {
@@ -182,41 +295,89 @@ public class OperationMgr implements IOperationMgr {
     return logger.exit( done );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#executeInOrder(org.coderebels.tsaenode.core.operation.Operation, org.coderebels.tsaenode.core.common.Timestamp)
+   */
+  @Override
+  public synchronized boolean executeInOrder(Operation op, Timestamp previous) throws OperationMgrException {
+    logger.entry( op, previous );
+    logger.debug( "Executing operation in order..." );
+    /*
+     * 1) If the last operation known from its creator is the one preceding op --> IOperationMgr#executeOperation
+     * 2) Return true if executed now
+     */
+    //
+    // Executing an operation ahead of a missing one would move the summary vector past the gap,
+    // and the missing one would never be requested again in a synchronization session
+    //
+    boolean done = false;
+    Timestamp last = summary.getLast( op.getCreator() );
+    boolean inOrder = (last == null) ? previous == null : previous != null && last.equals( previous );
+
+    if (inOrder) {
+      done = executeOperation( op );
+    }
+
+    return logger.exit( done );
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.operation.IOperationMgr#extractOperations(java.util.concurrent.ConcurrentHashMap)
    */
   @Override
-  public synchronized List<Operation> extractOperations(ConcurrentHashMap<String, Timestamp> sum) {
-    logger.entry( sum );
+  public List<Operation> extractOperations(ConcurrentHashMap<String, Timestamp> sum) {
+    return extractOperations( sum, Integer.MAX_VALUE );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#extractOperations(java.util.concurrent.ConcurrentHashMap, int)
+   */
+  @Override
+  public synchronized List<Operation> extractOperations(ConcurrentHashMap<String, Timestamp> sum, int limit) {
+    logger.entry( sum, limit );
     logger.debug( "Retrieving unknown operations..." );
     /*
      * 1) For each node in local summary
      * 1.1) If timestamp (last) is newer than its counterpart in the fellow summary (peerLast)
      * 1.1.1) Extract from Log the list of operations between last and peerLast(not included) of the corresponding node --> Log#extract
      * 1.1.2) Add that list to the final list of operations to send --> Vector#addAll
+     * 1.2) Stop once the limit of operations to send is reached
      * 2) Return the final list of operations not seen by fellow node
      */
     List<Operation> opsToSend = new Vector<Operation>();
-    Summary peerSummary = new Summary( sum );
+    //
+    // Both vectors are compared slot by slot, on primitive sequence numbers
+    //
+    VectorClock clock     = summary.getClock();
+    VectorClock peerClock = VectorClock.of( sum );
+    int n = clock.size();
 
-    for (String nodeId : summary.summarizedNodes()) {
-      Timestamp last     = summary.getLast( nodeId );
-      Timestamp peerLast = peerSummary.getLast( nodeId );
+    for (int slot = 0; slot < n; slot++) {
+      if (opsToSend.size() >= limit) break;
+
+      long last     = clock.get( slot );
+      long peerLast = peerClock.get( slot );
       //
       // Keep in mind the scenario where the remote fellow node is not aware of operations
-      // executed by other nodes --> peerLast == null
+      // executed by other nodes --> peerLast == NONE
       //
-      if (peerLast == null || peerLast.compare( last ) < 0) {
-        Timestamp first = peerLast;
+      if (peerLast < last) {
+        long first = peerLast;
         boolean incFirst = false;
 
-        if (peerLast == null) {
-          Operation firstOp = log.getFirst( nodeId );
-          first = firstOp.getTimestamp();
+        if (peerLast == VectorClock.NONE) {
+          Operation firstOp = log.getFirst( slot );
+          //
+          // Every operation of the node may have been purged: the fellow node
+          // can only get them through a snapshot --> IOperationMgr#requiresSnapshot
+          //
+          if (firstOp == null) continue;
+
+          first = firstOp.getTimestamp().getSeqNumber();
           incFirst = true;
         }
 
-        List<Operation> nodeOps = log.extract( nodeId, first, last, incFirst );
+        List<Operation> nodeOps = log.extract( slot, first, last, incFirst, limit - opsToSend.size() );
         opsToSend.addAll( nodeOps );
       }
     }
@@ -224,6 +385,215 @@ public class OperationMgr implements IOperationMgr {
     return logger.exit( opsToSend );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#requiresSnapshot(java.util.concurrent.ConcurrentHashMap)
+   */
+  @Override
+  public synchronized boolean requiresSnapshot(ConcurrentHashMap<String, Timestamp> sum) {
+    logger.entry( sum );
+    logger.debug( "Checking whether a snapshot is required..." );
+    /*
+     * 1) For each node in local summary
+     * 1.1) If the fellow summary is older than the log horizon of the node, a snapshot is required
+     */
+    boolean required = false;
+
+    for (String nodeId : summary.summarizedNodes()) {
+      Timestamp horizon = log.getHorizon( nodeId );
+
+      if (horizon != null && horizon.compare( sum.get(nodeId) ) > 0) {
+        required = true;
+        break;
+      }
+    }
+
+    return logger.exit( required );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#takeSnapshot()
+   */
+  @Override
+  public synchronized Snapshot takeSnapshot() {
+    logger.entry();
+    logger.debug( "Taking snapshot..." );
+    //
+    // Operations are executed while holding this same lock,
+    // so the file index and the summary vector copied here match
+    //
+    Snapshot snapshot = new Snapshot();
+    snapshot.setFiles( new Vector<FileData>(fileMgr.getFileIndex()) );
+    snapshot.setSummary( new ConcurrentHashMap<String, Timestamp>(summary.getData()) );
+
+    return logger.exit( snapshot );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#installSnapshot(org.coderebels.tsaenode.core.operation.Snapshot)
+   */
+  @Override
+  public synchronized boolean installSnapshot(Snapshot snapshot) throws OperationMgrException {
+    logger.entry( snapshot );
+    logger.debug( "Installing snapshot..." );
+    /*
+     * 1) For each node in the snapshot summary newer than its local counterpart
+     * 1.1) Replace the files owned by the node with those in the snapshot --> IFileMgr#replaceFiles
+     * 1.2) Remove from log the operations of the node covered by the snapshot --> Log#removeAllPreceding
+     * 1.3) Update Summary
+     * 2) Return true if done successfully
+     */
+    //
+    // Files can only be added and removed by their owner, so the files owned by a node
+    // are exactly the state its operations up to the summary timestamp produced
+    //
+    boolean done = true;
+
+    try {
+      Map<String, List<FileData>> filesByOwner = new HashMap<String, List<FileData>>();
+
+      for (FileData file : snapshot.getFiles()) {
+        List<FileData> owned = filesByOwner.get( file.getOwner() );
+
+        if (owned == null) {
+          owned = new Vector<FileData>();
+          filesByOwner.put( file.getOwner(), owned );
+        }
+
+        owned.add( file );
+      }
+
+      for (Timestamp snapshotLast : snapshot.getSummary().values()) {
+        String nodeId = snapshotLast.getNodeId();
+
+        if (snapshotLast.compare( summary.getLast(nodeId) ) > 0) {
+          List<FileData> owned = filesByOwner.get( nodeId );
+          if (owned == null) owned = new Vector<FileData>();
+
+          done = done && fileMgr.replaceFiles( nodeId, owned );
+          log.removeAllPreceding( nodeId, snapshotLast );
+          summary.update( snapshotLast );
+        }
+      }
+    } catch (Exception e) {
+      done = false;
+      String mesg   = String.format( "An error occurred while installing the snapshot -> %s", snapshot );
+      String method = String.format( "OperationMgr#installSnapshot( %s )", snapshot );
+      throw new OperationMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#recover(org.coderebels.tsaenode.core.operation.WriteAheadLog)
+   */
+  @Override
+  public synchronized boolean recover(WriteAheadLog wal) throws OperationMgrException {
+    logger.entry( wal );
+    logger.debug( "Recovering from write-ahead log..." );
+    /*
+     * 1) If there is a checkpoint --> WriteAheadLog#loadCheckpoint
+     * 1.1) Restore the file index, the summary vector and the acknowledgement vector from it
+     * 1.2) Set the log horizon of every node to its checkpoint timestamp --> Log#removeAllPreceding
+     * 2) For each operation in the write-ahead log segments after the checkpoint, not executed yet
+     * 2.1) If op = ADD or ADD_ALL --> IFileMgr#indexFiles
+     *      If op = REMOVE or REMOVE_ALL --> IFileMgr#unindexFiles
+     * 2.2) Add operation to Log
+     * 2.3) Update Summary
+     * 3) Append operations executed from now on to the write-ahead log
+     * 4) Return true if done successfully
+     */
+    //
+    // Operations were already applied to the publication folder before the restart,
+    // so only the file index is rebuilt
+    //
+    boolean done = false;
+
+    try {
+      Checkpoint checkpoint = wal.loadCheckpoint();
+      long firstSegment = 0;
+
+      if (checkpoint != null) {
+        restore( checkpoint );
+        firstSegment = checkpoint.getSegment();
+      }
+
+      List<Operation> ops = wal.replay( firstSegment );
+
+      for (Operation op : ops) {
+        if (checkIsAlreadyExecuted( op )) continue;
+
+        List<FileData> files = op.isBatch() ? op.getFiles() : Collections.singletonList( op.getFile() );
+
+        switch (op.getType()) {
+          case Operation.ADD:
+          case Operation.ADD_ALL:
+            fileMgr.indexFiles( files );
+            break;
+
+          case Operation.REMOVE:
+          case Operation.REMOVE_ALL:
+            fileMgr.unindexFiles( files );
+            break;
+        }
+
+        log.add( op );
+        summary.update( op.getTimestamp() );
+      }
+
+      this.wal = wal;
+      done = true;
+
+      logger.info( String.format("Recovered %s and %d operations from write-ahead log", checkpoint, ops.size()) );
+    } catch (Exception e) {
+      done = false;
+      String mesg   = String.format( "An error occurred while recovering from the write-ahead log" );
+      String method = String.format( "OperationMgr#recover( %s )", wal );
+      throw new OperationMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#checkpoint()
+   */
+  @Override
+  public boolean checkpoint() throws OperationMgrException {
+    logger.entry();
+    logger.debug( "Writing checkpoint..." );
+    /*
+     * 1) Take a checkpoint of the node state, starting a new write-ahead log segment --> OperationMgr#takeCheckpoint
+     * 2) Write it to disk and delete the segments it covers --> WriteAheadLog#saveCheckpoint
+     * 3) Return true if done successfully
+     */
+    //
+    // Only taking the checkpoint holds the OperationMgr lock: writing it to disk doesn't
+    // block operations nor synchronization sessions. A checkpoint lock of its own keeps
+    // a late periodic checkpoint from being saved over a newer one, e.g. the one written on disconnect
+    //
+    boolean done = false;
+    Checkpoint checkpoint = null;
+
+    try {
+      checkpointLock.lock();
+
+      try {
+        checkpoint = takeCheckpoint();
+        if (checkpoint != null) done = wal.saveCheckpoint( checkpoint );
+      } finally {
+        checkpointLock.unlock();
+      }
+    } catch (Exception e) {
+      done = false;
+      String mesg   = String.format( "An error occurred while writing the checkpoint -> %s", checkpoint );
+      String method = String.format( "OperationMgr#checkpoint()" );
+      throw new OperationMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.operation.IOperationMgr#getSummary()
    */
@@ -237,6 +607,22 @@ public class OperationMgr implements IOperationMgr {
     return logger.exit( sumData );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#getSummaryDigest()
+   */
+  @Override
+  public long getSummaryDigest() {
+    return summary.getDigest();
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#getAckDigest()
+   */
+  @Override
+  public long getAckDigest() {
+    return ackSummary.getDigest();
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.operation.IOperationMgr#getLog()
    */
@@ -250,6 +636,19 @@ public class OperationMgr implements IOperationMgr {
     return logger.exit( ops );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#getLog(java.lang.String, int, java.lang.String, java.lang.String)
+   */
+  @Override
+  public Page<Operation> getLog(String cursor, int pageSize, String creator, String prefix) {
+    logger.entry( cursor, pageSize, creator, prefix );
+    logger.debug( "Retrieving operation log page..." );
+
+    Page<Operation> page = log.getData( cursor, pageSize, creator, prefix );
+
+    return logger.exit( page );
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.operation.IOperationMgr#updateLog(java.util.List)
    */
@@ -283,63 +682,39 @@ public class OperationMgr implements IOperationMgr {
   }
 
   /* (non-Javadoc)
-   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#purgeLog(java.lang.Integer)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#setUpGroup(java.util.List)
    */
   @Override
-  public synchronized boolean purgeLog(int groupSize) {
-    logger.entry( groupSize );
+  public void setUpGroup(List<String> nodeIds) {
+    for (String nodeId : nodeIds) {
+      ackSummary.addMember( nodeId );
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#purgeLog()
+   */
+  @Override
+  public boolean purgeLog() {
+    logger.entry();
     logger.debug( "Purging operation log..." );
     /*
-     * 1) For each summary of acks
-     * 1.1) For each operation in the summary
-     * 1.1.1) If its timestamp is older than the one saved in the temporary summary vector
-     *        containing oldest timestamps --> we save it
-     * 2) For each timestamp in the temporary summary vector
+     * 1) Get the watermarks moved since last purge --> AckSummary#drainWatermarks
+     * 2) For each moved watermark
      * 2.1) Remove from log all operations timestamped before that, belonging to the same node
      * 3) Return true if done successfully
      */
     //
-    // Attention: You can only purge the log effectively once it has entered the stable phase,
-    // when all nodes are aware of the operations seen by other nodes. In practice this means
-    // that only when the acknowledgement vector contains the summary vectors of all other nodes in the group (summarizedNodes.size == groupSize)
-    // we can effectively purge. And you can only purge the operations seen by all nodes (votes == groupSize)
+    // Attention: You can only purge the operations seen by all nodes within the group. Every group
+    // node has a row in the acknowledgement vector from the start (OperationMgr#setUpGroup), so the
+    // watermark of a node stays unset until the summary vectors of all of them include it.
+    // The OperationMgr lock is not taken: removed operations are known by every node, so no
+    // session running meanwhile needs them
     //
-
     boolean done = true;
 
-    Set<String> summarizedNodes = ackSummary.summarizedNodes();
-
-    if (summarizedNodes.size() == groupSize) {
-      HashMap<String, Integer> votesMap = new HashMap<String, Integer>();
-      Summary allSeenSummary = new Summary();
-
-      for (String ackNodeId : summarizedNodes) {
-        Summary nodeSummary = ackSummary.get( ackNodeId );
-
-        for (String nodeId : summarizedNodes) {
-          Timestamp nodeLastTS = nodeSummary.getLast( nodeId );
-
-          if (nodeLastTS != null) {
-            int votes = votesMap.containsKey( nodeId ) ? votesMap.get( nodeId ) : 0;
-            votesMap.put( nodeId, votes + 1 );
-
-            Timestamp allSeenTS = allSeenSummary.getLast( nodeId );
-
-            if (allSeenTS == null || nodeLastTS.compare(allSeenTS) < 0) {
-              allSeenSummary.put( nodeId, nodeLastTS );
-            }
-          }
-        }
-      }
-
-      for (String nodeId : allSeenSummary.summarizedNodes()) {
-        int votes = votesMap.get( nodeId );
-
-        if (votes == groupSize) {
-          Timestamp allSeenTS = allSeenSummary.getLast( nodeId );
-          log.removeAllPreceding( nodeId, allSeenTS );
-        }
-      }
+    for (Timestamp watermark : ackSummary.drainWatermarks()) {
+      log.removeAllPreceding( watermark.getNodeId(), watermark );
     }
 
     return logger.exit( done );
@@ -358,6 +733,27 @@ public class OperationMgr implements IOperationMgr {
     return logger.exit( ackData );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#getAcks(java.util.Map)
+   */
+  @Override
+  public ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> getAcks(Map<String, Long> since) {
+    logger.entry( since );
+    logger.debug( "Retrieving acknowledgement vector changes..." );
+
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> ackData = ackSummary.getData( since );
+
+    return logger.exit( ackData );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.operation.IOperationMgr#getAckVersions()
+   */
+  @Override
+  public ConcurrentHashMap<String, Long> getAckVersions() {
+    return ackSummary.getVersions();
+  }
+
   /* (non-Javadoc)
    * @see org.coderebels.tsaenode.core.operation.IOperationMgr#updateAcks(java.util.concurrent.ConcurrentHashMap)
    */
@@ -367,11 +763,112 @@ public class OperationMgr implements IOperationMgr {
     logger.debug( "Updating acknowledgement vector..." );
 
     ackSummary.update( acks );
+    raiseSeqNumber( acks );
 
     return logger.exit( true );
   }
 
 
+  /**
+   * Undoes the file changes of an operation that couldn't be appended to the write-ahead log,
+   * so that it is executed again when received anew. Files added are removed; files removed
+   * stay so, since executing the removal again finds them already missing
+   * @param op Operation whose files were changed
+   */
+  private void undoFileChanges(Operation op) {
+    try {
+      switch (op.getType()) {
+        case Operation.ADD:
+          fileMgr.removeFile( op.getFile() );
+          break;
+
+        case Operation.ADD_ALL:
+          fileMgr.removeFiles( op.getFiles() );
+          break;
+      }
+    } catch (Exception e) {
+      logger.catching( e );
+    }
+  }
+
+  /**
+   * Takes a consistent checkpoint of the node state. A new write-ahead log segment is started
+   * while holding the lock operations are executed with, so the checkpoint covers exactly the
+   * operations in the segments preceding it
+   * @return Checkpoint of the node state; null if there is no write-ahead log
+   * @throws java.io.IOException
+   */
+  private synchronized Checkpoint takeCheckpoint() throws IOException {
+    if (wal == null) return null;
+
+    Checkpoint checkpoint = new Checkpoint();
+    checkpoint.setSegment( wal.mark() );
+    checkpoint.setSnapshot( takeSnapshot() );
+    checkpoint.setAcks( ackSummary.getData() );
+
+    return checkpoint;
+  }
+
+  /**
+   * Restores the node state from a checkpoint. Operations it covers are no longer in the log,
+   * so fellow nodes missing them get a snapshot instead
+   * @param checkpoint Checkpoint to restore
+   * @throws java.lang.Exception
+   */
+  private void restore(Checkpoint checkpoint) throws Exception {
+    Snapshot snapshot = checkpoint.getSnapshot();
+
+    fileMgr.indexFiles( snapshot.getFiles() );
+
+    for (Timestamp last : snapshot.getSummary().values()) {
+      summary.update( last );
+      log.removeAllPreceding( last.getNodeId(), last );
+    }
+    //
+    // The local row is the summary vector itself, already restored
+    //
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks = checkpoint.getAcks();
+    acks.remove( localNodeId );
+    ackSummary.update( acks );
+    raiseSeqNumber( acks );
+  }
+
+  /**
+   * Gets the sequence number of a new local operation: the current time, unless not past the last
+   * one issued or seen executed. Two operations created within the same millisecond, or after the
+   * clock went back, would otherwise share a timestamp and the second one would be discarded
+   * @return Sequence number of the new operation
+   */
+  private long nextSeqNumber() {
+    Timestamp last = summary.getLast( localNodeId );
+    long floor = (last == null) ? 0 : last.getSeqNumber();
+
+    while (true) {
+      long issued = lastSeqNumber.get();
+      long next = Math.max( System.currentTimeMillis(), Math.max(issued, floor) + 1 );
+
+      if (lastSeqNumber.compareAndSet( issued, next )) return next;
+    }
+  }
+
+  /**
+   * Raises the last sequence number issued to the highest one fellow nodes have seen from the local
+   * node, which may be ahead of the local state if the node lost its data folder
+   * @param acks Acknowledgement vector rows received
+   */
+  private void raiseSeqNumber(Map<String, ConcurrentHashMap<String, Timestamp>> acks) {
+    for (ConcurrentHashMap<String, Timestamp> row : acks.values()) {
+      Timestamp seen = row.get( localNodeId );
+      if (seen == null) continue;
+
+      long issued = lastSeqNumber.get();
+
+      while (seen.getSeqNumber() > issued && !lastSeqNumber.compareAndSet( issued, seen.getSeqNumber() )) {
+        issued = lastSeqNumber.get();
+      }
+    }
+  }
+
   /**
    * Checks if the operation has already been executed
    * @param op Operation to check
@@ -381,22 +878,7 @@ public class OperationMgr implements IOperationMgr {
     logger.entry( op );
     logger.debug( "Checking operation execution..." );
 
-    boolean isExecuted = false;
-
-    Timestamp ts   = op.getTimestamp();
-    String nodeId  = ts.getNodeId();
-    Timestamp last = summary.getLast( nodeId );
-
-    if (last != null) {
-      int rel = last.compare( ts );
-      //
-      // Remember:
-      // i)   last > ts  --> rel == 1
-      // ii)  last == ts --> rel == 0
-      // iii) last < ts  --> rel == -1
-      //
-      isExecuted = rel >= 0;
-    }
+    boolean isExecuted = summary.covers( op.getTimestamp() );
 
     return logger.exit( isExecuted );
   }
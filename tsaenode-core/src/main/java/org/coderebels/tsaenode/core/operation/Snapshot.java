@@ -0,0 +1,82 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+
+
+/**
+ * Consistent copy of the file index of a node along with the summary vector it reflects,
+ * sent to peers missing operations already purged from the log
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class Snapshot implements Serializable {
+
+  private transient List<FileData> files;
+  private ConcurrentHashMap<String, Timestamp> summary;
+
+
+  public Snapshot() {
+    files = new Vector<FileData>();
+    summary = new ConcurrentHashMap<String, Timestamp>();
+  }
+
+
+  public List<FileData> getFiles() { return files; }
+  public void setFiles(List<FileData> files) { this.files = files; }
+
+  public ConcurrentHashMap<String, Timestamp> getSummary() { return summary; }
+  public void setSummary(ConcurrentHashMap<String, Timestamp> summary) { this.summary = summary; }
+
+
+  /**
+   * Writes the snapshot, files in the compact binary format
+   * @param out Stream to write to
+   * @throws java.io.IOException
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    new OperationCodec().writeFiles( out, files );
+  }
+
+  /**
+   * Reads a snapshot written by {@link #writeObject(java.io.ObjectOutputStream)}
+   * @param in Stream to read from
+   * @throws java.io.IOException
+   * @throws java.lang.ClassNotFoundException
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    files = new OperationCodec().readFiles( in );
+  }
+
+  @Override
+  public String toString() {
+    return String.format( "Snapshot[%d files,%s]", files.size(), summary.values() );
+  }
+
+}
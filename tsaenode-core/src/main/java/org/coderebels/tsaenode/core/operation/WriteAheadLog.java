@@ -0,0 +1,432 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+
+/**
+ * Append-only log of the operations executed by a node, kept in segment files within a folder.
+ * Each record holds an operation in the compact binary format, preceded by its length and checksum.
+ *
+ * Writes are forced to disk in groups of operations: a crash loses at most the last group, which
+ * the node gets back from its peers in the next synchronization sessions.
+ *
+ * A checkpoint of the node state makes every segment started before it unnecessary: those are
+ * deleted once the checkpoint is safely on disk
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class WriteAheadLog {
+
+  private static Logger logger = LogManager.getLogger( WriteAheadLog.class.getName() );
+
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  /**
+   * Record header: payload length and checksum
+   */
+  private static final int HEADER_SIZE = 8;
+  private static final String CHECKPOINT_FILE = "checkpoint.dat";
+  private static final String CHECKPOINT_TMP_FILE = "checkpoint.tmp";
+
+  private File folder;
+  /**
+   * Size a segment file may reach before a new one is started
+   */
+  private long segmentSize;
+  /**
+   * Number of operations written between two forces to disk
+   */
+  private int syncBatch;
+  private RandomAccessFile segment;
+  private FileChannel channel;
+  private long segmentNumber;
+  private int unsynced;
+  /**
+   * Held while writing a checkpoint, which must not block appends
+   */
+  private final Object checkpointLock = new Object();
+  /**
+   * Segment the checkpoint on disk was taken at; -1 if none
+   */
+  private long checkpointSegment = -1;
+
+
+  public WriteAheadLog(File folder, long segmentSize, int syncBatch) {
+    this.folder = folder;
+    this.segmentSize = segmentSize;
+    this.syncBatch = Math.max( 1, syncBatch );
+  }
+
+
+  /**
+   * Reads every operation in the log, in the order they were appended
+   * @return List of operations in the log
+   * @throws java.io.IOException
+   */
+  public List<Operation> replay() throws IOException {
+    return replay( 0 );
+  }
+
+  /**
+   * Reads the operations in the log from the specified segment on, in the order they were appended.
+   * Segment files are read whole into memory, no larger than the segment size. A torn record at the end
+   * of the last segment, left by a crash, is discarded. Segments are not memory-mapped: a mapping outlives
+   * its channel until garbage collected, and truncating a mapped file fails on some platforms
+   * @param firstSegment Number of the first segment to read
+   * @return List of operations in those segments
+   * @throws java.io.IOException
+   */
+  public synchronized List<Operation> replay(long firstSegment) throws IOException {
+    logger.entry( firstSegment );
+    logger.debug( "Replaying write-ahead log..." );
+
+    List<Operation> ops = new Vector<Operation>();
+    List<File> segments = getSegments();
+
+    for (File file : segments) {
+      if (numberOf( file ) < firstSegment) continue;
+
+      RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+
+      try {
+        FileChannel fc = raf.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate( (int) fc.size() );
+
+        while (buffer.hasRemaining() && fc.read( buffer ) >= 0);
+        buffer.flip();
+
+        int valid = readRecords( buffer, ops );
+
+        if (valid < fc.size()) {
+          logger.warn( String.format("Discarding %d bytes of torn records -> %s", fc.size() - valid, file) );
+          fc.truncate( valid );
+        }
+      } finally {
+        raf.close();
+      }
+    }
+
+    segmentNumber = segments.isEmpty() ? firstSegment : Math.max( firstSegment, numberOf(segments.get(segments.size() - 1)) );
+    openSegment();
+
+    return logger.exit( ops );
+  }
+
+  /**
+   * Appends an operation to the log, forcing the pending group to disk once complete.
+   * A record failing to be written is cut off, so that the log ends at the previous one
+   * @param op Operation to append
+   * @throws java.io.IOException
+   */
+  public synchronized void append(Operation op) throws IOException {
+    if (channel == null) openSegment();
+
+    byte[] payload = encode( op );
+
+    if (channel.size() > 0 && channel.size() + HEADER_SIZE + payload.length > segmentSize) {
+      roll();
+    }
+
+    long start = channel.size();
+
+    CRC32 crc = new CRC32();
+    crc.update( payload );
+
+    ByteBuffer record = ByteBuffer.allocate( HEADER_SIZE + payload.length );
+    record.putInt( payload.length );
+    record.putInt( (int) crc.getValue() );
+    record.put( payload );
+    record.flip();
+
+    try {
+      while (record.hasRemaining()) {
+        channel.write( record );
+      }
+    } catch (IOException e) {
+      channel.truncate( start );
+      channel.position( start );
+      throw e;
+    }
+
+    if (++unsynced >= syncBatch) sync();
+  }
+
+  /**
+   * Forces the operations appended so far to disk
+   * @throws java.io.IOException
+   */
+  public synchronized void sync() throws IOException {
+    if (channel != null && unsynced > 0) {
+      channel.force( false );
+      unsynced = 0;
+    }
+  }
+
+  /**
+   * Forces the pending operations to disk and closes the current segment file
+   * @throws java.io.IOException
+   */
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      sync();
+      segment.close();
+      segment = null;
+      channel = null;
+    }
+  }
+
+  /**
+   * Starts a new segment, unless the current one is still empty, so that operations appended
+   * from now on are in segments numbered from the returned one
+   * @return Number of the current segment
+   * @throws java.io.IOException
+   */
+  public synchronized long mark() throws IOException {
+    if (channel == null) openSegment();
+    if (channel.size() > 0) roll();
+
+    return segmentNumber;
+  }
+
+  /**
+   * Writes a checkpoint, replacing the previous one, and deletes the segments it covers.
+   * The checkpoint is written to a temporary file first and renamed once on disk, so that
+   * a crash meanwhile leaves the previous one in place. A checkpoint older than the one on disk
+   * is refused, since the segments it needs may have been deleted already
+   * @param checkpoint Checkpoint to write, taken after {@link #mark()}
+   * @return true if written; false if older than the checkpoint on disk
+   * @throws java.io.IOException
+   */
+  public boolean saveCheckpoint(Checkpoint checkpoint) throws IOException {
+    logger.entry( checkpoint );
+    logger.debug( "Saving checkpoint..." );
+
+    synchronized (checkpointLock) {
+      if (checkpoint.getSegment() < checkpointSegment) {
+        logger.warn( String.format("Refusing checkpoint older than the one on disk -> %s", checkpoint) );
+        return logger.exit( false );
+      }
+
+      if (!folder.exists()) folder.mkdirs();
+
+      File tmp = new File( folder, CHECKPOINT_TMP_FILE );
+      FileOutputStream fos = new FileOutputStream( tmp );
+
+      try {
+        ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream(fos, 1 << 16) );
+        out.writeObject( checkpoint );
+        out.flush();
+        fos.getFD().sync();
+      } finally {
+        fos.close();
+      }
+
+      if (!tmp.renameTo( new File(folder, CHECKPOINT_FILE) )) {
+        throw new IOException( String.format("Unable to replace the checkpoint -> %s", tmp) );
+      }
+
+      checkpointSegment = checkpoint.getSegment();
+      //
+      // Segments are only deleted once the checkpoint covering them is in place, rename
+      // included: until the folder itself is forced to disk, a crash may undo the rename
+      //
+      syncFolder();
+
+      for (File file : getSegments()) {
+        if (numberOf( file ) < checkpoint.getSegment()) file.delete();
+      }
+    }
+
+    return logger.exit( true );
+  }
+
+  /**
+   * Reads the last checkpoint written
+   * @return Last checkpoint; null if none
+   * @throws java.io.IOException
+   */
+  public Checkpoint loadCheckpoint() throws IOException {
+    logger.entry();
+    logger.debug( "Loading checkpoint..." );
+
+    File file = new File( folder, CHECKPOINT_FILE );
+    if (!file.exists()) return logger.exit( null );
+
+    ObjectInputStream in = new ObjectInputStream( new BufferedInputStream(new FileInputStream(file), 1 << 16) );
+
+    try {
+      Checkpoint checkpoint = (Checkpoint) in.readObject();
+
+      synchronized (checkpointLock) {
+        checkpointSegment = Math.max( checkpointSegment, checkpoint.getSegment() );
+      }
+
+      return logger.exit( checkpoint );
+    } catch (ClassNotFoundException e) {
+      throw new IOException( String.format("Unable to read the checkpoint -> %s", file), e );
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Gets the segment files of the log, oldest first
+   * @return List of segment files
+   */
+  public List<File> getSegments() {
+    File[] files = folder.listFiles( new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX );
+      }
+    });
+
+    List<File> segments = (files == null) ? new Vector<File>() : new Vector<File>( Arrays.asList(files) );
+    Collections.sort( segments );
+
+    return segments;
+  }
+
+
+  /**
+   * Reads the records of a segment into the list, up to the first torn or corrupt one
+   * @param buffer Segment content
+   * @param ops List to add the operations read to
+   * @return Position following the last valid record
+   * @throws java.io.IOException
+   */
+  private int readRecords(ByteBuffer buffer, List<Operation> ops) throws IOException {
+    CRC32 crc = new CRC32();
+
+    while (buffer.remaining() >= HEADER_SIZE) {
+      int start  = buffer.position();
+      int length = buffer.getInt();
+      int check  = buffer.getInt();
+
+      if (length < 0 || length > buffer.remaining()) return start;
+
+      byte[] payload = new byte[length];
+      buffer.get( payload );
+
+      crc.reset();
+      crc.update( payload );
+      if ((int) crc.getValue() != check) return start;
+
+      ops.addAll( new OperationCodec().readOperations(new DataInputStream(new ByteArrayInputStream(payload))) );
+    }
+
+    return buffer.position();
+  }
+
+  /**
+   * Encodes an operation in the compact binary format
+   * @param op Operation to encode
+   * @return Encoded operation
+   * @throws java.io.IOException
+   */
+  private byte[] encode(Operation op) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( bytes );
+
+    new OperationCodec().writeOperations( out, Collections.singletonList(op) );
+    out.flush();
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Forces the current segment to disk and starts a new one
+   * @throws java.io.IOException
+   */
+  private void roll() throws IOException {
+    close();
+    segmentNumber++;
+    openSegment();
+  }
+
+  /**
+   * Opens the current segment file for appending, creating the folder and the file if necessary
+   * @throws java.io.IOException
+   */
+  private void openSegment() throws IOException {
+    if (!folder.exists()) folder.mkdirs();
+
+    File file = new File( folder, String.format("%s%020d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX) );
+
+    segment = new RandomAccessFile( file, "rw" );
+    channel = segment.getChannel();
+    channel.position( channel.size() );
+  }
+
+  /**
+   * Forces the entries of the log folder to disk, so that files renamed within it stay renamed
+   * after a crash. Platforms unable to open a folder for reading are left as they are
+   * @throws java.io.IOException
+   */
+  private void syncFolder() throws IOException {
+    FileChannel dir = null;
+
+    try {
+      dir = FileChannel.open( folder.toPath(), StandardOpenOption.READ );
+      dir.force( true );
+    } catch (AccessDeniedException e) {
+      logger.warn( String.format("Unable to force the log folder to disk -> %s", folder) );
+    } finally {
+      if (dir != null) dir.close();
+    }
+  }
+
+  /**
+   * Gets the sequence number of a segment file from its name
+   * @param file Segment file
+   * @return Segment number
+   */
+  private long numberOf(File file) {
+    String name = file.getName();
+
+    return Long.parseLong( name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()) );
+  }
+
+}
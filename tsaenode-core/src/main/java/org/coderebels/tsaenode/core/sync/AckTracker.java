@@ -0,0 +1,189 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.operation.IOperationMgr;
+
+
+/**
+ * Map of acknowledgement vector row versions exchanged with each peer
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class AckTracker {
+
+  /**
+   * Incarnation of each peer the tracked versions belong to
+   */
+  private ConcurrentHashMap<String, Long> incarnations;
+  /**
+   * Versions of local rows each peer is known to have received
+   */
+  private ConcurrentHashMap<String, ConcurrentHashMap<String, Long>> sent;
+  /**
+   * Versions of peer rows received from each peer
+   */
+  private ConcurrentHashMap<String, ConcurrentHashMap<String, Long>> received;
+
+
+  public AckTracker() {
+    incarnations = new ConcurrentHashMap<String, Long>();
+    sent = new ConcurrentHashMap<String, ConcurrentHashMap<String, Long>>();
+    received = new ConcurrentHashMap<String, ConcurrentHashMap<String, Long>>();
+  }
+
+
+  /**
+   * Gets the versions of the local acknowledgement vector rows already delivered to the peer
+   * @param node Peer node
+   * @return Map of row versions known by peer
+   */
+  public ConcurrentHashMap<String, Long> getSent(Peer node) {
+    return getVersions( sent, node );
+  }
+
+  /**
+   * Gets the versions of the peer acknowledgement vector rows already received from it
+   * @param node Peer node
+   * @return Map of peer row versions known by local node
+   */
+  public ConcurrentHashMap<String, Long> getReceived(Peer node) {
+    return getVersions( received, node );
+  }
+
+  /**
+   * Gets the incarnation of the peer the tracked versions belong to
+   * @param node Peer node
+   * @return Incarnation of the peer, or null if no version has been received from it yet
+   */
+  public Long getIncarnation(Peer node) {
+    return incarnations.get( node.getId() );
+  }
+
+  /**
+   * Gets the versions of the local rows the sender of the request already knows. They are
+   * discarded if they were received from a previous incarnation of the local node
+   * @param request Request received
+   * @param incarnation Incarnation of the local node
+   * @return Map of row versions known by the sender
+   */
+  public Map<String, Long> getKnown(SessionMessage request, long incarnation) {
+    Long known = request.getKnownIncarnation();
+
+    if (known == null || known != incarnation) {
+      return new ConcurrentHashMap<String, Long>();
+    }
+
+    return request.getKnownAckVersions();
+  }
+
+  /**
+   * Attaches to the message the local acknowledgement vector rows changed since the specified versions,
+   * along with the version of every attached row
+   * @param message Message to send
+   * @param operationMgr Local node OperationMgr
+   * @param since Versions of the local rows already known by the recipient
+   */
+  public void attachChanges(SessionMessage message, IOperationMgr operationMgr, Map<String, Long> since) {
+    //
+    // Versions are read before the rows, so a row changing in between is recorded
+    // with an older version and sent again on the next exchange
+    //
+    ConcurrentHashMap<String, Long> versions = operationMgr.getAckVersions();
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks = operationMgr.getAcks( since );
+    ConcurrentHashMap<String, Long> ackVersions = new ConcurrentHashMap<String, Long>();
+
+    for (String nodeId : acks.keySet()) {
+      Long version = versions.get( nodeId );
+      if (version != null) ackVersions.put( nodeId, version );
+    }
+
+    message.setAcks( acks );
+    message.setAckVersions( ackVersions );
+  }
+
+  /**
+   * Records the local rows delivered to the peer
+   * @param node Peer node
+   * @param versions Versions of the local rows at the time they were extracted
+   * @param rows Identifiers of the delivered rows
+   */
+  public void confirmSent(Peer node, Map<String, Long> versions, Set<String> rows) {
+    ConcurrentHashMap<String, Long> known = getSent( node );
+
+    for (String nodeId : rows) {
+      Long version = versions.get( nodeId );
+      if (version != null) known.put( nodeId, version );
+    }
+  }
+
+  /**
+   * Records the peer rows received from the peer. Versions tracked so far are discarded
+   * if the peer has been restarted since the last exchange
+   * @param node Peer node
+   * @param incarnation Incarnation of the peer
+   * @param versions Versions of the received rows
+   */
+  public void confirmReceived(Peer node, long incarnation, Map<String, Long> versions) {
+    Long previous = incarnations.put( node.getId(), incarnation );
+
+    if (previous != null && previous != incarnation) {
+      reset( node );
+      incarnations.put( node.getId(), incarnation );
+    }
+
+    getReceived( node ).putAll( versions );
+  }
+
+  /**
+   * Forgets every version exchanged with the peer, so that next exchange is a full one
+   * @param node Peer node
+   */
+  public void reset(Peer node) {
+    String nodeId = node.getId();
+
+    incarnations.remove( nodeId );
+    sent.remove( nodeId );
+    received.remove( nodeId );
+  }
+
+
+  /**
+   * Gets the versions tracked for the peer, creating them if necessary
+   * @param tracked Versions tracked for every peer
+   * @param node Peer node
+   * @return Map of row versions tracked for peer
+   */
+  private ConcurrentHashMap<String, Long> getVersions(ConcurrentHashMap<String, ConcurrentHashMap<String, Long>> tracked,
+                                                      Peer node) {
+    String nodeId = node.getId();
+    ConcurrentHashMap<String, Long> versions = tracked.get( nodeId );
+
+    if (versions == null) {
+      tracked.putIfAbsent( nodeId, new ConcurrentHashMap<String, Long>() );
+      versions = tracked.get( nodeId );
+    }
+
+    return versions;
+  }
+
+}
@@ -37,6 +37,14 @@ public interface ISyncMgr {
    */
   public boolean startSession() throws SyncMgrException;
 
+  /**
+   * Requests a new anti-entropy session without waiting for it. Requests arriving while a session
+   * is in flight are merged into a single follow-up session, however far apart they arrive
+   * @return true once the session is requested
+   * @throws org.coderebels.tsaenode.core.exception.SyncMgrException
+   */
+  public boolean triggerSession() throws SyncMgrException;
+
   /**
    * Takes necessary actions to get the node synchronized
    * @param ops List of operations to be executed by local node
@@ -50,4 +58,35 @@ public interface ISyncMgr {
                         ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks)
     throws SyncMgrException;
 
+  /**
+   * Takes necessary actions to get the node synchronized in a single round trip
+   * @param message Operations, summary vector and acknowledgement vector of fellow node with whom synchronization session is established
+   * @return Operations not known by fellow node, along with the local summary and acknowledgement vectors
+   * @throws org.coderebels.tsaenode.core.exception.SyncMgrException
+   */
+  public SessionMessage exchangeSession(SessionMessage message) throws SyncMgrException;
+
+  /**
+   * Pushes a freshly created operation to a few peers, without waiting for them to answer
+   * @param op Operation created and executed by the local node
+   * @param previous Timestamp of the operation the local node executed right before, or null if none
+   * @return true if done successfully; false otherwise
+   * @throws org.coderebels.tsaenode.core.exception.SyncMgrException
+   */
+  public boolean spreadOperation(Operation op, Timestamp previous) throws SyncMgrException;
+
+  /**
+   * Executes an operation pushed by a fellow node and keeps on forwarding it while it has hops left
+   * @param rumor Operation pushed by the fellow node
+   * @return true if the operation has been executed; false if already known or out of order
+   * @throws org.coderebels.tsaenode.core.exception.SyncMgrException
+   */
+  public boolean receiveRumor(Rumor rumor) throws SyncMgrException;
+
+  /**
+   * Stops the background threads pushing operations and running sessions, once the local node disconnects.
+   * Pushes still pending are dropped, since synchronization sessions will anyway deliver them
+   */
+  public void close();
+
 }
\ No newline at end of file
@@ -17,7 +17,10 @@
 
 package org.coderebels.tsaenode.core.sync;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.rmi.NotBoundException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
@@ -25,23 +28,39 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import org.coderebels.tsaenode.core.INode;
+import org.coderebels.tsaenode.core.net.CompressedEndpoint;
 
 
 /**
+ * Fellow node of the group. What the local node learns about the peer while calling it is not
+ * serialized, so that the serialized form is the one of previous releases
  * @author carles.ml.dev@gmail.com (Carles Muiños)
  */
 public class Peer implements Serializable {
 
+  private static final long serialVersionUID = 884342488793799089L;
+
   private static Logger logger = LogManager.getLogger( Peer.class.getName() );
 
+  /**
+   * Milliseconds calls are made over the default transport after the peer was found not to
+   * offer the compressed one, before trying it again
+   */
+  private static final long COMPRESSION_RETRY = 600000;
+
   private String id;
   private String ip;
   private int port;
   private int rmiPort;
+  private transient boolean exchangeSupported;
+  private transient boolean compressed;
+  private transient long uncompressedUntil;
 
 
   public Peer() {
     rmiPort = 1099;
+    exchangeSupported = true;
+    compressed = false;
   }
 
 
@@ -57,6 +76,15 @@ public class Peer implements Serializable {
   public int getRmiPort() { return rmiPort; }
   public void setRmiPort(int rmiPort) { this.rmiPort = rmiPort; }
 
+  public boolean isExchangeSupported() { return exchangeSupported; }
+  public void setExchangeSupported(boolean exchangeSupported) { this.exchangeSupported = exchangeSupported; }
+
+  /**
+   * Whether calls to the peer are to be made over the compressed transport, whenever the peer offers it
+   */
+  public boolean isCompressed() { return compressed; }
+  public void setCompressed(boolean compressed) { this.compressed = compressed; }
+
   public INode getStub() {
     logger.entry();
 
@@ -64,7 +92,24 @@ public class Peer implements Serializable {
 
     try {
       Registry registry = LocateRegistry.getRegistry( ip, rmiPort );
-      stub = (INode) registry.lookup( "node" + port );
+      String name = "node" + port;
+
+      if (compressed && System.currentTimeMillis() >= uncompressedUntil) {
+        try {
+          stub = (INode) registry.lookup( CompressedEndpoint.nameFor(name) );
+        } catch (NotBoundException e) {
+          //
+          // Peer is running without compression, or a version not supporting it, or is just
+          // restarting: compressed transport is tried again once the retry period is over
+          //
+          logger.info( String.format("Peer doesn't offer compressed transport, falling back to default -> %s", this) );
+          uncompressedUntil = System.currentTimeMillis() + COMPRESSION_RETRY;
+        }
+      }
+
+      if (stub == null) {
+        stub = (INode) registry.lookup( name );
+      }
     } catch (Exception e) {
       logger.catching( e );
     }
@@ -80,4 +125,17 @@ public class Peer implements Serializable {
   public String toString() {
     return String.format( "Node[%s,%d]", id, rmiPort );
   }
+
+  /**
+   * Reads a peer, assuming it supports every call until told otherwise
+   * @param in Stream to read from
+   * @throws java.io.IOException
+   * @throws java.lang.ClassNotFoundException
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    exchangeSupported = true;
+    compressed = false;
+    uncompressedUntil = 0;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.operation.Operation;
+import org.coderebels.tsaenode.core.operation.OperationCodec;
+
+
+/**
+ * Freshly created operation pushed to the group ahead of the next synchronization session
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class Rumor implements Serializable {
+
+  private String senderId;
+  private transient Operation op;
+  private Timestamp previous;
+  private int hops;
+
+
+  public Rumor() {}
+
+
+  public String getSenderId() { return senderId; }
+  public void setSenderId(String senderId) { this.senderId = senderId; }
+
+  public Operation getOp() { return op; }
+  public void setOp(Operation op) { this.op = op; }
+
+  /**
+   * Timestamp of the operation its creator executed right before this one, or null if none
+   */
+  public Timestamp getPrevious() { return previous; }
+  public void setPrevious(Timestamp previous) { this.previous = previous; }
+
+  public int getHops() { return hops; }
+  public void setHops(int hops) { this.hops = hops; }
+
+
+  /**
+   * Writes the rumor, its operation in the compact binary format
+   * @param out Stream to write to
+   * @throws java.io.IOException
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    new OperationCodec().writeOperations( out, Collections.singletonList(op) );
+  }
+
+  /**
+   * Reads a rumor written by {@link #writeObject(java.io.ObjectOutputStream)}
+   * @param in Stream to read from
+   * @throws java.io.IOException
+   * @throws java.lang.ClassNotFoundException
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    op = new OperationCodec().readOperations( in ).get( 0 );
+  }
+
+  @Override
+  public String toString() {
+    return String.format( "Rumor[%s,%s,%d hops]", senderId, op, hops );
+  }
+
+}
@@ -0,0 +1,87 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.sync;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import org.coderebels.tsaenode.core.INode;
+import org.coderebels.tsaenode.core.exception.SyncMgrException;
+
+
+/**
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class RumorMonger implements Runnable {
+
+  private static Logger logger = LogManager.getLogger( RumorMonger.class.getName() );
+  /**
+   * Reference to the peer the rumor is pushed to
+   */
+  private Peer peer;
+  /**
+   * Rumor to push
+   */
+  private Rumor rumor;
+
+
+  public RumorMonger(Peer peer, Rumor rumor) {
+    this.peer = peer;
+    this.rumor = rumor;
+  }
+
+
+  /* (non-Javadoc)
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    doPush();
+  }
+
+
+  /**
+   * Pushes the rumor to the peer. Failures are just logged, since the operation
+   * will anyway reach the peer through the next synchronization session
+   * @return true if done successfully; false otherwise
+   */
+  private boolean doPush() {
+    logger.entry( peer, rumor );
+    logger.debug( "Pushing rumor..." );
+
+    boolean done = false;
+
+    try {
+      INode stub = peer.getStub();
+
+      if (stub == null) {
+        String mesg = "Unable to contact the peer node";
+        String method = "RumorMonger#doPush()";
+        throw new SyncMgrException( mesg, method );
+      }
+
+      done = stub.pushOperation( rumor );
+    } catch (Exception e) {
+      logger.catching( e );
+      done = false;
+    }
+
+    return logger.exit( done );
+  }
+
+}
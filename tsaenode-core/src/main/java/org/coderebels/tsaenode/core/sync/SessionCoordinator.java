@@ -0,0 +1,171 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import org.coderebels.tsaenode.core.exception.SyncMgrException;
+
+
+/**
+ * Runs synchronization sessions one at a time, merging the triggers received while
+ * a session is in flight into a single follow-up session whose result all of them share
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class SessionCoordinator {
+
+  private static Logger logger = LogManager.getLogger( SessionCoordinator.class.getName() );
+  /**
+   * Session to run
+   */
+  private Callable<Boolean> session;
+  /**
+   * Single thread running the sessions; started on the first request after a shutdown
+   */
+  private ExecutorService executor;
+  /**
+   * Follow-up session waiting for the one in flight to finish, if any
+   */
+  private FutureTask<Boolean> queued;
+
+
+  public SessionCoordinator(Callable<Boolean> session) {
+    this.session = session;
+  }
+
+
+  /**
+   * Requests a synchronization session and waits for it to finish
+   * @return true if done successfully; false otherwise
+   * @throws org.coderebels.tsaenode.core.exception.SyncMgrException
+   */
+  public boolean requestSession() throws SyncMgrException {
+    logger.entry();
+    logger.debug( "Requesting synchronization session..." );
+    /*
+     * 1) Join the queued session or queue a new one --> this.submitSession
+     * 2) Wait for the session joined and return its result
+     */
+    Future<Boolean> joined = submitSession();
+    boolean done = false;
+
+    try {
+      done = joined.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      String mesg   = "Interrupted while waiting for the synchronization session";
+      String method = "SessionCoordinator#requestSession()";
+      throw new SyncMgrException( mesg, method, e );
+    } catch (ExecutionException e) {
+      String mesg   = "An error occurred while running the synchronization session";
+      String method = "SessionCoordinator#requestSession()";
+      throw new SyncMgrException( mesg, method, e.getCause() );
+    }
+
+    return logger.exit( done );
+  }
+
+  /**
+   * Requests a synchronization session without waiting for it
+   * @return Session the request joined, shared with every other request it merges with
+   * @throws org.coderebels.tsaenode.core.exception.SyncMgrException
+   */
+  public synchronized Future<Boolean> submitSession() throws SyncMgrException {
+    logger.entry();
+    logger.debug( "Submitting synchronization session..." );
+    /*
+     * 1) If a follow-up session is already queued, join it
+     * 2) Otherwise queue a new one behind the session in flight
+     */
+    //
+    // Triggers arriving while a session is in flight can't join it, since it may have already
+    // extracted the operations to send. The queued session hasn't, so it covers all of them
+    //
+    if (queued == null) {
+      queued = new FutureTask<Boolean>( new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          dequeue();
+          return session.call();
+        }
+      });
+
+      try {
+        if (executor == null) executor = newExecutor();
+        executor.execute( queued );
+      } catch (RejectedExecutionException e) {
+        queued = null;
+        String mesg   = "The session coordinator has been shut down";
+        String method = "SessionCoordinator#submitSession()";
+        throw new SyncMgrException( mesg, method, e );
+      }
+    }
+
+    return logger.exit( queued );
+  }
+
+  /**
+   * Stops the session thread once the session in flight and the queued one, if any, finish.
+   * A later request starts a new one
+   */
+  public synchronized void shutdown() {
+    logger.entry();
+    logger.debug( "Shutting down session coordinator..." );
+
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+
+    logger.exit();
+  }
+
+
+  /**
+   * Creates the single thread running the sessions
+   * @return Session executor
+   */
+  private ExecutorService newExecutor() {
+    return Executors.newSingleThreadExecutor( new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread( r, "tsae-session" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Makes room for a new follow-up session once the queued one starts running
+   */
+  private synchronized void dequeue() {
+    queued = null;
+  }
+
+}
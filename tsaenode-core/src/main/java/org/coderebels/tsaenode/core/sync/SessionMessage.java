@@ -0,0 +1,151 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.operation.Operation;
+import org.coderebels.tsaenode.core.operation.OperationCodec;
+
+
+/**
+ * Data exchanged by both ends of a single round-trip synchronization session
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class SessionMessage implements Serializable {
+
+  private String senderId;
+  private long incarnation;
+  private transient List<Operation> ops;
+  private boolean complete;
+  private SnapshotPage snapshot;
+  private String snapshotCursor;
+  private boolean probe;
+  private long summaryDigest;
+  private long ackDigest;
+  private ConcurrentHashMap<String, Timestamp> summary;
+  private ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks;
+  private ConcurrentHashMap<String, Long> ackVersions;
+  private ConcurrentHashMap<String, Long> knownAckVersions;
+  private Long knownIncarnation;
+
+
+  public SessionMessage() {
+    ops = new Vector<Operation>();
+    complete = true;
+    summary = new ConcurrentHashMap<String, Timestamp>();
+    acks = new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    ackVersions = new ConcurrentHashMap<String, Long>();
+    knownAckVersions = new ConcurrentHashMap<String, Long>();
+  }
+
+
+  public String getSenderId() { return senderId; }
+  public void setSenderId(String senderId) { this.senderId = senderId; }
+
+  public long getIncarnation() { return incarnation; }
+  public void setIncarnation(long incarnation) { this.incarnation = incarnation; }
+
+  public List<Operation> getOps() { return ops; }
+  public void setOps(List<Operation> ops) { this.ops = ops; }
+
+  public boolean isComplete() { return complete; }
+  public void setComplete(boolean complete) { this.complete = complete; }
+
+  /**
+   * Page of the snapshot sent instead of operations already purged from the sender log, if any
+   */
+  public SnapshotPage getSnapshot() { return snapshot; }
+  public void setSnapshot(SnapshotPage snapshot) { this.snapshot = snapshot; }
+
+  /**
+   * Cursor to the next page of the snapshot the sender is receiving from the recipient, if any
+   */
+  public String getSnapshotCursor() { return snapshotCursor; }
+  public void setSnapshotCursor(String snapshotCursor) { this.snapshotCursor = snapshotCursor; }
+
+  /**
+   * Whether the message only carries the digests of the sender vectors
+   */
+  public boolean isProbe() { return probe; }
+  public void setProbe(boolean probe) { this.probe = probe; }
+
+  public long getSummaryDigest() { return summaryDigest; }
+  public void setSummaryDigest(long summaryDigest) { this.summaryDigest = summaryDigest; }
+
+  public long getAckDigest() { return ackDigest; }
+  public void setAckDigest(long ackDigest) { this.ackDigest = ackDigest; }
+
+  public ConcurrentHashMap<String, Timestamp> getSummary() { return summary; }
+  public void setSummary(ConcurrentHashMap<String, Timestamp> summary) { this.summary = summary; }
+
+  public ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> getAcks() { return acks; }
+  public void setAcks(ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks) { this.acks = acks; }
+
+  public ConcurrentHashMap<String, Long> getAckVersions() { return ackVersions; }
+  public void setAckVersions(ConcurrentHashMap<String, Long> ackVersions) { this.ackVersions = ackVersions; }
+
+  public ConcurrentHashMap<String, Long> getKnownAckVersions() { return knownAckVersions; }
+  public void setKnownAckVersions(ConcurrentHashMap<String, Long> knownAckVersions) { this.knownAckVersions = knownAckVersions; }
+
+  /**
+   * Incarnation of the recipient the known acknowledgement versions were received from, if any
+   */
+  public Long getKnownIncarnation() { return knownIncarnation; }
+  public void setKnownIncarnation(Long knownIncarnation) { this.knownIncarnation = knownIncarnation; }
+
+
+  /**
+   * Writes the message, operations in the compact binary format
+   * @param out Stream to write to
+   * @throws java.io.IOException
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    new OperationCodec().writeOperations( out, ops );
+  }
+
+  /**
+   * Reads a message written by {@link #writeObject(java.io.ObjectOutputStream)}
+   * @param in Stream to read from
+   * @throws java.io.IOException
+   * @throws java.lang.ClassNotFoundException
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    ops = new OperationCodec().readOperations( in );
+  }
+
+  @Override
+  public String toString() {
+    if (probe) {
+      return String.format( "Session[%s,probe,%x,%x]", senderId, summaryDigest, ackDigest );
+    }
+
+    return String.format( "Session[%s,%d ops,%d ack rows%s]", senderId, ops.size(), acks.size(),
+                          (snapshot != null) ? "," + snapshot : "" );
+  }
+
+}
@@ -0,0 +1,74 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.io.Serializable;
+
+import org.coderebels.tsaenode.core.operation.Snapshot;
+
+
+/**
+ * Bounded slice of the files of a snapshot, sent in a single exchange along with the summary
+ * vector of the whole snapshot
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class SnapshotPage implements Serializable {
+
+  private String id;
+  private int offset;
+  private boolean last;
+  private Snapshot snapshot;
+
+
+  public SnapshotPage() {
+    snapshot = new Snapshot();
+  }
+
+
+  /**
+   * Identifier of the snapshot the page belongs to
+   */
+  public String getId() { return id; }
+  public void setId(String id) { this.id = id; }
+
+  /**
+   * Position of the first file of the page within the snapshot
+   */
+  public int getOffset() { return offset; }
+  public void setOffset(int offset) { this.offset = offset; }
+
+  /**
+   * Whether the page holds the last files of the snapshot
+   */
+  public boolean isLast() { return last; }
+  public void setLast(boolean last) { this.last = last; }
+
+  /**
+   * Files of the page, along with the summary vector of the whole snapshot
+   */
+  public Snapshot getSnapshot() { return snapshot; }
+  public void setSnapshot(Snapshot snapshot) { this.snapshot = snapshot; }
+
+
+  @Override
+  public String toString() {
+    return String.format( "SnapshotPage[%s,%d+%d%s]", id, offset, snapshot.getFiles().size(), last ? ",last" : "" );
+  }
+
+}
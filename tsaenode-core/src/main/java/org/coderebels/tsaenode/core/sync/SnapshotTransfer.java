@@ -0,0 +1,258 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.operation.IOperationMgr;
+import org.coderebels.tsaenode.core.operation.Snapshot;
+
+
+/**
+ * Map of snapshots being transferred to and from each peer, one page per exchange. The receiving end
+ * drives the transfer: every message carries a cursor to the first page it still misses, and a sender
+ * not recognizing the cursor starts over with a new snapshot. Transfers left idle for longer than
+ * a synchronization period are dropped, so that those abandoned by a peer don't hold a whole snapshot
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+public class SnapshotTransfer {
+
+  /**
+   * Milliseconds a transfer is kept idle by default
+   */
+  private static final long IDLE_TIMEOUT = 300000;
+
+  /**
+   * Snapshot page of a transfer, along with the last time a page of it was exchanged
+   */
+  private static class Transfer {
+
+    private final SnapshotPage page;
+    private long touched;
+
+    private Transfer(SnapshotPage page) {
+      this.page = page;
+      this.touched = System.currentTimeMillis();
+    }
+
+  }
+
+  /**
+   * Whole snapshot being sent to each peer
+   */
+  private ConcurrentHashMap<String, Transfer> outgoing;
+  /**
+   * Pages received so far from each peer, merged into a single one
+   */
+  private ConcurrentHashMap<String, Transfer> incoming;
+  /**
+   * Milliseconds a transfer is kept once no page of it is exchanged
+   */
+  private long idleTimeout;
+
+
+  public SnapshotTransfer() {
+    this( IDLE_TIMEOUT );
+  }
+
+  public SnapshotTransfer(long idleTimeout) {
+    this.outgoing = new ConcurrentHashMap<String, Transfer>();
+    this.incoming = new ConcurrentHashMap<String, Transfer>();
+    this.idleTimeout = idleTimeout;
+  }
+
+
+  /**
+   * Gets the next page of the snapshot sent to the peer. A new snapshot is taken
+   * unless the cursor points into the one being sent
+   * @param peerId Peer node identifier
+   * @param cursor Cursor sent by peer to the first page it misses; null if none
+   * @param operationMgr Local node OperationMgr
+   * @param pageSize Maximum number of files in the page
+   * @return Snapshot page
+   */
+  public synchronized SnapshotPage nextPage(String peerId, String cursor, IOperationMgr operationMgr, int pageSize) {
+    /*
+     * 1) Drop the transfers left idle --> SnapshotTransfer#expire
+     * 2) Find the position the cursor points to within the snapshot being sent
+     * 3) If not found, take a new snapshot and start from its beginning --> IOperationMgr#takeSnapshot
+     * 4) Slice the page, forgetting the snapshot once its last page is sent
+     */
+    expire();
+
+    Transfer transfer = outgoing.get( peerId );
+    SnapshotPage whole = (transfer != null) ? transfer.page : null;
+    int offset = offsetOf( cursor, whole );
+
+    if (offset < 0) {
+      whole = new SnapshotPage();
+      whole.setId( UUID.randomUUID().toString() );
+      whole.setLast( true );
+      whole.setSnapshot( operationMgr.takeSnapshot() );
+      transfer = new Transfer( whole );
+      outgoing.put( peerId, transfer );
+      offset = 0;
+    }
+
+    transfer.touched = System.currentTimeMillis();
+
+    List<FileData> files = whole.getSnapshot().getFiles();
+    int end = Math.min( files.size(), offset + Math.max(1, pageSize) );
+
+    Snapshot slice = new Snapshot();
+    slice.setFiles( new Vector<FileData>(files.subList(offset, end)) );
+    slice.setSummary( whole.getSnapshot().getSummary() );
+
+    SnapshotPage page = new SnapshotPage();
+    page.setId( whole.getId() );
+    page.setOffset( offset );
+    page.setLast( end == files.size() );
+    page.setSnapshot( slice );
+
+    if (page.isLast()) outgoing.remove( peerId );
+
+    return page;
+  }
+
+  /**
+   * Records a page received from the peer. Pages out of sequence drop the transfer,
+   * so that the peer starts over
+   * @param peerId Peer node identifier
+   * @param page Page received
+   * @return Whole snapshot once its last page is received; null otherwise
+   */
+  public synchronized Snapshot receive(String peerId, SnapshotPage page) {
+    /*
+     * 1) Drop the transfers left idle --> SnapshotTransfer#expire
+     * 2) If the page is the first one, start a new transfer
+     *    If it follows the pages already received, append it
+     *    Otherwise drop the transfer
+     * 3) If the page is the last one, return the whole snapshot
+     */
+    expire();
+
+    Transfer transfer = incoming.get( peerId );
+    SnapshotPage received = (transfer != null) ? transfer.page : null;
+
+    if (page.getOffset() == 0) {
+      received = new SnapshotPage();
+      received.setId( page.getId() );
+      transfer = new Transfer( received );
+      incoming.put( peerId, transfer );
+    } else if (received == null || !received.getId().equals( page.getId() )
+               || received.getSnapshot().getFiles().size() != page.getOffset()) {
+      incoming.remove( peerId );
+      return null;
+    }
+
+    transfer.touched = System.currentTimeMillis();
+
+    received.getSnapshot().getFiles().addAll( page.getSnapshot().getFiles() );
+    received.getSnapshot().setSummary( page.getSnapshot().getSummary() );
+
+    Snapshot snapshot = null;
+
+    if (page.isLast()) {
+      incoming.remove( peerId );
+      snapshot = received.getSnapshot();
+    }
+
+    return snapshot;
+  }
+
+  /**
+   * Gets the cursor to the first page of the snapshot being received from the peer that is still missing
+   * @param peerId Peer node identifier
+   * @return Cursor to the next page; null if no snapshot is being received
+   */
+  public synchronized String getCursor(String peerId) {
+    Transfer transfer = incoming.get( peerId );
+    SnapshotPage received = (transfer != null) ? transfer.page : null;
+
+    return (received != null) ? received.getId() + ":" + received.getSnapshot().getFiles().size() : null;
+  }
+
+  /**
+   * Drops every transfer, to and from every peer
+   */
+  public synchronized void clear() {
+    outgoing.clear();
+    incoming.clear();
+  }
+
+  /**
+   * Checks whether a snapshot is being sent to the peer
+   * @param peerId Peer node identifier
+   * @return true if a transfer to the peer is in progress; false otherwise
+   */
+  public boolean isSending(String peerId) {
+    return outgoing.containsKey( peerId );
+  }
+
+
+  /**
+   * Drops the transfers, to or from any peer, no page of which was exchanged for longer than the idle timeout
+   */
+  private void expire() {
+    long oldest = System.currentTimeMillis() - idleTimeout;
+
+    expire( outgoing, oldest );
+    expire( incoming, oldest );
+  }
+
+  /**
+   * Drops the transfers last touched before the specified time
+   * @param transfers Transfers, by peer
+   * @param oldest Time of the oldest transfer to keep
+   */
+  private void expire(ConcurrentHashMap<String, Transfer> transfers, long oldest) {
+    for (Map.Entry<String, Transfer> entry : transfers.entrySet()) {
+      if (entry.getValue().touched < oldest) transfers.remove( entry.getKey(), entry.getValue() );
+    }
+  }
+
+  /**
+   * Gets the position a cursor points to within the snapshot being sent
+   * @param cursor Cursor sent by peer
+   * @param whole Snapshot being sent; null if none
+   * @return Position of the first file the cursor points to; -1 if it points elsewhere or is malformed
+   */
+  private int offsetOf(String cursor, SnapshotPage whole) {
+    if (cursor == null || whole == null) return -1;
+
+    int separator = cursor.lastIndexOf( ':' );
+    if (separator < 0 || !cursor.substring( 0, separator ).equals( whole.getId() )) return -1;
+
+    int offset = -1;
+
+    try {
+      offset = Integer.parseInt( cursor.substring(separator + 1) );
+    } catch (NumberFormatException e) {
+      offset = -1;
+    }
+
+    return (offset > 0 && offset < whole.getSnapshot().getFiles().size()) ? offset : -1;
+  }
+
+}
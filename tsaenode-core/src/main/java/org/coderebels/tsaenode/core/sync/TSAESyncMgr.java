@@ -17,9 +17,17 @@
 
 package org.coderebels.tsaenode.core.sync;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
@@ -28,9 +36,11 @@ import com.typesafe.config.ConfigException;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import org.coderebels.tsaenode.core.common.Membership;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.operation.Operation;
 import org.coderebels.tsaenode.core.operation.IOperationMgr;
+import org.coderebels.tsaenode.core.operation.Snapshot;
 import org.coderebels.tsaenode.core.exception.SyncMgrException;
 
 
@@ -40,6 +50,10 @@ import org.coderebels.tsaenode.core.exception.SyncMgrException;
 public class TSAESyncMgr implements ISyncMgr {
 
   private static Logger logger = LogManager.getLogger( TSAESyncMgr.class.getName() );
+  /**
+   * Maximum number of pushes waiting for a free pushing thread
+   */
+  private static final int PUSH_QUEUE_SIZE = 256;
   /**
    * Lock for concurrency management
    */
@@ -56,10 +70,46 @@ public class TSAESyncMgr implements ISyncMgr {
    * Map of peers with whom local node is synchronizing
    */
   private SyncMap syncMap;
+  /**
+   * Versions of acknowledgement vector rows exchanged with each peer
+   */
+  private AckTracker ackTracker;
+  /**
+   * Snapshots being transferred to and from each peer
+   */
+  private SnapshotTransfer snapshotTransfer;
+  /**
+   * Coordinator merging overlapping session triggers
+   */
+  private SessionCoordinator coordinator;
+  /**
+   * Threads pushing rumors to peers; started on the first push after closing
+   */
+  private ThreadPoolExecutor pushExecutor;
+  /**
+   * Random identifier of this run of the local node, so that peers detect restarts
+   */
+  private long incarnation;
   /**
    * Synchronization policy
    */
   private ISyncPolicy syncPolicy;
+  /**
+   * Whether sessions are run in a single round trip or through the legacy three-call conversation
+   */
+  private boolean singleRoundTrip;
+  /**
+   * Maximum number of operations sent in a single exchange
+   */
+  private int pageSize;
+  /**
+   * Number of peers a freshly created operation is pushed to
+   */
+  private int pushFanout;
+  /**
+   * Number of times a pushed operation is forwarded before leaving it to synchronization sessions
+   */
+  private int pushHops;
   /**
    * Reference to local node OperationMgr
    */
@@ -71,10 +121,23 @@ public class TSAESyncMgr implements ISyncMgr {
     Config conf = ConfigFactory.load();
 
     this.localNodeId  = conf.getString( "nodeId" );
+    this.operationMgr = operationMgr;
     this.peers        = setUpGroup( conf );
     this.syncMap      = new SyncMap();
+    this.ackTracker   = new AckTracker();
+    this.snapshotTransfer = new SnapshotTransfer( conf.getMilliseconds("syncFreq") );
+    this.incarnation  = new Random().nextLong();
     this.syncPolicy   = SyncPolicyFactory.getPolicy( conf.getInt("policy") );
-    this.operationMgr = operationMgr;
+    this.singleRoundTrip = conf.getBoolean( "singleRoundTrip" );
+    this.pageSize     = conf.getInt( "sessionPageSize" );
+    this.pushFanout   = conf.getInt( "pushFanout" );
+    this.pushHops     = conf.getInt( "pushHops" );
+    this.coordinator  = new SessionCoordinator( new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return runSession();
+      }
+    });
   }
 
 
@@ -86,27 +149,27 @@ public class TSAESyncMgr implements ISyncMgr {
     logger.entry();
     logger.debug( "Starting synchronization..." );
     /*
-     * 1) Start synchronization process within the group --> this.doSynchronize
-     * 2) Purge the operation log --> OperationMgr#purgeLog
-     * 3) Return true if done successfully; false otherwise
+     * 1) Run a session or join the one already queued --> SessionCoordinator#requestSession
+     * 2) Return true if done successfully; false otherwise
      */
-    boolean done = false;
+    boolean done = coordinator.requestSession();
 
-    try {
-      done = doSynchronize();
+    return logger.exit( done );
+  }
 
-      synchronized (lock) {
-        int groupSize = 1 + peers.size(); // Recall that we didn't add localnode to peers
-        done = done && operationMgr.purgeLog( groupSize );
-      }
-    } catch (Exception e) {
-      done = false;
-      String mesg   = String.format( "An error occurred while starting the synchronization session" );
-      String method = String.format( "TSAESyncMgr#startSession()" );
-      throw new SyncMgrException( mesg, method, e );
-    }
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.sync.ISyncMgr#triggerSession()
+   */
+  @Override
+  public boolean triggerSession() throws SyncMgrException {
+    logger.entry();
+    logger.debug( "Triggering synchronization..." );
+    /*
+     * 1) Queue a session or join the one already queued, without waiting for it --> SessionCoordinator#submitSession
+     */
+    coordinator.submitSession();
 
-    return logger.exit( done );
+    return logger.exit( true );
   }
 
   /* (non-Javadoc)
@@ -146,9 +209,219 @@ public class TSAESyncMgr implements ISyncMgr {
     return logger.exit( opsToSend );
   }
 
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.sync.ISyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)
+   */
+  @Override
+  public SessionMessage exchangeSession(SessionMessage message) throws SyncMgrException {
+    logger.entry( message );
+    logger.debug( "Exchanging synchronization data..." );
+    /*
+     * 1) If fellow node misses operations already purged, take the page of a snapshot its cursor asks for --> SnapshotTransfer#nextPage
+     *    Otherwise retrieve a page of operations unknown by fellow node based on its summary --> IOperationMgr#extractOperations
+     * 2) Install the snapshot sent by fellow node once its last page arrives, if any --> IOperationMgr#installSnapshot
+     * 3) Update operation log --> IOperationMgr#updateLog
+     * 4) Update acknowledgement vector --> IOperationMgr#updateAcks
+     * 5) Return operations or snapshot page from 1) along with the local summary, the acknowledgement vector rows
+     *    changed since the versions fellow node already knows and the cursor to the next snapshot page it has to send
+     */
+    SessionMessage reply = null;
+    //
+    // A probe only asks for the local digests: fellow node compares them
+    // with its own and starts a full exchange only if they differ
+    //
+    if (message.isProbe()) {
+      reply = new SessionMessage();
+      reply.setSenderId( localNodeId );
+      reply.setIncarnation( incarnation );
+      reply.setProbe( true );
+      reply.setSummaryDigest( operationMgr.getSummaryDigest() );
+      reply.setAckDigest( operationMgr.getAckDigest() );
+
+      return logger.exit( reply );
+    }
+
+    try {
+      SnapshotPage snapshot = null;
+      List<Operation> opsToSend = new Vector<Operation>();
+      boolean complete = true;
+
+      if (operationMgr.requiresSnapshot( message.getSummary() )) {
+        //
+        // Fellow node catches up from the snapshot summary once it gets the last page:
+        // any operation it still misses afterwards is requested in the following exchange
+        //
+        snapshot = snapshotTransfer.nextPage( message.getSenderId(), message.getSnapshotCursor(), operationMgr, pageSize );
+        complete = snapshot.isLast();
+      } else {
+        //
+        // One more operation than the page size is extracted just to find out whether
+        // fellow node will have to ask for another page
+        //
+        opsToSend = operationMgr.extractOperations( message.getSummary(), pageSize + 1 );
+        complete = opsToSend.size() <= pageSize;
+
+        if (!complete) {
+          opsToSend = new Vector<Operation>( opsToSend.subList(0, pageSize) );
+        }
+      }
+
+      synchronized (lock) {
+        boolean done = true;
+        if (message.getSnapshot() != null) {
+          Snapshot received = snapshotTransfer.receive( message.getSenderId(), message.getSnapshot() );
+          if (received != null) done = operationMgr.installSnapshot( received );
+        }
+        done = done && operationMgr.updateLog( message.getOps() );
+        done = done && operationMgr.updateAcks( message.getAcks() );
+      }
+
+      reply = new SessionMessage();
+      reply.setSenderId( localNodeId );
+      reply.setIncarnation( incarnation );
+      reply.setOps( opsToSend );
+      reply.setComplete( complete );
+      reply.setSnapshot( snapshot );
+      reply.setSnapshotCursor( snapshotTransfer.getCursor(message.getSenderId()) );
+      reply.setSummary( operationMgr.getSummary() );
+      ackTracker.attachChanges( reply, operationMgr, ackTracker.getKnown(message, incarnation) );
+    } catch (Exception e) {
+      reply = null;
+      String mesg   = String.format( "An error occurred while exchanging the synchronization data" );
+      String method = String.format( "TSAESyncMgr#exchangeSession( %s )", message );
+      throw new SyncMgrException( mesg, method, e );
+    }
+
+    return logger.exit( reply );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.sync.ISyncMgr#spreadOperation(org.coderebels.tsaenode.core.operation.Operation, org.coderebels.tsaenode.core.common.Timestamp)
+   */
+  @Override
+  public boolean spreadOperation(Operation op, Timestamp previous) throws SyncMgrException {
+    logger.entry( op, previous );
+    logger.debug( "Spreading operation..." );
+    /*
+     * 1) Wrap the operation in a rumor allowed to travel pushHops hops
+     * 2) Push it to a random subset of peers --> this.doPush
+     * 3) Return true if done successfully
+     */
+    boolean done = false;
+
+    try {
+      Rumor rumor = new Rumor();
+      rumor.setSenderId( localNodeId );
+      rumor.setOp( op );
+      rumor.setPrevious( previous );
+      rumor.setHops( pushHops );
+
+      done = doPush( rumor );
+    } catch (Exception e) {
+      done = false;
+      String mesg   = String.format( "An error occurred while spreading the operation -> %s", op );
+      String method = String.format( "TSAESyncMgr#spreadOperation( %s, %s )", op, previous );
+      throw new SyncMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.sync.ISyncMgr#receiveRumor(org.coderebels.tsaenode.core.sync.Rumor)
+   */
+  @Override
+  public boolean receiveRumor(Rumor rumor) throws SyncMgrException {
+    logger.entry( rumor );
+    logger.debug( "Receiving rumor..." );
+    /*
+     * 1) Execute the operation if it follows the last one known from its creator --> IOperationMgr#executeInOrder
+     * 2) If just executed and hops left, forward it to a random subset of peers --> this.doPush
+     * 3) Return true if the operation has been executed
+     */
+    //
+    // Rumors already known are not forwarded again, so each one dies out quickly.
+    // Those dropped because of a gap are left to the next synchronization session
+    //
+    boolean done = false;
+
+    try {
+      synchronized (lock) {
+        done = operationMgr.executeInOrder( rumor.getOp(), rumor.getPrevious() );
+      }
+
+      if (done && rumor.getHops() > 1) {
+        Rumor forward = new Rumor();
+        forward.setSenderId( localNodeId );
+        forward.setOp( rumor.getOp() );
+        forward.setPrevious( rumor.getPrevious() );
+        forward.setHops( rumor.getHops() - 1 );
+
+        doPush( forward, rumor.getSenderId(), rumor.getOp().getCreator() );
+      }
+    } catch (Exception e) {
+      done = false;
+      String mesg   = String.format( "An error occurred while receiving the rumor -> %s", rumor );
+      String method = String.format( "TSAESyncMgr#receiveRumor( %s )", rumor );
+      throw new SyncMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
+
+  /* (non-Javadoc)
+   * @see org.coderebels.tsaenode.core.sync.ISyncMgr#close()
+   */
+  @Override
+  public void close() {
+    logger.entry();
+    logger.debug( "Closing synchronization manager..." );
+
+    synchronized (this) {
+      if (pushExecutor != null) {
+        pushExecutor.shutdownNow();
+        pushExecutor = null;
+      }
+    }
+
+    coordinator.shutdown();
+    snapshotTransfer.clear();
+
+    logger.exit();
+  }
+
 
   /**
-   * Indexes the peers of the group
+   * Runs a synchronization session within the group. The operation log is purged
+   * in the background --> LogCompactor
+   * @return true if done successfully; false otherwise
+   * @throws org.coderebels.tsaenode.core.exception.SyncMgrException
+   */
+  private boolean runSession() throws SyncMgrException {
+    logger.entry();
+    logger.debug( "Running synchronization session..." );
+    /*
+     * 1) Start synchronization process within the group --> this.doSynchronize
+     * 2) Return true if done successfully; false otherwise
+     */
+    boolean done = false;
+
+    try {
+      done = doSynchronize();
+    } catch (Exception e) {
+      done = false;
+      String mesg   = String.format( "An error occurred while starting the synchronization session" );
+      String method = String.format( "TSAESyncMgr#runSession()" );
+      throw new SyncMgrException( mesg, method, e );
+    }
+
+    return logger.exit( done );
+  }
+
+  /**
+   * Indexes the peers of the group, assigns a membership slot to every group node
+   * and registers them in the acknowledgement vector
    * @param conf Config settings
    * @return List of peers of the group
    * @throws com.typesafe.config.ConfigException
@@ -158,6 +431,7 @@ public class TSAESyncMgr implements ISyncMgr {
     logger.debug( "Indexing group..." );
 
     List<Peer> peers = new Vector<Peer>();
+    List<String> nodeIds = new Vector<String>();
 
     Config group = conf.getConfig( "group" );
     List<String> ns = group.getStringList( "nodes" );
@@ -165,6 +439,7 @@ public class TSAESyncMgr implements ISyncMgr {
     for(String n : ns) {
       Config nc = group.getConfig( n );
       String nodeId = String.format("%s:%s", nc.getString("ip"), nc.getInt("port"));
+      nodeIds.add( nodeId );
 
       if (!nodeId.equals( localNodeId )) {
         Peer node = new Peer();
@@ -172,11 +447,16 @@ public class TSAESyncMgr implements ISyncMgr {
         node.setIP( nc.getString("ip") );
         node.setPort( nc.getInt("port") );
         node.setRmiPort( conf.getInt("rmiPort") );
+        node.setCompressed( conf.getBoolean("compression") );
 
         peers.add( node );
       }
     }
 
+    nodeIds.add( localNodeId );
+    Membership.getInstance().register( nodeIds );
+    operationMgr.setUpGroup( nodeIds );
+
     return logger.exit( peers );
   }
 
@@ -203,7 +483,8 @@ public class TSAESyncMgr implements ISyncMgr {
       List<Thread> syncThreads = new Vector<Thread>();
 
       for (Peer peer : syncNodes) {
-        Runnable synchronizer = new TSAESynchronizer( peer, operationMgr, syncMap );
+        Runnable synchronizer = new TSAESynchronizer( localNodeId, peer, operationMgr, syncMap, ackTracker,
+                                                     snapshotTransfer, singleRoundTrip, pageSize );
         Thread syncThread = new Thread( synchronizer );
         syncThreads.add( syncThread );
         syncThread.start();
@@ -224,4 +505,65 @@ public class TSAESyncMgr implements ISyncMgr {
     return logger.exit( done );
   }
 
+  /**
+   * Pushes a rumor to a random subset of peers, each push being run by the pushing threads
+   * @param rumor Rumor to push
+   * @param excluded Identifiers of peers already known to have the operation
+   * @return true if done successfully; false otherwise
+   */
+  private boolean doPush(Rumor rumor, String... excluded) {
+    logger.entry( rumor );
+    logger.debug( "Pushing rumor..." );
+
+    List<String> skip = new Vector<String>();
+    Collections.addAll( skip, excluded );
+
+    List<Peer> candidates = new Vector<Peer>();
+
+    for (Peer peer : peers) {
+      if (!skip.contains( peer.getId() )) candidates.add( peer );
+    }
+
+    Collections.shuffle( candidates );
+
+    ThreadPoolExecutor executor = getPushExecutor();
+
+    for (Peer peer : candidates.subList(0, Math.min(pushFanout, candidates.size()))) {
+      executor.execute( new RumorMonger(peer, rumor) );
+    }
+
+    return logger.exit( true );
+  }
+
+  /**
+   * Gets the threads pushing rumors, starting them if closed. As many threads as peers a rumor is
+   * pushed to are kept, and pushes beyond the queue bound are dropped, to be covered by the next session
+   * @return Push executor
+   */
+  private synchronized ThreadPoolExecutor getPushExecutor() {
+    if (pushExecutor == null) {
+      int threads = Math.max( 1, pushFanout );
+
+      pushExecutor = new ThreadPoolExecutor( threads, threads, 60L, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>( PUSH_QUEUE_SIZE ),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread( r, "tsae-push" );
+              thread.setDaemon( true );
+              return thread;
+            }
+          },
+          new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+              logger.debug( "Push queue full or closed, rumor left to synchronization sessions" );
+            }
+          });
+      pushExecutor.allowCoreThreadTimeOut( true );
+    }
+
+    return pushExecutor;
+  }
+
 }
\ No newline at end of file
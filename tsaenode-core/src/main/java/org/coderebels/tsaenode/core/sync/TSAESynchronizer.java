@@ -17,7 +17,10 @@
 
 package org.coderebels.tsaenode.core.sync;
 
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
 import java.util.List;
+import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.Logger;
@@ -27,6 +30,7 @@ import org.coderebels.tsaenode.core.INode;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.operation.Operation;
 import org.coderebels.tsaenode.core.operation.IOperationMgr;
+import org.coderebels.tsaenode.core.operation.Snapshot;
 import org.coderebels.tsaenode.core.exception.SyncMgrException;
 
 
@@ -36,6 +40,10 @@ import org.coderebels.tsaenode.core.exception.SyncMgrException;
 public class TSAESynchronizer implements Runnable {
 
   private static Logger logger = LogManager.getLogger( TSAESynchronizer.class.getName() );
+  /**
+   * Local node identifier
+   */
+  private String localNodeId;
   /**
    * Reference to synchronization peer
    */
@@ -48,12 +56,34 @@ public class TSAESynchronizer implements Runnable {
    * List of nodes with whom local node is synchronizing
    */
   private SyncMap syncMap;
+  /**
+   * Versions of acknowledgement vector rows exchanged with each peer
+   */
+  private AckTracker ackTracker;
+  /**
+   * Snapshots being transferred to and from each peer
+   */
+  private SnapshotTransfer snapshotTransfer;
+  /**
+   * Whether the single round-trip session exchange must be tried first
+   */
+  private boolean singleRoundTrip;
+  /**
+   * Maximum number of operations sent in a single exchange
+   */
+  private int pageSize;
 
 
-  public TSAESynchronizer(Peer peer, IOperationMgr operationMgr, SyncMap syncMap) {
+  public TSAESynchronizer(String localNodeId, Peer peer, IOperationMgr operationMgr, SyncMap syncMap,
+                          AckTracker ackTracker, SnapshotTransfer snapshotTransfer, boolean singleRoundTrip, int pageSize) {
+    this.localNodeId = localNodeId;
     this.peer = peer;
     this.operationMgr = operationMgr;
     this.syncMap = syncMap;
+    this.ackTracker = ackTracker;
+    this.snapshotTransfer = snapshotTransfer;
+    this.singleRoundTrip = singleRoundTrip;
+    this.pageSize = pageSize;
   }
 
 
@@ -76,13 +106,9 @@ public class TSAESynchronizer implements Runnable {
     logger.debug( "Synchronizing node..." );
     /*
      * 0) Get the peer node stub
-     * 1) Retrieve the peer summary vector --> INode#requestSummary
-     * 2) Retrieve the peer acknowledgement vector --> INode#requestAckSummary
-     * 3) Extract the operations not seen by peer based on its summary vector --> IOperationMgr#extractOperations
-     * 4) Request the peer to perform a synchronization session --> INode#performTSAESession
-     * 5) Update local node operation log --> IOperationMgr#updateLog
-     * 6) Update local node acknowledgement vector --> IOperationMgr#updateAcks
-     * 7) Return true if done successfully; false otherwise
+     * 1) If peer supports it, run the single round-trip session --> this.doExchange
+     * 2) Otherwise, or if peer turns out to be running an older version, run the legacy session --> this.doLegacySession
+     * 3) Return true if done successfully; false otherwise
      */
     boolean done = false;
 
@@ -95,14 +121,24 @@ public class TSAESynchronizer implements Runnable {
         throw new SyncMgrException( mesg, method );
       }
 
-      ConcurrentHashMap<String, Timestamp> peerSummary = stub.requestSummary();
-      ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> peerAckSummary = stub.requestAckSummary();
+      boolean exchanged = false;
+
+      if (singleRoundTrip && peer.isExchangeSupported()) {
+        try {
+          done = doExchange( stub );
+          exchanged = true;
+        } catch (RemoteException e) {
+          ackTracker.reset( peer );
+          if (!isUnsupportedCall( e )) throw e;
 
-      List<Operation> opsToSend = operationMgr.extractOperations( peerSummary );
-      List<Operation> opsToExec = stub.performTSAESession( opsToSend, operationMgr.getSummary(), operationMgr.getAcks() );
+          logger.info( String.format("Peer doesn't support single round-trip sessions, falling back to legacy session -> %s", peer) );
+          peer.setExchangeSupported( false );
+        }
+      }
 
-      done = operationMgr.updateLog( opsToExec );
-      done = done && operationMgr.updateAcks( peerAckSummary );
+      if (!exchanged) {
+        done = doLegacySession( stub );
+      }
     } catch (Exception e) {
       logger.catching( e );
       done = false;
@@ -113,4 +149,214 @@ public class TSAESynchronizer implements Runnable {
     return logger.exit( done );
   }
 
+  /**
+   * Runs a synchronization session with the peer in a single round trip, sending a speculative
+   * batch of operations based on the peer summary vector found in the local acknowledgement vector.
+   * Large backlogs are transferred in bounded pages, one exchange per page in each direction, every
+   * page being executed as soon as it arrives; pages already executed are kept if the session dies.
+   * Snapshots are paged likewise, but only installed once their last page arrives
+   * @param stub Peer node stub
+   * @return true if done successfully; false otherwise
+   * @throws java.lang.Exception
+   */
+  private boolean doExchange(INode stub) throws Exception {
+    logger.entry( peer );
+    logger.debug( "Exchanging synchronization data..." );
+    /*
+     * 1) Extract a page of operations not seen by peer based on its last known summary vector --> IOperationMgr#extractOperations
+     *    or the page of a snapshot if peer misses operations already purged --> SnapshotTransfer#nextPage
+     * 2) Send them along with local summary and acknowledgement vectors --> INode#exchangeTSAESession
+     * 3) Update local node operation log and acknowledgement vector with the reply
+     * 4) While peer still misses any operation, or has more pages to send, exchange another page
+     * 5) Return true if done successfully; false otherwise
+     */
+    ConcurrentHashMap<String, Timestamp> peerKnownSummary = operationMgr.getAcks().get( peer.getId() );
+    //
+    // Nothing is sent speculatively to a peer we haven't heard from yet:
+    // its reply tells us what it's missing and we send it afterwards
+    //
+    List<Operation> opsToSend = new Vector<Operation>();
+    SnapshotPage snapshot = null;
+
+    if (peerKnownSummary != null) {
+      if (operationMgr.requiresSnapshot( peerKnownSummary )) {
+        snapshot = snapshotTransfer.nextPage( peer.getId(), null, operationMgr, pageSize );
+      } else {
+        opsToSend = operationMgr.extractOperations( peerKnownSummary, pageSize );
+      }
+    }
+
+    //
+    // With nothing to send, both ends are most likely synchronized already:
+    // a probe comparing the vector digests is enough to find it out
+    //
+    if (peerKnownSummary != null && opsToSend.isEmpty() && snapshot == null && probe( stub )) {
+      return logger.exit( true );
+    }
+
+    SessionMessage reply = exchange( stub, opsToSend, snapshot );
+    boolean done = reply != null;
+
+    while (done) {
+      List<Operation> missing = new Vector<Operation>();
+      SnapshotPage sent = snapshot;
+      snapshot = null;
+
+      if (operationMgr.requiresSnapshot( reply.getSummary() )) {
+        //
+        // A page the peer cursor doesn't follow was dropped: the next session starts the transfer over
+        //
+        if (sent != null && !sent.isLast() && reply.getSnapshotCursor() == null) {
+          String mesg = "Peer dropped the snapshot being sent";
+          String method = "TSAESynchronizer#doExchange()";
+          throw new SyncMgrException( mesg, method );
+        }
+
+        snapshot = snapshotTransfer.nextPage( peer.getId(), reply.getSnapshotCursor(), operationMgr, pageSize );
+      } else {
+        missing = operationMgr.extractOperations( reply.getSummary(), pageSize );
+      }
+
+      if (missing.isEmpty() && snapshot == null && reply.isComplete()) break;
+      //
+      // Every exchange is a blocking call: the next page isn't extracted
+      // until the previous one has been executed on both ends
+      //
+      ConcurrentHashMap<String, Timestamp> previousSummary = reply.getSummary();
+      reply = exchange( stub, missing, snapshot );
+      done = reply != null;
+
+      if (done && snapshot == null && reply.getOps().isEmpty() && reply.getSnapshot() == null
+          && reply.getSummary().equals(previousSummary)) {
+        String mesg = "Peer is not making progress executing the operations sent";
+        String method = "TSAESynchronizer#doExchange()";
+        throw new SyncMgrException( mesg, method );
+      }
+    }
+
+    return logger.exit( done );
+  }
+
+  /**
+   * Compares the digests of the local summary and acknowledgement vectors with those of the peer
+   * @param stub Peer node stub
+   * @return true if both nodes have the same vectors; false otherwise
+   * @throws java.lang.Exception
+   */
+  private boolean probe(INode stub) throws Exception {
+    long summaryDigest = operationMgr.getSummaryDigest();
+    long ackDigest = operationMgr.getAckDigest();
+
+    SessionMessage request = new SessionMessage();
+    request.setSenderId( localNodeId );
+    request.setProbe( true );
+    request.setSummaryDigest( summaryDigest );
+    request.setAckDigest( ackDigest );
+
+    SessionMessage reply = stub.exchangeTSAESession( request );
+    boolean synced = false;
+
+    if (reply != null) {
+      ackTracker.confirmReceived( peer, reply.getIncarnation(), reply.getAckVersions() );
+      synced = reply.getSummaryDigest() == summaryDigest && reply.getAckDigest() == ackDigest;
+    }
+
+    return synced;
+  }
+
+  /**
+   * Sends a batch of operations to the peer and applies its reply to the local node.
+   * Only acknowledgement vector rows changed since the last exchange with the peer travel both ways
+   * @param stub Peer node stub
+   * @param opsToSend Operations to send
+   * @param snapshot Page of the snapshot to send instead of operations already purged; null if not required
+   * @return Peer reply; null if peer was unable to process the exchange
+   * @throws java.lang.Exception
+   */
+  private SessionMessage exchange(INode stub, List<Operation> opsToSend, SnapshotPage snapshot) throws Exception {
+    SessionMessage request = new SessionMessage();
+    request.setSenderId( localNodeId );
+    request.setOps( opsToSend );
+    request.setSnapshot( snapshot );
+    request.setSnapshotCursor( snapshotTransfer.getCursor(peer.getId()) );
+    request.setSummary( operationMgr.getSummary() );
+    //
+    // Incarnation is read before the versions, so versions of a newer incarnation are
+    // at worst ignored by the peer, never taken for the ones of an older one
+    //
+    request.setKnownIncarnation( ackTracker.getIncarnation(peer) );
+    request.setKnownAckVersions( ackTracker.getReceived(peer) );
+    ackTracker.attachChanges( request, operationMgr, ackTracker.getSent(peer) );
+
+    SessionMessage reply = stub.exchangeTSAESession( request );
+
+    if (reply != null) {
+      ackTracker.confirmReceived( peer, reply.getIncarnation(), reply.getAckVersions() );
+      ackTracker.confirmSent( peer, request.getAckVersions(), request.getAcks().keySet() );
+
+      boolean done = true;
+      if (reply.getSnapshot() != null) {
+        Snapshot received = snapshotTransfer.receive( peer.getId(), reply.getSnapshot() );
+        if (received != null) done = operationMgr.installSnapshot( received );
+      }
+      done = done && operationMgr.updateLog( reply.getOps() );
+      done = done && operationMgr.updateAcks( reply.getAcks() );
+
+      if (!done) reply = null;
+    }
+
+    return reply;
+  }
+
+  /**
+   * Checks whether the remote call failed because the peer doesn't know the invoked method
+   * @param e Exception raised by the remote call
+   * @return true if the peer is running a version without the invoked method; false otherwise
+   */
+  private static boolean isUnsupportedCall(RemoteException e) {
+    Throwable cause = e;
+
+    while (cause != null) {
+      if (cause instanceof UnmarshalException
+          && String.valueOf( cause.getMessage() ).contains( "unrecognized method hash" )) {
+        return true;
+      }
+
+      cause = cause.getCause();
+    }
+
+    return false;
+  }
+
+  /**
+   * Runs a synchronization session with the peer through the three-call conversation
+   * understood by every version of the node
+   * @param stub Peer node stub
+   * @return true if done successfully; false otherwise
+   * @throws java.lang.Exception
+   */
+  private boolean doLegacySession(INode stub) throws Exception {
+    logger.entry( peer );
+    logger.debug( "Running legacy synchronization session..." );
+    /*
+     * 1) Retrieve the peer summary vector --> INode#requestSummary
+     * 2) Retrieve the peer acknowledgement vector --> INode#requestAckSummary
+     * 3) Extract the operations not seen by peer based on its summary vector --> IOperationMgr#extractOperations
+     * 4) Request the peer to perform a synchronization session --> INode#performTSAESession
+     * 5) Update local node operation log --> IOperationMgr#updateLog
+     * 6) Update local node acknowledgement vector --> IOperationMgr#updateAcks
+     * 7) Return true if done successfully; false otherwise
+     */
+    ConcurrentHashMap<String, Timestamp> peerSummary = stub.requestSummary();
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> peerAckSummary = stub.requestAckSummary();
+
+    List<Operation> opsToSend = operationMgr.extractOperations( peerSummary );
+    List<Operation> opsToExec = stub.performTSAESession( opsToSend, operationMgr.getSummary(), operationMgr.getAcks() );
+
+    boolean done = operationMgr.updateLog( opsToExec );
+    done = done && operationMgr.updateAcks( peerAckSummary );
+
+    return logger.exit( done );
+  }
+
 }
\ No newline at end of file
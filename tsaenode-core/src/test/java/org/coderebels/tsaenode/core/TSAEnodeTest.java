@@ -0,0 +1,200 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core;
+
+import java.io.File;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.file.IFileMgr;
+import org.coderebels.tsaenode.core.operation.IOperationMgr;
+import org.coderebels.tsaenode.core.operation.Operation;
+import org.coderebels.tsaenode.core.sync.ISyncMgr;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyListOf;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.powermock.reflect.Whitebox.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.TSAEnode} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class TSAEnodeTest extends BaseTestCase {
+
+  /**
+   * System properties set by the node, restored after each test
+   */
+  private static final String[] PROPERTIES = { "nodeId", "nodeIP", "pubFolderPath", "pubFolderURI" };
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Map<String, String> properties;
+  private File pubFolder;
+
+  @Mock private IFileMgr fileMgr;
+  @Mock private IOperationMgr operationMgr;
+  @Mock private ISyncMgr syncMgr;
+  private TSAEnode theNode;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() throws Exception {
+    properties = new HashMap<String, String>();
+
+    for (String key : PROPERTIES) {
+      properties.put( key, System.getProperty(key) );
+    }
+
+    pubFolder = tempFolder.newFolder( "public" );
+    theNode = new TSAEnode();
+
+    setInternalState( theNode, "pubFolderPath", pubFolder.getAbsolutePath() );
+    setInternalState( theNode, "fileMgr", fileMgr );
+    setInternalState( theNode, "operationMgr", operationMgr );
+    setInternalState( theNode, "syncMgr", syncMgr );
+
+    when(operationMgr.getSummary()).thenReturn(new ConcurrentHashMap<String, Timestamp>());
+    when(operationMgr.executeOperation(any(Operation.class))).thenReturn(true);
+    when(syncMgr.spreadOperation(any(Operation.class), any(Timestamp.class))).thenReturn(true);
+    when(syncMgr.triggerSession()).thenReturn(true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() throws Exception {
+    UnicastRemoteObject.unexportObject( theNode, true );
+    theNode = null;
+
+    for (String key : PROPERTIES) {
+      if (properties.get( key ) != null) {
+        System.setProperty( key, properties.get(key) );
+      } else {
+        System.clearProperty( key );
+      }
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.TSAEnode#setUp()} method
+   * when the publication folder didn't change while the node was down.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testSetUp_unchanged() throws Exception {
+    File file = tempFolder.newFile( "public/unchanged.txt" );
+    List<String> files = Arrays.asList( file.getAbsolutePath() );
+
+    when(fileMgr.getMissingFiles(files)).thenReturn(Arrays.<String>asList());
+    when(fileMgr.getChangedFiles(files)).thenReturn(Arrays.<String>asList());
+
+    boolean done = (Boolean) invokeMethod( theNode, "setUp" );
+
+    assertThat( "Setting up should succeed", done, is(true) );
+    verify(operationMgr, never()).createOperation(anyInt(), anyListOf(String.class));
+    verify(operationMgr, never()).executeOperation(any(Operation.class));
+    verifyZeroInteractions( syncMgr );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.TSAEnode#setUp()} method
+   * when files were added, modified or deleted while the node was down.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testSetUp_changed() throws Exception {
+    File changed = tempFolder.newFile( "public/changed.txt" );
+    String missing = new File( pubFolder, "missing.txt" ).getAbsolutePath();
+
+    Operation removeAll = operation( Operation.REMOVE_ALL, 10 );
+    Operation addAll = operation( Operation.ADD_ALL, 11 );
+
+    when(fileMgr.getMissingFiles(anyListOf(String.class))).thenReturn(Arrays.asList(missing));
+    when(fileMgr.getChangedFiles(anyListOf(String.class))).thenReturn(Arrays.asList(changed.getAbsolutePath()));
+    when(operationMgr.createOperation(Operation.REMOVE_ALL, Arrays.asList(missing))).thenReturn(removeAll);
+    when(operationMgr.createOperation(Operation.ADD_ALL, Arrays.asList(changed.getAbsolutePath()))).thenReturn(addAll);
+
+    boolean done = (Boolean) invokeMethod( theNode, "setUp" );
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<String>> scanned = (ArgumentCaptor<List<String>>) (ArgumentCaptor<?>) ArgumentCaptor.forClass( List.class );
+    verify(fileMgr).getChangedFiles(scanned.capture());
+
+    assertThat( "Setting up should succeed", done, is(true) );
+    assertThat( "The publication folder should be scanned", scanned.getValue(), is(equalTo(Arrays.asList(changed.getAbsolutePath()))) );
+    verify(operationMgr).executeOperation(removeAll);
+    verify(operationMgr).executeOperation(addAll);
+    verify(syncMgr).spreadOperation(eq(removeAll), any(Timestamp.class));
+    verify(syncMgr).spreadOperation(eq(addAll), any(Timestamp.class));
+    verify(syncMgr, times(2)).triggerSession();
+    verify(syncMgr, never()).startSession();
+  }
+
+
+  /**
+   * Builds a batch operation of the local node
+   * @param type Type of operation
+   * @param seqNumber Sequence number of the operation
+   * @return Operation
+   */
+  private Operation operation(int type, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( "localnode" );
+    ts.setSeqNumber( seqNumber );
+
+    Operation op = new Operation();
+    op.setType( type );
+    op.setFiles( new Vector<FileData>() );
+    op.setTimestamp( ts );
+
+    return op;
+  }
+
+}
@@ -0,0 +1,140 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.common.AckSummary} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class AckSummaryTest {
+
+  private Summary local;
+  private AckSummary theAckSummary;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    local = new Summary();
+    local.update( timestamp("node1", 10) );
+
+    theAckSummary = new AckSummary();
+    theAckSummary.add( "node1", local );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theAckSummary = null;
+    local = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.AckSummary#getAllSeen()} method
+   * when rows are merged and the local row moves forward.
+   */
+  @Test public void testGetAllSeen() {
+    ConcurrentHashMap<String, Timestamp> peerRow = new ConcurrentHashMap<String, Timestamp>();
+    peerRow.put( "node1", timestamp("node1", 5) );
+
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks =
+        new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    acks.put( "node2", peerRow );
+
+    theAckSummary.update( acks );
+    local.update( timestamp("node2", 3) );
+
+    long[] allSeen = theAckSummary.getAllSeen();
+    int node1 = Membership.getInstance().slotOf( "node1" );
+    int node2 = Membership.getInstance().slotOf( "node2" );
+
+    assertThat( "should take the oldest row entry", allSeen[node1], is(5L) );
+    assertThat( "should not be seen by every row", allSeen[node2], is(VectorClock.NONE) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.AckSummary#drainWatermarks()} method
+   * when a group node has not sent its summary vector yet.
+   */
+  @Test public void testDrainWatermarks_memberUnknown() {
+    theAckSummary.addMember( "node2" );
+    theAckSummary.drainWatermarks();
+
+    ConcurrentHashMap<String, Timestamp> peerRow = new ConcurrentHashMap<String, Timestamp>();
+    peerRow.put( "node1", timestamp("node1", 10) );
+
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks =
+        new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    acks.put( "node2", peerRow );
+
+    assertThat( "should not move before the member row is known", theAckSummary.drainWatermarks().isEmpty(), is(true) );
+
+    theAckSummary.update( acks );
+
+    assertThat( "should move once every member has seen it", theAckSummary.drainWatermarks().get(0), equalTo(timestamp("node1", 10)) );
+    assertThat( "should only report a watermark once", theAckSummary.drainWatermarks().isEmpty(), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.AckSummary#update(java.util.concurrent.ConcurrentHashMap)} method
+   * when a row belongs to a node not in the group.
+   */
+  @Test public void testUpdate_nodeUnknown() {
+    ConcurrentHashMap<String, Timestamp> peerRow = new ConcurrentHashMap<String, Timestamp>();
+    peerRow.put( "node1", timestamp("node1", 10) );
+
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks =
+        new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    acks.put( "stranger:2010", peerRow );
+
+    theAckSummary.update( acks );
+
+    assertThat( "should ignore the row", theAckSummary.summarizedNodes().contains("stranger:2010"), is(false) );
+    assertThat( "should not assign the node a slot", Membership.getInstance().find("stranger:2010"), is(Membership.NONE) );
+  }
+
+
+  /**
+   * Builds a timestamp
+   * @param nodeId Node identifier
+   * @param seqNumber Sequence number
+   * @return Timestamp
+   */
+  private Timestamp timestamp(String nodeId, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    return ts;
+  }
+}
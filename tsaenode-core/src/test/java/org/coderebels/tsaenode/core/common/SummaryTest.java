@@ -104,4 +104,37 @@ public class SummaryTest extends BaseTestCase {
     verify(data, never()).put(nodeId, ts);
   }
 
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.Summary#getDigest()} method
+   * when the same timestamps are summarized in a different order
+   */
+  @Test public void testGetDigest_sameContent() {
+    Timestamp older = new Timestamp();
+    older.setNodeId( ts.getNodeId() );
+    older.setSeqNumber( 1 );
+
+    Timestamp other = new Timestamp();
+    other.setNodeId( "node2" );
+    other.setSeqNumber( 5 );
+
+    Summary summary = new Summary();
+    summary.update( older );
+    summary.update( other );
+    summary.update( ts );
+
+    Summary counterpart = new Summary();
+    counterpart.update( ts );
+    counterpart.update( other );
+
+    ConcurrentHashMap<String, Timestamp> copy = new ConcurrentHashMap<String, Timestamp>( summary.getData() );
+
+    assertThat( "Equal summaries should have the same digest", summary.getDigest(), is(counterpart.getDigest()) );
+    assertThat( "A copied summary should have the same digest", new Summary(copy).getDigest(), is(summary.getDigest()) );
+
+    counterpart.update( older );
+    counterpart.put( other.getNodeId(), ts );
+
+    assertThat( "Different summaries should have different digests", summary.getDigest(), is(not(counterpart.getDigest())) );
+  }
+
 }
@@ -17,6 +17,15 @@
 
 package org.coderebels.tsaenode.core.common;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.Collections;
+import javax.xml.bind.DatatypeConverter;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -86,4 +95,69 @@ public class TimestampTest {
   @Test public void testNotEquals() {
     assertThat( "Timestamps should not be equal", ts1, not(equalTo(ts2)) );
   }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.Timestamp#pack()} method.
+   */
+  @Test public void testPack() {
+    long packed = ts2.pack();
+
+    assertThat( "should keep the slot", Timestamp.slotOf(packed), is(ts2.getSlot()) );
+    assertThat( "should keep the sequence number", Timestamp.seqOf(packed), is(2L) );
+    assertThat( "should resolve the slot back to the node", Membership.getInstance().idOf(ts2.getSlot()), is("node2") );
+  }
+
+  /**
+   * Test for reading a {@link org.coderebels.tsaenode.core.common.Timestamp} written by a
+   * previous release.
+   */
+  @Test public void testReadObject_baseline() throws Exception {
+    Membership.getInstance().register( Collections.singletonList("127.0.1.1:2010") );
+
+    String encoded = "rO0ABXNyAC1vcmcuY29kZXJlYmVscy50c2Flbm9kZS5jb3JlLmNvbW1vbi5UaW1lc3RhbXCa6xjISxQJ7QIAAkoACXNlcU51bWJlckwABm5vZGVJZHQAEkxqYXZhL2xhbmcvU3RyaW5nO3hwAAABOlJFPAB0AA4xMjcuMC4xLjE6MjAxMA==";
+    ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream(DatatypeConverter.parseBase64Binary(encoded)) );
+    Timestamp ts = (Timestamp) in.readObject();
+    in.close();
+
+    assertThat( "should read the node", ts.getNodeId(), is("127.0.1.1:2010") );
+    assertThat( "should read the sequence number", ts.getSeqNumber(), is(1350000000000L) );
+  }
+
+  /**
+   * Test for reading a {@link org.coderebels.tsaenode.core.common.Timestamp} of a node not in the group.
+   */
+  @Test public void testReadObject_nodeUnknown() throws Exception {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( "insider:01" );
+    ts.setSeqNumber( 1 );
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( ts );
+    out.close();
+
+    String encoded = new String( bytes.toByteArray(), "ISO-8859-1" ).replace( "insider:01", "intruder:1" );
+    ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream(encoded.getBytes("ISO-8859-1")) );
+
+    try {
+      in.readObject();
+      fail( "Expected an InvalidObjectException to be thrown" );
+    } catch (InvalidObjectException e) {
+      assertThat( "should not assign the node a slot", Membership.getInstance().find("intruder:1"), is(Membership.NONE) );
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Test for the serialized form of the {@link org.coderebels.tsaenode.core.common.Timestamp} class.
+   */
+  @Test public void testSerialForm() {
+    ObjectStreamClass desc = ObjectStreamClass.lookup( Timestamp.class );
+
+    assertThat( "should keep the serial version", desc.getSerialVersionUID(), is(-7283700723809515027L) );
+    assertThat( "should write the node", desc.getField("nodeId").getType(), equalTo((Object) String.class) );
+    assertThat( "should write the sequence number", desc.getField("seqNumber").getType(), equalTo((Object) long.class) );
+    assertThat( "should write nothing else", desc.getFields().length, is(2) );
+  }
 }
@@ -0,0 +1,147 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.powermock.reflect.Whitebox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.common.VectorClock} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class VectorClockTest {
+
+  private int slot;
+  private VectorClock theClock;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    slot = Membership.getInstance().slotOf( "node1" );
+    theClock = new VectorClock();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theClock = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.VectorClock#advance(int, long)} method
+   * when the sequence number is older than the known one.
+   */
+  @Test public void testAdvance_older() {
+    theClock.advance( slot, 10 );
+    boolean advanced = theClock.advance( slot, 5 );
+
+    assertThat( "should not move the entry backwards", advanced, is(false) );
+    assertThat( "should keep the newest sequence number", theClock.get(slot), is(10L) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.VectorClock#merge(org.coderebels.tsaenode.core.common.VectorClock)} method.
+   */
+  @Test public void testMerge() {
+    int other = slot + 100;
+    VectorClock that = new VectorClock();
+    that.advance( slot, 1 );
+    that.advance( other, 7 );
+    theClock.advance( slot, 3 );
+
+    theClock.merge( that );
+
+    assertThat( "should keep the newest sequence number", theClock.get(slot), is(3L) );
+    assertThat( "should take the entries it did not know", theClock.get(other), is(7L) );
+    assertThat( "should span every merged slot", theClock.toArray().length, is(other + 1) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.VectorClock#get(int)} method
+   * when the slot is {@link org.coderebels.tsaenode.core.common.Membership#NONE}.
+   */
+  @Test public void testGet_none() {
+    assertThat( "should know nothing of no node", theClock.get(Membership.NONE), is(VectorClock.NONE) );
+    assertThat( "should not move the entry of no node", theClock.advance(Membership.NONE, 1), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.VectorClock#advance(int, long)} method
+   * when the slot is past the ones spanned so far.
+   */
+  @Test public void testAdvance_highSlot() {
+    AtomicReferenceArray<?> initial = Whitebox.getInternalState( theClock, "chunks" );
+    int high = Membership.MAX_SLOTS - 1;
+
+    theClock.advance( high, 5 );
+
+    AtomicReferenceArray<?> grown = Whitebox.getInternalState( theClock, "chunks" );
+
+    assertThat( "should start with a single chunk", initial.length(), is(1) );
+    assertThat( "should grow to span the slot", grown.length() > initial.length(), is(true) );
+    assertThat( "should keep the entry", theClock.get(high), is(5L) );
+    assertThat( "should know nothing past the entries set", theClock.get(high - 1), is(VectorClock.NONE) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.common.VectorClock#advance(int, long)} method
+   * when the directory grows while other slots are advanced.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testAdvance_concurrentGrowth() throws Exception {
+    List<Thread> threads = new ArrayList<Thread>();
+
+    for (int t = 0; t < 8; t++) {
+      final int first = t;
+
+      threads.add( new Thread() {
+        @Override
+        public void run() {
+          for (int s = first; s < 4096; s += 8) {
+            theClock.advance( s, s );
+          }
+        }
+      });
+    }
+
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+
+    for (int s = 0; s < 4096; s++) {
+      assertThat( "should keep every entry", theClock.get(s), is((long) s) );
+    }
+  }
+}
@@ -0,0 +1,269 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.file.ChangeFeed} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class ChangeFeedTest extends BaseTestCase {
+
+  /**
+   * Maximum time to wait for the feed to deliver (ms)
+   */
+  private static final long WAIT = 5000;
+
+  private FileIndex fileIndex;
+  private ChangeFeed theFeed;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    fileIndex = new FileIndex();
+    theFeed = new ChangeFeed( fileIndex, 2000 );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theFeed.close();
+    theFeed = null;
+    fileIndex = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ChangeFeed#subscribe(org.coderebels.tsaenode.core.file.IFileIndexListener)} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testSubscribe() throws Exception {
+    fileIndex.add( createFileData("before", 1) );
+    StubListener listener = new StubListener();
+
+    theFeed.subscribe( listener );
+    FileData after = createFileData( "after", 2 );
+    fileIndex.add( after );
+
+    assertTrue( "should push the change", listener.await(1) );
+    assertThat( "should only push the changes made after subscribing", listener.getChanges().size(), is(1) );
+    assertThat( "should push the changed file", listener.getChanges().get(0).getFile(), equalTo(after) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ChangeFeed#run()} method
+   * when changes are made while a listener is being called.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRun_changesWhileDelivering() throws Exception {
+    StubListener listener = new StubListener();
+    listener.block();
+    theFeed.subscribe( listener );
+
+    fileIndex.add( createFileData("first", 1) );
+    assertTrue( "should start delivering", listener.awaitCall() );
+
+    fileIndex.add( createFileData("second", 2) );
+    fileIndex.add( createFileData("third", 3) );
+    listener.release();
+
+    assertTrue( "should push the changes made meanwhile", listener.await(3) );
+    assertThat( "should push every change once", listener.getChanges().size(), is(3) );
+    assertThat( "should push the changes in order", listener.getChanges().get(2).getFile().getFilename(), equalTo("third") );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ChangeFeed#run()} method
+   * when a listener can't be reached.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRun_unreachableListener() throws Exception {
+    StubListener unreachable = new StubListener();
+    unreachable.fail();
+    StubListener listener = new StubListener();
+
+    theFeed.subscribe( unreachable );
+    theFeed.subscribe( listener );
+    fileIndex.add( createFileData("file", 1) );
+
+    assertTrue( "should push the change to reachable listeners", listener.await(1) );
+    assertTrue( "should unsubscribe the unreachable listener", awaitUnsubscribed(unreachable) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ChangeFeed#run()} method
+   * when a listener takes longer than the delivery timeout.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRun_slowListener() throws Exception {
+    StubListener slow = new StubListener();
+    slow.block();
+    StubListener listener = new StubListener();
+
+    theFeed.subscribe( slow );
+    theFeed.subscribe( listener );
+    fileIndex.add( createFileData("file", 1) );
+
+    assertTrue( "should not wait for the slow listener", listener.await(1) );
+    assertTrue( "should unsubscribe the slow listener", awaitUnsubscribed(slow) );
+
+    slow.release();
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ChangeFeed#close()} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testClose() throws Exception {
+    StubListener listener = new StubListener();
+    theFeed.subscribe( listener );
+
+    theFeed.close();
+    fileIndex.add( createFileData("file", 1) );
+    Thread.sleep( 200 );
+
+    assertThat( "should forget every listener", theFeed.isSubscribed(listener), is(false) );
+    assertThat( "should push nothing once closed", listener.getChanges().isEmpty(), is(true) );
+  }
+
+
+  /**
+   * Waits until a listener is unsubscribed
+   * @param listener Listener
+   * @return true if unsubscribed in time; false otherwise
+   * @throws java.lang.Exception
+   */
+  private boolean awaitUnsubscribed(IFileIndexListener listener) throws Exception {
+    long deadline = System.currentTimeMillis() + WAIT;
+
+    while (theFeed.isSubscribed( listener ) && System.currentTimeMillis() < deadline) {
+      Thread.sleep( 20 );
+    }
+
+    return !theFeed.isSubscribed( listener );
+  }
+
+  /**
+   * Builds a file owned by node1
+   * @param filename File name
+   * @param seqNumber Sequence number of the file timestamp
+   * @return FileData
+   */
+  private FileData createFileData(String filename, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( "node1" );
+    ts.setSeqNumber( seqNumber );
+
+    FileData file = new FileData();
+    file.setFilename( filename );
+    file.setOwner( "node1" );
+    file.setPath( "/tmp/tsaenode/" + filename );
+    file.setURI( "http://node1/tsaenode/" + filename );
+    file.setTimestamp( ts );
+
+    return file;
+  }
+
+
+  /**
+   * Listener recording the changes pushed to it, which may block or fail on call
+   */
+  private static class StubListener implements IFileIndexListener {
+
+    private List<FileChange> changes = new Vector<FileChange>();
+    private CountDownLatch called = new CountDownLatch( 1 );
+    private CountDownLatch released = new CountDownLatch( 0 );
+    private volatile boolean failing;
+
+    /* (non-Javadoc)
+     * @see org.coderebels.tsaenode.core.file.IFileIndexListener#filesChanged(org.coderebels.tsaenode.core.file.FileIndexDelta)
+     */
+    @Override
+    public void filesChanged(FileIndexDelta delta) throws RemoteException {
+      called.countDown();
+      if (failing) throw new RemoteException( "Listener unreachable" );
+
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        throw new RemoteException( "Listener interrupted", e );
+      }
+
+      changes.addAll( delta.getChanges() );
+    }
+
+    public List<FileChange> getChanges() { return changes; }
+
+    public void block() { released = new CountDownLatch( 1 ); }
+    public void release() { released.countDown(); }
+    public void fail() { failing = true; }
+
+    /**
+     * Waits until the listener is called
+     * @return true if called in time; false otherwise
+     * @throws java.lang.InterruptedException
+     */
+    public boolean awaitCall() throws InterruptedException {
+      return called.await( WAIT, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Waits until the listener has received some number of changes
+     * @param count Number of changes
+     * @return true if received in time; false otherwise
+     * @throws java.lang.InterruptedException
+     */
+    public boolean await(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + WAIT;
+
+      while (changes.size() < count && System.currentTimeMillis() < deadline) {
+        Thread.sleep( 20 );
+      }
+
+      return changes.size() >= count;
+    }
+
+  }
+
+}
@@ -0,0 +1,283 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.file.ContentStore} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class ContentStoreTest {
+
+  private File folder;
+  private ContentStore contentStore;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() throws Exception {
+    folder = new File( System.getProperty("java.io.tmpdir"), "tsaenode-store-" + System.nanoTime() );
+    folder.mkdirs();
+
+    contentStore = new ContentStore( new File(folder, ".objects") );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    delete( folder );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#publish(java.io.File, java.io.File, java.lang.String)} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testPublish() throws Exception {
+    File source = write( "source", "content" );
+    File target1 = new File( folder, "filename1" );
+    File target2 = new File( folder, "filename2" );
+
+    String digest1 = contentStore.publish( source, target1, null );
+    String digest2 = contentStore.publish( source, target2, null );
+
+    assertThat( "should hash content with SHA-256", digest1,
+                equalTo("ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73") );
+    assertThat( "should name identical content alike", digest2, equalTo(digest1) );
+    assertThat( "should publish every file", target1.exists() && target2.exists(), is(true) );
+    assertThat( "should store the content once", Files.isSameFile(target1.toPath(), target2.toPath()), is(true) );
+    assertThat( "should tell the content is stored", contentStore.contains(digest1), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#publish(java.io.File, java.io.File, java.lang.String)} method,
+   * when the file is already in place.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testPublish_existingTarget() throws Exception {
+    File target = write( "filename", "content" );
+
+    String digest = contentStore.publish( target, target, null );
+
+    assertThat( "should keep the published file", target.exists(), is(true) );
+    assertThat( "should store its content", contentStore.contains(digest), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#unpublish(java.io.File, java.lang.String)} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testUnpublish() throws Exception {
+    File source = write( "source", "content" );
+    File target1 = new File( folder, "filename1" );
+    File target2 = new File( folder, "filename2" );
+
+    String digest = contentStore.publish( source, target1, null );
+    contentStore.publish( source, target2, null );
+
+    contentStore.unpublish( target1, digest );
+    assertThat( "should delete the published file", target1.exists(), is(false) );
+    assertThat( "should keep content still published", contentStore.contains(digest), is(true) );
+
+    contentStore.unpublish( target2, digest );
+    assertThat( "should delete content no longer published", contentStore.contains(digest), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#publish(java.io.File, java.io.File, java.lang.String)} method,
+   * when another file is already published at the target path.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testPublish_replaceTarget() throws Exception {
+    File source = write( "source", "content" );
+    File target = write( "filename", "previous" );
+
+    String digest = contentStore.publish( source, target, null );
+
+    assertThat( "should replace the published file", read(target), equalTo("content") );
+    assertThat( "should store the new content", contentStore.contains(digest), is(true) );
+    assertThat( "should leave no temporary file behind", folder.list().length, is(3) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#publish(java.io.File, java.io.File, java.lang.String)} method,
+   * when a published file sharing the content was edited in place.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testPublish_editedInPlace() throws Exception {
+    File source = write( "source", "content" );
+    File target1 = new File( folder, "filename1" );
+    File target2 = new File( folder, "filename2" );
+
+    String digest = contentStore.publish( source, target1, null );
+    assertThat( "should publish read-only files", Files.getPosixFilePermissions(target1.toPath()).contains(PosixFilePermission.OWNER_WRITE), is(false) );
+
+    target1.setWritable( true );
+    FileOutputStream out = new FileOutputStream( target1 );
+    out.write( "edited".getBytes("UTF-8") );
+    out.close();
+
+    assertThat( "should not trust content changed in place", contentStore.contains(digest), is(false) );
+
+    contentStore.publish( source, target2, null );
+
+    assertThat( "should publish the original content", read(target2), equalTo("content") );
+    assertThat( "should store the original content again", contentStore.contains(digest), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#publish(java.io.File, java.io.File, java.lang.String)} method,
+   * when the target was published with other content.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testPublish_releasePrevious() throws Exception {
+    File target = new File( folder, "filename" );
+    File other = new File( folder, "other" );
+
+    String previous = contentStore.publish( write("source1", "previous"), target, null );
+    String kept = contentStore.publish( write("source2", "kept"), other, null );
+    contentStore.publish( write("source3", "kept"), target, previous );
+
+    assertThat( "should delete content no longer published", contentStore.contains(previous), is(false) );
+
+    contentStore.publish( write("source4", "content"), target, kept );
+
+    assertThat( "should keep content still published", contentStore.contains(kept), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#contains(java.lang.String)} method,
+   * when the content was checked and then edited in place without changing its size.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testContains_editedSameSize() throws Exception {
+    File target = new File( folder, "filename" );
+    String digest = contentStore.publish( write("source", "content"), target, null );
+    long modified = target.lastModified();
+
+    assertThat( "should tell the content is stored", contentStore.contains(digest), is(true) );
+
+    target.setWritable( true );
+    FileOutputStream out = new FileOutputStream( target );
+    out.write( "CONTENT".getBytes("UTF-8") );
+    out.close();
+    target.setLastModified( modified + 2000 );
+
+    assertThat( "should check the content again once modified", contentStore.contains(digest), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#contains(java.lang.String)} method,
+   * when the digest is malformed.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testContains_malformedDigest() throws Exception {
+    String digest = contentStore.publish( write("source", "content"), new File(folder, "filename"), null );
+
+    assertThat( "should reject uppercase digests", contentStore.contains(digest.toUpperCase()), is(false) );
+    assertThat( "should reject short digests", contentStore.contains(digest.substring(1)), is(false) );
+    assertThat( "should reject paths", contentStore.contains("../" + digest.substring(3)), is(false) );
+    assertThat( "should reject null", contentStore.contains(null), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.ContentStore#unpublish(java.io.File, java.lang.String)} method,
+   * when the content is already gone.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testUnpublish_missingContent() throws Exception {
+    File target = write( "filename", "content" );
+    String digest = contentStore.digest( target );
+
+    contentStore.unpublish( target, digest );
+
+    assertThat( "should delete the published file", target.exists(), is(false) );
+  }
+
+
+  /**
+   * Writes a file in the test folder
+   * @param name Name of the file
+   * @param content Content of the file
+   * @return File written
+   * @throws java.io.IOException
+   */
+  private File write(String name, String content) throws IOException {
+    File file = new File( folder, name );
+    FileOutputStream out = new FileOutputStream( file );
+
+    try {
+      out.write( content.getBytes("UTF-8") );
+    } finally {
+      out.close();
+    }
+
+    return file;
+  }
+
+  /**
+   * Reads a file in the test folder
+   * @param file File to read
+   * @return Content of the file
+   * @throws java.io.IOException
+   */
+  private String read(File file) throws IOException {
+    return new String( Files.readAllBytes(file.toPath()), "UTF-8" );
+  }
+
+  /**
+   * Deletes a file or folder recursively
+   * @param file File to delete
+   */
+  private void delete(File file) {
+    File[] children = file.listFiles();
+
+    if (children != null) {
+      for (File child : children) delete( child );
+    }
+
+    file.delete();
+  }
+
+}
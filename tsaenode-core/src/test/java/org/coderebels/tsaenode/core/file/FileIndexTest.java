@@ -17,8 +17,14 @@
 
 package org.coderebels.tsaenode.core.file;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
 import java.util.Vector;
 
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.BaseTestCase;
 
@@ -29,7 +35,6 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import org.mockito.Spy;
-import org.mockito.InOrder;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
@@ -45,7 +50,6 @@ import static org.powermock.reflect.Whitebox.*;
 public class FileIndexTest extends BaseTestCase {
 
   private FileData fd;
-  @Spy private Vector<FileData> data;
   @Spy private FileIndex theFileIndex;
 
   /**
@@ -62,8 +66,6 @@ public class FileIndexTest extends BaseTestCase {
     fd.setPath( "/tmp/tsaenode/filename" );
     fd.setURI( "http://node1/tsaenode/filename" );
     fd.setTimestamp( ts );
-
-    setInternalState( theFileIndex, data );
   }
 
   /**
@@ -71,7 +73,6 @@ public class FileIndexTest extends BaseTestCase {
    */
   @After public void tearDown() {
     theFileIndex = null;
-    data = null;
     fd = null;
   }
 
@@ -80,17 +81,11 @@ public class FileIndexTest extends BaseTestCase {
    * when file is not indexed yet.
    */
   @Test public void testAdd_fileNotIndexedYet() {
-    String filePath = fd.getPath();
-    doReturn(null).when(theFileIndex).search(filePath);
-
     theFileIndex.add( fd );
 
-    InOrder inOrder = inOrder( theFileIndex, data );
-    inOrder.verify(theFileIndex).search(filePath);
-    inOrder.verify(data, never()).remove(fd);
-    inOrder.verify(data).add(fd);
-
-    assertThat( "FileIndex should contain file", data, hasItem(fd) );
+    assertThat( "FileIndex should contain file", theFileIndex.getData(), hasItem(fd) );
+    assertThat( "FileIndex should index file by owner", theFileIndex.searchByOwner(fd.getOwner()), hasItem(fd) );
+    assertThat( "FileIndex should index file by name", theFileIndex.searchByFilename(fd.getFilename()), hasItem(fd) );
   }
 
   /**
@@ -98,18 +93,14 @@ public class FileIndexTest extends BaseTestCase {
    * when file is already indexed.
    */
   @Test public void testAdd_fileAlreadyIndexed() {
-    String filePath = fd.getPath();
-    doReturn(fd).when(theFileIndex).search(filePath);
-    doReturn(true).when(data).remove(fd);
-
     theFileIndex.add( fd );
 
-    InOrder inOrder = inOrder( theFileIndex, data );
-    inOrder.verify(theFileIndex).search(filePath);
-    inOrder.verify(data).remove(fd);
-    inOrder.verify(data).add(fd);
+    FileData updated = createFileData( fd.getFilename(), fd.getPath(), 2 );
+    theFileIndex.add( updated );
 
-    assertThat( "FileIndex should contain file", data, hasItem(fd) );
+    assertThat( "FileIndex should contain file once", theFileIndex.size(), is(1) );
+    assertThat( "FileIndex should contain the updated file", theFileIndex.search(fd.getPath()), equalTo(updated) );
+    assertThat( "FileIndex should replace file by owner", theFileIndex.searchByOwner(fd.getOwner()), not(hasItem(fd)) );
   }
 
   /**
@@ -133,4 +124,217 @@ public class FileIndexTest extends BaseTestCase {
 
     assertThat( "FileIndex search should return null", fdd, nullValue() );
   }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#addAll(java.util.List)} method
+   * when some of the files are already indexed.
+   */
+  @Test public void testAddAll_someFilesAlreadyIndexed() {
+    theFileIndex.add( fd );
+
+    FileData updated = createFileData( fd.getFilename(), fd.getPath(), 2 );
+    FileData other = createFileData( "other", "/tmp/tsaenode/other", 2 );
+
+    Vector<FileData> files = new Vector<FileData>();
+    files.add( updated );
+    files.add( other );
+
+    theFileIndex.addAll( files );
+
+    assertThat( "FileIndex should contain every file once", theFileIndex.size(), is(2) );
+    assertThat( "FileIndex should contain the updated file", theFileIndex.getData(), hasItem(updated) );
+    assertThat( "FileIndex should contain the new file", theFileIndex.getData(), hasItem(other) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#removeAll(java.util.List)} method
+   */
+  @Test public void testRemoveAll() {
+    theFileIndex.add( fd );
+
+    Vector<FileData> files = new Vector<FileData>();
+    files.add( fd );
+
+    theFileIndex.removeAll( files );
+
+    assertThat( "FileIndex should be empty", theFileIndex.size(), is(0) );
+    assertThat( "FileIndex should not index file by owner", theFileIndex.searchByOwner(fd.getOwner()).isEmpty(), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#replaceAll(java.lang.String, java.util.List)} method
+   */
+  @Test public void testReplaceAll() {
+    theFileIndex.add( fd );
+
+    FileData other = createFileData( "other", "/tmp/tsaenode/other", 2 );
+    other.setOwner( "node2" );
+    theFileIndex.add( other );
+
+    FileData replacement = createFileData( "replacement", "/tmp/tsaenode/replacement", 3 );
+
+    Vector<FileData> files = new Vector<FileData>();
+    files.add( replacement );
+
+    theFileIndex.replaceAll( "node1", files );
+
+    assertThat( "FileIndex should only contain the new files of the owner", theFileIndex.searchByOwner("node1"), equalTo((List<FileData>) files) );
+    assertThat( "FileIndex should keep the files of other owners", theFileIndex.search(other.getPath()), equalTo(other) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#replaceAll(java.lang.String, java.util.List)} method
+   * when some of the files didn't change.
+   */
+  @Test public void testReplaceAll_unchangedFiles() {
+    FileData removed = createFileData( "removed", "/tmp/tsaenode/removed", 2 );
+    FileData updated = createFileData( "updated", "/tmp/tsaenode/updated", 3 );
+    theFileIndex.add( fd );
+    theFileIndex.add( removed );
+    theFileIndex.add( updated );
+    long version = theFileIndex.getVersion();
+
+    Vector<FileData> files = new Vector<FileData>();
+    files.add( createFileData(fd.getFilename(), fd.getPath(), 1) );
+    files.add( createFileData(updated.getFilename(), updated.getPath(), 4) );
+
+    theFileIndex.replaceAll( "node1", files );
+    List<FileChange> changes = theFileIndex.getChangesSince( version ).getChanges();
+
+    assertThat( "should only record the actual changes", changes.size(), is(2) );
+    assertThat( "should record the file no longer owned as removed", changes.get(0).getFile(), equalTo(removed) );
+    assertThat( "should record the updated file as added", changes.get(1).getFile(), equalTo(files.get(1)) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#getData(java.lang.String, int, java.lang.String, java.lang.String)} method
+   * when paging through files filtered by name prefix.
+   */
+  @Test public void testGetData_paged() {
+    for (int i = 0; i < 25; i++) {
+      theFileIndex.add( createFileData("IMG_" + i, "/tmp/tsaenode/IMG_" + i, i) );
+      theFileIndex.add( createFileData("DOC_" + i, "/tmp/tsaenode/DOC_" + i, i) );
+    }
+
+    List<FileData> files = new Vector<FileData>();
+    String cursor = null;
+
+    do {
+      Page<FileData> page = theFileIndex.getData( cursor, 10, "node1", "IMG_" );
+      files.addAll( page.getItems() );
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+
+    assertThat( "should return every matching file once", files.size(), is(25) );
+    assertThat( "should sort files by name", files.get(0).getFilename(), equalTo("IMG_0") );
+    assertThat( "should return nothing for unknown owners", theFileIndex.getData(null, 10, "node2", null).getItems().isEmpty(), is(true) );
+  }
+
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#getChangesSince(long)} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testGetChangesSince() throws Exception {
+    theFileIndex.add( fd );
+    long version = theFileIndex.getVersion();
+
+    FileData other = createFileData( "other", "/tmp/tsaenode/other", 2 );
+    theFileIndex.add( other );
+    theFileIndex.remove( fd );
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( theFileIndex.getChangesSince(version) );
+    out.close();
+
+    ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream(bytes.toByteArray()) );
+    FileIndexDelta delta = (FileIndexDelta) in.readObject();
+
+    assertThat( "should return the changes since the version", delta.getChanges().size(), is(2) );
+    assertThat( "should lead to the current version", delta.getToVersion(), is(theFileIndex.getVersion()) );
+    assertThat( "should keep the change order", delta.getChanges().get(1).getType(), is(FileChange.REMOVED) );
+    assertThat( "should keep the changed files", delta.getChanges().get(0).getFile(), equalTo(other) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#getChangesSince(long)} method
+   * when the changes requested are no longer kept.
+   */
+  @Test public void testGetChangesSince_reset() {
+    FileIndex index = new FileIndex( 4 );
+
+    for (int i = 0; i < 10; i++) {
+      index.add( createFileData("IMG_" + i, "/tmp/tsaenode/IMG_" + i, i) );
+    }
+
+    assertThat( "should ask for the whole index", index.getChangesSince(2).isReset(), is(true) );
+    assertThat( "should return the changes still kept", index.getChangesSince(6).getChanges().size(), is(4) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#getChangesSince(long)} method
+   * when the version is negative.
+   */
+  @Test public void testGetChangesSince_negativeVersion() {
+    theFileIndex.add( fd );
+
+    FileIndexDelta delta = theFileIndex.getChangesSince( -1 );
+
+    assertThat( "should ask for the whole index", delta.isReset(), is(true) );
+    assertThat( "should lead to the current version", delta.getToVersion(), is(theFileIndex.getVersion()) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileIndex#awaitChange(long, long)} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testAwaitChange() throws Exception {
+    final long version = theFileIndex.getVersion();
+
+    assertThat( "should time out without changes", theFileIndex.awaitChange(version, 50), is(version) );
+
+    Thread writer = new Thread(new Runnable() {
+      public void run() {
+        try {
+          Thread.sleep( 100 );
+        } catch (InterruptedException e) {}
+
+        theFileIndex.add( fd );
+      }
+    });
+    writer.start();
+
+    long start = System.currentTimeMillis();
+    long current = theFileIndex.awaitChange( version, 10000 );
+
+    assertThat( "should return the new version", current, is(version + 1) );
+    assertTrue( "should wake up on the change", System.currentTimeMillis() - start < 5000 );
+    assertThat( "should not wait once changed", theFileIndex.awaitChange(version, 10000), is(version + 1) );
+  }
+
+
+  /**
+   * Builds a file owned by node1
+   * @param filename File name
+   * @param path File path
+   * @param seqNumber Sequence number of the file timestamp
+   * @return FileData
+   */
+  private FileData createFileData(String filename, String path, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( "node1" );
+    ts.setSeqNumber( seqNumber );
+
+    FileData file = new FileData();
+    file.setFilename( filename );
+    file.setOwner( "node1" );
+    file.setPath( path );
+    file.setURI( "http://node1/tsaenode/" + filename );
+    file.setTimestamp( ts );
+
+    return file;
+  }
 }
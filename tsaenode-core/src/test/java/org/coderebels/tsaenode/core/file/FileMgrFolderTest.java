@@ -0,0 +1,327 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Vector;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.powermock.reflect.Whitebox.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.file.FileMgr} class against a real
+ * publication folder, along with its content store.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class FileMgrFolderTest extends BaseTestCase {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File pubFolder;
+  private FileIndex fileIndex;
+  private FileMgr theFileMgr;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() throws Exception {
+    pubFolder = tempFolder.newFolder( "tsaenode" );
+    fileIndex = new FileIndex();
+    theFileMgr = new FileMgr();
+
+    setInternalState( theFileMgr, "localNodeId", "localnode" );
+    setInternalState( theFileMgr, "pubFolderPath", pubFolder.getAbsolutePath() );
+    setInternalState( theFileMgr, "pubFolderURI", "http://localnode/tsaenode" );
+    setInternalState( theFileMgr, "contentStore", new ContentStore(new File(pubFolder, ".objects")) );
+    setInternalState( theFileMgr, "fileIndex", fileIndex );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theFileMgr = null;
+    fileIndex  = null;
+    pubFolder  = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileMgr#getChangedFiles(java.util.List)} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testGetChangedFiles() throws Exception {
+    File unchanged = write( "unchanged.txt", "content" );
+    File modified  = write( "modified.txt", "content" );
+    File created   = write( "created.txt", "content" );
+    File remote    = write( "remote.txt", "content" );
+
+    fileIndex.add( published(unchanged, "localnode") );
+    FileData fmodified = published( modified, "localnode" );
+    fmodified.setSize( modified.length() - 1 );
+    fileIndex.add( fmodified );
+    fileIndex.add( published(remote, "remotenode") );
+
+    List<String> changed = theFileMgr.getChangedFiles( paths(unchanged, modified, created, remote) );
+
+    assertThat( "Only files not published as they are should be changed", changed, is(equalTo(paths(modified, created, remote))) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileMgr#getMissingFiles(java.util.List)} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testGetMissingFiles() throws Exception {
+    File kept    = write( "kept.txt", "content" );
+    File deleted = write( "deleted.txt", "content" );
+    File remote  = write( "remote.txt", "content" );
+
+    fileIndex.add( published(kept, "localnode") );
+    fileIndex.add( published(deleted, "localnode") );
+    fileIndex.add( published(remote, "remotenode") );
+    deleted.delete();
+    remote.delete();
+
+    List<String> missing = theFileMgr.getMissingFiles( paths(kept) );
+
+    assertThat( "Only local files no longer in the folder should be missing", missing, is(equalTo(paths(deleted))) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileMgr#doAddFile(org.coderebels.tsaenode.core.file.FileData)} method
+   * when the same content is added under several names.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoAddFile_sameContent() throws Exception {
+    FileData fd1 = source( "photo.jpg", "content" );
+    FileData fd2 = source( "copy.jpg", "content" );
+
+    invokeMethod( theFileMgr, "doAddFile", fd1 );
+    invokeMethod( theFileMgr, "doAddFile", fd2 );
+
+    File published1 = new File( pubFolder, "photo.jpg" );
+    File published2 = new File( pubFolder, "copy.jpg" );
+
+    assertThat( "should publish every file", published1.exists() && published2.exists(), is(true) );
+    assertThat( "should record the content digest", fd1.getDigest(), equalTo(fd2.getDigest()) );
+    assertThat( "should store the content once", Files.isSameFile(published1.toPath(), published2.toPath()), is(true) );
+    assertThat( "should tell the content is stored", theFileMgr.hasContent(fd1.getDigest()), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileMgr#doAddFile(org.coderebels.tsaenode.core.file.FileData)} method
+   * when a file is already published under the same name.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoAddFile_replacePublished() throws Exception {
+    FileData old = source( "photo.jpg", "old" );
+    invokeMethod( theFileMgr, "doAddFile", old );
+    old.setPath( new File(pubFolder, "photo.jpg").getAbsolutePath() );
+    fileIndex.add( old );
+    FileData fd = source( "photo.jpg", "new" );
+
+    invokeMethod( theFileMgr, "doAddFile", fd );
+
+    File published = new File( pubFolder, "photo.jpg" );
+
+    assertThat( "should publish the new content", new String(Files.readAllBytes(published.toPath()), "UTF-8"), equalTo("new") );
+    assertThat( "should record the new digest", theFileMgr.hasContent(fd.getDigest()), is(true) );
+    assertThat( "should delete the content no longer published", theFileMgr.hasContent(old.getDigest()), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileMgr#doAddFile(org.coderebels.tsaenode.core.file.FileData)} method
+   * when a published file was replaced within the publication folder, as found at startup.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoAddFile_replacedInFolder() throws Exception {
+    FileData old = source( "photo.jpg", "old" );
+    invokeMethod( theFileMgr, "doAddFile", old );
+    File published = new File( pubFolder, "photo.jpg" );
+    old.setPath( published.getAbsolutePath() );
+    fileIndex.add( old );
+
+    published.delete();
+    FileData fd = published( write("photo.jpg", "new"), "localnode" );
+
+    invokeMethod( theFileMgr, "doAddFile", fd );
+
+    assertThat( "should store the new content", theFileMgr.hasContent(fd.getDigest()), is(true) );
+    assertThat( "should delete the content no longer published", theFileMgr.hasContent(old.getDigest()), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileMgr#doRemoveFile(org.coderebels.tsaenode.core.file.FileData)} method
+   * when the content is published under several names.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoRemoveFile_sameContent() throws Exception {
+    FileData fd1 = source( "photo.jpg", "content" );
+    FileData fd2 = source( "copy.jpg", "content" );
+    invokeMethod( theFileMgr, "doAddFile", fd1 );
+    invokeMethod( theFileMgr, "doAddFile", fd2 );
+    fd1.setPath( new File(pubFolder, "photo.jpg").getAbsolutePath() );
+    fd2.setPath( new File(pubFolder, "copy.jpg").getAbsolutePath() );
+
+    invokeMethod( theFileMgr, "doRemoveFile", fd1 );
+
+    assertThat( "should delete the published file", new File(fd1.getPath()).exists(), is(false) );
+    assertThat( "should keep content still published", theFileMgr.hasContent(fd1.getDigest()), is(true) );
+
+    invokeMethod( theFileMgr, "doRemoveFile", fd2 );
+
+    assertThat( "should delete content no longer published", theFileMgr.hasContent(fd2.getDigest()), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileMgr#doRemoveFile(org.coderebels.tsaenode.core.file.FileData)} method
+   * when the content is not stored.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoRemoveFile_missingContent() throws Exception {
+    File published = write( "photo.jpg", "content" );
+    FileData fd = published( published, "localnode" );
+    fd.setDigest( new ContentStore(tempFolder.getRoot()).digest(published) );
+
+    boolean done = (Boolean) invokeMethod( theFileMgr, "doRemoveFile", fd );
+
+    assertThat( "should delete the published file", done && !published.exists(), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FileMgr#close()} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testClose() throws Exception {
+    IFileIndexListener listener = mock( IFileIndexListener.class );
+    theFileMgr.subscribe( listener );
+    ChangeFeed feed = getInternalState( theFileMgr, "changeFeed" );
+
+    theFileMgr.close();
+
+    assertThat( "should unsubscribe every listener", feed.isSubscribed(listener), is(false) );
+    assertThat( "should drop the change feed", getInternalState(theFileMgr, "changeFeed"), nullValue() );
+  }
+
+
+  /**
+   * Writes a file into the publication folder
+   * @param name File name
+   * @param content File content
+   * @return File written
+   * @throws java.lang.Exception
+   */
+  private File write(String name, String content) throws Exception {
+    File file = new File( pubFolder, name );
+    FileOutputStream out = new FileOutputStream( file );
+
+    try {
+      out.write( content.getBytes("UTF-8") );
+    } finally {
+      out.close();
+    }
+
+    return file;
+  }
+
+  /**
+   * Builds the index entry of a published file, as it was when published
+   * @param file Published file
+   * @param owner Node the file belongs to
+   * @return File data
+   */
+  private FileData published(File file, String owner) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( owner );
+    ts.setSeqNumber( 10 );
+
+    FileData fd = new FileData();
+    fd.setFilename( file.getName() );
+    fd.setOwner( owner );
+    fd.setPath( file.getAbsolutePath() );
+    fd.setURI( "http://" + owner + "/tsaenode/" + file.getName() );
+    fd.setTimestamp( ts );
+    fd.setSize( file.length() );
+    fd.setModified( file.lastModified() );
+
+    return fd;
+  }
+
+  /**
+   * Writes a file to publish, outside of the publication folder
+   * @param name File name
+   * @param content File content
+   * @return File data of the file
+   * @throws java.lang.Exception
+   */
+  private FileData source(String name, String content) throws Exception {
+    File dir = tempFolder.newFolder();
+    File file = new File( dir, name );
+    FileOutputStream out = new FileOutputStream( file );
+
+    try {
+      out.write( content.getBytes("UTF-8") );
+    } finally {
+      out.close();
+    }
+
+    return published( file, "localnode" );
+  }
+
+  /**
+   * Gets the absolute paths of some files
+   * @param files Files
+   * @return Paths of the files
+   */
+  private List<String> paths(File... files) {
+    List<String> paths = new Vector<String>();
+
+    for (File file : files) {
+      paths.add( file.getAbsolutePath() );
+    }
+
+    return paths;
+  }
+
+}
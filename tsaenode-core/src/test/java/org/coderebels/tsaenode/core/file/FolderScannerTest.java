@@ -0,0 +1,83 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.file;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.file.FolderScanner} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class FolderScannerTest {
+
+  private File folder;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() throws Exception {
+    folder = new File( System.getProperty("java.io.tmpdir"), "tsaenode-scan-" + System.nanoTime() );
+    folder.mkdirs();
+
+    for (int i = 0; i < 25; i++) {
+      new File( folder, "filename" + i ).createNewFile();
+    }
+
+    new File( folder, ".hidden" ).createNewFile();
+    new File( folder, "subfolder" ).mkdir();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    for (File file : folder.listFiles()) {
+      file.delete();
+    }
+
+    folder.delete();
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.file.FolderScanner#scan()} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testScan() throws Exception {
+    int threads = 4;
+    List<String> files = new FolderScanner( folder, threads ).scan();
+
+    assertThat( "should find every regular file", files.size(), is(25) );
+    assertThat( "should return absolute paths, sorted", files.get(0), equalTo(new File(folder, "filename0").getAbsolutePath()) );
+    assertThat( "should skip hidden files", files.contains(new File(folder, ".hidden").getAbsolutePath()), is(false) );
+  }
+
+}
@@ -0,0 +1,139 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.net;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.net.CompressedEndpoint} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class CompressedEndpointTest extends BaseTestCase {
+
+  /**
+   * Remote interface served in the tests
+   */
+  public interface Echo extends Remote {
+    byte[] echo(byte[] data) throws RemoteException;
+    String fail(String mesg) throws RemoteException;
+  }
+
+  private CompressedEndpoint theEndpoint;
+  private Echo stub;
+
+
+  @Before public void setUp() throws Exception {
+    Echo target = new Echo() {
+      @Override
+      public byte[] echo(byte[] data) {
+        return data;
+      }
+      @Override
+      public String fail(String mesg) throws RemoteException {
+        throw new RemoteException( mesg );
+      }
+    };
+
+    theEndpoint = new CompressedEndpoint();
+    stub = (Echo) RemoteObject.toStub( theEndpoint.export(target, Echo.class) );
+  }
+
+  @After public void tearDown() {
+    theEndpoint.unexport();
+  }
+
+
+  /**
+   * Test for a call served through the {@link org.coderebels.tsaenode.core.net.CompressedEndpoint}
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testCall() throws Exception {
+    byte[] data = "compressed".getBytes( "UTF-8" );
+
+    assertThat( "Call should reach the target object", Arrays.equals(stub.echo(data), data), is(true) );
+  }
+
+  /**
+   * Test for calls carrying large payloads, both compressible and not, back to back over the same connection
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testCall_largePayloads() throws Exception {
+    byte[] zeros = new byte[1 << 20];
+    byte[] noise = new byte[1 << 20];
+    new Random( 42L ).nextBytes( noise );
+
+    for (int i = 0; i < 3; i++) {
+      assertThat( "Compressible payload should survive the call", Arrays.equals(stub.echo(zeros), zeros), is(true) );
+      assertThat( "Random payload should survive the call", Arrays.equals(stub.echo(noise), noise), is(true) );
+    }
+  }
+
+  /**
+   * Test for a call whose target throws an exception
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testCall_targetFails() throws Exception {
+    try {
+      stub.fail( "expected" );
+      fail( "Exception should reach the caller" );
+    } catch (RemoteException e) {
+      assertThat( "Caller should get the target exception", e.getMessage(), containsString("expected") );
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.net.CompressedEndpoint#unexport()} method
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testUnexport() throws Exception {
+    boolean done = theEndpoint.unexport();
+
+    assertThat( "Endpoint should be unexported", done, is(true) );
+
+    try {
+      stub.echo( new byte[1] );
+      fail( "Call should fail once unexported" );
+    } catch (NoSuchObjectException e) {
+      // expected
+    }
+  }
+
+}
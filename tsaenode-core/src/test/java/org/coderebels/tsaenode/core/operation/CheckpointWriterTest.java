@@ -0,0 +1,124 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.operation.CheckpointWriter} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class CheckpointWriterTest extends BaseTestCase {
+
+  @Mock private IOperationMgr operationMgr;
+  private CheckpointWriter theWriter;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    theWriter = new CheckpointWriter( operationMgr );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theWriter = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.CheckpointWriter#run()} method.
+   */
+  @Test public void testRun() throws Exception {
+    when(operationMgr.checkpoint()).thenReturn(true);
+
+    theWriter.run();
+
+    verify(operationMgr).checkpoint();
+    assertThat( "should count the run", theWriter.getRuns(), is(1L) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.CheckpointWriter#run()} method
+   * when the writer has been cancelled.
+   */
+  @Test public void testRun_cancelled() throws Exception {
+    theWriter.cancel();
+    theWriter.run();
+
+    verify(operationMgr, never()).checkpoint();
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.CheckpointWriter#cancel()} method
+   * while a checkpoint is being written.
+   */
+  @Test public void testCancel_running() throws Exception {
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+
+    when(operationMgr.checkpoint()).thenAnswer(new Answer<Boolean>() {
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        started.countDown();
+        release.await();
+        return true;
+      }
+    });
+
+    Thread runner = new Thread( theWriter );
+    runner.start();
+    assertTrue( "should start the checkpoint", started.await(5, TimeUnit.SECONDS) );
+
+    final CountDownLatch cancelled = new CountDownLatch( 1 );
+    Thread canceller = new Thread(new Runnable() {
+      public void run() {
+        theWriter.cancel();
+        cancelled.countDown();
+      }
+    });
+    canceller.start();
+
+    assertFalse( "should wait for the running checkpoint", cancelled.await(200, TimeUnit.MILLISECONDS) );
+
+    release.countDown();
+
+    assertTrue( "should return once the checkpoint is written", cancelled.await(5, TimeUnit.SECONDS) );
+    assertThat( "should have written the checkpoint", theWriter.getRuns(), is(1L) );
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.mockito.Mock;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.operation.LogCompactor} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class LogCompactorTest extends BaseTestCase {
+
+  @Mock private IOperationMgr operationMgr;
+  private LogCompactor theCompactor;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    theCompactor = new LogCompactor( operationMgr );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theCompactor = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.LogCompactor#run()} method.
+   */
+  @Test public void testRun() {
+    theCompactor.run();
+
+    verify(operationMgr).purgeLog();
+    assertThat( "should count the run", theCompactor.getRuns(), is(1L) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.LogCompactor#run()} method
+   * when the compactor has been cancelled.
+   */
+  @Test public void testRun_cancelled() {
+    theCompactor.cancel();
+    theCompactor.run();
+
+    verify(operationMgr, never()).purgeLog();
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+
+import org.powermock.reflect.Whitebox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.operation.LogSegment} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class LogSegmentTest {
+
+  private LogSegment theSegment;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    theSegment = new LogSegment();
+
+    for (long seqNumber = 1; seqNumber <= 3000; seqNumber++) {
+      theSegment.append( operation(seqNumber * 10) );
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theSegment = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.LogSegment#extract(java.util.List, long, long, boolean, int)} method.
+   */
+  @Test public void testExtract() {
+    List<Operation> ops = new Vector<Operation>();
+    theSegment.extract( ops, 200, 255, false, Integer.MAX_VALUE );
+
+    assertThat( "should extract the operations after first up to last", ops.size(), is(5) );
+    assertThat( "should start after first", ops.get(0).getTimestamp().getSeqNumber(), is(210L) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.LogSegment#append(org.coderebels.tsaenode.core.operation.Operation)} method
+   * when the operation is older than the last one.
+   */
+  @Test public void testAppend_outOfOrder() {
+    theSegment.append( operation(15) );
+
+    List<Operation> ops = new Vector<Operation>();
+    theSegment.extract( ops, 10, 20, true, Integer.MAX_VALUE );
+
+    assertThat( "should keep the operations sorted", ops.get(1).getTimestamp().getSeqNumber(), is(15L) );
+    assertThat( "should count the inserted operation", theSegment.size(), is(3001) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.LogSegment#truncate(long)} method
+   * when whole chunks are dropped.
+   */
+  @Test public void testTruncate() {
+    theSegment.truncate( 29995 );
+    theSegment.append( operation(40000) );
+
+    assertThat( "should keep the operations after the truncated ones", theSegment.size(), is(2) );
+    assertThat( "should start after the truncated ones", theSegment.first().getTimestamp().getSeqNumber(), is(30000L) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.LogSegment#truncate(long)} method
+   * when operations are appended and truncated over and over.
+   */
+  @Test public void testTruncate_repeated() {
+    long seqNumber = 30000;
+
+    for (int cycle = 0; cycle < 50; cycle++) {
+      for (int i = 0; i < 3000; i++) {
+        seqNumber += 10;
+        theSegment.append( operation(seqNumber) );
+      }
+
+      theSegment.truncate( seqNumber - 10 );
+    }
+
+    Object view = Whitebox.getInternalState( theSegment, "view" );
+    Object[] chunks = Whitebox.getInternalState( view, "chunks" );
+
+    assertThat( "should keep the last operation", theSegment.size(), is(1) );
+    assertThat( "should keep the chunk directory bounded", chunks.length <= 8, is(true) );
+  }
+
+
+  /**
+   * Builds an operation
+   * @param seqNumber Sequence number of the operation
+   * @return Operation
+   */
+  private Operation operation(long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( "node1" );
+    ts.setSeqNumber( seqNumber );
+
+    Operation op = new Operation();
+    op.setType( Operation.ADD );
+    op.setTimestamp( ts );
+
+    return op;
+  }
+}
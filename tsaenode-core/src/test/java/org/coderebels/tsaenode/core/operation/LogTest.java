@@ -17,9 +17,11 @@
 
 package org.coderebels.tsaenode.core.operation;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.List;
+import java.util.Vector;
 
+import org.coderebels.tsaenode.core.common.Membership;
+import org.coderebels.tsaenode.core.common.Page;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.file.FileData;
 import org.coderebels.tsaenode.BaseTestCase;
@@ -82,13 +84,11 @@ public class LogTest extends BaseTestCase {
   @Test public void testAdd() {
     theLog.add(op);
 
-    Timestamp ts   = op.getTimestamp();
-    String nodeId  = ts.getNodeId();
-    long seqNumber = ts.getSeqNumber();
-    ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Operation>> data = getInternalState( theLog, "data" );
+    Timestamp ts = op.getTimestamp();
+    LogSegment[] segments = getInternalState( theLog, "segments" );
 
-    assertThat( "should contain node operation log", data.containsKey(nodeId), is(true) );
-    assertThat( "should contain operation", data.get(nodeId).get(seqNumber), equalTo(op) );
+    assertThat( "should contain node operation log", segments[ts.getSlot()], notNullValue() );
+    assertThat( "should contain operation", segments[ts.getSlot()].first(), equalTo(op) );
   }
 
   /**
@@ -106,9 +106,126 @@ public class LogTest extends BaseTestCase {
     lastSeen.setSeqNumber( seqNumber + 1 );
 
     theLog.removeAllPreceding( nodeId, lastSeen );    
-    ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Operation>> data = getInternalState( theLog, "data" );
+    LogSegment[] segments = getInternalState( theLog, "segments" );
+
+    assertThat( "should be empty", segments[ts.getSlot()].size(), is(0) );
+    assertThat( "should move the horizon up to the last seen operation", theLog.getHorizon(nodeId), equalTo(lastSeen) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.Log#getFirst(java.lang.String)} method
+   * when every operation of the node has been purged.
+   */
+  @Test public void testGetFirst_allPurged() {
+    theLog.add(op);
+    theLog.removeAllPreceding( op.getCreator(), op.getTimestamp() );
+
+    assertThat( "should return null", theLog.getFirst(op.getCreator()), nullValue() );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.Log#getData(java.lang.String, int, java.lang.String, java.lang.String)} method
+   * when paging through operations filtered by file name prefix and creator.
+   */
+  @Test public void testGetData_paged() {
+    for (int i = 1; i <= 600; i++) {
+      theLog.add( createOperation("node1", i, ((i % 2 == 0) ? "IMG_" : "DOC_") + i) );
+    }
+
+    for (int i = 1; i <= 10; i++) {
+      theLog.add( createOperation("node2", i, "IMG_node2_" + i) );
+    }
+
+    List<Operation> ops = new Vector<Operation>();
+    String cursor = null;
+    int pages = 0;
+
+    do {
+      Page<Operation> page = theLog.getData( cursor, 100, null, "IMG" );
+      ops.addAll( page.getItems() );
+      cursor = page.getNextCursor();
+      pages++;
+    } while (cursor != null);
+
+    assertThat( "should return every matching operation once", ops.size(), is(310) );
+    assertThat( "should return matching operations in pages", pages, is(4) );
+    assertThat( "should filter by creator", theLog.getData(null, 100, "node2", null).getItems().size(), is(10) );
+    assertThat( "should name the node in the cursor", theLog.getData(null, 100, null, "IMG").getNextCursor(), equalTo("node1:200") );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.Log#getData(java.lang.String, int, java.lang.String, java.lang.String)} method
+   * when the last page is full and no other operation matches after it.
+   */
+  @Test public void testGetData_lastPageFull() {
+    for (int i = 1; i <= 10; i++) {
+      theLog.add( createOperation("node1", i, ((i <= 5) ? "IMG_" : "DOC_") + i) );
+    }
+
+    Page<Operation> page = theLog.getData( null, 5, null, "IMG" );
+
+    assertThat( "should fill the page", page.getItems().size(), is(5) );
+    assertThat( "should return no cursor", page.getNextCursor(), nullValue() );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.Log#getData(java.lang.String, int, java.lang.String, java.lang.String)} method
+   * when the creator is not known.
+   */
+  @Test public void testGetData_unknownCreator() {
+    theLog.add( op );
+    int known = Membership.getInstance().size();
+
+    Page<Operation> page = theLog.getData( null, 100, "unknown-node-" + System.nanoTime(), null );
+
+    assertThat( "should return an empty page", page.getItems().isEmpty(), is(true) );
+    assertThat( "should return no cursor", page.getNextCursor(), nullValue() );
+    assertThat( "should not assign a slot to the creator", Membership.getInstance().size(), is(known) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.Log#getData(java.lang.String, int, java.lang.String, java.lang.String)} method
+   * when the cursor is malformed.
+   */
+  @Test public void testGetData_malformedCursor() {
+    theLog.add( op );
+
+    for (String cursor : new String[] { "", "abc", "1", ":1", "node1:", "node1:x", "0:1", "unknown:2010:1" }) {
+      try {
+        theLog.getData( cursor, 100, null, null );
+        fail( "Expected an IllegalArgumentException to be thrown for cursor " + cursor );
+      } catch (IllegalArgumentException e) {
+        assertThat( "should name the cursor", e.getMessage(), containsString("cursor") );
+      }
+    }
+  }
+
+
+  /**
+   * Builds an ADD operation
+   * @param nodeId Identifier of the node creating the operation
+   * @param seqNumber Sequence number of the operation
+   * @param filename Name of the file added
+   * @return Operation
+   */
+  private Operation createOperation(String nodeId, long seqNumber, String filename) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    FileData fd = new FileData();
+    fd.setFilename( filename );
+    fd.setOwner( nodeId );
+    fd.setPath( "/tmp/tsaenode/" + filename );
+    fd.setURI( "http://" + nodeId + "/tsaenode/" + filename );
+    fd.setTimestamp( ts );
+
+    Operation op = new Operation();
+    op.setType( Operation.ADD );
+    op.setFile( fd );
+    op.setTimestamp( ts );
 
-    assertThat( "should be empty", data.get(nodeId).isEmpty(), is(true) );
+    return op;
   }
 
 }
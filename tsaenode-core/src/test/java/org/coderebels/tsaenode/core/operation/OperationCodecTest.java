@@ -0,0 +1,304 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.StreamCorruptedException;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Vector;
+
+import org.coderebels.tsaenode.core.common.Membership;
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class OperationCodecTest extends BaseTestCase {
+
+  private List<Operation> ops;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    ops = new Vector<Operation>();
+
+    for (int i = 0; i < 100; i++) {
+      String nodeId = String.format( "192.168.1.%d:2010", 10 + i % 3 );
+      ops.add( createOperation(Operation.ADD, createFileData(nodeId, "IMG_" + i + ".jpg", 1000 + i)) );
+    }
+
+    List<FileData> files = new Vector<FileData>();
+    files.add( createFileData("192.168.1.10:2010", "album_1.jpg", 2000) );
+    files.add( createFileData("192.168.1.10:2010", "album_2.jpg", 2000) );
+
+    Operation batch = createOperation( Operation.ADD_ALL, null );
+    batch.setFiles( files );
+    ops.add( batch );
+
+    FileData renamed = createFileData( "192.168.1.11:2010", "renamed.jpg", 3000 );
+    renamed.setPath( "C:\\tsaenode\\public\\original.jpg" );
+    ops.add( createOperation(Operation.REMOVE, renamed) );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    ops = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#writeOperations(java.io.DataOutput, java.util.List)}
+   * and {@link org.coderebels.tsaenode.core.operation.OperationCodec#readOperations(java.io.DataInput)} methods
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRoundTrip() throws Exception {
+    byte[] encoded = encode( ops );
+
+    List<Operation> decoded = new OperationCodec().readOperations( new DataInputStream(new ByteArrayInputStream(encoded)) );
+
+    assertThat( "Decoded operations should equal the encoded ones", decoded, is(equalTo(ops)) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#writeOperations(java.io.DataOutput, java.util.List)}
+   * and {@link org.coderebels.tsaenode.core.operation.OperationCodec#readOperations(java.io.DataInput)} methods
+   * when strings take more than 64KB once encoded
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRoundTrip_longStrings() throws Exception {
+    StringBuilder folder = new StringBuilder( "/tmp/tsaenode/" );
+    StringBuilder filename = new StringBuilder();
+
+    for (int i = 0; i < 30000; i++) {
+      folder.append( "\u00e0" );
+      filename.append( "\u20ac" );
+    }
+
+    FileData fd = createFileData( "192.168.1.10:2010", filename.toString(), 4000 );
+    fd.setPath( folder + "/" + filename );
+
+    List<Operation> longOps = new Vector<Operation>();
+    longOps.add( createOperation(Operation.ADD, fd) );
+
+    List<Operation> decoded = new OperationCodec().readOperations( new DataInputStream(new ByteArrayInputStream(encode(longOps))) );
+
+    assertThat( "Decoded operations should equal the encoded ones", decoded, is(equalTo(longOps)) );
+    assertThat( "Long file name should survive the round trip", decoded.get(0).getFile().getFilename(), is(equalTo(filename.toString())) );
+    assertThat( "Long path should survive the round trip", decoded.get(0).getFile().getPath(), is(equalTo(fd.getPath())) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#writeOperations(java.io.DataOutput, java.util.List)}
+   * and {@link org.coderebels.tsaenode.core.operation.OperationCodec#readOperations(java.io.DataInput)} methods
+   * when files carry the size, modification time and digest of their published copy
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRoundTrip_fileStat() throws Exception {
+    FileData fd = createFileData( "192.168.1.10:2010", "stat.jpg", 5000 );
+    fd.setSize( 123456789L );
+    fd.setModified( 1350000000000L );
+    fd.setDigest( "ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73" );
+
+    List<Operation> statOps = new Vector<Operation>();
+    statOps.add( createOperation(Operation.ADD, fd) );
+
+    FileData decoded = new OperationCodec().readOperations( new DataInputStream(new ByteArrayInputStream(encode(statOps))) ).get( 0 ).getFile();
+
+    assertThat( "Size should survive the round trip", decoded.getSize(), is(fd.getSize()) );
+    assertThat( "Modification time should survive the round trip", decoded.getModified(), is(fd.getModified()) );
+    assertThat( "Digest should survive the round trip", decoded.getDigest(), is(equalTo(fd.getDigest())) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#readOperations(java.io.DataInput)} method
+   * when the operations were written in another format version
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testReadOperations_unsupportedVersion() throws Exception {
+    byte[] encoded = encode( ops );
+    encoded[0] = (byte) (OperationCodec.FORMAT_VERSION + 1);
+
+    try {
+      new OperationCodec().readOperations( new DataInputStream(new ByteArrayInputStream(encoded)) );
+      fail( "Expected an IOException to be thrown" );
+    } catch (IOException e) {
+      assertThat( "Error should name the version read", e.getMessage(), containsString("version") );
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#readOperations(java.io.DataInput)} method
+   * when an operation was created by a node not in the group
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testReadOperations_nodeUnknown() throws Exception {
+    List<Operation> insiders = new Vector<Operation>();
+    insiders.add( createOperation(Operation.REMOVE, createFileData("10.0.0.1:2010", "a.txt", 1)) );
+
+    String encoded = new String( encode(insiders), "ISO-8859-1" ).replace( "10.0.0.1:2010", "10.0.0.9:2010" );
+
+    try {
+      new OperationCodec().readOperations( new DataInputStream(new ByteArrayInputStream(encoded.getBytes("ISO-8859-1"))) );
+      fail( "Expected an InvalidObjectException to be thrown" );
+    } catch (InvalidObjectException e) {
+      assertThat( "should not assign the node a slot", Membership.getInstance().find("10.0.0.9:2010"), is(Membership.NONE) );
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#readOperations(java.io.DataInput)} method
+   * when the count of operations is negative
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testReadOperations_negativeCount() throws Exception {
+    byte[] encoded = { (byte) OperationCodec.FORMAT_VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F };
+
+    try {
+      new OperationCodec().readOperations( new DataInputStream(new ByteArrayInputStream(encoded)) );
+      fail( "Expected a StreamCorruptedException to be thrown" );
+    } catch (StreamCorruptedException e) {
+      assertThat( "Error should name the count read", e.getMessage(), containsString("count") );
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#readFiles(java.io.DataInput)} method
+   * when the count of files is far larger than the files that follow
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testReadFiles_countTooLarge() throws Exception {
+    byte[] encoded = { (byte) OperationCodec.FORMAT_VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+
+    try {
+      new OperationCodec().readFiles( new DataInputStream(new ByteArrayInputStream(encoded)) );
+      fail( "Expected an EOFException to be thrown" );
+    } catch (EOFException e) {
+      // Files are read until the input runs out, without sizing the list for the count read
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#readOperations(java.io.DataInput)} method
+   * when a string reference is to no string read so far
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testReadOperations_invalidRef() throws Exception {
+    byte[] encoded = { (byte) OperationCodec.FORMAT_VERSION, 1, (byte) Operation.ADD, 7 };
+
+    try {
+      new OperationCodec().readOperations( new DataInputStream(new ByteArrayInputStream(encoded)) );
+      fail( "Expected a StreamCorruptedException to be thrown" );
+    } catch (StreamCorruptedException e) {
+      assertThat( "Error should name the reference read", e.getMessage(), containsString("reference") );
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationCodec#writeOperations(java.io.DataOutput, java.util.List)} method
+   * compared with default Java serialization
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testWriteOperations_smallerThanSerialization() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( ops );
+    out.close();
+
+    int encoded = encode( ops ).length;
+    int serialized = bytes.size();
+
+    assertThat( "Encoded operations should take less than a third of the serialized ones", encoded * 3 < serialized, is(true) );
+  }
+
+
+  /**
+   * Encodes the operations into a new byte array
+   * @param ops Operations to encode
+   * @return Encoded operations
+   * @throws java.lang.Exception
+   */
+  private byte[] encode(List<Operation> ops) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( bytes );
+    new OperationCodec().writeOperations( out, ops );
+    out.close();
+
+    return bytes.toByteArray();
+  }
+
+  private FileData createFileData(String nodeId, String filename, long seqNumber) {
+    FileData fd = new FileData();
+    fd.setFilename( filename );
+    fd.setOwner( nodeId );
+    fd.setPath( "/home/tsaenode/public/2010/" + filename );
+    fd.setURI( String.format("http://%s/public/2010/%s", nodeId.split(":")[0], filename) );
+    fd.setTimestamp( createTimestamp(nodeId, seqNumber) );
+
+    return fd;
+  }
+
+  private Operation createOperation(int type, FileData fd) {
+    Operation op = new Operation();
+    op.setType( type );
+    op.setFile( fd );
+    op.setTimestamp( createTimestamp((fd != null) ? fd.getOwner() : "192.168.1.10:2010", 5000 + type) );
+
+    return op;
+  }
+
+  private Timestamp createTimestamp(String nodeId, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    return ts;
+  }
+
+}
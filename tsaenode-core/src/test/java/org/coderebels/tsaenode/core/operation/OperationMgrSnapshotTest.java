@@ -0,0 +1,209 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.file.IFileMgr;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.mockito.Mock;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyListOf;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.reflect.Whitebox.*;
+
+/**
+ * Unit test for the snapshots taken and installed by the {@link org.coderebels.tsaenode.core.operation.OperationMgr} class,
+ * run against its actual log and summary vector.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class OperationMgrSnapshotTest extends BaseTestCase {
+
+  private static final String CREATOR = "creator:2010";
+
+  private List<FileData> index;
+  private OperationMgr theOperationMgr;
+  private OperationMgr laggingOperationMgr;
+
+  @Mock private IFileMgr fileMgr;
+  @Mock private IFileMgr laggingFileMgr;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() throws Exception {
+    index = new Vector<FileData>();
+
+    when(fileMgr.addFile(any(FileData.class))).thenReturn(true);
+    when(fileMgr.getFileIndex()).thenReturn(index);
+    when(laggingFileMgr.addFile(any(FileData.class))).thenReturn(true);
+    when(laggingFileMgr.replaceFiles(anyString(), anyListOf(FileData.class))).thenReturn(true);
+
+    theOperationMgr = new OperationMgr( fileMgr );
+    laggingOperationMgr = new OperationMgr( laggingFileMgr );
+    //
+    // The creator has executed 4 operations, the first 3 of them already purged from the log
+    //
+    for (int seqNumber = 1; seqNumber <= 4; seqNumber++) {
+      Operation op = createOperation( CREATOR, seqNumber );
+      theOperationMgr.executeOperation( op );
+      index.add( op.getFile() );
+    }
+
+    Log log = getInternalState( theOperationMgr, Log.class );
+    log.removeAllPreceding( CREATOR, createTimestamp(CREATOR, 3) );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    laggingOperationMgr = null;
+    theOperationMgr = null;
+    index = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#requiresSnapshot(java.util.concurrent.ConcurrentHashMap)} method
+   * when fellow node misses operations already purged
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRequiresSnapshot_behindHorizon() throws Exception {
+    boolean unknown = theOperationMgr.requiresSnapshot( new ConcurrentHashMap<String, Timestamp>() );
+    boolean behind  = theOperationMgr.requiresSnapshot( summaryOf(createTimestamp(CREATOR, 2)) );
+
+    assertThat( "Node never heard from the creator should require a snapshot", unknown, is(true) );
+    assertThat( "Node behind the log horizon should require a snapshot", behind, is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#requiresSnapshot(java.util.concurrent.ConcurrentHashMap)} method
+   * when fellow node can still catch up from the log
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRequiresSnapshot_withinLog() throws Exception {
+    boolean atHorizon = theOperationMgr.requiresSnapshot( summaryOf(createTimestamp(CREATOR, 3)) );
+    boolean upToDate  = theOperationMgr.requiresSnapshot( summaryOf(createTimestamp(CREATOR, 4)) );
+
+    assertThat( "Node at the log horizon should catch up from the log", atHorizon, is(false) );
+    assertThat( "Node up to date should catch up from the log", upToDate, is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#installSnapshot(org.coderebels.tsaenode.core.operation.Snapshot)} method
+   * when the local node is already ahead of the snapshot
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testInstallSnapshot_olderSnapshot() throws Exception {
+    Snapshot snapshot = new Snapshot();
+    snapshot.getFiles().add( createOperation(CREATOR, 1).getFile() );
+    snapshot.setSummary( summaryOf(createTimestamp(CREATOR, 1)) );
+
+    boolean done = theOperationMgr.installSnapshot( snapshot );
+
+    verify(fileMgr, never()).replaceFiles(anyString(), anyListOf(FileData.class));
+    assertThat( "Snapshot should be installed successfully", done, is(true) );
+    assertThat( "Summary vector should not move back", theOperationMgr.getSummary().get(CREATOR).getSeqNumber(), is(4L) );
+  }
+
+  /**
+   * Test for a lagging node catching up through a snapshot, then resuming from the log
+   * the operations executed after the snapshot was taken
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testInstallSnapshot_laggingNode() throws Exception {
+    ConcurrentHashMap<String, Timestamp> laggingSummary = laggingOperationMgr.getSummary();
+    assertThat( "Lagging node should require a snapshot", theOperationMgr.requiresSnapshot(laggingSummary), is(true) );
+
+    Snapshot snapshot = theOperationMgr.takeSnapshot();
+
+    Operation after = createOperation( CREATOR, 5 );
+    theOperationMgr.executeOperation( after );
+
+    boolean installed = laggingOperationMgr.installSnapshot( snapshot );
+    laggingSummary = laggingOperationMgr.getSummary();
+
+    verify(laggingFileMgr).replaceFiles(eq(CREATOR), eq(index.subList(0, 4)));
+    assertThat( "Snapshot should be installed successfully", installed, is(true) );
+    assertThat( "Summary vector should move up to the snapshot", laggingSummary.get(CREATOR).getSeqNumber(), is(4L) );
+    assertThat( "Lagging node should no longer require a snapshot", theOperationMgr.requiresSnapshot(laggingSummary), is(false) );
+
+    List<Operation> missing = theOperationMgr.extractOperations( laggingSummary, 10 );
+    boolean updated = laggingOperationMgr.updateLog( missing );
+
+    assertThat( "Only the operations after the snapshot should be sent", missing.size(), is(1) );
+    assertThat( "Only the operations after the snapshot should be sent", missing.get(0), is(equalTo(after)) );
+    assertThat( "Log should be updated successfully", updated, is(true) );
+    assertThat( "Lagging node should catch up", laggingOperationMgr.getSummary().get(CREATOR).getSeqNumber(), is(5L) );
+  }
+
+
+  private ConcurrentHashMap<String, Timestamp> summaryOf(Timestamp... timestamps) {
+    ConcurrentHashMap<String, Timestamp> summary = new ConcurrentHashMap<String, Timestamp>();
+
+    for (Timestamp ts : timestamps) {
+      summary.put( ts.getNodeId(), ts );
+    }
+
+    return summary;
+  }
+
+  private Operation createOperation(String nodeId, long seqNumber) {
+    FileData fd = new FileData();
+    fd.setFilename( "filename" + seqNumber );
+    fd.setOwner( nodeId );
+    fd.setPath( "/tmp/tsaenode/filename" + seqNumber );
+    fd.setTimestamp( createTimestamp(nodeId, seqNumber) );
+
+    return OperationFactory.createOperation( nodeId, seqNumber, Operation.ADD, fd );
+  }
+
+  private Timestamp createTimestamp(String nodeId, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    return ts;
+  }
+
+}
@@ -17,6 +17,9 @@
 
 package org.coderebels.tsaenode.core.operation;
 
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.common.Summary;
 import org.coderebels.tsaenode.core.file.FileData;
@@ -38,6 +41,7 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.anyString;
 import static org.powermock.api.mockito.PowerMockito.*;
@@ -111,6 +115,70 @@ public class OperationMgrTest extends BaseTestCase {
     assertThat( "Operation should wrap the target file data", op.getFile(), is(equalTo(fd)) );
   }
 
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#createOperation(java.lang.Integer, java.lang.String)} method
+   * when several operations are created within the same millisecond
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testCreateOperation_sameMillisecond() throws Exception {
+    when(fileMgr.createFileData(anyString())).thenReturn(fd);
+
+    long previous = 0;
+
+    for (int i = 0; i < 100; i++) {
+      Operation op = theOperationMgr.createOperation( Operation.ADD, fd.getPath() );
+
+      assertTrue( "Sequence numbers should strictly increase", op.getTimestamp().getSeqNumber() > previous );
+      previous = op.getTimestamp().getSeqNumber();
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#createOperation(java.lang.Integer, java.lang.String)} method
+   * when the last local operation executed is ahead of the clock
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testCreateOperation_lastExecutedAhead() throws Exception {
+    String localNodeId = getInternalState( theOperationMgr, "localNodeId" );
+    Timestamp last = new Timestamp();
+    last.setNodeId( localNodeId );
+    last.setSeqNumber( System.currentTimeMillis() + 3600000 );
+
+    when(fileMgr.createFileData(anyString())).thenReturn(fd);
+    when(summary.getLast(localNodeId)).thenReturn(last);
+
+    Operation op = theOperationMgr.createOperation( Operation.ADD, fd.getPath() );
+
+    assertThat( "Operation should follow the last one executed", op.getTimestamp().getSeqNumber(), is(last.getSeqNumber() + 1) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#updateAcks(java.util.concurrent.ConcurrentHashMap)} method
+   * when a fellow node has seen local operations the local node no longer knows about
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testUpdateAcks_raisesSeqNumber() throws Exception {
+    String localNodeId = getInternalState( theOperationMgr, "localNodeId" );
+    Timestamp seen = new Timestamp();
+    seen.setNodeId( localNodeId );
+    seen.setSeqNumber( System.currentTimeMillis() + 3600000 );
+
+    ConcurrentHashMap<String, Timestamp> row = new ConcurrentHashMap<String, Timestamp>();
+    row.put( localNodeId, seen );
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks = new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    acks.put( "node2", row );
+
+    when(fileMgr.createFileData(anyString())).thenReturn(fd);
+
+    theOperationMgr.updateAcks( acks );
+    Operation op = theOperationMgr.createOperation( Operation.ADD, fd.getPath() );
+
+    assertThat( "Operation should follow the last one seen by fellow nodes", op.getTimestamp().getSeqNumber(), is(seen.getSeqNumber() + 1) );
+  }
+
   /**
    * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#createOperation(java.lang.Integer, java.lang.String)} method
    * when operation is of type REMOVE
@@ -188,6 +256,37 @@ public class OperationMgrTest extends BaseTestCase {
     assertThat( "Operation execution should return true", done, is(true) );
   }
 
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#executeOperation(org.coderebels.tsaenode.core.operation.Operation)} method
+   * when the operation can't be appended to the write-ahead log
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExecuteOperation_walFailure() throws Exception {
+    Operation op = new Operation();
+    op.setType( Operation.ADD );
+    op.setFile( fd );
+    op.setTimestamp( ts );
+
+    WriteAheadLog wal = mock( WriteAheadLog.class );
+    doThrow(new IOException("disk full")).when(wal).append(op);
+    setInternalState( theOperationMgr, wal );
+
+    doReturn(false).when(theOperationMgr, "checkIsAlreadyExecuted", op);
+    when(fileMgr.addFile(fd)).thenReturn(true);
+
+    try {
+      theOperationMgr.executeOperation( op );
+      fail( "Expected an OperationMgrException to be thrown" );
+    } catch (OperationMgrException e) {
+      // expected
+    }
+
+    verify(fileMgr).removeFile(fd);
+    verify(log, never()).add(op);
+    verify(summary, never()).update(ts);
+  }
+
   /**
    * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#executeOperation(org.coderebels.tsaenode.core.operation.Operation)} method
    * when valid REMOVE operation to be executed
@@ -291,4 +390,59 @@ public class OperationMgrTest extends BaseTestCase {
     assertThat( "Operation execution check should return false", executed, is(false) );
    }
 
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#executeInOrder(org.coderebels.tsaenode.core.operation.Operation, org.coderebels.tsaenode.core.common.Timestamp)} method
+   * when the operation immediately follows the last one known from its creator
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExecuteInOrder_nextOperation() throws Exception {
+    Operation op = new Operation();
+    op.setType( Operation.ADD );
+    op.setFile( fd );
+    op.setTimestamp( ts );
+
+    Timestamp previous = new Timestamp();
+    previous.setNodeId( "node1" );
+    previous.setSeqNumber( 5 );
+
+    when(summary.getLast("node1")).thenReturn(previous);
+    doReturn(false).when(theOperationMgr, "checkIsAlreadyExecuted", op);
+    when(fileMgr.addFile(fd)).thenReturn(true);
+
+    boolean done = theOperationMgr.executeInOrder( op, previous );
+
+    verify(fileMgr).addFile(fd);
+    verify(log).add(op);
+    assertThat( "Operation execution should return true", done, is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.OperationMgr#executeInOrder(org.coderebels.tsaenode.core.operation.Operation, org.coderebels.tsaenode.core.common.Timestamp)} method
+   * when some operation preceding it is still missing
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExecuteInOrder_missingPrecedingOperation() throws Exception {
+    Operation op = new Operation();
+    op.setType( Operation.ADD );
+    op.setFile( fd );
+    op.setTimestamp( ts );
+
+    Timestamp last = new Timestamp();
+    last.setNodeId( "node1" );
+    last.setSeqNumber( 3 );
+
+    Timestamp previous = new Timestamp();
+    previous.setNodeId( "node1" );
+    previous.setSeqNumber( 5 );
+
+    when(summary.getLast("node1")).thenReturn(last);
+
+    boolean done = theOperationMgr.executeInOrder( op, previous );
+
+    verifyZeroInteractions( fileMgr, log );
+    assertThat( "Operation execution should return false", done, is(false) );
+  }
+
 }
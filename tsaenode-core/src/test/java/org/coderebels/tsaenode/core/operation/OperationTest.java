@@ -17,6 +17,13 @@
 
 package org.coderebels.tsaenode.core.operation;
 
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Collections;
+import javax.xml.bind.DatatypeConverter;
+
+import org.coderebels.tsaenode.core.common.Membership;
 import org.coderebels.tsaenode.core.common.Timestamp;
 import org.coderebels.tsaenode.core.file.FileData;
 
@@ -81,4 +88,34 @@ public class OperationTest {
     assertThat( "Operations should be equal", op1, equalTo(op2) );
   }
 
-}
\ No newline at end of file
+  /**
+   * Test for reading an {@link org.coderebels.tsaenode.core.operation.Operation} written by a
+   * previous release.
+   */
+  @Test public void testReadObject_baseline() throws Exception {
+    Membership.getInstance().register( Collections.singletonList("127.0.1.1:2010") );
+
+    String encoded = "rO0ABXNyADBvcmcuY29kZXJlYmVscy50c2Flbm9kZS5jb3JlLm9wZXJhdGlvbi5PcGVyYXRpb241SPS9HPK8CAIAA0kABHR5cGVMAARmaWxldAAsTG9yZy9jb2RlcmViZWxzL3RzYWVub2RlL2NvcmUvZmlsZS9GaWxlRGF0YTtMAAl0aW1lc3RhbXB0AC9Mb3JnL2NvZGVyZWJlbHMvdHNhZW5vZGUvY29yZS9jb21tb24vVGltZXN0YW1wO3hwAAAAAHNyACpvcmcuY29kZXJlYmVscy50c2Flbm9kZS5jb3JlLmZpbGUuRmlsZURhdGGNhEnph32cNAIABUwACGZpbGVuYW1ldAASTGphdmEvbGFuZy9TdHJpbmc7TAAFb3duZXJxAH4ABUwABHBhdGhxAH4ABUwACXRpbWVzdGFtcHEAfgACTAADdXJpcQB+AAV4cHQACXBob3RvLmpwZ3QADjEyNy4wLjEuMToyMDEwdAAjL3RtcC90c2Flbm9kZS9wdWJsaWMvMjAxMC9waG90by5qcGdzcgAtb3JnLmNvZGVyZWJlbHMudHNhZW5vZGUuY29yZS5jb21tb24uVGltZXN0YW1wmusYyEsUCe0CAAJKAAlzZXFOdW1iZXJMAAZub2RlSWRxAH4ABXhwAAABOlJFPABxAH4ACHQAJmh0dHA6Ly8xMjcuMC4xLjEvcHVibGljLzIwMTAvcGhvdG8uanBncQB+AAs=";
+    ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream(DatatypeConverter.parseBase64Binary(encoded)) );
+    Operation op = (Operation) in.readObject();
+    in.close();
+
+    assertThat( "should read the type", op.getType(), is(Operation.ADD) );
+    assertThat( "should read the creator", op.getCreator(), is("127.0.1.1:2010") );
+    assertThat( "should read the sequence number", op.getTimestamp().getSeqNumber(), is(1350000000000L) );
+    assertThat( "should read the file", op.getFile().getFilename(), is("photo.jpg") );
+    assertThat( "should read the file URI", op.getFile().getURI(), is("http://127.0.1.1/public/2010/photo.jpg") );
+    assertThat( "should read the file timestamp", op.getFile().getTimestamp(), equalTo(op.getTimestamp()) );
+  }
+
+  /**
+   * Test for the serial versions of the {@link org.coderebels.tsaenode.core.operation.Operation} class
+   * and the classes it carries.
+   */
+  @Test public void testSerialVersions() {
+    assertThat( "should keep the operation serial version", ObjectStreamClass.lookup(Operation.class).getSerialVersionUID(), is(3839587775405014024L) );
+    assertThat( "should keep the file serial version", ObjectStreamClass.lookup(FileData.class).getSerialVersionUID(), is(-8249387350086542284L) );
+    assertThat( "should keep the peer serial version", ObjectStreamClass.lookup(org.coderebels.tsaenode.core.sync.Peer.class).getSerialVersionUID(), is(884342488793799089L) );
+  }
+
+}
@@ -0,0 +1,199 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.operation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.operation.WriteAheadLog} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class WriteAheadLogTest {
+
+  private File folder;
+  private WriteAheadLog theWal;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() throws Exception {
+    folder = new File( System.getProperty("java.io.tmpdir"), "tsaenode-wal-" + System.nanoTime() );
+
+    long segmentSize = 256;
+    int syncBatch = 4;
+    theWal = new WriteAheadLog( folder, segmentSize, syncBatch );
+    theWal.replay();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() throws Exception {
+    theWal.close();
+
+    for (File file : folder.listFiles()) {
+      file.delete();
+    }
+
+    folder.delete();
+    theWal = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.WriteAheadLog#replay()} method
+   * when the operations span several segment files.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testReplay() throws Exception {
+    for (long seqNumber = 1; seqNumber <= 20; seqNumber++) {
+      theWal.append( operation(seqNumber) );
+    }
+
+    theWal.close();
+    List<Operation> ops = new WriteAheadLog( folder, 256, 4 ).replay();
+
+    assertThat( "should roll over to new segment files", theWal.getSegments().size() > 1, is(true) );
+    assertThat( "should read every operation back", ops.size(), is(20) );
+    assertThat( "should keep the append order", ops.get(19), equalTo(operation(20)) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.WriteAheadLog#replay()} method
+   * when the last record was torn by a crash.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testReplay_tornRecord() throws Exception {
+    theWal.append( operation(1) );
+    theWal.close();
+
+    List<File> segments = theWal.getSegments();
+    File last = segments.get( segments.size() - 1 );
+    long valid = last.length();
+    FileOutputStream out = new FileOutputStream( last, true );
+    out.write( new byte[] { 0, 0, 0, 42, 1, 2 } );
+    out.close();
+
+    theWal = new WriteAheadLog( folder, 256, 4 );
+    List<Operation> ops = theWal.replay();
+
+    assertThat( "should cut the torn record off the segment file", last.length(), is(valid) );
+
+    theWal.append( operation(2) );
+    theWal.close();
+
+    assertThat( "should discard the torn record", ops.size(), is(1) );
+    assertThat( "should append after the last valid record", new WriteAheadLog(folder, 256, 4).replay().size(), is(2) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.WriteAheadLog#saveCheckpoint(Checkpoint)} method.
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testSaveCheckpoint() throws Exception {
+    for (long seqNumber = 1; seqNumber <= 20; seqNumber++) {
+      theWal.append( operation(seqNumber) );
+    }
+
+    Checkpoint checkpoint = new Checkpoint();
+    checkpoint.setSegment( theWal.mark() );
+    checkpoint.getSnapshot().getFiles().add( operation(20).getFile() );
+    checkpoint.getSnapshot().getSummary().put( "node1", operation(20).getTimestamp() );
+
+    theWal.saveCheckpoint( checkpoint );
+    theWal.append( operation(21) );
+    theWal.close();
+
+    WriteAheadLog wal = new WriteAheadLog( folder, 256, 4 );
+    Checkpoint loaded = wal.loadCheckpoint();
+    List<Operation> ops = wal.replay( loaded.getSegment() );
+
+    assertThat( "should delete the segments covered", theWal.getSegments().size(), is(1) );
+    assertThat( "should read the checkpoint back", loaded.getSnapshot().getFiles().get(0), equalTo(operation(20).getFile()) );
+    assertThat( "should only replay the operations after the checkpoint", ops.size(), is(1) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.operation.WriteAheadLog#saveCheckpoint(Checkpoint)} method
+   * when the checkpoint is older than the one on disk.
+   */
+  @Test public void testSaveCheckpoint_older() throws Exception {
+    for (long seqNumber = 1; seqNumber <= 10; seqNumber++) {
+      theWal.append( operation(seqNumber) );
+    }
+
+    Checkpoint older = new Checkpoint();
+    older.setSegment( theWal.mark() );
+
+    for (long seqNumber = 11; seqNumber <= 20; seqNumber++) {
+      theWal.append( operation(seqNumber) );
+    }
+
+    Checkpoint newer = new Checkpoint();
+    newer.setSegment( theWal.mark() );
+
+    assertThat( "should save the newer checkpoint", theWal.saveCheckpoint(newer), is(true) );
+    assertThat( "should refuse the older checkpoint", theWal.saveCheckpoint(older), is(false) );
+    assertThat( "should keep the newer checkpoint", theWal.loadCheckpoint().getSegment(), is(newer.getSegment()) );
+  }
+
+
+  /**
+   * Builds an operation
+   * @param seqNumber Sequence number of the operation
+   * @return Operation
+   */
+  private Operation operation(long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( "node1" );
+    ts.setSeqNumber( seqNumber );
+
+    FileData fd = new FileData();
+    fd.setFilename( "filename" + seqNumber );
+    fd.setOwner( "node1" );
+    fd.setPath( "/tmp/tsaenode/filename" + seqNumber );
+    fd.setURI( "http://node1/tsaenode/filename" + seqNumber );
+    fd.setTimestamp( ts );
+
+    Operation op = new Operation();
+    op.setType( Operation.ADD );
+    op.setFile( fd );
+    op.setTimestamp( ts );
+
+    return op;
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.operation.OperationMgr;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.sync.AckTracker} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class AckTrackerTest extends BaseTestCase {
+
+  private Peer peer;
+  private OperationMgr operationMgr;
+  private AckTracker theAckTracker;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    peer = new Peer();
+    peer.setId( "peerA:2010" );
+
+    operationMgr = new OperationMgr( null );
+    operationMgr.setUpGroup( Arrays.asList("peerA:2010", "peerB:2010") );
+    operationMgr.updateAcks( acksOf("peerA:2010", 5) );
+    operationMgr.updateAcks( acksOf("peerB:2010", 7) );
+
+    theAckTracker = new AckTracker();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theAckTracker = null;
+    operationMgr = null;
+    peer = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.AckTracker#attachChanges(org.coderebels.tsaenode.core.sync.SessionMessage,
+   * org.coderebels.tsaenode.core.operation.IOperationMgr, java.util.Map)} method
+   * along consecutive exchanges with the same peer
+   */
+  @Test public void testAttachChanges_onlyChangedRows() {
+    SessionMessage first = send();
+
+    assertThat( "First exchange should carry every row", first.getAcks().keySet().containsAll(Arrays.asList("peerA:2010", "peerB:2010")), is(true) );
+    assertThat( "Every row sent should carry its version", new HashSet<String>(first.getAckVersions().keySet()),
+                is(equalTo(new HashSet<String>(first.getAcks().keySet()))) );
+
+    operationMgr.updateAcks( acksOf("peerA:2010", 6) );
+    SessionMessage second = send();
+
+    assertThat( "Next exchange should only carry the changed row", new HashSet<String>(second.getAcks().keySet()),
+                is(equalTo(new HashSet<String>(Arrays.asList("peerA:2010")))) );
+    assertThat( "Changed row should carry its new content", second.getAcks().get("peerA:2010").get("peerA:2010").getSeqNumber(), is(6L) );
+
+    SessionMessage third = send();
+
+    assertThat( "Exchange with nothing changed should carry no rows", third.getAcks().isEmpty(), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.AckTracker#confirmReceived(org.coderebels.tsaenode.core.sync.Peer, long, java.util.Map)} method
+   * when the peer has been restarted since the last exchange
+   */
+  @Test public void testConfirmReceived_peerRestarted() {
+    send();
+    theAckTracker.confirmReceived( peer, 1L, versionsOf("peerA:2010", 3L) );
+
+    theAckTracker.confirmReceived( peer, 2L, versionsOf("peerB:2010", 1L) );
+
+    assertThat( "Versions received before the restart should be forgotten", theAckTracker.getReceived(peer).containsKey("peerA:2010"), is(false) );
+    assertThat( "Versions received after the restart should be kept", theAckTracker.getReceived(peer).get("peerB:2010"), is(1L) );
+    assertThat( "Versions sent before the restart should be forgotten", theAckTracker.getSent(peer).isEmpty(), is(true) );
+    assertThat( "Next exchange should carry every row again", send().getAcks().size(), is(3) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.AckTracker#getKnown(org.coderebels.tsaenode.core.sync.SessionMessage, long)} method
+   * when the request was built from the versions of a previous incarnation of the local node
+   */
+  @Test public void testGetKnown_localRestarted() {
+    SessionMessage request = new SessionMessage();
+    request.setKnownAckVersions( versionsOf("peerA:2010", 3L) );
+
+    assertThat( "Versions of an unknown incarnation should be ignored", theAckTracker.getKnown(request, 2L).isEmpty(), is(true) );
+
+    request.setKnownIncarnation( 1L );
+    assertThat( "Versions of a previous incarnation should be ignored", theAckTracker.getKnown(request, 2L).isEmpty(), is(true) );
+
+    request.setKnownIncarnation( 2L );
+    assertThat( "Versions of the current incarnation should be kept", theAckTracker.getKnown(request, 2L).get("peerA:2010"), is(3L) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.AckTracker#getIncarnation(org.coderebels.tsaenode.core.sync.Peer)} method
+   */
+  @Test public void testGetIncarnation() {
+    assertThat( "Incarnation of a peer never heard from should be unknown", theAckTracker.getIncarnation(peer), is(nullValue()) );
+
+    theAckTracker.confirmReceived( peer, 1L, versionsOf("peerA:2010", 3L) );
+
+    assertThat( "Incarnation of the last reply should be tracked", theAckTracker.getIncarnation(peer), is(1L) );
+  }
+
+
+  /**
+   * Attaches the changed rows to a new message, and records them as delivered to the peer
+   * @return Message sent
+   */
+  private SessionMessage send() {
+    SessionMessage message = new SessionMessage();
+
+    theAckTracker.attachChanges( message, operationMgr, theAckTracker.getSent(peer) );
+    theAckTracker.confirmSent( peer, message.getAckVersions(), message.getAcks().keySet() );
+
+    return message;
+  }
+
+  private ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acksOf(String nodeId, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    ConcurrentHashMap<String, Timestamp> row = new ConcurrentHashMap<String, Timestamp>();
+    row.put( nodeId, ts );
+
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks = new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    acks.put( nodeId, row );
+
+    return acks;
+  }
+
+  private ConcurrentHashMap<String, Long> versionsOf(String nodeId, long version) {
+    ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<String, Long>();
+    versions.put( nodeId, version );
+
+    return versions;
+  }
+
+}
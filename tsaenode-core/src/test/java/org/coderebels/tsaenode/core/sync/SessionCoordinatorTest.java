@@ -0,0 +1,146 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.coderebels.tsaenode.core.exception.SyncMgrException;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.sync.SessionCoordinator} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class SessionCoordinatorTest extends BaseTestCase {
+
+  private AtomicInteger runs;
+  private CountDownLatch started;
+  private CountDownLatch release;
+  private SessionCoordinator theCoordinator;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    runs = new AtomicInteger();
+    started = new CountDownLatch( 1 );
+    release = new CountDownLatch( 1 );
+
+    theCoordinator = new SessionCoordinator( new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        runs.incrementAndGet();
+        started.countDown();
+        release.await();
+        return true;
+      }
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    release.countDown();
+    theCoordinator.shutdown();
+    theCoordinator = null;
+    release = null;
+    started = null;
+    runs = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.SessionCoordinator#submitSession()} method
+   * when many triggers arrive while a session is in flight
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testSubmitSession_overlappingTriggers() throws Exception {
+    Future<Boolean> inFlight = theCoordinator.submitSession();
+    assertThat( "First session should start", started.await(5, TimeUnit.SECONDS), is(true) );
+
+    Future<Boolean> followUp = theCoordinator.submitSession();
+
+    for (int i = 0; i < 50; i++) {
+      assertThat( "Trigger should join the queued session", theCoordinator.submitSession(), is(sameInstance(followUp)) );
+    }
+
+    assertThat( "Triggers can't join the session in flight", followUp, is(not(sameInstance(inFlight))) );
+
+    release.countDown();
+
+    assertThat( "Session in flight should succeed", inFlight.get(5, TimeUnit.SECONDS), is(true) );
+    assertThat( "Follow-up session should succeed", followUp.get(5, TimeUnit.SECONDS), is(true) );
+    assertThat( "Overlapping triggers should run a single follow-up session", runs.get(), is(2) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.SessionCoordinator#requestSession()} method
+   * when the session fails
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRequestSession_failedSession() throws Exception {
+    theCoordinator = new SessionCoordinator( new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        throw new IllegalStateException( "session failed" );
+      }
+    });
+
+    try {
+      theCoordinator.requestSession();
+      fail( "Expected a SyncMgrException to be thrown" );
+    } catch (Exception e) {
+      assertThat( "SessionCoordinator should throw a SyncMgrException", e, is(instanceOf(SyncMgrException.class)) );
+    }
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.SessionCoordinator#shutdown()} method
+   * when a session is requested again afterwards, as when the local node reconnects
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testShutdown() throws Exception {
+    release.countDown();
+
+    assertThat( "Session should run before the shutdown", theCoordinator.requestSession(), is(true) );
+
+    theCoordinator.shutdown();
+
+    assertThat( "Session should run after the shutdown", theCoordinator.requestSession(), is(true) );
+    assertThat( "Every request should run its own session", runs.get(), is(2) );
+  }
+
+}
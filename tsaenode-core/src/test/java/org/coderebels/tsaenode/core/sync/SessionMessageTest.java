@@ -0,0 +1,145 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.operation.Operation;
+import org.coderebels.tsaenode.core.operation.OperationFactory;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.sync.SessionMessage} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class SessionMessageTest extends BaseTestCase {
+
+  /**
+   * Test for the serialization of a {@link org.coderebels.tsaenode.core.sync.SessionMessage},
+   * as sent through RMI
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRoundTrip() throws Exception {
+    List<Operation> ops = new Vector<Operation>();
+    ops.add( createOperation("peer:2010", 20) );
+    ops.add( createOperation("peer:2010", 21) );
+
+    ConcurrentHashMap<String, Timestamp> summary = new ConcurrentHashMap<String, Timestamp>();
+    summary.put( "peer:2010", createTimestamp("peer:2010", 21) );
+
+    SessionMessage message = new SessionMessage();
+    message.setSenderId( "peer:2010" );
+    message.setIncarnation( 42L );
+    message.setOps( ops );
+    message.setComplete( false );
+    message.setSummary( summary );
+    message.getAcks().put( "peer:2010", summary );
+    message.setSnapshotCursor( "snapshot:2" );
+
+    SnapshotPage page = new SnapshotPage();
+    page.setId( "snapshot" );
+    page.setOffset( 2 );
+    page.getSnapshot().getFiles().add( ops.get(0).getFile() );
+    page.getSnapshot().setSummary( summary );
+    message.setSnapshot( page );
+
+    SessionMessage copy = roundTrip( message );
+
+    assertThat( "Operations should survive the round trip", copy.getOps(), is(equalTo(ops)) );
+    assertThat( "Summary vector should survive the round trip", copy.getSummary(), is(equalTo(summary)) );
+    assertThat( "Acknowledgement rows should survive the round trip", copy.getAcks().get("peer:2010"), is(equalTo(summary)) );
+    assertThat( "Paging flag should survive the round trip", copy.isComplete(), is(false) );
+    assertThat( "Incarnation should survive the round trip", copy.getIncarnation(), is(42L) );
+    assertThat( "Snapshot cursor should survive the round trip", copy.getSnapshotCursor(), is("snapshot:2") );
+    assertThat( "Snapshot page position should survive the round trip", copy.getSnapshot().getOffset(), is(2) );
+    assertThat( "Snapshot page files should survive the round trip", copy.getSnapshot().getSnapshot().getFiles(), is(equalTo(page.getSnapshot().getFiles())) );
+  }
+
+  /**
+   * Test for the serialization of an empty {@link org.coderebels.tsaenode.core.sync.SessionMessage}
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testRoundTrip_empty() throws Exception {
+    SessionMessage copy = roundTrip( new SessionMessage() );
+
+    assertThat( "Operations should be empty", copy.getOps().isEmpty(), is(true) );
+    assertThat( "Message should be complete", copy.isComplete(), is(true) );
+    assertThat( "Message should carry no snapshot", copy.getSnapshot(), is(nullValue()) );
+  }
+
+
+  /**
+   * Serializes and deserializes a message
+   * @param message Message to copy
+   * @return Copy of the message
+   * @throws java.lang.Exception
+   */
+  private SessionMessage roundTrip(SessionMessage message) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( message );
+    out.close();
+
+    ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream(bytes.toByteArray()) );
+
+    try {
+      return (SessionMessage) in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  private Operation createOperation(String nodeId, long seqNumber) {
+    FileData fd = new FileData();
+    fd.setFilename( "filename" + seqNumber );
+    fd.setOwner( nodeId );
+    fd.setPath( "/tmp/tsaenode/filename" + seqNumber );
+    fd.setTimestamp( createTimestamp(nodeId, seqNumber) );
+
+    return OperationFactory.createOperation( nodeId, seqNumber, Operation.ADD, fd );
+  }
+
+  private Timestamp createTimestamp(String nodeId, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    return ts;
+  }
+
+}
@@ -0,0 +1,214 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.sync;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.operation.IOperationMgr;
+import org.coderebels.tsaenode.core.operation.Snapshot;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.mockito.Mock;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.sync.SnapshotTransfer} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class SnapshotTransferTest extends BaseTestCase {
+
+  private static final int PAGE_SIZE = 2;
+
+  private Snapshot snapshot;
+  private SnapshotTransfer sender;
+  private SnapshotTransfer theTransfer;
+
+  @Mock private IOperationMgr operationMgr;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() {
+    snapshot = new Snapshot();
+
+    for (int i = 1; i <= 5; i++) {
+      snapshot.getFiles().add( createFileData("local:2010", i) );
+    }
+
+    snapshot.getSummary().put( "local:2010", createTimestamp("local:2010", 5) );
+
+    when(operationMgr.takeSnapshot()).thenReturn(snapshot);
+
+    sender = new SnapshotTransfer();
+    theTransfer = new SnapshotTransfer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theTransfer = null;
+    sender = null;
+    snapshot = null;
+  }
+
+  /**
+   * Test for a snapshot sent in pages, each one asked for by the cursor of the receiving end
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testTransfer() throws Exception {
+    SnapshotPage page = sender.nextPage( "peer:2010", null, operationMgr, PAGE_SIZE );
+    Snapshot received = theTransfer.receive( "local:2010", page );
+    int pages = 1;
+
+    while (received == null) {
+      page = sender.nextPage( "peer:2010", theTransfer.getCursor("local:2010"), operationMgr, PAGE_SIZE );
+      received = theTransfer.receive( "local:2010", page );
+      pages++;
+    }
+
+    verify(operationMgr, times(1)).takeSnapshot();
+    assertThat( "Snapshot should be sent in bounded pages", pages, is(3) );
+    assertThat( "Whole snapshot should be received", received.getFiles(), is(equalTo(snapshot.getFiles())) );
+    assertThat( "Snapshot summary should be received", received.getSummary(), is(equalTo(snapshot.getSummary())) );
+    assertThat( "No more pages should be asked for", theTransfer.getCursor("local:2010"), is(nullValue()) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.SnapshotTransfer#nextPage(java.lang.String, java.lang.String, org.coderebels.tsaenode.core.operation.IOperationMgr, int)} method
+   * when the cursor doesn't point into the snapshot being sent
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testNextPage_unknownCursor() throws Exception {
+    SnapshotPage first = sender.nextPage( "peer:2010", null, operationMgr, PAGE_SIZE );
+
+    SnapshotPage stale     = sender.nextPage( "peer:2010", "some-other-snapshot:2", operationMgr, PAGE_SIZE );
+    SnapshotPage malformed = sender.nextPage( "peer:2010", stale.getId() + ":two", operationMgr, PAGE_SIZE );
+
+    verify(operationMgr, times(3)).takeSnapshot();
+    assertThat( "Unknown cursor should start a new snapshot", stale.getId(), is(not(equalTo(first.getId()))) );
+    assertThat( "Unknown cursor should start from the beginning", stale.getOffset(), is(0) );
+    assertThat( "Malformed cursor should start from the beginning", malformed.getOffset(), is(0) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.SnapshotTransfer#receive(java.lang.String, org.coderebels.tsaenode.core.sync.SnapshotPage)} method
+   * when a page doesn't follow those received so far
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testReceive_outOfSequence() throws Exception {
+    SnapshotPage first = sender.nextPage( "peer:2010", null, operationMgr, PAGE_SIZE );
+    SnapshotPage second = sender.nextPage( "peer:2010", first.getId() + ":2", operationMgr, PAGE_SIZE );
+    SnapshotPage third = sender.nextPage( "peer:2010", first.getId() + ":4", operationMgr, PAGE_SIZE );
+
+    theTransfer.receive( "local:2010", first );
+    Snapshot received = theTransfer.receive( "local:2010", third );
+
+    assertThat( "Out of sequence page should not complete the snapshot", received, is(nullValue()) );
+    assertThat( "Out of sequence page should drop the transfer", theTransfer.getCursor("local:2010"), is(nullValue()) );
+    assertThat( "Following pages should be dropped too", theTransfer.receive("local:2010", second), is(nullValue()) );
+  }
+
+  /**
+   * Test for a snapshot with no files
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testTransfer_emptySnapshot() throws Exception {
+    snapshot.getFiles().clear();
+
+    SnapshotPage page = sender.nextPage( "peer:2010", null, operationMgr, PAGE_SIZE );
+    Snapshot received = theTransfer.receive( "local:2010", page );
+
+    assertThat( "Single page should be the last one", page.isLast(), is(true) );
+    assertThat( "Snapshot should be received at once", received, is(notNullValue()) );
+    assertThat( "Snapshot summary should be received", received.getSummary(), is(equalTo(snapshot.getSummary())) );
+  }
+
+
+  /**
+   * Test for transfers no page of which is exchanged for longer than the idle timeout
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testTransfer_idle() throws Exception {
+    SnapshotTransfer idleSender = new SnapshotTransfer( 10 );
+    SnapshotTransfer idleReceiver = new SnapshotTransfer( 10 );
+
+    idleReceiver.receive( "local:2010", idleSender.nextPage("peer:2010", null, operationMgr, PAGE_SIZE) );
+    Thread.sleep( 50 );
+
+    idleReceiver.receive( "other:2010", idleSender.nextPage("other:2010", null, operationMgr, PAGE_SIZE) );
+
+    assertThat( "Idle snapshot being sent should be dropped", idleSender.isSending("peer:2010"), is(false) );
+    assertThat( "Idle snapshot being received should be dropped", idleReceiver.getCursor("local:2010"), is(nullValue()) );
+    assertThat( "Active transfers should be kept", idleSender.isSending("other:2010") && idleReceiver.getCursor("other:2010") != null, is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.SnapshotTransfer#clear()} method
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testClear() throws Exception {
+    theTransfer.receive( "local:2010", sender.nextPage("peer:2010", null, operationMgr, PAGE_SIZE) );
+
+    sender.clear();
+    theTransfer.clear();
+
+    assertThat( "Snapshot being sent should be dropped", sender.isSending("peer:2010"), is(false) );
+    assertThat( "Snapshot being received should be dropped", theTransfer.getCursor("local:2010"), is(nullValue()) );
+  }
+
+
+  private FileData createFileData(String nodeId, long seqNumber) {
+    FileData fd = new FileData();
+    fd.setFilename( "filename" + seqNumber );
+    fd.setOwner( nodeId );
+    fd.setPath( "/tmp/tsaenode/filename" + seqNumber );
+    fd.setTimestamp( createTimestamp(nodeId, seqNumber) );
+
+    return fd;
+  }
+
+  private Timestamp createTimestamp(String nodeId, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    return ts;
+  }
+
+}
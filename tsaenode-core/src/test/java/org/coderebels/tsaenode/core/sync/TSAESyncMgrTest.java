@@ -0,0 +1,369 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.operation.IOperationMgr;
+import org.coderebels.tsaenode.core.operation.Operation;
+import org.coderebels.tsaenode.core.operation.OperationFactory;
+import org.coderebels.tsaenode.core.operation.Snapshot;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyListOf;
+import static org.mockito.Mockito.anyMapOf;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.reflect.Whitebox.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class TSAESyncMgrTest extends BaseTestCase {
+
+  private ConcurrentHashMap<String, Timestamp> localSummary;
+  private ConcurrentHashMap<String, Timestamp> peerSummary;
+  private TSAESyncMgr theSyncMgr;
+
+  @Mock private IOperationMgr operationMgr;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() throws Exception {
+    localSummary = summaryOf( createTimestamp("local:2010", 10) );
+    peerSummary  = summaryOf( createTimestamp("peer:2010", 20) );
+
+    when(operationMgr.getSummary()).thenReturn(localSummary);
+    when(operationMgr.getAcks(anyMapOf(String.class, Long.class))).thenReturn(new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>());
+    when(operationMgr.getAckVersions()).thenReturn(new ConcurrentHashMap<String, Long>());
+    when(operationMgr.extractOperations(any(ConcurrentHashMap.class), anyInt())).thenReturn(new Vector<Operation>());
+    when(operationMgr.updateLog(anyListOf(Operation.class))).thenReturn(true);
+    when(operationMgr.updateAcks(any(ConcurrentHashMap.class))).thenReturn(true);
+
+    theSyncMgr = new TSAESyncMgr( operationMgr );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theSyncMgr = null;
+    peerSummary  = null;
+    localSummary = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when both nodes miss some operation
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession() throws Exception {
+    List<Operation> received = new Vector<Operation>();
+    received.add( createOperation("peer:2010", 20) );
+    List<Operation> missing = new Vector<Operation>();
+    missing.add( createOperation("local:2010", 10) );
+
+    when(operationMgr.extractOperations(eq(peerSummary), anyInt())).thenReturn(missing);
+
+    SessionMessage reply = theSyncMgr.exchangeSession( request(received) );
+
+    verify(operationMgr).updateLog(received);
+    verify(operationMgr).updateAcks(any(ConcurrentHashMap.class));
+    assertThat( "Reply should carry the operations fellow node misses", reply.getOps(), is(equalTo(missing)) );
+    assertThat( "Reply should carry the local summary vector", reply.getSummary(), is(equalTo(localSummary)) );
+    assertThat( "Reply should be complete", reply.isComplete(), is(true) );
+    assertThat( "Reply should carry no snapshot", reply.getSnapshot(), is(nullValue()) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when fellow node sends nothing and misses nothing
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession_emptyDelta() throws Exception {
+    SessionMessage reply = theSyncMgr.exchangeSession( request(new Vector<Operation>()) );
+
+    assertThat( "Reply should carry no operations", reply.getOps().isEmpty(), is(true) );
+    assertThat( "Reply should be complete", reply.isComplete(), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when fellow node misses more operations than fit in a page
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession_morePages() throws Exception {
+    setInternalState( theSyncMgr, "pageSize", 2 );
+
+    List<Operation> missing = new Vector<Operation>();
+    missing.add( createOperation("local:2010", 10) );
+    missing.add( createOperation("local:2010", 11) );
+    missing.add( createOperation("local:2010", 12) );
+
+    when(operationMgr.extractOperations(peerSummary, 3)).thenReturn(missing);
+
+    SessionMessage reply = theSyncMgr.exchangeSession( request(new Vector<Operation>()) );
+
+    assertThat( "Reply should carry a single page", reply.getOps(), is(equalTo(missing.subList(0, 2))) );
+    assertThat( "Reply should tell another page follows", reply.isComplete(), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when fellow node misses exactly a page of operations
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession_lastPage() throws Exception {
+    setInternalState( theSyncMgr, "pageSize", 2 );
+
+    List<Operation> missing = new Vector<Operation>();
+    missing.add( createOperation("local:2010", 10) );
+    missing.add( createOperation("local:2010", 11) );
+
+    when(operationMgr.extractOperations(peerSummary, 3)).thenReturn(missing);
+
+    SessionMessage reply = theSyncMgr.exchangeSession( request(new Vector<Operation>()) );
+
+    assertThat( "Reply should carry the whole page", reply.getOps(), is(equalTo(missing)) );
+    assertThat( "Reply should tell no other page follows", reply.isComplete(), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when fellow node misses operations already purged, and the snapshot doesn't fit in a page
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession_pagedSnapshot() throws Exception {
+    setInternalState( theSyncMgr, "pageSize", 2 );
+
+    Snapshot snapshot = snapshotOf( 3 );
+
+    when(operationMgr.requiresSnapshot(peerSummary)).thenReturn(true);
+    when(operationMgr.takeSnapshot()).thenReturn(snapshot);
+
+    SessionMessage first = theSyncMgr.exchangeSession( request(new Vector<Operation>()) );
+
+    SessionMessage request = request( new Vector<Operation>() );
+    request.setSnapshotCursor( first.getSnapshot().getId() + ":2" );
+    SessionMessage second = theSyncMgr.exchangeSession( request );
+
+    verify(operationMgr, times(1)).takeSnapshot();
+    assertThat( "First reply should carry the first page", first.getSnapshot().getSnapshot().getFiles(), is(equalTo(snapshot.getFiles().subList(0, 2))) );
+    assertThat( "First reply should tell another page follows", first.isComplete(), is(false) );
+    assertThat( "Second reply should carry the rest of the same snapshot", second.getSnapshot().getId(), is(equalTo(first.getSnapshot().getId())) );
+    assertThat( "Second reply should carry the last page", second.getSnapshot().getSnapshot().getFiles(), is(equalTo(snapshot.getFiles().subList(2, 3))) );
+    assertThat( "Second reply should tell no other page follows", second.isComplete(), is(true) );
+    assertThat( "Every page should carry the snapshot summary", second.getSnapshot().getSnapshot().getSummary(), is(equalTo(snapshot.getSummary())) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when fellow node sends a snapshot in pages
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession_receivedSnapshot() throws Exception {
+    Snapshot snapshot = snapshotOf( 3 );
+    SnapshotTransfer sender = new SnapshotTransfer();
+    IOperationMgr peerOperationMgr = mock( IOperationMgr.class );
+    when(peerOperationMgr.takeSnapshot()).thenReturn(snapshot);
+    when(operationMgr.installSnapshot(any(Snapshot.class))).thenReturn(true);
+
+    SessionMessage request = request( new Vector<Operation>() );
+    request.setSnapshot( sender.nextPage("local:2010", null, peerOperationMgr, 2) );
+    SessionMessage first = theSyncMgr.exchangeSession( request );
+
+    verify(operationMgr, never()).installSnapshot(any(Snapshot.class));
+
+    request = request( new Vector<Operation>() );
+    request.setSnapshot( sender.nextPage("local:2010", first.getSnapshotCursor(), peerOperationMgr, 2) );
+    SessionMessage second = theSyncMgr.exchangeSession( request );
+
+    ArgumentCaptor<Snapshot> installed = ArgumentCaptor.forClass( Snapshot.class );
+    verify(operationMgr).installSnapshot(installed.capture());
+    assertThat( "First reply should ask for the following page", first.getSnapshotCursor(), is(notNullValue()) );
+    assertThat( "Whole snapshot should be installed", installed.getValue().getFiles(), is(equalTo(snapshot.getFiles())) );
+    assertThat( "Snapshot summary should be installed", installed.getValue().getSummary(), is(equalTo(snapshot.getSummary())) );
+    assertThat( "Second reply should ask for no more pages", second.getSnapshotCursor(), is(nullValue()) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when fellow node already knows some acknowledgement vector rows
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession_changedAckRows() throws Exception {
+    ConcurrentHashMap<String, Long> known = new ConcurrentHashMap<String, Long>();
+    known.put( "local:2010", 3L );
+    known.put( "peer:2010", 5L );
+
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> changed = new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    changed.put( "local:2010", localSummary );
+    ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<String, Long>();
+    versions.put( "local:2010", 4L );
+    versions.put( "peer:2010", 5L );
+
+    when(operationMgr.getAcks(known)).thenReturn(changed);
+    when(operationMgr.getAckVersions()).thenReturn(versions);
+
+    SessionMessage request = request( new Vector<Operation>() );
+    request.setKnownAckVersions( known );
+    request.setKnownIncarnation( (Long) getInternalState(theSyncMgr, "incarnation") );
+
+    SessionMessage reply = theSyncMgr.exchangeSession( request );
+
+    assertThat( "Reply should only carry the rows changed since the known versions", reply.getAcks(), is(equalTo(changed)) );
+    assertThat( "Reply should carry the version of the rows sent", reply.getAckVersions().get("local:2010"), is(4L) );
+    assertThat( "Reply should carry no version of the rows not sent", reply.getAckVersions().containsKey("peer:2010"), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when fellow node knows the acknowledgement vector rows of a previous incarnation of the local node
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession_localRestarted() throws Exception {
+    ConcurrentHashMap<String, Long> known = new ConcurrentHashMap<String, Long>();
+    known.put( "local:2010", 3L );
+
+    SessionMessage request = request( new Vector<Operation>() );
+    request.setKnownAckVersions( known );
+    request.setKnownIncarnation( (Long) getInternalState(theSyncMgr, "incarnation") + 1 );
+
+    theSyncMgr.exchangeSession( request );
+
+    verify(operationMgr, never()).getAcks(known);
+    verify(operationMgr).getAcks(new ConcurrentHashMap<String, Long>());
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESyncMgr#exchangeSession(org.coderebels.tsaenode.core.sync.SessionMessage)} method
+   * when fellow node only sends the digests of its vectors
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testExchangeSession_probe() throws Exception {
+    when(operationMgr.getSummaryDigest()).thenReturn(11L);
+    when(operationMgr.getAckDigest()).thenReturn(22L);
+
+    SessionMessage probe = new SessionMessage();
+    probe.setSenderId( "peer:2010" );
+    probe.setProbe( true );
+
+    SessionMessage reply = theSyncMgr.exchangeSession( probe );
+
+    verify(operationMgr, never()).updateLog(anyListOf(Operation.class));
+    assertThat( "Reply should be a probe", reply.isProbe(), is(true) );
+    assertThat( "Reply should carry the local summary digest", reply.getSummaryDigest(), is(11L) );
+    assertThat( "Reply should carry the local acknowledgement digest", reply.getAckDigest(), is(22L) );
+  }
+
+
+  /**
+   * Builds a request from the fellow node, carrying its summary vector
+   * @param ops Operations in the request
+   * @return Request to exchange
+   */
+  private SessionMessage request(List<Operation> ops) {
+    SessionMessage request = new SessionMessage();
+    request.setSenderId( "peer:2010" );
+    request.setOps( ops );
+    request.setSummary( peerSummary );
+
+    return request;
+  }
+
+  /**
+   * Builds a snapshot of the fellow node
+   * @param size Number of files in the snapshot
+   * @return Snapshot
+   */
+  private Snapshot snapshotOf(int size) {
+    Snapshot snapshot = new Snapshot();
+
+    for (int i = 1; i <= size; i++) {
+      snapshot.getFiles().add( createOperation("local:2010", i).getFile() );
+    }
+
+    snapshot.setSummary( summaryOf(createTimestamp("local:2010", size)) );
+
+    return snapshot;
+  }
+
+  private ConcurrentHashMap<String, Timestamp> summaryOf(Timestamp... timestamps) {
+    ConcurrentHashMap<String, Timestamp> summary = new ConcurrentHashMap<String, Timestamp>();
+
+    for (Timestamp ts : timestamps) {
+      summary.put( ts.getNodeId(), ts );
+    }
+
+    return summary;
+  }
+
+  private Operation createOperation(String nodeId, long seqNumber) {
+    FileData fd = new FileData();
+    fd.setFilename( "filename" + seqNumber );
+    fd.setOwner( nodeId );
+    fd.setPath( "/tmp/tsaenode/filename" + seqNumber );
+    fd.setTimestamp( createTimestamp(nodeId, seqNumber) );
+
+    return OperationFactory.createOperation( nodeId, seqNumber, Operation.ADD, fd );
+  }
+
+  private Timestamp createTimestamp(String nodeId, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    return ts;
+  }
+
+}
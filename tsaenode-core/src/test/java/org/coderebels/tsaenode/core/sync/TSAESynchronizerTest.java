@@ -0,0 +1,365 @@
+// Copyright (C) 2012 Carles Muiños
+//
+// This file is part of TSAEnode.
+//
+// TSAEnode is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// TSAEnode is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with TSAEnode.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package org.coderebels.tsaenode.core.sync;
+
+import java.rmi.ConnectException;
+import java.rmi.UnmarshalException;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coderebels.tsaenode.core.INode;
+import org.coderebels.tsaenode.core.common.Timestamp;
+import org.coderebels.tsaenode.core.file.FileData;
+import org.coderebels.tsaenode.core.operation.IOperationMgr;
+import org.coderebels.tsaenode.core.operation.Operation;
+import org.coderebels.tsaenode.core.operation.OperationFactory;
+import org.coderebels.tsaenode.core.operation.Snapshot;
+import org.coderebels.tsaenode.BaseTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyListOf;
+import static org.mockito.Mockito.anyMapOf;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.reflect.Whitebox.*;
+
+/**
+ * Unit test for the {@link org.coderebels.tsaenode.core.sync.TSAESynchronizer} class.
+ *
+ * @author carles.ml.dev@gmail.com (Carles Muiños)
+ */
+@RunWith(JUnit4.class)
+public class TSAESynchronizerTest extends BaseTestCase {
+
+  private static final int PAGE_SIZE = 2;
+
+  private Peer peer;
+  private ConcurrentHashMap<String, Timestamp> localSummary;
+  private ConcurrentHashMap<String, Timestamp> peerSummary;
+  private TSAESynchronizer theSynchronizer;
+
+  @Mock private INode stub;
+  @Mock private IOperationMgr operationMgr;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Before public void setUp() throws Exception {
+    peer = spy( new Peer() );
+    peer.setId( "peer:2010" );
+    doReturn(stub).when(peer).getStub();
+
+    localSummary = summaryOf( createTimestamp("local:2010", 10) );
+    peerSummary  = summaryOf( createTimestamp("peer:2010", 20) );
+
+    when(operationMgr.getSummary()).thenReturn(localSummary);
+    when(operationMgr.getAcks()).thenReturn(new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>());
+    when(operationMgr.getAcks(anyMapOf(String.class, Long.class))).thenReturn(new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>());
+    when(operationMgr.getAckVersions()).thenReturn(new ConcurrentHashMap<String, Long>());
+    when(operationMgr.extractOperations(any(ConcurrentHashMap.class), anyInt())).thenReturn(new Vector<Operation>());
+    when(operationMgr.updateLog(anyListOf(Operation.class))).thenReturn(true);
+    when(operationMgr.updateAcks(any(ConcurrentHashMap.class))).thenReturn(true);
+
+    theSynchronizer = new TSAESynchronizer( "local:2010", peer, operationMgr, new SyncMap(), new AckTracker(),
+                                            new SnapshotTransfer(), true, PAGE_SIZE );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @After public void tearDown() {
+    theSynchronizer = null;
+    peerSummary  = null;
+    localSummary = null;
+    peer = null;
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESynchronizer#doSynchronize()} method
+   * when peer supports the single round-trip exchange
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoSynchronize_singleRoundTrip() throws Exception {
+    List<Operation> ops = new Vector<Operation>();
+    ops.add( createOperation("peer:2010", 20) );
+
+    when(stub.exchangeTSAESession(any(SessionMessage.class))).thenReturn(reply(ops, true));
+
+    boolean done = invokeMethod( theSynchronizer, "doSynchronize" );
+
+    ArgumentCaptor<SessionMessage> request = ArgumentCaptor.forClass( SessionMessage.class );
+    verify(stub).exchangeTSAESession(request.capture());
+    verify(operationMgr).updateLog(ops);
+    verify(stub, never()).performTSAESession(anyListOf(Operation.class), any(ConcurrentHashMap.class), any(ConcurrentHashMap.class));
+    assertThat( "Session should be done successfully", done, is(true) );
+    assertThat( "Request should carry the local summary vector", request.getValue().getSummary(), is(equalTo(localSummary)) );
+    assertThat( "Nothing should be sent speculatively to a peer never heard from", request.getValue().getOps().isEmpty(), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESynchronizer#doSynchronize()} method
+   * when peer runs a version without the single round-trip exchange
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoSynchronize_legacyPeer() throws Exception {
+    List<Operation> opsToSend = new Vector<Operation>();
+    opsToSend.add( createOperation("local:2010", 10) );
+    List<Operation> opsToExec = new Vector<Operation>();
+    opsToExec.add( createOperation("peer:2010", 20) );
+
+    when(stub.exchangeTSAESession(any(SessionMessage.class)))
+      .thenThrow(new UnmarshalException("error unmarshalling call header; unrecognized method hash: method not supported by remote object"));
+    when(stub.requestSummary()).thenReturn(peerSummary);
+    when(stub.requestAckSummary()).thenReturn(new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>());
+    when(operationMgr.extractOperations(peerSummary)).thenReturn(opsToSend);
+    when(stub.performTSAESession(eq(opsToSend), any(ConcurrentHashMap.class), any(ConcurrentHashMap.class))).thenReturn(opsToExec);
+
+    boolean done = invokeMethod( theSynchronizer, "doSynchronize" );
+
+    verify(stub).performTSAESession(eq(opsToSend), eq(localSummary), any(ConcurrentHashMap.class));
+    verify(operationMgr).updateLog(opsToExec);
+    assertThat( "Session should fall back to the legacy conversation", done, is(true) );
+    assertThat( "Peer should no longer be offered the single round-trip exchange", peer.isExchangeSupported(), is(false) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESynchronizer#doSynchronize()} method
+   * when the exchange fails for any other reason
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoSynchronize_unreachablePeer() throws Exception {
+    when(stub.exchangeTSAESession(any(SessionMessage.class))).thenThrow(new ConnectException("Connection refused"));
+
+    boolean done = invokeMethod( theSynchronizer, "doSynchronize" );
+
+    verify(stub, never()).performTSAESession(anyListOf(Operation.class), any(ConcurrentHashMap.class), any(ConcurrentHashMap.class));
+    assertThat( "Session should fail", done, is(false) );
+    assertThat( "Peer should still be offered the single round-trip exchange", peer.isExchangeSupported(), is(true) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESynchronizer#doSynchronize()} method
+   * when there is nothing to send and both nodes have the same vectors
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoSynchronize_emptyDelta() throws Exception {
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks = new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    acks.put( "peer:2010", localSummary );
+    when(operationMgr.getAcks()).thenReturn(acks);
+    when(operationMgr.getSummaryDigest()).thenReturn(11L);
+    when(operationMgr.getAckDigest()).thenReturn(22L);
+
+    SessionMessage probe = new SessionMessage();
+    probe.setProbe( true );
+    probe.setSummaryDigest( 11L );
+    probe.setAckDigest( 22L );
+    when(stub.exchangeTSAESession(any(SessionMessage.class))).thenReturn(probe);
+
+    boolean done = invokeMethod( theSynchronizer, "doSynchronize" );
+
+    ArgumentCaptor<SessionMessage> request = ArgumentCaptor.forClass( SessionMessage.class );
+    verify(stub, times(1)).exchangeTSAESession(request.capture());
+    verify(operationMgr, never()).updateLog(anyListOf(Operation.class));
+    assertThat( "Session should be done successfully", done, is(true) );
+    assertThat( "A single probe should be sent", request.getValue().isProbe(), is(true) );
+  }
+
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESynchronizer#doSynchronize()} method
+   * when both nodes have more operations to send than fit in a page
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoSynchronize_paged() throws Exception {
+    knowPeer();
+
+    List<Operation> localPage1 = pageOf( "local:2010", 10, 11 );
+    List<Operation> localPage2 = pageOf( "local:2010", 12 );
+    List<Operation> peerPage1  = pageOf( "peer:2010", 20, 21 );
+    List<Operation> peerPage2  = pageOf( "peer:2010", 22 );
+
+    when(operationMgr.extractOperations(any(ConcurrentHashMap.class), eq(PAGE_SIZE)))
+      .thenReturn(localPage1, localPage2, new Vector<Operation>());
+    when(stub.exchangeTSAESession(any(SessionMessage.class)))
+      .thenReturn(reply(peerPage1, false), reply(peerPage2, true));
+
+    boolean done = invokeMethod( theSynchronizer, "doSynchronize" );
+
+    ArgumentCaptor<SessionMessage> request = ArgumentCaptor.forClass( SessionMessage.class );
+    verify(stub, times(2)).exchangeTSAESession(request.capture());
+    verify(operationMgr).updateLog(peerPage1);
+    verify(operationMgr).updateLog(peerPage2);
+    assertThat( "Session should be done successfully", done, is(true) );
+    assertThat( "First exchange should send the first page", request.getAllValues().get(0).getOps(), is(equalTo(localPage1)) );
+    assertThat( "Second exchange should send the second page", request.getAllValues().get(1).getOps(), is(equalTo(localPage2)) );
+  }
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESynchronizer#doSynchronize()} method
+   * when peer announces more pages but sends none
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoSynchronize_noProgress() throws Exception {
+    when(stub.exchangeTSAESession(any(SessionMessage.class))).thenReturn(reply(new Vector<Operation>(), false));
+
+    boolean done = invokeMethod( theSynchronizer, "doSynchronize" );
+
+    verify(stub, times(2)).exchangeTSAESession(any(SessionMessage.class));
+    assertThat( "Session should be given up", done, is(false) );
+  }
+
+
+  /**
+   * Test for the {@link org.coderebels.tsaenode.core.sync.TSAESynchronizer#doSynchronize()} method
+   * when peer misses operations already purged and the snapshot doesn't fit in a page
+   *
+   * @throws java.lang.Exception
+   */
+  @Test public void testDoSynchronize_pagedSnapshot() throws Exception {
+    knowPeer();
+
+    final Snapshot snapshot = new Snapshot();
+    snapshot.getFiles().add( createOperation("local:2010", 1).getFile() );
+    snapshot.getFiles().add( createOperation("local:2010", 2).getFile() );
+    snapshot.getFiles().add( createOperation("local:2010", 3).getFile() );
+    snapshot.setSummary( localSummary );
+
+    final ConcurrentHashMap<String, Timestamp> caughtUp = summaryOf( createTimestamp("local:2010", 10), createTimestamp("peer:2010", 20) );
+    final SnapshotTransfer peerTransfer = new SnapshotTransfer();
+    final List<Snapshot> installed = new Vector<Snapshot>();
+
+    when(operationMgr.requiresSnapshot(peerSummary)).thenReturn(true);
+    when(operationMgr.takeSnapshot()).thenReturn(snapshot);
+    when(stub.exchangeTSAESession(any(SessionMessage.class))).thenAnswer(new Answer<SessionMessage>() {
+      @Override
+      public SessionMessage answer(InvocationOnMock invocation) {
+        SessionMessage request = (SessionMessage) invocation.getArguments()[0];
+        Snapshot received = peerTransfer.receive( "local:2010", request.getSnapshot() );
+        if (received != null) installed.add( received );
+
+        SessionMessage reply = reply( new Vector<Operation>(), true );
+        reply.setSnapshotCursor( peerTransfer.getCursor("local:2010") );
+        if (received != null) reply.setSummary( caughtUp );
+
+        return reply;
+      }
+    });
+
+    boolean done = invokeMethod( theSynchronizer, "doSynchronize" );
+
+    ArgumentCaptor<SessionMessage> request = ArgumentCaptor.forClass( SessionMessage.class );
+    verify(stub, times(2)).exchangeTSAESession(request.capture());
+    assertThat( "Session should be done successfully", done, is(true) );
+    assertThat( "First exchange should send a bounded page", request.getAllValues().get(0).getSnapshot().getSnapshot().getFiles().size(), is(PAGE_SIZE) );
+    assertThat( "Second exchange should send the last page", request.getAllValues().get(1).getSnapshot().isLast(), is(true) );
+    assertThat( "Peer should install the whole snapshot once", installed.size(), is(1) );
+    assertThat( "Peer should get every file of the snapshot", installed.get(0).getFiles(), is(equalTo(snapshot.getFiles())) );
+  }
+
+  /**
+   * Builds a reply to an exchange, carrying the peer summary vector
+   * @param ops Operations in the reply
+   * @param complete Whether the peer has nothing else to send
+   * @return Reply to an exchange
+   */
+  private SessionMessage reply(List<Operation> ops, boolean complete) {
+    SessionMessage reply = new SessionMessage();
+    reply.setSenderId( "peer:2010" );
+    reply.setOps( ops );
+    reply.setComplete( complete );
+    reply.setSummary( peerSummary );
+
+    return reply;
+  }
+
+  /**
+   * Records in the local acknowledgement vector the peer summary vector, as after a previous session
+   */
+  private void knowPeer() {
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>> acks = new ConcurrentHashMap<String, ConcurrentHashMap<String, Timestamp>>();
+    acks.put( "peer:2010", peerSummary );
+    when(operationMgr.getAcks()).thenReturn(acks);
+  }
+
+  private List<Operation> pageOf(String nodeId, long... seqNumbers) {
+    List<Operation> page = new Vector<Operation>();
+
+    for (long seqNumber : seqNumbers) {
+      page.add( createOperation(nodeId, seqNumber) );
+    }
+
+    return page;
+  }
+
+  private ConcurrentHashMap<String, Timestamp> summaryOf(Timestamp... timestamps) {
+    ConcurrentHashMap<String, Timestamp> summary = new ConcurrentHashMap<String, Timestamp>();
+
+    for (Timestamp ts : timestamps) {
+      summary.put( ts.getNodeId(), ts );
+    }
+
+    return summary;
+  }
+
+  private Operation createOperation(String nodeId, long seqNumber) {
+    FileData fd = new FileData();
+    fd.setFilename( "filename" + seqNumber );
+    fd.setOwner( nodeId );
+    fd.setPath( "/tmp/tsaenode/filename" + seqNumber );
+    fd.setTimestamp( createTimestamp(nodeId, seqNumber) );
+
+    return OperationFactory.createOperation( nodeId, seqNumber, Operation.ADD, fd );
+  }
+
+  private Timestamp createTimestamp(String nodeId, long seqNumber) {
+    Timestamp ts = new Timestamp();
+    ts.setNodeId( nodeId );
+    ts.setSeqNumber( seqNumber );
+
+    return ts;
+  }
+
+}